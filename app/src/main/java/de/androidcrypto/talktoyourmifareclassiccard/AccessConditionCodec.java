@@ -0,0 +1,335 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+/**
+ * This class encodes and decodes the access conditions of a sector trailer (bytes 6, 7 and 8) with precomputed
+ * tables, there is no bit fiddling and no object allocation when decoding.
+ * The 12 "plain" access bits (C1, C2 and C3 for each of the 4 blocks) are stored in the high nibble of byte 7
+ * (C1) and byte 8 (C2 in the low nibble, C3 in the high nibble), so they give an index 0..4095 into the tables:
+ * index = (byte 7 >>> 4) | (byte 8 << 4). Byte 6 and the low nibble of byte 7 take the inverted bits,
+ * the access conditions are valid only if they match.
+ * <p>
+ * The decoded access conditions are packed in an int, 3 bits for each block (block 0 in the lowest bits).
+ * The 3 bits of a block are the condition c = C1 << 2 | C2 << 1 | C3 (0..7) as used in the datasheet.
+ * Note: on the large sectors of a Classic 4K tag the "block" is a group of 5 blocks (see getAccessGroup).
+ */
+
+public class AccessConditionCodec {
+
+    public static final int INVALID = -1;
+    public static final int TRAILER_BLOCK_INDEX = 3;
+
+    // the permissions for an operation
+    public static final int PERMISSION_NEVER = 0;
+    public static final int PERMISSION_KEY_A = 1;
+    public static final int PERMISSION_KEY_B = 2;
+    public static final int PERMISSION_KEY_A_OR_B = 3;
+
+    // permissions of a data block, indexed by the condition c
+    private static final int[] DATA_READ = {3, 3, 3, 2, 3, 2, 3, 0};
+    private static final int[] DATA_WRITE = {3, 0, 0, 2, 2, 0, 2, 0};
+    private static final int[] DATA_INCREMENT = {3, 0, 0, 0, 0, 0, 2, 0};
+    private static final int[] DATA_DECREMENT = {3, 3, 0, 0, 0, 0, 3, 0};
+    // permissions of the sector trailer, indexed by the condition c
+    private static final int[] TRAILER_KEY_A_WRITE = {1, 1, 0, 2, 2, 0, 0, 0};
+    private static final int[] TRAILER_ACCESS_BITS_READ = {1, 1, 1, 3, 3, 3, 3, 3};
+    private static final int[] TRAILER_ACCESS_BITS_WRITE = {0, 1, 0, 2, 0, 2, 0, 0};
+    private static final int[] TRAILER_KEY_B_READ = {1, 1, 1, 0, 0, 0, 0, 0};
+    private static final int[] TRAILER_KEY_B_WRITE = {1, 1, 0, 2, 2, 0, 0, 0};
+
+    /**
+     * The descriptions are numbered in the order of the rows in the MIFARE Classic Tool
+     * (and the string resources ac_data_block_n, ac_data_block_no_keyb_n and ac_sector_trailer_n)
+     */
+    public static final int DESCRIPTION_DATA_BLOCK = 0; // 8 descriptions
+    public static final int DESCRIPTION_DATA_BLOCK_NO_KEY_B = 8; // 4 descriptions, used if key B is readable
+    public static final int DESCRIPTION_SECTOR_TRAILER = 12; // 8 descriptions
+    public static final int NUMBER_OF_DESCRIPTIONS = 20;
+
+    // indexed by the 12 plain access bits
+    private static final short[] DECODED = new short[4096]; // packed conditions
+    private static final byte[] EXPECTED_BYTE_6 = new byte[4096];
+    private static final byte[] EXPECTED_BYTE_7_LOW = new byte[4096];
+    // indexed by the condition c
+    private static final int[] ROW_NUMBER = new int[8];
+    private static final int[] ROW_NUMBER_NO_KEY_B = new int[8]; // -1 if there is no description for the condition
+
+    static {
+        for (int index = 0; index < 4096; index++) {
+            int c1Bits = index & 0x0F;
+            int c2Bits = (index >>> 4) & 0x0F;
+            int c3Bits = (index >>> 8) & 0x0F;
+            int packed = 0;
+            for (int block = 0; block < 4; block++) {
+                int c1 = (c1Bits >>> block) & 0x01;
+                int c2 = (c2Bits >>> block) & 0x01;
+                int c3 = (c3Bits >>> block) & 0x01;
+                packed |= ((c1 << 2) | (c2 << 1) | c3) << (3 * block);
+            }
+            DECODED[index] = (short) packed;
+            EXPECTED_BYTE_6[index] = (byte) ~(c1Bits | (c2Bits << 4));
+            EXPECTED_BYTE_7_LOW[index] = (byte) (~c3Bits & 0x0F);
+        }
+        for (int condition = 0; condition < 8; condition++) {
+            int c1 = (condition >>> 2) & 0x01;
+            int c2 = (condition >>> 1) & 0x01;
+            int c3 = condition & 0x01;
+            // rows: 000, 010, 100, 110, 001, 011, 101, 111 (C1 C2 C3)
+            ROW_NUMBER[condition] = (c3 << 2) | (c1 << 1) | c2;
+            ROW_NUMBER_NO_KEY_B[condition] = -1;
+        }
+        // rows if key B is readable: 000, 010, 001, 111
+        ROW_NUMBER_NO_KEY_B[0] = 0;
+        ROW_NUMBER_NO_KEY_B[2] = 1;
+        ROW_NUMBER_NO_KEY_B[1] = 2;
+        ROW_NUMBER_NO_KEY_B[7] = 3;
+    }
+
+    /**
+     * section for decoding
+     */
+
+    /**
+     * decodes the access conditions
+     * @param buffer e.g. a sector trailer or a card image
+     * @param offset the offset of byte 6 of the sector trailer in the buffer
+     * @return the packed conditions of the 4 blocks or INVALID if the inverted bits do not match
+     */
+    public static int decode(byte[] buffer, int offset) {
+        int index = ((buffer[offset + 1] & 0xF0) >>> 4) | ((buffer[offset + 2] & 0xFF) << 4);
+        if ((buffer[offset] != EXPECTED_BYTE_6[index])
+                || ((buffer[offset + 1] & 0x0F) != EXPECTED_BYTE_7_LOW[index])) {
+            return INVALID;
+        }
+        return DECODED[index];
+    }
+
+    /**
+     * @param acBytes the access bytes 6, 7 and 8 of the sector trailer (the unused byte 9 may follow)
+     * @return the packed conditions of the 4 blocks or INVALID
+     */
+    public static int decode(byte[] acBytes) {
+        if ((acBytes == null) || (acBytes.length < 3)) {
+            return INVALID;
+        }
+        return decode(acBytes, 0);
+    }
+
+    public static boolean isValid(byte[] acBytes) {
+        return decode(acBytes) != INVALID;
+    }
+
+    /**
+     * @param packed      the result of decode
+     * @param blockIndex  0..3, 3 is the sector trailer
+     * @return the condition c = C1 << 2 | C2 << 1 | C3 of the block
+     */
+    public static int getCondition(int packed, int blockIndex) {
+        return (packed >>> (3 * blockIndex)) & 0x07;
+    }
+
+    /**
+     * @return the access group of a block, this is the block in sector for 4 block sectors,
+     * the large sectors of a Classic 4K use one group for each 5 data blocks
+     */
+    public static int getAccessGroup(int blockInSector, int blocksInSector) {
+        if (blocksInSector <= 4) {
+            return blockInSector;
+        }
+        if (blockInSector == blocksInSector - 1) {
+            return TRAILER_BLOCK_INDEX;
+        }
+        return Math.min(blockInSector / 5, 2);
+    }
+
+    /**
+     * converts the packed conditions to the matrix used by the MIFARE Classic Tool
+     * @return Matrix of access conditions bits (C1-C3) where the first dimension is the "C" parameter
+     * (C1-C3, Index 0-2) and the second dimension is the block number (Index 0-3), NULL if the packed
+     * conditions are INVALID
+     */
+    public static byte[][] toMatrix(int packed) {
+        if (packed == INVALID) {
+            return null;
+        }
+        byte[][] acMatrix = new byte[3][4];
+        for (int block = 0; block < 4; block++) {
+            int condition = getCondition(packed, block);
+            acMatrix[0][block] = (byte) ((condition >>> 2) & 0x01);
+            acMatrix[1][block] = (byte) ((condition >>> 1) & 0x01);
+            acMatrix[2][block] = (byte) (condition & 0x01);
+        }
+        return acMatrix;
+    }
+
+    /**
+     * section for encoding
+     */
+
+    /**
+     * packs the conditions c = C1 << 2 | C2 << 1 | C3 of the 4 blocks
+     * @return the packed conditions
+     */
+    public static int pack(int condition0, int condition1, int condition2, int conditionTrailer) {
+        return (condition0 & 0x07) | ((condition1 & 0x07) << 3) | ((condition2 & 0x07) << 6) | ((conditionTrailer & 0x07) << 9);
+    }
+
+    /**
+     * encodes the packed conditions to the access bytes 6, 7 and 8
+     */
+    public static byte[] encode(int packed) {
+        byte[] acBytes = new byte[3];
+        encode(packed, acBytes, 0);
+        return acBytes;
+    }
+
+    public static void encode(int packed, byte[] destination, int offset) {
+        int c1Bits = 0;
+        int c2Bits = 0;
+        int c3Bits = 0;
+        for (int block = 0; block < 4; block++) {
+            int condition = getCondition(packed, block);
+            c1Bits |= ((condition >>> 2) & 0x01) << block;
+            c2Bits |= ((condition >>> 1) & 0x01) << block;
+            c3Bits |= (condition & 0x01) << block;
+        }
+        int index = c1Bits | (c2Bits << 4) | (c3Bits << 8);
+        destination[offset] = EXPECTED_BYTE_6[index];
+        destination[offset + 1] = (byte) ((c1Bits << 4) | EXPECTED_BYTE_7_LOW[index]);
+        destination[offset + 2] = (byte) (index >>> 4);
+    }
+
+    /**
+     * converts the matrix used by the MIFARE Classic Tool to the packed conditions
+     * @return the packed conditions or INVALID if the matrix is not a 3 * 4 matrix
+     */
+    public static int fromMatrix(byte[][] acMatrix) {
+        if ((acMatrix == null) || (acMatrix.length != 3)) {
+            return INVALID;
+        }
+        for (int i = 0; i < 3; i++) {
+            if ((acMatrix[i] == null) || (acMatrix[i].length != 4)) {
+                return INVALID;
+            }
+        }
+        int packed = 0;
+        for (int block = 0; block < 4; block++) {
+            int condition = ((acMatrix[0][block] & 0x01) << 2) | ((acMatrix[1][block] & 0x01) << 1) | (acMatrix[2][block] & 0x01);
+            packed |= condition << (3 * block);
+        }
+        return packed;
+    }
+
+    /**
+     * section for permissions
+     */
+
+    /**
+     * @return true if key B can be read with key A, in this case key B can not be used for authentication
+     */
+    public static boolean isKeyBReadable(int trailerCondition) {
+        return TRAILER_KEY_B_READ[trailerCondition] != PERMISSION_NEVER;
+    }
+
+    /**
+     * @param packed      the packed conditions of the sector, not INVALID
+     * @param accessGroup 0..2 for the data blocks, TRAILER_BLOCK_INDEX for the sector trailer (the access bits)
+     * @return the keys that can read the block, key B is removed if it is readable as it can't be used for any access
+     */
+    public static int getEffectiveReadPermission(int packed, int accessGroup) {
+        int trailerCondition = getCondition(packed, TRAILER_BLOCK_INDEX);
+        int permission;
+        if (accessGroup == TRAILER_BLOCK_INDEX) {
+            permission = TRAILER_ACCESS_BITS_READ[trailerCondition];
+        } else {
+            permission = DATA_READ[getCondition(packed, accessGroup)];
+        }
+        if (TRAILER_KEY_B_READ[trailerCondition] != PERMISSION_NEVER) {
+            permission &= ~PERMISSION_KEY_B;
+        }
+        return permission;
+    }
+
+    public static int getDataReadPermission(int condition) {
+        return DATA_READ[condition];
+    }
+
+    public static int getDataWritePermission(int condition) {
+        return DATA_WRITE[condition];
+    }
+
+    public static int getDataIncrementPermission(int condition) {
+        return DATA_INCREMENT[condition];
+    }
+
+    public static int getDataDecrementPermission(int condition) {
+        return DATA_DECREMENT[condition];
+    }
+
+    public static int getKeyAWritePermission(int trailerCondition) {
+        return TRAILER_KEY_A_WRITE[trailerCondition];
+    }
+
+    public static int getAccessBitsReadPermission(int trailerCondition) {
+        return TRAILER_ACCESS_BITS_READ[trailerCondition];
+    }
+
+    public static int getAccessBitsWritePermission(int trailerCondition) {
+        return TRAILER_ACCESS_BITS_WRITE[trailerCondition];
+    }
+
+    public static int getKeyBReadPermission(int trailerCondition) {
+        return TRAILER_KEY_B_READ[trailerCondition];
+    }
+
+    public static int getKeyBWritePermission(int trailerCondition) {
+        return TRAILER_KEY_B_WRITE[trailerCondition];
+    }
+
+    /**
+     * section for descriptions
+     */
+
+    /**
+     * @param condition the condition c = C1 << 2 | C2 << 1 | C3
+     * @return the row number of the condition in the MIFARE Classic Tool
+     */
+    public static int getRowNumber(int condition) {
+        return ROW_NUMBER[condition];
+    }
+
+    /**
+     * returns the index of the description for a block, see DESCRIPTION_DATA_BLOCK, DESCRIPTION_DATA_BLOCK_NO_KEY_B
+     * and DESCRIPTION_SECTOR_TRAILER
+     * @param packed     the result of decode
+     * @param blockIndex 0..3, 3 is the sector trailer
+     * @return the description index or INVALID
+     */
+    public static int getDescriptionIndex(int packed, int blockIndex) {
+        if ((packed == INVALID) || (blockIndex < 0) || (blockIndex > TRAILER_BLOCK_INDEX)) {
+            return INVALID;
+        }
+        int condition = getCondition(packed, blockIndex);
+        if (blockIndex == TRAILER_BLOCK_INDEX) {
+            return DESCRIPTION_SECTOR_TRAILER + ROW_NUMBER[condition];
+        }
+        if (isKeyBReadable(getCondition(packed, TRAILER_BLOCK_INDEX)) && (ROW_NUMBER_NO_KEY_B[condition] >= 0)) {
+            return DESCRIPTION_DATA_BLOCK_NO_KEY_B + ROW_NUMBER_NO_KEY_B[condition];
+        }
+        return DESCRIPTION_DATA_BLOCK + ROW_NUMBER[condition];
+    }
+
+    /**
+     * @return the name of the string resource of the description, e.g. ac_sector_trailer_1
+     */
+    public static String getDescriptionName(int descriptionIndex) {
+        if ((descriptionIndex < 0) || (descriptionIndex >= NUMBER_OF_DESCRIPTIONS)) {
+            return "";
+        }
+        if (descriptionIndex >= DESCRIPTION_SECTOR_TRAILER) {
+            return "ac_sector_trailer_" + (descriptionIndex - DESCRIPTION_SECTOR_TRAILER);
+        } else if (descriptionIndex >= DESCRIPTION_DATA_BLOCK_NO_KEY_B) {
+            return "ac_data_block_no_keyb_" + (descriptionIndex - DESCRIPTION_DATA_BLOCK_NO_KEY_B);
+        }
+        return "ac_data_block_" + descriptionIndex;
+    }
+}
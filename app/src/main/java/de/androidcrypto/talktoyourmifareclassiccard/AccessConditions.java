@@ -16,6 +16,19 @@ public class AccessConditions {
 
     public static Context context; // don't forget to manually set the  context !!
 
+    // the string resources of the descriptions, indexed by the description index of AccessConditionCodec
+    private static final int[] DESCRIPTION_RESOURCE_IDS = {
+            R.string.ac_data_block_0, R.string.ac_data_block_1, R.string.ac_data_block_2, R.string.ac_data_block_3,
+            R.string.ac_data_block_4, R.string.ac_data_block_5, R.string.ac_data_block_6, R.string.ac_data_block_7,
+            R.string.ac_data_block_no_keyb_0, R.string.ac_data_block_no_keyb_1, R.string.ac_data_block_no_keyb_2,
+            R.string.ac_data_block_no_keyb_3,
+            R.string.ac_sector_trailer_0, R.string.ac_sector_trailer_1, R.string.ac_sector_trailer_2,
+            R.string.ac_sector_trailer_3, R.string.ac_sector_trailer_4, R.string.ac_sector_trailer_5,
+            R.string.ac_sector_trailer_6, R.string.ac_sector_trailer_7
+    };
+    private static Context descriptionsContext; // the context the descriptions were loaded with
+    private static String[] descriptions;
+
     /**
      * Convert the Access Condition bytes to a matrix containing the
      * resolved C1, C2 and C3 for each block.
@@ -27,33 +40,7 @@ public class AccessConditions {
      */
 
     private static byte[][] ACBytesToACMatrix(byte[] acBytes) {
-        // ACs correct?
-        // C1 (Byte 7, 4-7) == ~C1 (Byte 6, 0-3) and
-        // C2 (Byte 8, 0-3) == ~C2 (Byte 6, 4-7) and
-        // C3 (Byte 8, 4-7) == ~C3 (Byte 7, 0-3)
-        byte[][] acMatrix = new byte[3][4];
-        if (acBytes.length > 2 &&
-                (byte)((acBytes[1]>>>4)&0x0F)  ==
-                        (byte)((acBytes[0]^0xFF)&0x0F) &&
-                (byte)(acBytes[2]&0x0F) ==
-                        (byte)(((acBytes[0]^0xFF)>>>4)&0x0F) &&
-                (byte)((acBytes[2]>>>4)&0x0F)  ==
-                        (byte)((acBytes[1]^0xFF)&0x0F)) {
-            // C1, Block 0-3
-            for (int i = 0; i < 4; i++) {
-                acMatrix[0][i] = (byte)((acBytes[1]>>>4+i)&0x01);
-            }
-            // C2, Block 0-3
-            for (int i = 0; i < 4; i++) {
-                acMatrix[1][i] = (byte)((acBytes[2]>>>i)&0x01);
-            }
-            // C3, Block 0-3
-            for (int i = 0; i < 4; i++) {
-                acMatrix[2][i] = (byte)((acBytes[2]>>>4+i)&0x01);
-            }
-            return acMatrix;
-        }
-        return null;
+        return AccessConditionCodec.toMatrix(AccessConditionCodec.decode(acBytes));
     }
 
     public static byte[][] GetAccessBitsArray(byte[] accessBytes) {
@@ -67,14 +54,46 @@ public class AccessConditions {
         if(sectorAccessBits == null || blockIndex < 0 || blockIndex >= sectorAccessBits[0].length) {
             return "";
         }
-        int accessBitsNumber = (sectorAccessBits[0][blockIndex] << 2) | (sectorAccessBits[1][blockIndex] << 1) | sectorAccessBits[0][blockIndex];
-        String resAccessCondsPrefix = isSectorTrailer ? "ac_sector_trailer_" : "ac_data_block_";
-        String accessCondsResIdStr = resAccessCondsPrefix + accessBitsNumber;
-        try {
-            int accessCondsResId = R.string.class.getField(accessCondsResIdStr).getInt(null);
-            return context.getResources().getString(accessCondsResId);
-        } catch(Exception nsfe) {
+        int packed = AccessConditionCodec.fromMatrix(sectorAccessBits);
+        if (packed == AccessConditionCodec.INVALID) {
+            return "";
+        }
+        if (isSectorTrailer) {
+            // the description of a sector trailer for the bits of this block
+            int condition = AccessConditionCodec.getCondition(packed, blockIndex);
+            return getDescription(AccessConditionCodec.DESCRIPTION_SECTOR_TRAILER + AccessConditionCodec.getRowNumber(condition));
+        }
+        return getDescription(AccessConditionCodec.getDescriptionIndex(packed, blockIndex));
+    }
+
+    /**
+     * returns the description of the access conditions for a block
+     * @param packed     the access conditions decoded by AccessConditionCodec.decode
+     * @param blockIndex 0..3, 3 is the sector trailer
+     * @return the description or an empty string if the access conditions are invalid
+     */
+    public static String GetAccessConditionsDescription(int packed, int blockIndex) {
+        return getDescription(AccessConditionCodec.getDescriptionIndex(packed, blockIndex));
+    }
+
+    // the strings are loaded once from the resources
+    private static String getDescription(int descriptionIndex) {
+        if ((descriptionIndex < 0) || (descriptionIndex >= DESCRIPTION_RESOURCE_IDS.length)) {
+            return "";
+        }
+        Context currentContext = context;
+        if (currentContext == null) {
             return "";
         }
+        String[] currentDescriptions = descriptions;
+        if ((currentDescriptions == null) || (descriptionsContext != currentContext)) {
+            currentDescriptions = new String[DESCRIPTION_RESOURCE_IDS.length];
+            for (int i = 0; i < DESCRIPTION_RESOURCE_IDS.length; i++) {
+                currentDescriptions[i] = currentContext.getResources().getString(DESCRIPTION_RESOURCE_IDS[i]);
+            }
+            descriptions = currentDescriptions;
+            descriptionsContext = currentContext;
+        }
+        return currentDescriptions[descriptionIndex];
     }
 }
@@ -10,8 +10,8 @@ import android.app.Activity;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.ColorStateList;
 import android.graphics.Color;
+import android.graphics.drawable.GradientDrawable;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
 import android.nfc.tech.IsoDep;
@@ -28,11 +28,12 @@ import android.view.Window;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.CheckBox;
+import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.RadioButton;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.google.android.material.textfield.TextInputLayout;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -45,8 +46,11 @@ public class AccessConditionsEncoderActivity extends AppCompatActivity implement
      * UI elements
      */
 
-    private com.google.android.material.textfield.TextInputEditText output, encodedAccessConditions, applicationIdentifier, numberOfKeys, carAppKey;
-    private com.google.android.material.textfield.TextInputLayout outputLayout;
+    private com.google.android.material.textfield.TextInputEditText encodedAccessConditions, applicationIdentifier, numberOfKeys, carAppKey;
+    private ListView output;
+    private LinearLayout outputLayout;
+    private LogListAdapter outputAdapter;
+    private static final int OUTPUT_MAXIMUM_NUMBER_OF_MESSAGES = 1000;
     private CheckBox masterKeyIsChangable, masterKeyAuthenticationNeededDirListing, masterKeyAuthenticationNeededCreateDelete, masterKeySettingsChangeAllowed;
     private Button moreInformation, encodeAccessConditions;
 
@@ -91,8 +95,11 @@ public class AccessConditionsEncoderActivity extends AppCompatActivity implement
         Toolbar myToolbar = (Toolbar) findViewById(R.id.main_toolbar);
         setSupportActionBar(myToolbar);
 
-        output = findViewById(R.id.etCreateApplicationOutput);
-        outputLayout = findViewById(R.id.etCreateApplicationOutputLayout);
+        output = findViewById(R.id.lvCreateApplicationOutput);
+        outputLayout = findViewById(R.id.llCreateApplicationOutputLayout);
+        outputAdapter = new LogListAdapter(this, output, new LogRingBuffer(OUTPUT_MAXIMUM_NUMBER_OF_MESSAGES));
+        setOutputBorderColor(getResources().getColor(R.color.colorPrimary));
+        writeToUiAppend("no NFC tag detected");
         moreInformation = findViewById(R.id.btnCreateApplicationMoreInformation);
 
         // radio button for trailer sector
@@ -201,7 +208,7 @@ public class AccessConditionsEncoderActivity extends AppCompatActivity implement
     private void runCreateApplication() {
         clearOutputFields();
         String logString = "runCreateApplication";
-        writeToUiAppend(output, logString);
+        writeToUiAppend(logString);
 
         // sanity checks
         String appId = applicationIdentifier.getText().toString();
@@ -209,22 +216,22 @@ public class AccessConditionsEncoderActivity extends AppCompatActivity implement
         }
         byte[] appIdBytes = Utils.hexStringToByteArray(appId);
         if (applicationIdentifier == null) {
-            writeToUiAppendBorderColor(output, outputLayout, "please enter a 6 hex characters long application identifier", COLOR_RED);
+            writeToUiAppendBorderColor("please enter a 6 hex characters long application identifier", COLOR_RED);
             return;
         }
         //Utils.reverseByteArrayInPlace(applicationIdentifier); // change to LSB = change the order
         if (appIdBytes.length != 3) {
-            writeToUiAppendBorderColor(output, outputLayout, "you did not enter a 6 hex string application ID", COLOR_RED);
+            writeToUiAppendBorderColor("you did not enter a 6 hex string application ID", COLOR_RED);
             return;
         }
         String numKeys = numberOfKeys.getText().toString();
         if (TextUtils.isEmpty(numKeys)) {
-            writeToUiAppendBorderColor(output, outputLayout, "please enter the number of keys in range 1..14", COLOR_RED);
+            writeToUiAppendBorderColor("please enter the number of keys in range 1..14", COLOR_RED);
             return;
         }
         int numberOfApplicationKeys = Integer.parseInt(numKeys);
         if ((numberOfApplicationKeys < 1) || (numberOfApplicationKeys > 14)) {
-            writeToUiAppendBorderColor(output, outputLayout, "please enter the number of keys in range 1..14", COLOR_RED);
+            writeToUiAppendBorderColor("please enter the number of keys in range 1..14", COLOR_RED);
             return;
         }
         // no sanity check on this as it is fixed
@@ -276,9 +283,9 @@ public class AccessConditionsEncoderActivity extends AppCompatActivity implement
         boolean success;
         byte[] errorCode;
         String errorCodeReason = "";
-        writeToUiAppend(output, "");
+        writeToUiAppend("");
         String stepString = "1 select the Master Application";
-        writeToUiAppend(output, stepString);
+        writeToUiAppend(stepString);
         success = true;
         errorCode = null;
         if (success) {
@@ -288,7 +295,7 @@ public class AccessConditionsEncoderActivity extends AppCompatActivity implement
         }
 
         stepString = "2 create the new application";
-        writeToUiAppend(output, stepString);
+        writeToUiAppend(stepString);
 
         vibrateShort();
     }
@@ -322,10 +329,7 @@ public class AccessConditionsEncoderActivity extends AppCompatActivity implement
                 // Make a Vibration
                 vibrateShort();
 
-                runOnUiThread(() -> {
-                    output.setText("");
-                    output.setBackgroundColor(getResources().getColor(R.color.white));
-                });
+                outputAdapter.clear();
                 isoDep.connect();
                 if (!isoDep.isConnected()) {
                     writeToUiAppendBorderColor("could not connect to the tag, aborted", COLOR_RED);
@@ -390,20 +394,7 @@ public class AccessConditionsEncoderActivity extends AppCompatActivity implement
      */
 
     private void writeToUiAppend(String message) {
-        writeToUiAppend(output, message);
-    }
-
-    private void writeToUiAppend(TextView textView, String message) {
-        runOnUiThread(() -> {
-            String oldString = textView.getText().toString();
-            if (TextUtils.isEmpty(oldString)) {
-                textView.setText(message);
-            } else {
-                String newString = message + "\n" + oldString;
-                textView.setText(newString);
-                System.out.println(message);
-            }
-        });
+        outputAdapter.append(message);
     }
 
     private void writeToUi(TextView textView, String message) {
@@ -412,44 +403,24 @@ public class AccessConditionsEncoderActivity extends AppCompatActivity implement
         });
     }
 
+    /**
+     * sets the border color of the output and appends the message, an empty message changes the border color only
+     */
     private void writeToUiAppendBorderColor(String message, int color) {
-        writeToUiAppendBorderColor(output, outputLayout, message, color);
-    }
-
-    private void writeToUiAppendBorderColor(TextView textView, TextInputLayout textInputLayout, String message, int color) {
         runOnUiThread(() -> {
-
-            // set the color to green
-            //Color from rgb
-            // int color = Color.rgb(255,0,0); // red
-            //int color = Color.rgb(0,255,0); // green
-            //Color from hex string
-            //int color2 = Color.parseColor("#FF11AA"); light blue
-            int[][] states = new int[][]{
-                    new int[]{android.R.attr.state_focused}, // focused
-                    new int[]{android.R.attr.state_hovered}, // hovered
-                    new int[]{android.R.attr.state_enabled}, // enabled
-                    new int[]{}  //
-            };
-            int[] colors = new int[]{
-                    color,
-                    color,
-                    color,
-                    //color2
-                    color
-            };
-            ColorStateList myColorList = new ColorStateList(states, colors);
-            textInputLayout.setBoxStrokeColorStateList(myColorList);
-
-            String oldString = textView.getText().toString();
-            if (TextUtils.isEmpty(oldString)) {
-                textView.setText(message);
-            } else {
-                String newString = message + "\n" + oldString;
-                textView.setText(newString);
-                System.out.println(message);
-            }
+            setOutputBorderColor(color);
         });
+        if (!TextUtils.isEmpty(message)) {
+            outputAdapter.append(message);
+        }
+    }
+
+    // needs to run on the UI thread
+    private void setOutputBorderColor(int color) {
+        GradientDrawable border = new GradientDrawable();
+        border.setCornerRadius(5 * getResources().getDisplayMetrics().density);
+        border.setStroke(Math.round(getResources().getDisplayMetrics().density), color);
+        outputLayout.setBackground(border);
     }
 
     public void showDialog(Activity activity, String msg) {
@@ -479,25 +450,11 @@ public class AccessConditionsEncoderActivity extends AppCompatActivity implement
     }
 
     private void clearOutputFields() {
+        outputAdapter.clear();
+        // reset the border color to primary for errorCode
         runOnUiThread(() -> {
-            output.setText("");
+            setOutputBorderColor(getResources().getColor(R.color.colorPrimary));
         });
-        // reset the border color to primary for errorCode
-        int color = R.color.colorPrimary;
-        int[][] states = new int[][]{
-                new int[]{android.R.attr.state_focused}, // focused
-                new int[]{android.R.attr.state_hovered}, // hovered
-                new int[]{android.R.attr.state_enabled}, // enabled
-                new int[]{}  //
-        };
-        int[] colors = new int[]{
-                color,
-                color,
-                color,
-                color
-        };
-        ColorStateList myColorList = new ColorStateList(states, colors);
-        outputLayout.setBoxStrokeColorStateList(myColorList);
     }
 
     private void vibrateShort() {
@@ -0,0 +1,107 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import android.nfc.tech.MifareClassic;
+
+import java.io.IOException;
+
+/**
+ * The transport for a real Mifare Classic tag, all commands are forwarded to android.nfc.tech.MifareClassic
+ */
+
+public class AndroidMifareClassicTransport implements MifareClassicTransport {
+
+    private final MifareClassic mfc;
+
+    public AndroidMifareClassicTransport(MifareClassic mfc) {
+        this.mfc = mfc;
+    }
+
+    public MifareClassic getMfc() {
+        return mfc;
+    }
+
+    @Override
+    public int getType() {
+        return mfc.getType();
+    }
+
+    @Override
+    public int getSize() {
+        return mfc.getSize();
+    }
+
+    @Override
+    public int getSectorCount() {
+        return mfc.getSectorCount();
+    }
+
+    @Override
+    public int getBlockCount() {
+        return mfc.getBlockCount();
+    }
+
+    @Override
+    public int getBlockCountInSector(int sectorIndex) {
+        return mfc.getBlockCountInSector(sectorIndex);
+    }
+
+    @Override
+    public int sectorToBlock(int sectorIndex) {
+        return mfc.sectorToBlock(sectorIndex);
+    }
+
+    @Override
+    public int blockToSector(int blockIndex) {
+        return mfc.blockToSector(blockIndex);
+    }
+
+    @Override
+    public byte[] getUid() {
+        return mfc.getTag().getId();
+    }
+
+    @Override
+    public String[] getTechList() {
+        return mfc.getTag().getTechList();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mfc.isConnected();
+    }
+
+    @Override
+    public void setTimeout(int timeoutMillis) {
+        mfc.setTimeout(timeoutMillis);
+    }
+
+    @Override
+    public int getTimeout() {
+        return mfc.getTimeout();
+    }
+
+    @Override
+    public boolean authenticateSectorWithKeyA(int sectorIndex, byte[] key) throws IOException {
+        return mfc.authenticateSectorWithKeyA(sectorIndex, key);
+    }
+
+    @Override
+    public boolean authenticateSectorWithKeyB(int sectorIndex, byte[] key) throws IOException {
+        return mfc.authenticateSectorWithKeyB(sectorIndex, key);
+    }
+
+    @Override
+    public byte[] readBlock(int blockIndex) throws IOException {
+        return mfc.readBlock(blockIndex);
+    }
+
+    @Override
+    public void writeBlock(int blockIndex, byte[] data) throws IOException {
+        mfc.writeBlock(blockIndex, data);
+    }
+
+    @Override
+    public byte[] transceive(byte[] data) throws IOException {
+        return mfc.transceive(data);
+    }
+}
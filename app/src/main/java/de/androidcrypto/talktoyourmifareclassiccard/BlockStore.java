@@ -0,0 +1,389 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * This class keeps each different block of 16 bytes once, a block is referenced by its block id (the position in
+ * the store). Most blocks of the tags are the same on many tags (empty data blocks, default sector trailers, the
+ * MAD sectors), so a tag is stored as the block ids of its blocks (see DumpArchive).
+ * The blocks are appended to a file and are read from it with positional reads, only the new blocks that are not
+ * flushed yet are held in memory. The index from the content to the block id is a hash table with open addressing
+ * in a second file (the name of the block file with INDEX_EXTENSION), it is memory mapped in segments and persists
+ * between the openings, so opening the store does not depend on the number of blocks. The blocks that were written
+ * after the last update of the index (e.g. the app was killed) are added on opening, a missing or invalid index is
+ * rebuilt from the block file. The index only saves space: a lost entry costs a second copy of the block.
+ * New blocks are written to the file by flush(), this has to be done before a reference to them is written.
+ * All methods are thread safe, the written blocks are read without locking.
+ *
+ * index layout (numbers are big endian):
+ * 0 magic (4 bytes) | 4 unused (4) | 8 number of indexed blocks (8) | 16 number of slots (8) |
+ * 24 number of entries (8) | 32 slots: hash of the block (8) | block id + 1, 0 = free slot (8)
+ */
+
+public class BlockStore implements Closeable {
+    private static final String TAG = BlockStore.class.getName();
+
+    public static final int BLOCK_LENGTH = 16;
+    public static final String INDEX_EXTENSION = ".idx";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    private static final int MAXIMUM_NUMBER_OF_BLOCKS = Integer.MAX_VALUE;
+    private static final int INDEX_MAGIC = 0x42534931; // "BSI1"
+    private static final int OFFSET_INDEXED_BLOCKS = 8;
+    private static final int OFFSET_NUMBER_OF_SLOTS = 16;
+    private static final int OFFSET_NUMBER_OF_ENTRIES = 24;
+    private static final int INDEX_HEADER_LENGTH = 32;
+    private static final int SLOT_LENGTH = 16;
+    private static final long MINIMUM_NUMBER_OF_SLOTS = 4096;
+    private static final int SEGMENT_SHIFT = 26; // 64 MiB, a multiple of SLOT_LENGTH so no slot spans two segments
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final int REBUILD_BLOCKS_PER_READ = 4096;
+
+    private final File file;
+    private final File indexFile;
+    private final FileChannel channel;
+    private volatile int numberOfWrittenBlocks = 0; // the blocks in the file, they are never changed
+    // the new blocks until the next flush
+    private byte[] pendingBlocks = new byte[256 * BLOCK_LENGTH];
+    private long[] pendingHashes = new long[256];
+    private int numberOfPendingBlocks = 0;
+    private final LongLongHashMap pendingIndex = new LongLongHashMap(256); // hash (+ n on collisions) to pending block
+    private final byte[] compareBlock = new byte[BLOCK_LENGTH];
+    // the memory mapped index
+    private MappedByteBuffer[] indexSegments;
+    private long numberOfSlots;
+    private long numberOfEntries;
+    private boolean closed = false;
+
+    /**
+     * opens the store in the file, the file is created if necessary. An incomplete block at the end of the
+     * file is removed.
+     */
+    public BlockStore(File file) throws IOException {
+        this.file = file;
+        this.indexFile = new File(file.getPath() + INDEX_EXTENSION);
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            long size = channel.size();
+            long completeSize = size - (size % BLOCK_LENGTH);
+            if (completeSize != size) {
+                Log.e(TAG, "removing an incomplete block at the end of " + file);
+                channel.truncate(completeSize);
+            }
+            if (completeSize / BLOCK_LENGTH > MAXIMUM_NUMBER_OF_BLOCKS) {
+                throw new IOException("the block store " + file + " is too large");
+            }
+            numberOfWrittenBlocks = (int) (completeSize / BLOCK_LENGTH);
+            openIndex();
+        } catch (IOException e) {
+            closed = true;
+            channel.close();
+            throw e;
+        }
+        Log.d(TAG, "opened the block store " + file + " with " + numberOfWrittenBlocks + " blocks");
+    }
+
+    /**
+     * @param data   the block is data[offset..offset + 15]
+     * @return the block id of an equal block in the store, the block is added if there is none
+     * @throws IOException if the store is full or the block file can't be read
+     */
+    public synchronized int put(byte[] data, int offset) throws IOException {
+        checkOpen();
+        long hash = hash(data, offset);
+        // the new blocks first
+        long pendingKey = hash;
+        while (true) {
+            long pendingBlock = pendingIndex.get(pendingKey, -1);
+            if (pendingBlock < 0) break;
+            if (isEqual(data, offset, pendingBlocks, (int) pendingBlock * BLOCK_LENGTH)) {
+                return numberOfWrittenBlocks + (int) pendingBlock;
+            }
+            pendingKey++; // a different block with the same hash
+        }
+        long blockId = findBlock(hash, data, offset);
+        if (blockId >= 0) return (int) blockId;
+        if (numberOfWrittenBlocks + numberOfPendingBlocks >= MAXIMUM_NUMBER_OF_BLOCKS) {
+            throw new IOException("the block store " + file + " is full");
+        }
+        if (numberOfPendingBlocks == pendingHashes.length) {
+            pendingHashes = Arrays.copyOf(pendingHashes, pendingHashes.length * 2);
+            pendingBlocks = Arrays.copyOf(pendingBlocks, pendingBlocks.length * 2);
+        }
+        int pendingBlock = numberOfPendingBlocks++;
+        System.arraycopy(data, offset, pendingBlocks, pendingBlock * BLOCK_LENGTH, BLOCK_LENGTH);
+        pendingHashes[pendingBlock] = hash;
+        pendingIndex.put(pendingKey, pendingBlock);
+        return numberOfWrittenBlocks + pendingBlock;
+    }
+
+    /**
+     * copies the block to target[targetOffset..targetOffset + 15], a written block is read without locking
+     * @throws IOException if there is no block with the block id
+     */
+    public void get(int blockId, byte[] target, int targetOffset) throws IOException {
+        if ((blockId >= 0) && (blockId < numberOfWrittenBlocks)) {
+            readBlocks(blockId, target, targetOffset, 1);
+            return;
+        }
+        synchronized (this) {
+            checkOpen();
+            int pendingBlock = blockId - numberOfWrittenBlocks;
+            if ((blockId < 0) || (pendingBlock >= numberOfPendingBlocks)) {
+                throw new IOException("unknown block id " + blockId);
+            }
+            if (pendingBlock < 0) {
+                // written by a flush since the check
+                readBlocks(blockId, target, targetOffset, 1);
+                return;
+            }
+            System.arraycopy(pendingBlocks, pendingBlock * BLOCK_LENGTH, target, targetOffset, BLOCK_LENGTH);
+        }
+    }
+
+    /**
+     * writes the new blocks to the file with one write and adds them to the index
+     */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        if (numberOfPendingBlocks == 0) return;
+        ByteBuffer buffer = ByteBuffer.wrap(pendingBlocks, 0, numberOfPendingBlocks * BLOCK_LENGTH);
+        long position = (long) numberOfWrittenBlocks * BLOCK_LENGTH;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        int firstBlockId = numberOfWrittenBlocks;
+        numberOfWrittenBlocks += numberOfPendingBlocks;
+        for (int pendingBlock = 0; pendingBlock < numberOfPendingBlocks; pendingBlock++) {
+            addToIndex(pendingHashes[pendingBlock], firstBlockId + pendingBlock);
+        }
+        setIndexedBlocks(numberOfWrittenBlocks);
+        numberOfPendingBlocks = 0;
+        pendingIndex.clear();
+    }
+
+    /**
+     * writes the new blocks and forces the blocks and the index to the storage device
+     */
+    public synchronized void sync() throws IOException {
+        flush();
+        channel.force(false);
+        for (MappedByteBuffer segment : indexSegments) segment.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        try {
+            flush();
+        } finally {
+            closed = true;
+            channel.close();
+            indexSegments = null;
+        }
+    }
+
+    public synchronized int getNumberOfBlocks() {
+        return numberOfWrittenBlocks + numberOfPendingBlocks;
+    }
+
+    /**
+     * @return the size of the blocks in bytes
+     */
+    public synchronized long getSize() {
+        return (long) getNumberOfBlocks() * BLOCK_LENGTH;
+    }
+
+    /**
+     * section for the block file
+     */
+
+    // reads written blocks, the positional reads of FileChannel can run in parallel
+    private void readBlocks(long firstBlockId, byte[] target, int targetOffset, int numberOfBlocks) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(target, targetOffset, numberOfBlocks * BLOCK_LENGTH);
+        long position = firstBlockId * BLOCK_LENGTH - targetOffset;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of the block store " + file);
+            }
+        }
+    }
+
+    private boolean isEqualToWrittenBlock(byte[] data, int offset, long blockId) throws IOException {
+        readBlocks(blockId, compareBlock, 0, 1);
+        return isEqual(data, offset, compareBlock, 0);
+    }
+
+    private static boolean isEqual(byte[] data, int offset, byte[] block, int blockOffset) {
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            if (data[offset + i] != block[blockOffset + i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * section for the index
+     */
+
+    private void openIndex() throws IOException {
+        File temporaryFile = new File(indexFile.getPath() + TEMPORARY_EXTENSION);
+        if (temporaryFile.exists() && (!temporaryFile.delete())) {
+            Log.e(TAG, "could not delete the incomplete index " + temporaryFile);
+        }
+        long indexedBlocks = -1;
+        if (indexFile.length() >= INDEX_HEADER_LENGTH + MINIMUM_NUMBER_OF_SLOTS * SLOT_LENGTH) {
+            MappedByteBuffer[] segments = mapIndex(indexFile);
+            long slots = segments[0].getLong(OFFSET_NUMBER_OF_SLOTS);
+            if ((segments[0].getInt(0) == INDEX_MAGIC) && (Long.bitCount(slots) == 1)
+                    && (indexFile.length() == INDEX_HEADER_LENGTH + slots * SLOT_LENGTH)) {
+                indexSegments = segments;
+                numberOfSlots = slots;
+                numberOfEntries = segments[0].getLong(OFFSET_NUMBER_OF_ENTRIES);
+                indexedBlocks = segments[0].getLong(OFFSET_INDEXED_BLOCKS);
+            }
+        }
+        if ((indexedBlocks < 0) || (indexedBlocks > numberOfWrittenBlocks)) {
+            if (indexFile.exists()) Log.e(TAG, "rebuilding the invalid index " + indexFile);
+            long slots = MINIMUM_NUMBER_OF_SLOTS;
+            while (slots < 2L * numberOfWrittenBlocks) slots <<= 1;
+            createIndex(indexFile, slots);
+            indexedBlocks = 0;
+        }
+        // the blocks written after the last update of the index
+        byte[] blocks = new byte[REBUILD_BLOCKS_PER_READ * BLOCK_LENGTH];
+        for (long blockId = indexedBlocks; blockId < numberOfWrittenBlocks; blockId += REBUILD_BLOCKS_PER_READ) {
+            int numberOfBlocks = (int) Math.min(REBUILD_BLOCKS_PER_READ, numberOfWrittenBlocks - blockId);
+            readBlocks(blockId, blocks, 0, numberOfBlocks);
+            for (int i = 0; i < numberOfBlocks; i++) {
+                addToIndex(hash(blocks, i * BLOCK_LENGTH), blockId + i);
+            }
+        }
+        setIndexedBlocks(numberOfWrittenBlocks);
+    }
+
+    // returns the block id of an equal written block or -1
+    private long findBlock(long hash, byte[] data, int offset) throws IOException {
+        long mask = numberOfSlots - 1;
+        for (long slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long address = getSlotAddress(slot);
+            long entry = getLong(indexSegments, address + 8);
+            if (entry == 0) return -1;
+            long blockId = entry - 1;
+            if ((getLong(indexSegments, address) == hash) && (blockId < numberOfWrittenBlocks)
+                    && isEqualToWrittenBlock(data, offset, blockId)) {
+                return blockId;
+            }
+        }
+    }
+
+    private void addToIndex(long hash, long blockId) throws IOException {
+        if ((numberOfEntries + 1) * 2 > numberOfSlots) {
+            growIndex();
+        }
+        insert(indexSegments, numberOfSlots, hash, blockId);
+        numberOfEntries++;
+        indexSegments[0].putLong(OFFSET_NUMBER_OF_ENTRIES, numberOfEntries);
+    }
+
+    private static void insert(MappedByteBuffer[] segments, long slots, long hash, long blockId) {
+        long mask = slots - 1;
+        long slot = hash & mask;
+        while (getLong(segments, getSlotAddress(slot) + 8) != 0) slot = (slot + 1) & mask;
+        long address = getSlotAddress(slot);
+        putLong(segments, address, hash);
+        putLong(segments, address + 8, blockId + 1);
+    }
+
+    // the entries are copied to an index with twice the slots, the new index replaces the old one when it is complete
+    private void growIndex() throws IOException {
+        MappedByteBuffer[] oldSegments = indexSegments;
+        long oldSlots = numberOfSlots;
+        long indexedBlocks = oldSegments[0].getLong(OFFSET_INDEXED_BLOCKS);
+        File temporaryFile = new File(indexFile.getPath() + TEMPORARY_EXTENSION);
+        createIndex(temporaryFile, oldSlots * 2);
+        for (long slot = 0; slot < oldSlots; slot++) {
+            long address = getSlotAddress(slot);
+            long entry = getLong(oldSegments, address + 8);
+            if (entry == 0) continue;
+            insert(indexSegments, numberOfSlots, getLong(oldSegments, address), entry - 1);
+            numberOfEntries++;
+        }
+        indexSegments[0].putLong(OFFSET_NUMBER_OF_ENTRIES, numberOfEntries);
+        indexSegments[0].putLong(OFFSET_INDEXED_BLOCKS, indexedBlocks);
+        for (MappedByteBuffer segment : indexSegments) segment.force();
+        if (!temporaryFile.renameTo(indexFile)) {
+            throw new IOException("could not replace the index " + indexFile);
+        }
+        Log.d(TAG, "the index of the block store has " + numberOfSlots + " slots");
+    }
+
+    // creates an empty index file and maps it
+    private void createIndex(File file, long slots) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(INDEX_HEADER_LENGTH + slots * SLOT_LENGTH);
+        }
+        indexSegments = mapIndex(file);
+        numberOfSlots = slots;
+        numberOfEntries = 0;
+        indexSegments[0].putInt(0, INDEX_MAGIC);
+        indexSegments[0].putLong(OFFSET_INDEXED_BLOCKS, 0);
+        indexSegments[0].putLong(OFFSET_NUMBER_OF_SLOTS, slots);
+        indexSegments[0].putLong(OFFSET_NUMBER_OF_ENTRIES, 0);
+    }
+
+    // the mappings stay valid after the channel is closed
+    private static MappedByteBuffer[] mapIndex(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+             FileChannel indexChannel = randomAccessFile.getChannel()) {
+            long size = indexChannel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+            for (int segment = 0; segment < segments.length; segment++) {
+                long position = (long) segment << SEGMENT_SHIFT;
+                segments[segment] = indexChannel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(SEGMENT_SIZE, size - position));
+            }
+            return segments;
+        }
+    }
+
+    private void setIndexedBlocks(long indexedBlocks) {
+        indexSegments[0].putLong(OFFSET_INDEXED_BLOCKS, indexedBlocks);
+    }
+
+    private static long getSlotAddress(long slot) {
+        return INDEX_HEADER_LENGTH + slot * SLOT_LENGTH;
+    }
+
+    private static long getLong(MappedByteBuffer[] segments, long address) {
+        return segments[(int) (address >>> SEGMENT_SHIFT)].getLong((int) (address & (SEGMENT_SIZE - 1)));
+    }
+
+    private static void putLong(MappedByteBuffer[] segments, long address, long value) {
+        segments[(int) (address >>> SEGMENT_SHIFT)].putLong((int) (address & (SEGMENT_SIZE - 1)), value);
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) throw new IOException("the block store " + file + " is closed");
+    }
+
+    private static long hash(byte[] data, int offset) {
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (data[offset + i] & 0xFF);
+            low = (low << 8) | (data[offset + 8 + i] & 0xFF);
+        }
+        long hash = high * 0x9E3779B97F4A7C15L + low;
+        hash ^= hash >>> 32;
+        hash *= 0xD6E8FEB86659FD93L;
+        return hash ^ (hash >>> 32);
+    }
+}
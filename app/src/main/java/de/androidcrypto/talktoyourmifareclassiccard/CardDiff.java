@@ -0,0 +1,230 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class compares two card images of the same size block by block, e.g. two reads of the same tag (what did
+ * a transaction change on a ticket?) or a tag against a template. The blocks are compared as two longs each, only
+ * the bytes of changed blocks are compared one by one to get the changed byte ranges.
+ * The result is a bit set of the changed blocks (bit n for block n), the changed byte ranges in the memory and for
+ * each sector the changed parts of the sector trailer (TRAILER_KEY_A, TRAILER_ACCESS_BITS, TRAILER_UNUSED_BYTE and
+ * TRAILER_KEY_B). Blocks that are read in only one of the images can't be compared and are marked as
+ * uncomparable, blocks read in none of them are ignored.
+ * A tag never returns key A and returns key B only if the access bits allow it, so from the trailer the access bits,
+ * the unused byte and key B (only if it is readable in both images) are compared. A changed key is also found by the
+ * key used for reading the sector (see CardImage.getSectorKey) if both images have a key of the same type for the
+ * sector, this marks the sector trailer as changed but is not part of the byte ranges.
+ * Note: the block 0 (UID and manufacturer data) differs when a tag is compared to a template of another tag.
+ * A CardDiff is immutable.
+ */
+
+public class CardDiff {
+
+    public static final int TRAILER_KEY_A = 1;
+    public static final int TRAILER_ACCESS_BITS = 2;
+    public static final int TRAILER_UNUSED_BYTE = 4;
+    public static final int TRAILER_KEY_B = 8;
+    private static final int BLOCK_LENGTH = CardImage.BLOCK_LENGTH;
+    // the compared part of the sector trailer: access bits 6..8, the unused byte 9 and key B 10..15 if it is readable
+    private static final int TRAILER_ACCESS_BITS_OFFSET = 6;
+    private static final int TRAILER_UNUSED_BYTE_OFFSET = 9;
+    private static final int TRAILER_KEY_B_OFFSET = 10;
+
+    private final int numberOfBlocks;
+    private final long[] changedBlocks;
+    private final long[] uncomparableBlocks;
+    private final int[] changedByteRanges; // pairs of offset in the memory and length
+    private final byte[] trailerChanges; // for each sector the TRAILER_ flags
+    private final int numberOfChangedBlocks;
+
+    private CardDiff(int numberOfBlocks, long[] changedBlocks, long[] uncomparableBlocks, int[] changedByteRanges, byte[] trailerChanges) {
+        this.numberOfBlocks = numberOfBlocks;
+        this.changedBlocks = changedBlocks;
+        this.uncomparableBlocks = uncomparableBlocks;
+        this.changedByteRanges = changedByteRanges;
+        this.trailerChanges = trailerChanges;
+        int count = 0;
+        for (long bits : changedBlocks) count += Long.bitCount(bits);
+        this.numberOfChangedBlocks = count;
+    }
+
+    /**
+     * compares the blocks that are read in both images
+     * @param before e.g. the older read or the template
+     * @param after  e.g. the newer read
+     * @throws IllegalArgumentException if the sizes of the images differ
+     */
+    public static CardDiff compare(CardImage before, CardImage after) {
+        if (before.getSize() != after.getSize()) {
+            throw new IllegalArgumentException("the sizes of the card images differ: " + before.getSize() + " and " + after.getSize());
+        }
+        int numberOfBlocks = before.getBlockCount();
+        long[] changedBlocks = new long[(numberOfBlocks + 63) / 64];
+        long[] uncomparableBlocks = new long[changedBlocks.length];
+        byte[] trailerChanges = new byte[before.getSectorCount()];
+        int[] ranges = new int[16];
+        int numberOfRangeValues = 0;
+        byte[] beforeData = before.getData();
+        byte[] afterData = after.getData();
+        ByteBuffer beforeWords = ByteBuffer.wrap(beforeData);
+        ByteBuffer afterWords = ByteBuffer.wrap(afterData);
+        for (int sectorIndex = 0; sectorIndex < before.getSectorCount(); sectorIndex++) {
+            int firstBlock = before.sectorToBlock(sectorIndex);
+            int trailerBlock = firstBlock + before.getBlockCountInSector(sectorIndex) - 1;
+            if (before.isSectorRead(sectorIndex) && after.isSectorRead(sectorIndex)) {
+                trailerChanges[sectorIndex] = (byte) compareKeys(before, after, sectorIndex);
+            }
+            for (int blockIndex = firstBlock; blockIndex <= trailerBlock; blockIndex++) {
+                boolean isReadBefore = before.isBlockRead(blockIndex);
+                if (isReadBefore != after.isBlockRead(blockIndex)) {
+                    uncomparableBlocks[blockIndex >>> 6] |= 1L << blockIndex;
+                    continue;
+                }
+                // a changed key is known from the keys, even if the trailer could not be read
+                if ((blockIndex == trailerBlock) && (trailerChanges[sectorIndex] != 0)) {
+                    changedBlocks[blockIndex >>> 6] |= 1L << blockIndex;
+                }
+                if (!isReadBefore) continue;
+                int offset = blockIndex * BLOCK_LENGTH;
+                int from = 0;
+                int to = BLOCK_LENGTH;
+                if (blockIndex == trailerBlock) {
+                    boolean compareKeyB = isKeyBReadable(beforeData, offset) && isKeyBReadable(afterData, offset);
+                    if ((beforeWords.getInt(offset + TRAILER_ACCESS_BITS_OFFSET) == afterWords.getInt(offset + TRAILER_ACCESS_BITS_OFFSET))
+                            && ((!compareKeyB) || ((beforeWords.getInt(offset + TRAILER_KEY_B_OFFSET) == afterWords.getInt(offset + TRAILER_KEY_B_OFFSET))
+                            && (beforeWords.getShort(offset + TRAILER_KEY_B_OFFSET + 4) == afterWords.getShort(offset + TRAILER_KEY_B_OFFSET + 4))))) {
+                        continue;
+                    }
+                    from = TRAILER_ACCESS_BITS_OFFSET;
+                    to = compareKeyB ? BLOCK_LENGTH : TRAILER_KEY_B_OFFSET;
+                } else if ((beforeWords.getLong(offset) == afterWords.getLong(offset))
+                        && (beforeWords.getLong(offset + 8) == afterWords.getLong(offset + 8))) {
+                    continue;
+                }
+                changedBlocks[blockIndex >>> 6] |= 1L << blockIndex;
+                for (int i = from; i < to; i++) {
+                    if (beforeData[offset + i] == afterData[offset + i]) continue;
+                    if (blockIndex == trailerBlock) {
+                        trailerChanges[sectorIndex] |= (i >= TRAILER_KEY_B_OFFSET) ? TRAILER_KEY_B
+                                : (i == TRAILER_UNUSED_BYTE_OFFSET) ? TRAILER_UNUSED_BYTE : TRAILER_ACCESS_BITS;
+                    }
+                    if ((numberOfRangeValues > 0)
+                            && (ranges[numberOfRangeValues - 2] + ranges[numberOfRangeValues - 1] == offset + i)) {
+                        ranges[numberOfRangeValues - 1]++;
+                        continue;
+                    }
+                    if (numberOfRangeValues == ranges.length) ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                    ranges[numberOfRangeValues++] = offset + i;
+                    ranges[numberOfRangeValues++] = 1;
+                }
+            }
+        }
+        return new CardDiff(numberOfBlocks, changedBlocks, uncomparableBlocks,
+                Arrays.copyOf(ranges, numberOfRangeValues), trailerChanges);
+    }
+
+    // the access bits of the sector trailer at the offset are valid and allow to read key B
+    private static boolean isKeyBReadable(byte[] data, int trailerOffset) {
+        int packed = AccessConditionCodec.decode(data, trailerOffset + TRAILER_ACCESS_BITS_OFFSET);
+        return (packed != AccessConditionCodec.INVALID)
+                && AccessConditionCodec.isKeyBReadable(AccessConditionCodec.getCondition(packed, AccessConditionCodec.TRAILER_BLOCK_INDEX));
+    }
+
+    // TRAILER_KEY_A or TRAILER_KEY_B if the key used for reading the sector changed, 0 if it can't be compared
+    private static int compareKeys(CardImage before, CardImage after, int sectorIndex) {
+        String keyType = before.getSectorKeyType(sectorIndex);
+        if ((keyType == null) || (!keyType.equals(after.getSectorKeyType(sectorIndex)))) return 0;
+        if (Arrays.equals(before.getSectorKey(sectorIndex), after.getSectorKey(sectorIndex))) return 0;
+        return Classic.KEY_TYPE_A.equals(keyType) ? TRAILER_KEY_A : TRAILER_KEY_B;
+    }
+
+    /**
+     * section for getters
+     */
+
+    /**
+     * @return true if no compared block changed, uncomparable blocks are not considered
+     */
+    public boolean isEqual() {
+        return numberOfChangedBlocks == 0;
+    }
+
+    public int getNumberOfChangedBlocks() {
+        return numberOfChangedBlocks;
+    }
+
+    public boolean isBlockChanged(int blockIndex) {
+        return (blockIndex >= 0) && (blockIndex < numberOfBlocks) && ((changedBlocks[blockIndex >>> 6] & (1L << blockIndex)) != 0);
+    }
+
+    /**
+     * @return the bit set of the changed blocks, bit n (bit n % 64 of element n / 64) for block n
+     */
+    public long[] getChangedBlocks() {
+        return changedBlocks.clone();
+    }
+
+    /**
+     * @return the blocks read in only one of the images in the format of getChangedBlocks
+     */
+    public long[] getUncomparableBlocks() {
+        return uncomparableBlocks.clone();
+    }
+
+    public boolean isBlockUncomparable(int blockIndex) {
+        return (blockIndex >= 0) && (blockIndex < numberOfBlocks) && ((uncomparableBlocks[blockIndex >>> 6] & (1L << blockIndex)) != 0);
+    }
+
+    /**
+     * @return the changed bytes as pairs of offset in the memory and length, ordered by the offset. A range can
+     * span several blocks.
+     */
+    public int[] getChangedByteRanges() {
+        return changedByteRanges.clone();
+    }
+
+    public int getNumberOfChangedByteRanges() {
+        return changedByteRanges.length / 2;
+    }
+
+    /**
+     * @return the changed parts of the sector trailer, a combination of the TRAILER_ flags or 0
+     */
+    public int getTrailerChanges(int sectorIndex) {
+        return trailerChanges[sectorIndex];
+    }
+
+    /**
+     * @return true if a sector trailer changed in the keys used for reading, access bits or unused byte
+     */
+    public boolean isAnyTrailerChanged() {
+        for (byte changes : trailerChanges) {
+            if (changes != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return a short description of the changes, e.g. for the log of the app
+     */
+    @Override
+    public String toString() {
+        if (isEqual()) return "no changed blocks";
+        StringBuilder sb = new StringBuilder();
+        sb.append(numberOfChangedBlocks).append(" changed blocks:");
+        for (int blockIndex = 0; blockIndex < numberOfBlocks; blockIndex++) {
+            if (isBlockChanged(blockIndex)) sb.append(' ').append(blockIndex);
+        }
+        for (int sectorIndex = 0; sectorIndex < trailerChanges.length; sectorIndex++) {
+            int changes = trailerChanges[sectorIndex];
+            if (changes == 0) continue;
+            sb.append("\nsector ").append(sectorIndex).append(" trailer:");
+            if ((changes & TRAILER_KEY_A) != 0) sb.append(" keyA");
+            if ((changes & TRAILER_ACCESS_BITS) != 0) sb.append(" accessBits");
+            if ((changes & TRAILER_UNUSED_BYTE) != 0) sb.append(" unusedByte");
+            if ((changes & TRAILER_KEY_B) != 0) sb.append(" keyB");
+        }
+        return sb.toString();
+    }
+}
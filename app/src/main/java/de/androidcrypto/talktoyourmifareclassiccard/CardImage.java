@@ -0,0 +1,262 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import java.util.Arrays;
+
+/**
+ * This class holds the memory of a complete Mifare Classic tag in one byte array, in the same order as
+ * on the tag (block 0 of sector 0 first). Sectors, blocks and sector trailers are not copied into own
+ * arrays but addressed by their offset in the buffer, see SectorMcModel for a view on one sector.
+ * The memory organisation (sector size) is the same as on the tag:
+ * sectors 0..31 have 4 blocks, sectors 32..39 (Classic 4K only) have 16 blocks of 16 bytes each.
+ * For each sector the image remembers if it was read and the key used for reading.
+ */
+
+public class CardImage {
+
+    public static final int BLOCK_LENGTH = 16;
+    public static final int SIZE_MINI = 320;
+    public static final int SIZE_1K = 1024;
+    public static final int SIZE_2K = 2048;
+    public static final int SIZE_4K = 4096;
+    private static final int NUMBER_OF_SMALL_SECTORS = 32; // sectors with 4 blocks
+    private static final int BLOCKS_IN_SMALL_SECTOR = 4;
+    private static final int BLOCKS_IN_LARGE_SECTOR = 16;
+    private static final byte KEY_TYPE_NONE = 0;
+    private static final byte KEY_TYPE_A = 'A';
+    private static final byte KEY_TYPE_B = 'B';
+
+    private final byte[] data;
+    private final int sectorCount;
+    // bit n is set when sector n was read, volatile as the image can be read by a parse thread while sectors are added
+    private volatile long readSectors;
+    // bit n is set when block n of a read sector could not get read (e.g. denied by the access conditions)
+    private final long[] unreadableBlocks;
+    // the key used for reading the sector, allocated with the first key as an archived image has no keys
+    private long[] keys;
+    private byte[] keyTypes; // KEY_TYPE_NONE, KEY_TYPE_A or KEY_TYPE_B
+
+    /**
+     * @param size the memory size of the tag: SIZE_MINI, SIZE_1K, SIZE_2K or SIZE_4K
+     */
+    public CardImage(int size) {
+        this(new byte[size]);
+    }
+
+    /**
+     * creates an image on an existing buffer without copying it, e.g. for a dump loaded from a file
+     * @param data the complete memory of the tag, the length needs to be a valid tag size
+     */
+    public CardImage(byte[] data) {
+        if ((data == null) || ((data.length != SIZE_MINI) && (data.length != SIZE_1K)
+                && (data.length != SIZE_2K) && (data.length != SIZE_4K))) {
+            throw new IllegalArgumentException("the size needs to be 320, 1024, 2048 or 4096 bytes");
+        }
+        this.data = data;
+        if (data.length <= SIZE_2K) {
+            sectorCount = data.length / (BLOCKS_IN_SMALL_SECTOR * BLOCK_LENGTH);
+        } else {
+            sectorCount = NUMBER_OF_SMALL_SECTORS + ((data.length - SIZE_2K) / (BLOCKS_IN_LARGE_SECTOR * BLOCK_LENGTH));
+        }
+        unreadableBlocks = new long[(getBlockCount() + 63) / 64];
+    }
+
+    /**
+     * section for the memory organisation
+     */
+
+    public int getSize() {
+        return data.length;
+    }
+
+    public int getSectorCount() {
+        return sectorCount;
+    }
+
+    public int getBlockCount() {
+        return data.length / BLOCK_LENGTH;
+    }
+
+    public int getBlockCountInSector(int sectorIndex) {
+        checkSectorIndex(sectorIndex);
+        return (sectorIndex < NUMBER_OF_SMALL_SECTORS) ? BLOCKS_IN_SMALL_SECTOR : BLOCKS_IN_LARGE_SECTOR;
+    }
+
+    public int sectorToBlock(int sectorIndex) {
+        checkSectorIndex(sectorIndex);
+        if (sectorIndex < NUMBER_OF_SMALL_SECTORS) {
+            return sectorIndex * BLOCKS_IN_SMALL_SECTOR;
+        }
+        return (NUMBER_OF_SMALL_SECTORS * BLOCKS_IN_SMALL_SECTOR) + ((sectorIndex - NUMBER_OF_SMALL_SECTORS) * BLOCKS_IN_LARGE_SECTOR);
+    }
+
+    public int blockToSector(int blockIndex) {
+        checkBlockIndex(blockIndex);
+        if (blockIndex < (NUMBER_OF_SMALL_SECTORS * BLOCKS_IN_SMALL_SECTOR)) {
+            return blockIndex / BLOCKS_IN_SMALL_SECTOR;
+        }
+        return NUMBER_OF_SMALL_SECTORS + ((blockIndex - (NUMBER_OF_SMALL_SECTORS * BLOCKS_IN_SMALL_SECTOR)) / BLOCKS_IN_LARGE_SECTOR);
+    }
+
+    public int getSectorOffset(int sectorIndex) {
+        return sectorToBlock(sectorIndex) * BLOCK_LENGTH;
+    }
+
+    public int getSectorLength(int sectorIndex) {
+        return getBlockCountInSector(sectorIndex) * BLOCK_LENGTH;
+    }
+
+    public int getBlockOffset(int blockIndex) {
+        checkBlockIndex(blockIndex);
+        return blockIndex * BLOCK_LENGTH;
+    }
+
+    /**
+     * @return the offset of the sector trailer (last block of the sector)
+     */
+    public int getTrailerOffset(int sectorIndex) {
+        return getSectorOffset(sectorIndex) + getSectorLength(sectorIndex) - BLOCK_LENGTH;
+    }
+
+    /**
+     * section for data access
+     */
+
+    /**
+     * returns the buffer of the image, changes to the buffer change the image
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public byte getByte(int offset) {
+        return data[offset];
+    }
+
+    /**
+     * copies the data of a complete sector to the image and marks the sector as read
+     * @param sectorIndex
+     * @param sectorData data of all blocks of the sector
+     */
+    public void setSector(int sectorIndex, byte[] sectorData) {
+        int length = getSectorLength(sectorIndex);
+        if ((sectorData == null) || (sectorData.length != length)) {
+            throw new IllegalArgumentException("the sector data needs to be " + length + " bytes long");
+        }
+        System.arraycopy(sectorData, 0, data, getSectorOffset(sectorIndex), length);
+        setSectorRead(sectorIndex, true);
+    }
+
+    public void setBlock(int blockIndex, byte[] blockData) {
+        if ((blockData == null) || (blockData.length != BLOCK_LENGTH)) {
+            throw new IllegalArgumentException("the block data needs to be 16 bytes long");
+        }
+        System.arraycopy(blockData, 0, data, getBlockOffset(blockIndex), BLOCK_LENGTH);
+    }
+
+    public byte[] copySector(int sectorIndex) {
+        int offset = getSectorOffset(sectorIndex);
+        return Arrays.copyOfRange(data, offset, offset + getSectorLength(sectorIndex));
+    }
+
+    public byte[] copyBlock(int blockIndex) {
+        int offset = getBlockOffset(blockIndex);
+        return Arrays.copyOfRange(data, offset, offset + BLOCK_LENGTH);
+    }
+
+    /**
+     * section for the read state and keys of the sectors
+     */
+
+    public boolean isSectorRead(int sectorIndex) {
+        checkSectorIndex(sectorIndex);
+        return (readSectors & (1L << sectorIndex)) != 0;
+    }
+
+    public void setSectorRead(int sectorIndex, boolean isRead) {
+        checkSectorIndex(sectorIndex);
+        if (isRead) {
+            readSectors |= (1L << sectorIndex);
+        } else {
+            readSectors &= ~(1L << sectorIndex);
+        }
+    }
+
+    public int getNumberOfReadSectors() {
+        return Long.bitCount(readSectors);
+    }
+
+    /**
+     * @return true if the sector of the block is read and the block is not marked as unreadable
+     */
+    public boolean isBlockRead(int blockIndex) {
+        checkBlockIndex(blockIndex);
+        return isSectorRead(blockToSector(blockIndex)) && ((unreadableBlocks[blockIndex >>> 6] & (1L << blockIndex)) == 0);
+    }
+
+    /**
+     * marks a block of a read sector that could not get read, the data of the block is undefined
+     */
+    public void setBlockUnreadable(int blockIndex, boolean unreadable) {
+        checkBlockIndex(blockIndex);
+        if (unreadable) {
+            unreadableBlocks[blockIndex >>> 6] |= (1L << blockIndex);
+        } else {
+            unreadableBlocks[blockIndex >>> 6] &= ~(1L << blockIndex);
+        }
+    }
+
+    /**
+     * @param keyType Classic.KEY_TYPE_A or Classic.KEY_TYPE_B
+     * @param key     6 bytes long key
+     */
+    public void setSectorKey(int sectorIndex, String keyType, byte[] key) {
+        checkSectorIndex(sectorIndex);
+        if ((key == null) || (key.length != KeyDictionary.KEY_LENGTH)) {
+            if (keyTypes != null) keyTypes[sectorIndex] = KEY_TYPE_NONE;
+            return;
+        }
+        if (keyTypes == null) {
+            keys = new long[sectorCount];
+            keyTypes = new byte[sectorCount];
+        }
+        keys[sectorIndex] = KeyDictionary.bytesToKey(key);
+        keyTypes[sectorIndex] = Classic.KEY_TYPE_A.equals(keyType) ? KEY_TYPE_A : KEY_TYPE_B;
+    }
+
+    /**
+     * @return the key used for reading the sector or NULL if there is no key
+     */
+    public byte[] getSectorKey(int sectorIndex) {
+        checkSectorIndex(sectorIndex);
+        if ((keyTypes == null) || (keyTypes[sectorIndex] == KEY_TYPE_NONE)) return null;
+        return KeyDictionary.keyToBytes(keys[sectorIndex]);
+    }
+
+    /**
+     * @return Classic.KEY_TYPE_A, Classic.KEY_TYPE_B or NULL if there is no key
+     */
+    public String getSectorKeyType(int sectorIndex) {
+        checkSectorIndex(sectorIndex);
+        if (keyTypes == null) return null;
+        switch (keyTypes[sectorIndex]) {
+            case KEY_TYPE_A:
+                return Classic.KEY_TYPE_A;
+            case KEY_TYPE_B:
+                return Classic.KEY_TYPE_B;
+            default:
+                return null;
+        }
+    }
+
+    private void checkSectorIndex(int sectorIndex) {
+        if ((sectorIndex < 0) || (sectorIndex >= sectorCount)) {
+            throw new IndexOutOfBoundsException("sectorIndex out of range 0.." + (sectorCount - 1) + ": " + sectorIndex);
+        }
+    }
+
+    private void checkBlockIndex(int blockIndex) {
+        if ((blockIndex < 0) || (blockIndex >= getBlockCount())) {
+            throw new IndexOutOfBoundsException("blockIndex out of range 0.." + (getBlockCount() - 1) + ": " + blockIndex);
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class reads and writes a CardImage as dump file in two formats:
+ * .mfd is the raw binary image of the tag memory (320, 1024, 2048 or 4096 bytes), as written by e.g. mfoc.
+ * .mct is the text format of the MIFARE Classic Tool app: for each sector a line "+Sector: n" followed by one
+ * line per block with 32 hex characters. Unknown bytes are written as "--", e.g. a key that was not found or a
+ * block that could not get read.
+ * On export the known key of each sector (see CardImage.getSectorKey) is written into the sector trailer, as a
+ * tag never returns key A. Key B of the trailer is written as well if the access conditions allow to read it
+ * (e.g. the transport configuration FF0780). On import the keys are taken from the sector trailer: key A of a
+ * .mfd file, key A or (if key A is unknown) key B of a .mct file.
+ * The files are read with memory mapped I/O: a .mfd file is copied with one bulk copy into the image, a .mct
+ * file is decoded from the mapped bytes directly into the image, no Strings or arrays are created per line or block.
+ */
+
+public class CardImageFiles {
+    private static final String TAG = CardImageFiles.class.getName();
+
+    public static final String EXTENSION_MFD = ".mfd";
+    public static final String EXTENSION_MCT = ".mct";
+    private static final int BLOCK_LENGTH = CardImage.BLOCK_LENGTH;
+    private static final int KEY_LENGTH = 6;
+    private static final int KEY_B_OFFSET = 10; // in the sector trailer
+    private static final String MCT_SECTOR_HEADER = "+Sector: ";
+    private static final int MCT_BLOCK_LINE_LENGTH = BLOCK_LENGTH * 2;
+
+    /**
+     * gets the images of importDirectory
+     */
+    public interface Listener {
+        /**
+         * @return false to stop the import
+         */
+        boolean onCardImage(File file, CardImage cardImage);
+
+        void onError(File file, String reason);
+    }
+
+    private CardImageFiles() {
+    }
+
+    /**
+     * section for the binary .mfd format
+     */
+
+    /**
+     * writes the complete memory of the image, the sectors that are not read are written with 0x00
+     */
+    public static void writeMfd(CardImage cardImage, OutputStream outputStream) throws IOException {
+        byte[] data = cardImage.getData();
+        byte[] trailer = new byte[BLOCK_LENGTH];
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            int sectorOffset = cardImage.getSectorOffset(sectorIndex);
+            int trailerOffset = cardImage.getTrailerOffset(sectorIndex);
+            if (!cardImage.isSectorRead(sectorIndex)) {
+                Arrays.fill(trailer, (byte) 0);
+                for (int offset = sectorOffset; offset <= trailerOffset; offset += BLOCK_LENGTH) {
+                    outputStream.write(trailer);
+                }
+                continue;
+            }
+            outputStream.write(data, sectorOffset, trailerOffset - sectorOffset);
+            System.arraycopy(data, trailerOffset, trailer, 0, BLOCK_LENGTH);
+            putSectorKey(cardImage, sectorIndex, trailer);
+            outputStream.write(trailer);
+        }
+        outputStream.flush();
+    }
+
+    public static void writeMfd(CardImage cardImage, File file) throws IOException {
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+            writeMfd(cardImage, outputStream);
+        }
+    }
+
+    /**
+     * reads a .mfd image from the remaining bytes of the buffer, all sectors are marked as read
+     * @throws IOException if the number of remaining bytes is not a valid tag size
+     */
+    public static CardImage readMfd(ByteBuffer buffer) throws IOException {
+        int size = buffer.remaining();
+        if ((size != CardImage.SIZE_MINI) && (size != CardImage.SIZE_1K) && (size != CardImage.SIZE_2K) && (size != CardImage.SIZE_4K)) {
+            throw new IOException("invalid size of a .mfd image: " + size + " bytes");
+        }
+        CardImage cardImage = new CardImage(size);
+        buffer.get(cardImage.getData());
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            cardImage.setSectorRead(sectorIndex, true);
+            int trailerOffset = cardImage.getTrailerOffset(sectorIndex);
+            cardImage.setSectorKey(sectorIndex, Classic.KEY_TYPE_A,
+                    Arrays.copyOfRange(cardImage.getData(), trailerOffset, trailerOffset + KEY_LENGTH));
+        }
+        return cardImage;
+    }
+
+    public static CardImage readMfd(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[CardImage.SIZE_4K + 1];
+        int length = 0;
+        int read;
+        while ((length < buffer.length) && ((read = inputStream.read(buffer, length, buffer.length - length)) > 0)) {
+            length += read;
+        }
+        return readMfd(ByteBuffer.wrap(buffer, 0, length));
+    }
+
+    public static CardImage readMfd(File file) throws IOException {
+        return readMfd(map(file));
+    }
+
+    /**
+     * section for the text .mct format
+     */
+
+    /**
+     * writes the image in the .mct format, the blocks of sectors that are not read and unreadable blocks are
+     * written as unknown ("--"), the keys as far as they are known
+     */
+    public static void writeMct(CardImage cardImage, Appendable out) throws IOException {
+        byte[] data = cardImage.getData();
+        byte[] trailer = new byte[BLOCK_LENGTH];
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            out.append(MCT_SECTOR_HEADER).append(Integer.toString(sectorIndex)).append('\n');
+            int firstBlock = cardImage.sectorToBlock(sectorIndex);
+            int trailerBlock = firstBlock + cardImage.getBlockCountInSector(sectorIndex) - 1;
+            for (int blockIndex = firstBlock; blockIndex < trailerBlock; blockIndex++) {
+                if (cardImage.isBlockRead(blockIndex)) {
+                    HexCodec.encode(data, cardImage.getBlockOffset(blockIndex), BLOCK_LENGTH, out, true);
+                } else {
+                    appendUnknown(out, BLOCK_LENGTH);
+                }
+                out.append('\n');
+            }
+            boolean trailerRead = cardImage.isBlockRead(trailerBlock);
+            if (!cardImage.isSectorRead(sectorIndex)) {
+                appendUnknown(out, BLOCK_LENGTH);
+            } else {
+                System.arraycopy(data, cardImage.getBlockOffset(trailerBlock), trailer, 0, BLOCK_LENGTH);
+                String keyType = cardImage.getSectorKeyType(sectorIndex);
+                putSectorKey(cardImage, sectorIndex, trailer);
+                appendPart(out, trailer, 0, KEY_LENGTH, Classic.KEY_TYPE_A.equals(keyType));
+                appendPart(out, trailer, KEY_LENGTH, KEY_B_OFFSET - KEY_LENGTH, trailerRead);
+                appendPart(out, trailer, KEY_B_OFFSET, KEY_LENGTH, Classic.KEY_TYPE_B.equals(keyType) || (trailerRead && isKeyBReadable(trailer)));
+            }
+            out.append('\n');
+        }
+    }
+
+    public static void writeMct(CardImage cardImage, File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII))) {
+            writeMct(cardImage, writer);
+        }
+    }
+
+    /**
+     * reads a .mct dump from the remaining bytes of the buffer (US-ASCII). The size of the tag is taken from
+     * the highest sector number. A sector with only unknown blocks is not marked as read, blocks with unknown
+     * bytes are marked as unreadable. Lines starting with '#' and empty lines are ignored.
+     * @throws IOException if the dump is not in the .mct format
+     */
+    public static CardImage readMct(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        int end = buffer.limit();
+        CardImage cardImage = new CardImage(getMctTagSize(buffer, start, end));
+        byte[] data = cardImage.getData();
+        int sectorIndex = -1;
+        int blockInSector = 0;
+        boolean sectorHasData = false;
+        int lineNumber = 0;
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while ((lineEnd < end) && (buffer.get(lineEnd) != '\n')) lineEnd++;
+            int nextLine = lineEnd + 1;
+            lineNumber++;
+            // trim white space and the '\r' of Windows line ends
+            while ((lineEnd > lineStart) && (buffer.get(lineEnd - 1) <= ' ')) lineEnd--;
+            while ((lineStart < lineEnd) && (buffer.get(lineStart) <= ' ')) lineStart++;
+            if ((lineStart == lineEnd) || (buffer.get(lineStart) == '#')) {
+                lineStart = nextLine;
+                continue;
+            }
+            if (buffer.get(lineStart) == '+') {
+                if ((sectorIndex >= 0) && sectorHasData) finishMctSector(cardImage, sectorIndex, blockInSector, lineNumber);
+                sectorIndex = parseMctSectorHeader(buffer, lineStart, lineEnd, lineNumber);
+                blockInSector = 0;
+                sectorHasData = false;
+            } else {
+                if ((sectorIndex < 0) || (blockInSector >= cardImage.getBlockCountInSector(sectorIndex))) {
+                    throw new IOException("invalid .mct dump, unexpected block in line " + lineNumber);
+                }
+                if (lineEnd - lineStart != MCT_BLOCK_LINE_LENGTH) {
+                    throw new IOException("invalid .mct dump, a block needs " + MCT_BLOCK_LINE_LENGTH + " characters in line " + lineNumber);
+                }
+                int blockIndex = cardImage.sectorToBlock(sectorIndex) + blockInSector;
+                int unknownBytes = decodeMctBlock(buffer, lineStart, data, cardImage.getBlockOffset(blockIndex), lineNumber);
+                boolean isTrailer = (blockInSector == cardImage.getBlockCountInSector(sectorIndex) - 1);
+                if (unknownBytes < BLOCK_LENGTH) sectorHasData = true;
+                if (isTrailer) {
+                    setMctTrailer(cardImage, sectorIndex, buffer, lineStart);
+                } else if (unknownBytes > 0) {
+                    cardImage.setBlockUnreadable(blockIndex, true);
+                }
+                blockInSector++;
+            }
+            lineStart = nextLine;
+        }
+        if ((sectorIndex >= 0) && sectorHasData) finishMctSector(cardImage, sectorIndex, blockInSector, lineNumber);
+        buffer.position(end);
+        return cardImage;
+    }
+
+    public static CardImage readMct(CharSequence dump) throws IOException {
+        return readMct(ByteBuffer.wrap(dump.toString().getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    public static CardImage readMct(File file) throws IOException {
+        return readMct(map(file));
+    }
+
+    // the size is taken from the highest sector number, the headers are parsed again by readMct
+    private static int getMctTagSize(ByteBuffer buffer, int start, int end) throws IOException {
+        int maximumSectorIndex = -1;
+        boolean lineStart = true;
+        int lineNumber = 1;
+        for (int position = start; position < end; position++) {
+            byte b = buffer.get(position);
+            if (lineStart && (b == '+')) {
+                int lineEnd = position;
+                while ((lineEnd < end) && (buffer.get(lineEnd) != '\n') && (buffer.get(lineEnd) != '\r')) lineEnd++;
+                maximumSectorIndex = Math.max(maximumSectorIndex, parseMctSectorHeader(buffer, position, lineEnd, lineNumber));
+            }
+            if (b == '\n') lineNumber++;
+            lineStart = (b == '\n') || (lineStart && (b <= ' '));
+        }
+        if (maximumSectorIndex < 0) throw new IOException("invalid .mct dump, no sector found");
+        if (maximumSectorIndex < 5) return CardImage.SIZE_MINI;
+        if (maximumSectorIndex < 16) return CardImage.SIZE_1K;
+        if (maximumSectorIndex < 32) return CardImage.SIZE_2K;
+        return CardImage.SIZE_4K;
+    }
+
+    private static int parseMctSectorHeader(ByteBuffer buffer, int lineStart, int lineEnd, int lineNumber) throws IOException {
+        int position = lineStart;
+        for (int i = 0; i < MCT_SECTOR_HEADER.length(); i++, position++) {
+            // the blank after the colon is optional
+            if ((position < lineEnd) && (buffer.get(position) == MCT_SECTOR_HEADER.charAt(i))) continue;
+            if (MCT_SECTOR_HEADER.charAt(i) == ' ') {
+                position--;
+                continue;
+            }
+            throw new IOException("invalid .mct dump, unknown line " + lineNumber);
+        }
+        int sectorIndex = 0;
+        if (position >= lineEnd) throw new IOException("invalid .mct dump, missing sector number in line " + lineNumber);
+        for (; position < lineEnd; position++) {
+            int digit = buffer.get(position) - '0';
+            if ((digit < 0) || (digit > 9) || (sectorIndex > 39)) {
+                throw new IOException("invalid .mct dump, invalid sector number in line " + lineNumber);
+            }
+            sectorIndex = sectorIndex * 10 + digit;
+        }
+        if (sectorIndex > 39) throw new IOException("invalid .mct dump, invalid sector number in line " + lineNumber);
+        return sectorIndex;
+    }
+
+    // decodes the 32 characters of a block line, returns the number of unknown bytes ("--"), they are decoded as 0x00
+    private static int decodeMctBlock(ByteBuffer buffer, int lineStart, byte[] destination, int destinationOffset, int lineNumber) throws IOException {
+        int unknownBytes = 0;
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            char upper = (char) (buffer.get(lineStart + 2 * i) & 0xFF);
+            char lower = (char) (buffer.get(lineStart + 2 * i + 1) & 0xFF);
+            if ((upper == '-') && (lower == '-')) {
+                destination[destinationOffset + i] = 0;
+                unknownBytes++;
+                continue;
+            }
+            int upperNibble = HexCodec.charToNibble(upper);
+            int lowerNibble = HexCodec.charToNibble(lower);
+            if ((upperNibble | lowerNibble) < 0) {
+                throw new IOException("invalid .mct dump, invalid character in line " + lineNumber);
+            }
+            destination[destinationOffset + i] = (byte) ((upperNibble << 4) | lowerNibble);
+        }
+        return unknownBytes;
+    }
+
+    // takes the key and the state of the access bits from the trailer line
+    private static void setMctTrailer(CardImage cardImage, int sectorIndex, ByteBuffer buffer, int lineStart) {
+        int trailerOffset = cardImage.getTrailerOffset(sectorIndex);
+        int trailerBlock = cardImage.sectorToBlock(sectorIndex) + cardImage.getBlockCountInSector(sectorIndex) - 1;
+        byte[] data = cardImage.getData();
+        if (isKnown(buffer, lineStart, 0, KEY_LENGTH)) {
+            cardImage.setSectorKey(sectorIndex, Classic.KEY_TYPE_A, Arrays.copyOfRange(data, trailerOffset, trailerOffset + KEY_LENGTH));
+        } else if (isKnown(buffer, lineStart, KEY_B_OFFSET, KEY_LENGTH)) {
+            cardImage.setSectorKey(sectorIndex, Classic.KEY_TYPE_B,
+                    Arrays.copyOfRange(data, trailerOffset + KEY_B_OFFSET, trailerOffset + KEY_B_OFFSET + KEY_LENGTH));
+        }
+        cardImage.setBlockUnreadable(trailerBlock, !isKnown(buffer, lineStart, KEY_LENGTH, KEY_B_OFFSET - KEY_LENGTH));
+    }
+
+    private static boolean isKnown(ByteBuffer buffer, int lineStart, int byteOffset, int length) {
+        for (int i = 2 * byteOffset; i < 2 * (byteOffset + length); i++) {
+            if (buffer.get(lineStart + i) == '-') return false;
+        }
+        return true;
+    }
+
+    private static void finishMctSector(CardImage cardImage, int sectorIndex, int numberOfBlocks, int lineNumber) throws IOException {
+        if (numberOfBlocks != cardImage.getBlockCountInSector(sectorIndex)) {
+            throw new IOException("invalid .mct dump, sector " + sectorIndex + " is incomplete before line " + lineNumber);
+        }
+        cardImage.setSectorRead(sectorIndex, true);
+    }
+
+    /**
+     * section for the import of many files
+     */
+
+    /**
+     * reads all .mfd and .mct files of the directory (not recursive) in the order of their names,
+     * a file that can't be read is reported to the listener and skipped
+     * @return the number of imported images
+     */
+    public static int importDirectory(File directory, Listener listener) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            listener.onError(directory, "not a directory");
+            return 0;
+        }
+        Arrays.sort(files);
+        int numberOfImages = 0;
+        for (File file : files) {
+            String name = file.getName().toLowerCase();
+            if ((!file.isFile()) || ((!name.endsWith(EXTENSION_MFD)) && (!name.endsWith(EXTENSION_MCT)))) continue;
+            CardImage cardImage;
+            try {
+                cardImage = read(file);
+            } catch (IOException e) {
+                Log.e(TAG, "could not import " + file + ": " + e.getMessage());
+                listener.onError(file, e.getMessage());
+                continue;
+            }
+            numberOfImages++;
+            if (!listener.onCardImage(file, cardImage)) break;
+        }
+        return numberOfImages;
+    }
+
+    /**
+     * reads a .mfd or .mct file, the format is chosen by the file extension
+     */
+    public static CardImage read(File file) throws IOException {
+        if (file.getName().toLowerCase().endsWith(EXTENSION_MCT)) {
+            return readMct(file);
+        }
+        return readMfd(file);
+    }
+
+    // maps the complete file read only, the mapping stays valid after the channel is closed
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("file is too large: " + file);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * section for helpers
+     */
+
+    // writes the known key of the sector into the copy of the sector trailer
+    private static void putSectorKey(CardImage cardImage, int sectorIndex, byte[] trailer) {
+        byte[] key = cardImage.getSectorKey(sectorIndex);
+        if (key == null) return;
+        int keyOffset = Classic.KEY_TYPE_B.equals(cardImage.getSectorKeyType(sectorIndex)) ? KEY_B_OFFSET : 0;
+        System.arraycopy(key, 0, trailer, keyOffset, KEY_LENGTH);
+    }
+
+    // if key B is readable the tag returns it with the sector trailer
+    private static boolean isKeyBReadable(byte[] trailer) {
+        int packed = AccessConditionCodec.decode(trailer, KEY_LENGTH);
+        return (packed != AccessConditionCodec.INVALID)
+                && AccessConditionCodec.isKeyBReadable(AccessConditionCodec.getCondition(packed, AccessConditionCodec.TRAILER_BLOCK_INDEX));
+    }
+
+    private static void appendPart(Appendable out, byte[] data, int offset, int length, boolean known) throws IOException {
+        if (known) {
+            HexCodec.encode(data, offset, length, out, true);
+        } else {
+            appendUnknown(out, length);
+        }
+    }
+
+    private static void appendUnknown(Appendable out, int numberOfBytes) throws IOException {
+        for (int i = 0; i < numberOfBytes; i++) {
+            out.append("--");
+        }
+    }
+}
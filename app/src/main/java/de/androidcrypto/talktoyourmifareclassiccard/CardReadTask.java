@@ -0,0 +1,298 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class reads the complete tag: it searches the keys for all sectors (checkDefaultAuthentication),
+ * reads each sector into a CardImage and builds the SectorMcModel views on it. It is running on a card I/O thread, the results are
+ * reported to the listener in batches of sectors. The task stops when it gets cancelled or when the
+ * tag leaves the reader's field.
+ * The work is pipelined when a parse executor is given: the card I/O thread only authenticates and reads the
+ * sectors into the CardImage, building the SectorMcModel, decoding the access conditions, the dump and the
+ * listener calls run on the parse executor while the next sector is read. Each sector of the CardImage is
+ * written before its parse job is submitted and not changed afterwards, so the executor sees the complete data.
+ * If a SectorDumpWriter is set each sector is written to it directly after reading, so the dump can get
+ * exported while the tag is read.
+ * If a DumpSession is set the read continues a previous read of the tag: the sectors already read are not read
+ * again and the keys found before are used first. The keys found are stored in the session also when the tag
+ * leaves the reader's field, so the next tap continues with the first missing sector.
+ * Note: all listener methods are called on the parse executor (in order of the sectors, so it should be a
+ * single thread executor) or on the card I/O thread if there is no parse executor.
+ */
+
+public class CardReadTask implements Runnable {
+    private static final String TAG = CardReadTask.class.getName();
+
+    public interface Listener {
+        void onAuthenticationFinished(int numberOfSuccessAuthentications, byte[][] authKeyMatrix, String[] authKeyTypeMatrix);
+
+        void onProgress(int numberOfSectorsDone, int numberOfSectors);
+
+        // the sectors that were read since the last call, unreadable sectors are not included
+        void onSectorsRead(List<SectorMcModel> sectorMcs);
+
+        // uid is the UID of the tag that was read, sectorMcs has an entry for each sector, NULL if the sector could not get read
+        void onFinished(byte[] uid, CardImage cardImage, SectorMcModel[] sectorMcs);
+
+        void onCancelled(int sectorIndex, String reason);
+    }
+
+    private final Classic classic;
+    private final int batchSize;
+    private final Listener listener;
+    private final Executor parseExecutor; // NULL if the parsing runs on the card I/O thread
+    private SectorDumpWriter dumpWriter; // optional
+    private DumpSession dumpSession; // optional
+    private List<SectorMcModel> batch; // only used by the parse jobs
+    private volatile boolean cancelled = false;
+    private final AtomicBoolean abortSignal = new AtomicBoolean(false); // stops the key search of this task only
+    private volatile boolean finished = false;
+
+    /**
+     * @param classic   the Classic instance for the tag, it should not be used by other threads during the read
+     * @param batchSize the number of read sectors that are reported together
+     * @param listener
+     */
+    public CardReadTask(Classic classic, int batchSize, Listener listener) {
+        this(classic, batchSize, listener, null);
+    }
+
+    /**
+     * @param classic       the Classic instance for the tag, it should not be used by other threads during the read
+     * @param batchSize     the number of read sectors that are reported together
+     * @param listener
+     * @param parseExecutor a single thread executor for the parsing and the listener calls, NULL to run them on the card I/O thread
+     */
+    public CardReadTask(Classic classic, int batchSize, Listener listener, Executor parseExecutor) {
+        this.classic = classic;
+        this.batchSize = Math.max(1, batchSize);
+        this.listener = listener;
+        this.parseExecutor = parseExecutor;
+        this.batch = new ArrayList<>(this.batchSize);
+    }
+
+    /**
+     * sets a writer that gets the dump of each sector, it should be set before the task is executed.
+     * The writer is flushed at the end of the read but not closed.
+     */
+    public void setDumpWriter(SectorDumpWriter dumpWriter) {
+        this.dumpWriter = dumpWriter;
+    }
+
+    /**
+     * sets the session of the tag to continue a previous read, it should be set before the task is executed.
+     * The session is marked as complete when all sectors were tried.
+     */
+    public void setDumpSession(DumpSession dumpSession) {
+        this.dumpSession = dumpSession;
+    }
+
+    /**
+     * stops the task before the next card command
+     */
+    public void cancel() {
+        cancelled = true;
+        abortSignal.set(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true if the task is waiting for execution, running or there are parse jobs left
+     */
+    public boolean isRunning() {
+        return !finished;
+    }
+
+    @Override
+    public void run() {
+        classic.setAbortSignal(abortSignal);
+        try {
+            read();
+        } finally {
+            classic.setAbortSignal(null);
+            post(() -> finished = true);
+        }
+    }
+
+    /**
+     * section for the card I/O thread
+     */
+
+    private void read() {
+        final long startNanos = System.nanoTime();
+        final byte[] uid = classic.getTagDetails().getUid();
+        final int numberOfSectors = classic.getTagDetails().getSectorCount();
+        final SectorMcModel[] sectorMcs = new SectorMcModel[numberOfSectors];
+        final CardImage cardImage = (dumpSession != null) ? dumpSession.getCardImage() : new CardImage(classic.getTagDetails().getTagSize());
+        if (cancelled) {
+            post(() -> listener.onCancelled(0, "cancelled"));
+            return;
+        }
+        final int numberOfSuccessAuths;
+        if (dumpSession != null) {
+            dumpSession.startAttempt();
+            // the keys of the previous read first, then the brute force method for the other sectors
+            numberOfSuccessAuths = classic.checkDefaultAuthentication(cardImage);
+            storeFoundKeys(cardImage);
+        } else {
+            // brute force method to check for known default authentication keys
+            numberOfSuccessAuths = classic.checkDefaultAuthentication();
+        }
+        if (cancelled || (classic.getErrorCode() == Classic.ERROR_IOEXCEPTION)) {
+            cancelled = true;
+            final String reason = (classic.getErrorCode() == Classic.ERROR_IOEXCEPTION) ? classic.getErrorCodeReason() : "cancelled";
+            post(() -> listener.onCancelled(0, reason));
+            return;
+        }
+        final byte[][] authKeyMatrix = classic.getAuthenticationKeyMatrix();
+        final String[] authKeyTypeMatrix = classic.getAuthenticationKeyTypeMatrix();
+        post(() -> {
+            listener.onAuthenticationFinished(numberOfSuccessAuths, authKeyMatrix, authKeyTypeMatrix);
+            beginDump(cardImage.getSize());
+        });
+        for (int sectorIndex = 0; sectorIndex < numberOfSectors; sectorIndex++) {
+            final int currentSectorIndex = sectorIndex;
+            if (cancelled) {
+                post(() -> cancelled(currentSectorIndex, "cancelled"));
+                return;
+            }
+            String keyType = authKeyTypeMatrix[sectorIndex];
+            if (cardImage.isSectorRead(sectorIndex)) {
+                // read by a previous attempt of the session
+                Log.d(TAG, "sector " + sectorIndex + " was read before, skipped");
+            } else if ((keyType != null) && (!keyType.equals(""))) {
+                boolean sectorRead = classic.readSector(sectorIndex, authKeyMatrix[sectorIndex], keyType, cardImage);
+                if ((!sectorRead) && (classic.getErrorCode() == Classic.ERROR_IOEXCEPTION)) {
+                    // the tag left the reader's field
+                    cancelled = true;
+                    final String reason = classic.getErrorCodeReason();
+                    post(() -> cancelled(currentSectorIndex, reason));
+                    return;
+                }
+            }
+            post(() -> parseSector(cardImage, sectorMcs, currentSectorIndex));
+        }
+        if (dumpSession != null) dumpSession.setComplete();
+        ClassicMetrics metrics = classic.getMetrics();
+        if (metrics != null) {
+            metrics.recordSince(ClassicMetrics.OP_READ_TAG, ClassicMetrics.ALL_SECTORS, startNanos);
+        }
+        post(() -> {
+            publish();
+            endDump();
+            listener.onFinished(uid, cardImage, sectorMcs);
+        });
+    }
+
+    // stores the keys found by the authentication in the image, so they are used by the next attempt of the session
+    private void storeFoundKeys(CardImage cardImage) {
+        byte[][] authKeyMatrix = classic.getAuthenticationKeyMatrix();
+        String[] authKeyTypeMatrix = classic.getAuthenticationKeyTypeMatrix();
+        for (int sectorIndex = 0; sectorIndex < authKeyMatrix.length; sectorIndex++) {
+            String keyType = authKeyTypeMatrix[sectorIndex];
+            if (cardImage.isSectorRead(sectorIndex) || (authKeyMatrix[sectorIndex] == null)
+                    || (keyType == null) || keyType.equals("")) continue;
+            cardImage.setSectorKey(sectorIndex, keyType, authKeyMatrix[sectorIndex]);
+        }
+    }
+
+    // runs the job on the parse executor or directly if there is none
+    private void post(Runnable job) {
+        if (parseExecutor == null) {
+            job.run();
+            return;
+        }
+        try {
+            parseExecutor.execute(job);
+        } catch (RejectedExecutionException e) {
+            // the executor is shut down, run the job on the card I/O thread
+            Log.e(TAG, "parse executor rejected the job, running it on the card I/O thread");
+            job.run();
+        }
+    }
+
+    /**
+     * section for the parse jobs
+     */
+
+    private void parseSector(CardImage cardImage, SectorMcModel[] sectorMcs, int sectorIndex) {
+        SessionTracer tracer = classic.getTracer();
+        long startNanos = System.nanoTime();
+        int numberOfSectors = sectorMcs.length;
+        SectorMcModel sectorMc = new SectorMcModel(cardImage, sectorIndex);
+        if (sectorMc.isDataIsValid()) {
+            // decode the access conditions here and not later on the UI thread
+            sectorMc.getAccessConditionsString();
+            sectorMcs[sectorIndex] = sectorMc;
+            batch.add(sectorMc);
+        }
+        writeDump(sectorMc);
+        if (tracer != null) tracer.end(SessionTracer.CATEGORY_PARSE, "parseSector", sectorIndex, startNanos);
+        listener.onProgress(sectorIndex + 1, numberOfSectors);
+        if (batch.size() >= batchSize) {
+            publish();
+        }
+    }
+
+    private void cancelled(int sectorIndex, String reason) {
+        publish();
+        endDump();
+        listener.onCancelled(sectorIndex, reason);
+    }
+
+    private void publish() {
+        if (batch.isEmpty()) return;
+        SessionTracer tracer = classic.getTracer();
+        long startNanos = System.nanoTime();
+        listener.onSectorsRead(batch);
+        if (tracer != null) tracer.end(SessionTracer.CATEGORY_UI, "onSectorsRead", batch.size(), startNanos);
+        batch = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * section for the dump writer, an IOException stops the writing but not the read of the tag
+     */
+
+    private void beginDump(int tagSize) {
+        if (dumpWriter == null) return;
+        try {
+            dumpWriter.beginCard(classic.getTagDetails().getUid(), tagSize);
+        } catch (IOException e) {
+            dumpFailed(e);
+        }
+    }
+
+    private void writeDump(SectorMcModel sectorMc) {
+        if (dumpWriter == null) return;
+        try {
+            dumpWriter.writeSector(sectorMc);
+        } catch (IOException e) {
+            dumpFailed(e);
+        }
+    }
+
+    private void endDump() {
+        if (dumpWriter == null) return;
+        try {
+            dumpWriter.endCard();
+            dumpWriter.flush();
+        } catch (IOException e) {
+            dumpFailed(e);
+        }
+    }
+
+    private void dumpFailed(IOException e) {
+        Log.e(TAG, "IOException on writing the dump: " + e.getMessage());
+        dumpWriter = null;
+    }
+}
@@ -1,123 +1,230 @@
 package de.androidcrypto.talktoyourmifareclassiccard;
 
 import android.nfc.tech.MifareClassic;
-import android.nfc.tech.NfcA;
 import android.util.Log;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class takes all commands for Mifare Classic usage
+ * An instance works on one transport and can be shared by threads, all commands are synchronized on the instance.
+ * Instances with different transports don't share any state besides the KeyDictionary and the KeyCache (both are
+ * thread safe), so several tags can be used in parallel.
+ * The methods with a ClassicResult return the status of the operation with the result. The other methods set
+ * the errorCode of the instance, it belongs to the last command of any thread (see getErrorCode).
  */
 
 public class Classic {
     private static final String TAG = Classic.class.getName();
-    private NfcA nfcA = null;
-    private final MifareClassic mfc;
+    private final MifareClassicTransport transport;
     private final MifareClassicTagDetails tagDetails;
     private int numberOfSectors;
 
-    private byte READ_ONE_BLOCK_COMMAND = (byte) 0x30;
+    private static final byte READ_ONE_BLOCK_COMMAND = (byte) 0x30;
+    private static final int BLOCK_LENGTH = 16;
+    private boolean rawRead = false; // reads the blocks with READ_ONE_BLOCK_COMMAND by transceive
+    private final byte[] readCommand = new byte[]{READ_ONE_BLOCK_COMMAND, 0};
 
-    public static final byte[] MIFARE_DEFAULT_KEY = MifareClassic.KEY_DEFAULT;
+    // the default keys are the same as in MifareClassic but don't need the Android framework
+    public static final byte[] MIFARE_DEFAULT_KEY = new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
     // KEY_DEFAULT: ffffffffffff
-    public static final byte[] MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY = MifareClassic.KEY_MIFARE_APPLICATION_DIRECTORY;
+    public static final byte[] MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY = new byte[]{(byte) 0xA0, (byte) 0xA1, (byte) 0xA2, (byte) 0xA3, (byte) 0xA4, (byte) 0xA5};
     // KEY_APPLICATION_DIRECTORY: a0a1a2a3a4a5
-    public static final byte[] MIFARE_DEFAULT_KEY_NFC_FORUM = MifareClassic.KEY_NFC_FORUM;
+    public static final byte[] MIFARE_DEFAULT_KEY_NFC_FORUM = new byte[]{(byte) 0xD3, (byte) 0xF7, (byte) 0xD3, (byte) 0xF7, (byte) 0xD3, (byte) 0xF7};
     // KEY_NFC_FORUM: d3f7d3f7d3f7
-    public static final byte[] MIFARE_CLASSIC_PREDEFINED_KEY_B = Utils.hexStringToByteArray("123456789ABC");
+    public static final byte[] MIFARE_CLASSIC_PREDEFINED_KEY_B = new byte[]{(byte) 0x12, (byte) 0x34, (byte) 0x56, (byte) 0x78, (byte) 0x9A, (byte) 0xBC};
+    // the keys of the dictionary are tried with key type A first, then with key type B. A candidate
+    // number is the index of the key for key type A or the index + dictionary size for key type B
+    private KeyDictionary keyDictionary;
+    private int numberOfKeyCandidates;
+    private int[] candidateHits; // number of successful authentications on this tag
+    private int[] provenCandidates; // candidates with hits, highest number of hits first
+    private int numberOfProvenCandidates = 0;
+    private final byte[] candidateKey = new byte[6];
+    private volatile AtomicBoolean abortSignal; // optional, set by the task that uses this instance
+    private KeyCache keyCache; // optional, takes the keys of tags that were read before
+    private volatile ClassicMetrics metrics; // optional, takes the latency of the authentications and reads
+    private volatile SessionTracer tracer; // optional, records a span for each command
+    private long packedUid = -1;
     private byte[][] authenticationKeyMatrix; // takes the authentication keys for each sector of the tag
     private String[] authenticationKeyTypeMatrix; // takes 'A' or 'B' depending on authentication success, if '' no success
-    private String[] authenticationKeySourceMatrix; // takes the name of default keys or is blank
+    private int[] authenticationKeyIndexMatrix; // takes the index of the key in the key dictionary or -1
+    // the keys of each type known for the sectors, used by the read planner
+    private byte[][] sectorKeyAMatrix;
+    private byte[][] sectorKeyBMatrix;
+    private final int[] readPlan = new int[16]; // the plan of the sector that is read
+    private int[] sectorAccessConditions; // the packed access conditions read from each sector trailer or AccessConditionCodec.INVALID
     public static final String KEY_TYPE_A = "A";
     public static final String KEY_TYPE_B = "B";
 
+    // the authentication session: the tag stays authenticated to one sector until the next
+    // authentication, a failed command or an IOException. Within a valid session an authentication
+    // with the same sector, key type and key is skipped
+    private int sessionSectorNumber = -1;
+    private String sessionKeyType = "";
+    private byte[] sessionKey;
+
     public static final int ERROR_OK = 0;
     public static final int ERROR_WRONG_PARAMETER = 1;
     public static final int ERROR_MISSING_AUTHENTICATION = 2;
+    public static final int ERROR_ACCESS_DENIED = 3;
     public static final int ERROR_IOEXCEPTION = 10;
     private int errorCode = -1;
     private final String ERROR_CODE_REASON_OK = "OK";
     private final String ERROR_CODE_REASON_MISSING_AUTHENTICATION = "Failure: missing authentication";
+    private final String ERROR_CODE_REASON_ACCESS_DENIED = "Failure: read denied by the access conditions";
     private String errorCodeReason = "FAILURE";
 
 
     public Classic(MifareClassic mfc) {
-        this.mfc = mfc;
-        this.tagDetails = new MifareClassicTagDetails(mfc);
-        if (mfc == null) {
-            Log.e(TAG, "mfc is NULL, aborted");
+        this((mfc == null) ? null : new AndroidMifareClassicTransport(mfc));
+    }
+
+    /**
+     * the transport can be a real tag (AndroidMifareClassicTransport) or a simulated tag (SimulatedMifareClassicCard)
+     * @param transport
+     */
+    public Classic(MifareClassicTransport transport) {
+        this.transport = transport;
+        this.tagDetails = new MifareClassicTagDetails(transport);
+        if (transport == null) {
+            Log.e(TAG, "transport is NULL, aborted");
             return;
         }
         this.numberOfSectors = tagDetails.getSectorCount();
         authenticationKeyMatrix = new byte[this.numberOfSectors][];
         authenticationKeyTypeMatrix = new String[this.numberOfSectors];
-        authenticationKeySourceMatrix = new String[this.numberOfSectors];
+        authenticationKeyIndexMatrix = new int[this.numberOfSectors];
+        Arrays.fill(authenticationKeyIndexMatrix, -1);
+        sectorKeyAMatrix = new byte[this.numberOfSectors][];
+        sectorKeyBMatrix = new byte[this.numberOfSectors][];
+        sectorAccessConditions = new int[this.numberOfSectors];
+        Arrays.fill(sectorAccessConditions, AccessConditionCodec.INVALID);
+        setKeyDictionary(KeyDictionary.createDefault());
+        packedUid = Utils.uidToLong(tagDetails.getUid());
+    }
+
+    /**
+     * sets the cache for keys of known tags. The cached keys are tried first by checkDefaultAuthentication,
+     * each successful authentication is stored in the cache
+     * @param keyCache
+     */
+    public synchronized void setKeyCache(KeyCache keyCache) {
+        this.keyCache = keyCache;
+    }
+
+    /**
+     * sets the metrics that get the latency of each authentication and block read sent to the tag,
+     * NULL disables the recording. The metrics can be shared by several instances, can be called from any thread
+     * @param metrics
+     */
+    public void setMetrics(ClassicMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ClassicMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * sets the tracer that records a span for each authentication, block read, sector read and key search,
+     * NULL disables the tracing. Can be called from any thread, also while a command is running
+     * @param tracer
+     */
+    public void setTracer(SessionTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    public SessionTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * sets the keys that are used by checkDefaultAuthentication, the statistics of found keys are reset
+     * @param keyDictionary
+     */
+    public synchronized void setKeyDictionary(KeyDictionary keyDictionary) {
+        this.keyDictionary = keyDictionary;
+        numberOfKeyCandidates = keyDictionary.size() * 2;
+        candidateHits = new int[numberOfKeyCandidates];
+        provenCandidates = new int[numberOfKeyCandidates];
+        numberOfProvenCandidates = 0;
     }
 
     /**
-     * Brute force method to check the authentication with all default keys
+     * Brute force method to check the authentication with all keys of the key dictionary.
+     * The search is adaptive: keys that already worked on previous sectors of this tag are tried
+     * first (ordered by their number of hits), then the remaining keys in the default order.
+     * Most tags are using one or two keys only, so usually one authentication per sector is needed.
      * @return the number of successful authentications
      */
-    public int checkDefaultAuthentication() {
-        boolean success;
+    public synchronized int checkDefaultAuthentication() {
+        long startNanos = System.nanoTime();
+        try {
+            return searchAllSectorKeys();
+        } finally {
+            traceSince(SessionTracer.CATEGORY_KEY_SEARCH, "checkDefaultAuthentication", SessionTracer.NO_ARGUMENT, startNanos);
+        }
+    }
+
+    private int searchAllSectorKeys() {
         int numberOfSuccessAuthentications = 0;
         for (int sectorNumber = 0; sectorNumber < numberOfSectors; sectorNumber++) {
-            success = false;
-            if (!success) {
-                success = authenticateSectorWithKeyA(sectorNumber, MIFARE_DEFAULT_KEY);
-                if (success) {
-                    numberOfSuccessAuthentications++;
-                    authenticationKeyMatrix[sectorNumber] = MIFARE_DEFAULT_KEY.clone();
-                    authenticationKeyTypeMatrix[sectorNumber] = KEY_TYPE_A;
-                    authenticationKeySourceMatrix[sectorNumber] = "MIFARE_DEFAULT_KEY";
-                }
+            boolean success = searchSectorKey(sectorNumber);
+            if (success) {
+                numberOfSuccessAuthentications++;
             }
-            if (!success) {
-                success = authenticateSectorWithKeyA(sectorNumber, MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY);
-                if (success) {
-                    numberOfSuccessAuthentications++;
-                    authenticationKeyMatrix[sectorNumber] = MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY.clone();
-                    authenticationKeyTypeMatrix[sectorNumber] = KEY_TYPE_A;
-                    authenticationKeySourceMatrix[sectorNumber] = "MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY";
-                }
+            if (isSearchStopped()) {
+                // the errorCode is ERROR_IOEXCEPTION if the tag was lost
+                return numberOfSuccessAuthentications;
             }
-            if (!success) {
-                success = authenticateSectorWithKeyA(sectorNumber, MIFARE_DEFAULT_KEY_NFC_FORUM);
+        }
+        errorCode = ERROR_OK;
+        errorCodeReason = ERROR_CODE_REASON_OK;
+        return numberOfSuccessAuthentications;
+    }
+
+    /**
+     * checkDefaultAuthentication for the continued read of a tag (see DumpSession): the keys stored in the card image
+     * are used first. For sectors that are already read no authentication is sent, the stored key is taken as it is.
+     * For the other sectors the stored key is tried and the key dictionary is searched only if it fails.
+     * @param cardImage the image of the previous read of this tag
+     * @return the number of sectors with a key
+     */
+    public synchronized int checkDefaultAuthentication(CardImage cardImage) {
+        long startNanos = System.nanoTime();
+        try {
+            return searchAllSectorKeys(cardImage);
+        } finally {
+            traceSince(SessionTracer.CATEGORY_KEY_SEARCH, "checkDefaultAuthentication", SessionTracer.NO_ARGUMENT, startNanos);
+        }
+    }
+
+    private int searchAllSectorKeys(CardImage cardImage) {
+        int numberOfSuccessAuthentications = 0;
+        for (int sectorNumber = 0; sectorNumber < numberOfSectors; sectorNumber++) {
+            byte[] storedKey = cardImage.getSectorKey(sectorNumber);
+            String storedKeyType = cardImage.getSectorKeyType(sectorNumber);
+            boolean success = false;
+            if (storedKey != null) {
+                success = cardImage.isSectorRead(sectorNumber)
+                        || authenticateSectorWithKey(sectorNumber, storedKey, storedKeyType);
                 if (success) {
-                    numberOfSuccessAuthentications++;
-                    authenticationKeyMatrix[sectorNumber] = MIFARE_DEFAULT_KEY_NFC_FORUM.clone();
-                    authenticationKeyTypeMatrix[sectorNumber] = KEY_TYPE_A;
-                    authenticationKeySourceMatrix[sectorNumber] = "MIFARE_DEFAULT_KEY_NFC_FORUM";
+                    setSectorKeyFound(sectorNumber, storedKey, storedKeyType);
                 }
             }
-            if (!success) {
-                success = authenticateSectorWithKeyB(sectorNumber, MIFARE_DEFAULT_KEY);
-                if (success) {
-                    numberOfSuccessAuthentications++;
-                    authenticationKeyMatrix[sectorNumber] = MIFARE_DEFAULT_KEY.clone();
-                    authenticationKeyTypeMatrix[sectorNumber] = KEY_TYPE_B;
-                    authenticationKeySourceMatrix[sectorNumber] = "MIFARE_DEFAULT_KEY";
-                }
+            if ((!success) && (!isSearchStopped())) {
+                success = searchSectorKey(sectorNumber);
             }
-            if (!success) {
-                success = authenticateSectorWithKeyB(sectorNumber, MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY);
-                if (success) {
-                    numberOfSuccessAuthentications++;
-                    authenticationKeyMatrix[sectorNumber] = MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY.clone();
-                    authenticationKeyTypeMatrix[sectorNumber] = KEY_TYPE_B;
-                    authenticationKeySourceMatrix[sectorNumber] = "MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY";
-                }
+            if (success) {
+                numberOfSuccessAuthentications++;
             }
-            if (!success) {
-                success = authenticateSectorWithKeyB(sectorNumber, MIFARE_DEFAULT_KEY_NFC_FORUM);
-                if (success) {
-                    numberOfSuccessAuthentications++;
-                    authenticationKeyMatrix[sectorNumber] = MIFARE_DEFAULT_KEY_NFC_FORUM.clone();
-                    authenticationKeyTypeMatrix[sectorNumber] = KEY_TYPE_B;
-                    authenticationKeySourceMatrix[sectorNumber] = "MIFARE_DEFAULT_KEY_NFC_FORUM";
-                }
+            if (isSearchStopped()) {
+                // the errorCode is ERROR_IOEXCEPTION if the tag was lost
+                return numberOfSuccessAuthentications;
             }
         }
         errorCode = ERROR_OK;
@@ -125,12 +232,131 @@ public class Classic {
         return numberOfSuccessAuthentications;
     }
 
-    public boolean authenticateSectorWithKeyA(int sectorNumber, byte[] key) {
+    // stores a key that was found before in the matrices, it counts as a hit for the adaptive search
+    private void setSectorKeyFound(int sectorNumber, byte[] key, String keyType) {
+        authenticationKeyMatrix[sectorNumber] = key.clone();
+        authenticationKeyTypeMatrix[sectorNumber] = keyType;
+        int keyIndex = keyDictionary.indexOf(KeyDictionary.bytesToKey(key));
+        authenticationKeyIndexMatrix[sectorNumber] = keyIndex;
+        if (keyIndex >= 0) {
+            addCandidateHit(keyType.equals(KEY_TYPE_A) ? keyIndex : keyIndex + numberOfKeyCandidates / 2);
+        }
+    }
+
+    // tries the cached key, the keys found on this tag before and then all other keys of the dictionary
+    private boolean searchSectorKey(int sectorNumber) {
+        // the key from the last read of this tag
+        boolean success = authenticateSectorWithCachedKey(sectorNumber);
+        // then try the keys that were found on this tag before
+        for (int i = 0; (!success) && (i < numberOfProvenCandidates) && (!isSearchStopped()); i++) {
+            success = authenticateSectorWithCandidate(sectorNumber, provenCandidates[i]);
+        }
+        // then all other keys
+        for (int candidate = 0; (!success) && (candidate < numberOfKeyCandidates) && (!isSearchStopped()); candidate++) {
+            if (candidateHits[candidate] > 0) continue; // was tried before
+            success = authenticateSectorWithCandidate(sectorNumber, candidate);
+        }
+        return success;
+    }
+
+    /**
+     * sets the abort signal of the task that uses this instance, NULL to remove it. When the signal is set to true
+     * a running checkDefaultAuthentication or readBlocks stops before the next authentication. The signal belongs to
+     * the task and is never reset here, so a cancel that comes before the search starts is not lost and a task
+     * that was cancelled does not stop the searches of other tasks.
+     */
+    public void setAbortSignal(AtomicBoolean abortSignal) {
+        this.abortSignal = abortSignal;
+    }
+
+    private boolean isAbortRequested() {
+        AtomicBoolean signal = abortSignal;
+        return (signal != null) && signal.get();
+    }
+
+    // the search is stopped on request or when the tag is lost
+    private boolean isSearchStopped() {
+        return isAbortRequested() || (errorCode == ERROR_IOEXCEPTION);
+    }
+
+    private boolean authenticateSectorWithCandidate(int sectorNumber, int candidate) {
+        int dictionarySize = numberOfKeyCandidates / 2;
+        int keyIndex = candidate % dictionarySize;
+        String keyType = (candidate < dictionarySize) ? KEY_TYPE_A : KEY_TYPE_B;
+        keyDictionary.getKey(keyIndex, candidateKey);
+        boolean success = authenticateSectorWithKey(sectorNumber, candidateKey, keyType);
+        if (success) {
+            authenticationKeyMatrix[sectorNumber] = candidateKey.clone();
+            authenticationKeyTypeMatrix[sectorNumber] = keyType;
+            authenticationKeyIndexMatrix[sectorNumber] = keyIndex;
+            addCandidateHit(candidate);
+            putKeyToCache(sectorNumber, candidateKey, keyType);
+        }
+        return success;
+    }
+
+    private boolean authenticateSectorWithCachedKey(int sectorNumber) {
+        if (keyCache == null) return false;
+        long key = keyCache.getKey(packedUid, sectorNumber);
+        if (key < 0) return false;
+        String keyType = keyCache.getKeyType(packedUid, sectorNumber);
+        KeyDictionary.keyToBytes(key, candidateKey);
+        boolean success = authenticateSectorWithKey(sectorNumber, candidateKey, keyType);
+        if (!success) {
+            // the key was changed since the last read, a lost tag says nothing about the key
+            if (errorCode != ERROR_IOEXCEPTION) keyCache.remove(packedUid, sectorNumber);
+            return false;
+        }
+        int keyIndex = keyDictionary.indexOf(key);
+        authenticationKeyMatrix[sectorNumber] = candidateKey.clone();
+        authenticationKeyTypeMatrix[sectorNumber] = keyType;
+        authenticationKeyIndexMatrix[sectorNumber] = keyIndex;
+        if (keyIndex >= 0) {
+            addCandidateHit(keyType.equals(KEY_TYPE_A) ? keyIndex : keyIndex + numberOfKeyCandidates / 2);
+        }
+        return true;
+    }
+
+    private void putKeyToCache(int sectorNumber, byte[] key, String keyType) {
+        if ((keyCache == null) || (packedUid < 0)) return;
+        keyCache.put(packedUid, sectorNumber, KeyDictionary.bytesToKey(key), keyType);
+    }
+
+    // keeps the provenCandidates ordered by the number of hits (highest first)
+    private void addCandidateHit(int candidate) {
+        int hits = ++candidateHits[candidate];
+        int position;
+        if (hits == 1) {
+            position = numberOfProvenCandidates++;
+            provenCandidates[position] = candidate;
+        } else {
+            position = 0;
+            while (provenCandidates[position] != candidate) position++;
+        }
+        while ((position > 0) && (candidateHits[provenCandidates[position - 1]] < hits)) {
+            provenCandidates[position] = provenCandidates[position - 1];
+            provenCandidates[position - 1] = candidate;
+            position--;
+        }
+    }
+
+    public synchronized boolean authenticateSectorWithKeyA(int sectorNumber, byte[] key) {
+        errorCode = ERROR_OK;
+        errorCodeReason = ERROR_CODE_REASON_OK;
+        if (isAuthenticated(sectorNumber, KEY_TYPE_A, key)) {
+            return true;
+        }
+        invalidateAuthenticationSession();
+        long startNanos = System.nanoTime();
         try {
-            errorCode = ERROR_OK;
-            errorCodeReason = ERROR_CODE_REASON_OK;
-            return mfc.authenticateSectorWithKeyA(sectorNumber, key);
+            boolean success = transport.authenticateSectorWithKeyA(sectorNumber, key);
+            recordAuthentication(sectorNumber, startNanos, success);
+            if (success) {
+                startAuthenticationSession(sectorNumber, KEY_TYPE_A, key);
+            }
+            return success;
         } catch (IOException e) {
+            recordAuthentication(sectorNumber, startNanos, false);
             Log.e(TAG, "IOException: " + e.getMessage());
             errorCode = ERROR_IOEXCEPTION;
             errorCodeReason = "IOEXCEPTION: " + e.getMessage();
@@ -138,12 +364,23 @@ public class Classic {
         }
     }
 
-    public boolean authenticateSectorWithKeyB(int sectorNumber, byte[] key) {
+    public synchronized boolean authenticateSectorWithKeyB(int sectorNumber, byte[] key) {
+        errorCode = ERROR_OK;
+        errorCodeReason = ERROR_CODE_REASON_OK;
+        if (isAuthenticated(sectorNumber, KEY_TYPE_B, key)) {
+            return true;
+        }
+        invalidateAuthenticationSession();
+        long startNanos = System.nanoTime();
         try {
-            errorCode = ERROR_OK;
-            errorCodeReason = ERROR_CODE_REASON_OK;
-            return mfc.authenticateSectorWithKeyB(sectorNumber, key);
+            boolean success = transport.authenticateSectorWithKeyB(sectorNumber, key);
+            recordAuthentication(sectorNumber, startNanos, success);
+            if (success) {
+                startAuthenticationSession(sectorNumber, KEY_TYPE_B, key);
+            }
+            return success;
         } catch (IOException e) {
+            recordAuthentication(sectorNumber, startNanos, false);
             Log.e(TAG, "IOException: " + e.getMessage());
             errorCode = ERROR_IOEXCEPTION;
             errorCodeReason = "IOEXCEPTION: " + e.getMessage();
@@ -151,7 +388,48 @@ public class Classic {
         }
     }
 
-    public boolean authenticateSectorWithKey(int sectorNumber, byte[] key, String keyType) {
+    /**
+     * checks if the tag is still authenticated to the sector with this key type and key,
+     * in this case no new authentication is necessary
+     * @param sectorNumber
+     * @param keyType
+     * @param key
+     * @return true if the authentication session is valid
+     */
+    public synchronized boolean isAuthenticated(int sectorNumber, String keyType, byte[] key) {
+        return (sessionSectorNumber == sectorNumber)
+                && (sessionKeyType.equals(keyType))
+                && (Arrays.equals(sessionKey, key));
+    }
+
+    /**
+     * forces a new authentication on the next command, e.g. after the tag was accessed outside of this class
+     */
+    public synchronized void invalidateAuthenticationSession() {
+        sessionSectorNumber = -1;
+        sessionKeyType = "";
+        sessionKey = null;
+    }
+
+    private void recordAuthentication(int sectorNumber, long startNanos, boolean success) {
+        traceSince(SessionTracer.CATEGORY_RF, success ? "authenticate" : "authenticateFailed", sectorNumber, startNanos);
+        ClassicMetrics currentMetrics = metrics;
+        if (currentMetrics == null) return;
+        currentMetrics.recordSince(success ? ClassicMetrics.OP_AUTHENTICATION : ClassicMetrics.OP_AUTHENTICATION_FAILED, sectorNumber, startNanos);
+    }
+
+    private void traceSince(String category, String name, int argument, long startNanos) {
+        SessionTracer currentTracer = tracer;
+        if (currentTracer != null) currentTracer.end(category, name, argument, startNanos);
+    }
+
+    private void startAuthenticationSession(int sectorNumber, String keyType, byte[] key) {
+        sessionSectorNumber = sectorNumber;
+        sessionKeyType = keyType;
+        sessionKey = key.clone();
+    }
+
+    public synchronized boolean authenticateSectorWithKey(int sectorNumber, byte[] key, String keyType) {
         if (keyType.equals(KEY_TYPE_A)) {
             return authenticateSectorWithKeyA(sectorNumber, key);
         } else {
@@ -159,7 +437,7 @@ public class Classic {
         }
     }
 
-    public String authenticateSectorWithKey (int sectorNumber, byte[] key){
+    public synchronized String authenticateSectorWithKey (int sectorNumber, byte[] key){
         boolean success = authenticateSectorWithKeyA(sectorNumber, key);
         if (success) {
             return "A";
@@ -173,60 +451,76 @@ public class Classic {
         }
     }
 
-    public byte[] readSector(int sectorNumber, byte[] key, String keyType) {
-        Log.d(TAG, "readSector: " + sectorNumber);
+    // checks the parameter and authenticates the sector for reading, the key is stored in the matrices on success
+    private boolean authenticateSectorForRead(int sectorNumber, byte[] key, String keyType) {
         // sanity checks
         if ((sectorNumber < 0) || (sectorNumber > (numberOfSectors - 1))) {
             errorCode = ERROR_WRONG_PARAMETER;
             errorCodeReason = "Wrong parameter (sectorNumber not in range 0.." + (numberOfSectors - 1) + "), aborted";
-            return null;
+            return false;
         }
         if ((key == null) || (key.length != 6)) {
             errorCode = ERROR_WRONG_PARAMETER;
             errorCodeReason = "Wrong parameter (key is NULL or not of length 6), aborted";
-            return null;
+            return false;
         }
         if ((!keyType.equals(KEY_TYPE_A)) && (!keyType.equals(KEY_TYPE_B))) {
             errorCode = ERROR_WRONG_PARAMETER;
             errorCodeReason = "Wrong parameter (keyType is not A or B), aborted";
-            return null;
+            return false;
         }
         boolean authSuccess = false;
         if (keyType.equals("A")) {
             authSuccess = authenticateSectorWithKeyA(sectorNumber, key);
             if (authSuccess) {
-                authenticationKeyMatrix[sectorNumber] = key;
+                authenticationKeyMatrix[sectorNumber] = key.clone();
                 authenticationKeyTypeMatrix[sectorNumber] = KEY_TYPE_A;
+                authenticationKeyIndexMatrix[sectorNumber] = keyDictionary.indexOf(KeyDictionary.bytesToKey(key));
+                putKeyToCache(sectorNumber, key, KEY_TYPE_A);
             }
         } else {
             authSuccess = authenticateSectorWithKeyB(sectorNumber, key);
             if (authSuccess) {
-                authenticationKeyMatrix[sectorNumber] = key;
+                authenticationKeyMatrix[sectorNumber] = key.clone();
                 authenticationKeyTypeMatrix[sectorNumber] = KEY_TYPE_B;
+                authenticationKeyIndexMatrix[sectorNumber] = keyDictionary.indexOf(KeyDictionary.bytesToKey(key));
+                putKeyToCache(sectorNumber, key, KEY_TYPE_B);
             }
         }
         if (!authSuccess) {
             authenticationKeyTypeMatrix[sectorNumber] = "";
-            errorCode = ERROR_MISSING_AUTHENTICATION;
-            errorCodeReason = ERROR_CODE_REASON_MISSING_AUTHENTICATION;
+            if (errorCode != ERROR_IOEXCEPTION) {
+                errorCode = ERROR_MISSING_AUTHENTICATION;
+                errorCodeReason = ERROR_CODE_REASON_MISSING_AUTHENTICATION;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized byte[] readSector(int sectorNumber, byte[] key, String keyType) {
+        Log.d(TAG, "readSector: " + sectorNumber);
+        if (!authenticateSectorForRead(sectorNumber, key, keyType)) {
             return null;
         }
         byte[] dataBytes = new byte[64]; // takes the data of all 4 blocks
         try {
-            int block_index = mfc.sectorToBlock(sectorNumber);
+            int block_index = transport.sectorToBlock(sectorNumber);
             // get block in sector
-            int blocksInSector = mfc.getBlockCountInSector(sectorNumber);
+            int blocksInSector = transport.getBlockCountInSector(sectorNumber);
             // get the data of each block
             dataBytes = new byte[(16 * blocksInSector)];
             for (int blockInSectorCount = 0; blockInSectorCount < blocksInSector; blockInSectorCount++) {
                 // get following data
                 byte[] block = new byte[0];
-                block = mfc.readBlock((block_index + blockInSectorCount));
+                block = readBlockFromTag((block_index + blockInSectorCount));
                 System.arraycopy(block, 0, dataBytes, (blockInSectorCount * 16), 16);
             }
             return dataBytes;
         } catch (IOException e) {
             Log.e(TAG, "IOException: " + e.getMessage());
+            // a failed read leaves the tag in the idle state
+            invalidateAuthenticationSession();
             errorCode = ERROR_IOEXCEPTION;
             errorCodeReason = "IOEXCEPTION: " + e.getMessage();
             return null;
@@ -234,27 +528,591 @@ public class Classic {
 
     }
 
+    /**
+     * reads a sector directly into the card image, the sector gets marked as read and the key is stored in the image.
+     * The read is planned with the access conditions (see ReadPlanner): the sector trailer is read first, then each
+     * block with a key type that is allowed to read it. If the key type of the given key can't read all blocks a key
+     * of the other type is searched in the key dictionary. Blocks that can't be read with the known keys are skipped
+     * and marked as unreadable in the image (see CardImage.isBlockRead).
+     * @param sectorNumber
+     * @param key
+     * @param keyType
+     * @param cardImage needs to have the size of the tag
+     * @return true on success. If false the sector data in the image may be incomplete, see getErrorCode
+     */
+    public synchronized boolean readSector(int sectorNumber, byte[] key, String keyType, CardImage cardImage) {
+        long startNanos = System.nanoTime();
+        try {
+            return readSectorToImage(sectorNumber, key, keyType, cardImage);
+        } finally {
+            traceSince(SessionTracer.CATEGORY_RF, "readSector", sectorNumber, startNanos);
+        }
+    }
+
+    private boolean readSectorToImage(int sectorNumber, byte[] key, String keyType, CardImage cardImage) {
+        Log.d(TAG, "readSector to cardImage: " + sectorNumber);
+        if (!authenticateSectorForRead(sectorNumber, key, keyType)) {
+            return false;
+        }
+        cardImage.setSectorRead(sectorNumber, false);
+        rememberSectorKey(sectorNumber, key, keyType);
+        int firstBlock = transport.sectorToBlock(sectorNumber);
+        int blocksInSector = transport.getBlockCountInSector(sectorNumber);
+        int trailerBlock = firstBlock + blocksInSector - 1;
+        try {
+            for (int blockIndex = firstBlock; blockIndex <= trailerBlock; blockIndex++) {
+                cardImage.setBlockUnreadable(blockIndex, false);
+            }
+            // the access conditions in the sector trailer decide which key type can read which block
+            boolean trailerRead = readBlockToImage(trailerBlock, cardImage);
+            if ((!trailerRead) && keyType.equals(KEY_TYPE_B)) {
+                // key B can't read the trailer if it is readable itself, key A can always read the access bits
+                trailerRead = authenticateWithSectorKey(sectorNumber, AccessConditionCodec.PERMISSION_KEY_A)
+                        && readBlockToImage(trailerBlock, cardImage);
+            }
+            int packed = AccessConditionCodec.INVALID;
+            if (trailerRead) {
+                packed = AccessConditionCodec.decode(cardImage.getData(), cardImage.getBlockOffset(trailerBlock) + 6);
+                sectorAccessConditions[sectorNumber] = packed;
+            } else {
+                cardImage.setBlockUnreadable(trailerBlock, true);
+            }
+            if (packed == AccessConditionCodec.INVALID) {
+                // the access conditions are unknown, try all blocks with the key
+                int permission = ReadPlanner.keyTypeToPermission(keyType);
+                for (int blockIndex = firstBlock; blockIndex < trailerBlock; blockIndex++) {
+                    if (!(authenticateWithSectorKey(sectorNumber, permission) && readBlockToImage(blockIndex, cardImage))) {
+                        cardImage.setBlockUnreadable(blockIndex, true);
+                    }
+                }
+            } else {
+                readPlannedBlocks(sectorNumber, firstBlock, blocksInSector, packed, cardImage);
+            }
+            cardImage.setSectorRead(sectorNumber, true);
+            cardImage.setSectorKey(sectorNumber, keyType, key);
+            errorCode = ERROR_OK;
+            errorCodeReason = ERROR_CODE_REASON_OK;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "IOException: " + e.getMessage());
+            // a failed read leaves the tag in the idle state
+            invalidateAuthenticationSession();
+            errorCode = ERROR_IOEXCEPTION;
+            errorCodeReason = "IOEXCEPTION: " + e.getMessage();
+            return false;
+        }
+    }
+
+    // reads the data blocks of the sector following the plan, the sector trailer is read before
+    private void readPlannedBlocks(int sectorNumber, int firstBlock, int blocksInSector, int packed, CardImage cardImage) throws IOException {
+        // all data blocks are read, the sector trailer was read before
+        int preferredKey = planSectorRead(sectorNumber, blocksInSector, (1 << (blocksInSector - 1)) - 1, packed);
+        // the blocks of the preferred key first, so there is at most one more authentication
+        int otherKey = AccessConditionCodec.PERMISSION_KEY_A_OR_B & ~preferredKey;
+        for (int keyType : new int[]{preferredKey, otherKey}) {
+            for (int blockInSector = 0; blockInSector < blocksInSector - 1; blockInSector++) {
+                if (readPlan[blockInSector] != keyType) continue;
+                int blockIndex = firstBlock + blockInSector;
+                if (!(authenticateWithSectorKey(sectorNumber, keyType) && readBlockToImage(blockIndex, cardImage))) {
+                    cardImage.setBlockUnreadable(blockIndex, true);
+                }
+            }
+        }
+        for (int blockInSector = 0; blockInSector < blocksInSector - 1; blockInSector++) {
+            if (readPlan[blockInSector] == ReadPlanner.SKIP) {
+                Log.d(TAG, "block " + (firstBlock + blockInSector) + " is not readable with the known keys, skipped");
+                cardImage.setBlockUnreadable(firstBlock + blockInSector, true);
+            }
+        }
+    }
+
+    // searches the key that is missing for the blocks to read (a bit mask of the blocks in the sector) and fills
+    // the readPlan for the sector, returns the preferred key type
+    private int planSectorRead(int sectorNumber, int blocksInSector, int blocksToRead, int packed) throws IOException {
+        int availableKeys = getSectorKeyTypes(sectorNumber);
+        int missingKey = ReadPlanner.getMissingKey(packed, blocksInSector, blocksToRead, availableKeys);
+        if ((missingKey != 0) && (searchSectorKeyOfType(sectorNumber, missingKey) != null)) {
+            availableKeys |= missingKey;
+        }
+        int preferredKey = getPreferredKey(sectorNumber, availableKeys);
+        ReadPlanner.planSector(packed, blocksInSector, preferredKey, availableKeys, readPlan);
+        return preferredKey;
+    }
+
+    // the key type of the authentication session if it is available, else key A
+    private int getPreferredKey(int sectorNumber, int availableKeys) {
+        int sessionKey = ReadPlanner.keyTypeToPermission(sessionKeyType);
+        int preferredKey = ((sessionSectorNumber == sectorNumber) && ((sessionKey & availableKeys) != 0)) ? sessionKey : (availableKeys & AccessConditionCodec.PERMISSION_KEY_A);
+        if (preferredKey == 0) preferredKey = availableKeys;
+        return preferredKey;
+    }
+
+    // reads the block into the card image, returns false if the tag denied the read, throws the IOException if the tag was lost
+    private boolean readBlockToImage(int blockIndex, CardImage cardImage) throws IOException {
+        byte[] block = readPermittedBlock(blockIndex);
+        if (block == null) return false;
+        System.arraycopy(block, 0, cardImage.getData(), cardImage.getBlockOffset(blockIndex), BLOCK_LENGTH);
+        return true;
+    }
+
+    // reads the block, returns NULL if the tag denied the read, throws the IOException if the tag was lost
+    private byte[] readPermittedBlock(int blockIndex) throws IOException {
+        try {
+            return readBlockFromTag(blockIndex);
+        } catch (IOException e) {
+            // a denied read leaves the tag in the idle state
+            invalidateAuthenticationSession();
+            if (!transport.isConnected()) throw e;
+            Log.d(TAG, "read of block " + blockIndex + " denied: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * section for the keys of each key type, used by the read planner
+     */
+
+    private void rememberSectorKey(int sectorNumber, byte[] key, String keyType) {
+        if (KEY_TYPE_A.equals(keyType)) {
+            sectorKeyAMatrix[sectorNumber] = key.clone();
+        } else {
+            sectorKeyBMatrix[sectorNumber] = key.clone();
+        }
+    }
+
+    // the key types with a known key for the sector as permission bit mask
+    private int getSectorKeyTypes(int sectorNumber) {
+        int keyTypes = 0;
+        if (sectorKeyAMatrix[sectorNumber] != null) keyTypes |= AccessConditionCodec.PERMISSION_KEY_A;
+        if (sectorKeyBMatrix[sectorNumber] != null) keyTypes |= AccessConditionCodec.PERMISSION_KEY_B;
+        return keyTypes;
+    }
+
+    // authenticates with the known key of the key type, no authentication is sent if the session is valid, throws the IOException if the tag was lost
+    private boolean authenticateWithSectorKey(int sectorNumber, int keyType) throws IOException {
+        byte[] key = (keyType == AccessConditionCodec.PERMISSION_KEY_A) ? sectorKeyAMatrix[sectorNumber] : sectorKeyBMatrix[sectorNumber];
+        if (key == null) {
+            key = searchSectorKeyOfType(sectorNumber, keyType);
+            if (key == null) return false;
+        }
+        boolean success = authenticateSectorWithKey(sectorNumber, key, ReadPlanner.permissionToKeyType(keyType));
+        if (errorCode == ERROR_IOEXCEPTION) throw new IOException(errorCodeReason);
+        return success;
+    }
+
+    // searches a key of one key type for the sector: the keys known for the other sectors and the cached keys of this tag,
+    // then the keys of the dictionary that were found on this tag before and then the other keys of the dictionary.
+    // Returns NULL if no key was found
+    private byte[] searchSectorKeyOfType(int sectorNumber, int keyType) throws IOException {
+        byte[][] sectorKeyMatrix = (keyType == AccessConditionCodec.PERMISSION_KEY_A) ? sectorKeyAMatrix : sectorKeyBMatrix;
+        if (sectorKeyMatrix[sectorNumber] != null) return sectorKeyMatrix[sectorNumber];
+        String keyTypeString = ReadPlanner.permissionToKeyType(keyType);
+        byte[] key = new byte[6];
+        long[] knownKeys = new long[4 * numberOfSectors];
+        int numberOfKnownKeys = collectKnownKeys(sectorNumber, knownKeys);
+        for (int i = 0; (i < numberOfKnownKeys) && (!isAbortRequested()); i++) {
+            KeyDictionary.keyToBytes(knownKeys[i], key);
+            if (authenticateWithSearchedKey(sectorNumber, key, keyTypeString)) {
+                sectorKeyMatrix[sectorNumber] = key;
+                return key;
+            }
+        }
+        int dictionarySize = numberOfKeyCandidates / 2;
+        int firstCandidate = (keyType == AccessConditionCodec.PERMISSION_KEY_A) ? 0 : dictionarySize;
+        // the proven candidates first, then the others of the key type
+        for (int pass = 0; pass < 2; pass++) {
+            int numberOfCandidates = (pass == 0) ? numberOfProvenCandidates : dictionarySize;
+            for (int i = 0; (i < numberOfCandidates) && (!isAbortRequested()); i++) {
+                int candidate = (pass == 0) ? provenCandidates[i] : firstCandidate + i;
+                if ((candidate < firstCandidate) || (candidate >= firstCandidate + dictionarySize)) continue;
+                if ((pass == 1) && (candidateHits[candidate] > 0)) continue; // was tried before
+                long candidateKey = keyDictionary.getKey(candidate - firstCandidate);
+                if (containsKey(knownKeys, numberOfKnownKeys, candidateKey)) continue; // was tried before
+                KeyDictionary.keyToBytes(candidateKey, key);
+                if (authenticateWithSearchedKey(sectorNumber, key, keyTypeString)) {
+                    addCandidateHit(candidate);
+                    sectorKeyMatrix[sectorNumber] = key;
+                    return key;
+                }
+            }
+        }
+        return null;
+    }
+
+    // throws the IOException if the tag was lost
+    private boolean authenticateWithSearchedKey(int sectorNumber, byte[] key, String keyType) throws IOException {
+        boolean success = authenticateSectorWithKey(sectorNumber, key, keyType);
+        if (errorCode == ERROR_IOEXCEPTION) throw new IOException(errorCodeReason);
+        return success;
+    }
+
+    // collects the keys of both types known for the other sectors and the cached keys of this tag, each key once
+    private int collectKnownKeys(int sectorNumber, long[] knownKeys) {
+        int numberOfKnownKeys = 0;
+        for (int otherSector = 0; otherSector < numberOfSectors; otherSector++) {
+            if (otherSector == sectorNumber) continue;
+            numberOfKnownKeys = addKnownKey(knownKeys, numberOfKnownKeys, sectorKeyAMatrix[otherSector]);
+            numberOfKnownKeys = addKnownKey(knownKeys, numberOfKnownKeys, sectorKeyBMatrix[otherSector]);
+            numberOfKnownKeys = addKnownKey(knownKeys, numberOfKnownKeys, authenticationKeyMatrix[otherSector]);
+        }
+        if ((keyCache == null) || (packedUid < 0)) return numberOfKnownKeys;
+        // the keys of the last read, the key of this sector can be of the other key type
+        for (int cachedSector = 0; cachedSector < numberOfSectors; cachedSector++) {
+            long cachedKey = keyCache.getKey(packedUid, cachedSector);
+            if ((cachedKey < 0) || containsKey(knownKeys, numberOfKnownKeys, cachedKey)) continue;
+            knownKeys[numberOfKnownKeys++] = cachedKey;
+        }
+        return numberOfKnownKeys;
+    }
 
-    public byte[] readOneBlock(int blockNumber, byte[] key) {
-        byte[] block;
-        int secCnt = mfc.blockToSector(blockNumber);
-        System.out.println("readBlock for block " + blockNumber + " is in sector " + secCnt);
+    private static int addKnownKey(long[] knownKeys, int numberOfKnownKeys, byte[] key) {
+        if (key == null) return numberOfKnownKeys;
+        long packedKey = KeyDictionary.bytesToKey(key);
+        if (containsKey(knownKeys, numberOfKnownKeys, packedKey)) return numberOfKnownKeys;
+        knownKeys[numberOfKnownKeys] = packedKey;
+        return numberOfKnownKeys + 1;
+    }
+
+    private static boolean containsKey(long[] keys, int numberOfKeys, long key) {
+        for (int i = 0; i < numberOfKeys; i++) {
+            if (keys[i] == key) return true;
+        }
+        return false;
+    }
+
+    /**
+     * reads one block with the key, key A is tried first and then key B.
+     * No new authentication is done if the tag is still authenticated to the sector with this key.
+     * For more than one block see readBlocks
+     * @return the data of the block or NULL on failure, see getErrorCode
+     */
+    public synchronized byte[] readOneBlock(int blockNumber, byte[] key) {
+        if ((blockNumber < 0) || (blockNumber >= transport.getBlockCount())) {
+            errorCode = ERROR_WRONG_PARAMETER;
+            errorCodeReason = "Wrong parameter (blockNumber not in range 0.." + (transport.getBlockCount() - 1) + "), aborted";
+            return null;
+        }
+        int sectorNumber = transport.blockToSector(blockNumber);
+        Log.d(TAG, "readOneBlock: block " + blockNumber + " in sector " + sectorNumber);
+        if ((!isAuthenticated(sectorNumber, KEY_TYPE_A, key)) && (!isAuthenticated(sectorNumber, KEY_TYPE_B, key))) {
+            if (authenticateSectorWithKey(sectorNumber, key).equals("")) {
+                if (errorCode != ERROR_IOEXCEPTION) {
+                    errorCode = ERROR_MISSING_AUTHENTICATION;
+                    errorCodeReason = ERROR_CODE_REASON_MISSING_AUTHENTICATION;
+                }
+                return null;
+            }
+        }
         try {
-            mfc.authenticateSectorWithKeyB(secCnt, key);
-            block = mfc.readBlock(blockNumber);
+            byte[] block = readBlockFromTag(blockNumber);
+            errorCode = ERROR_OK;
+            errorCodeReason = ERROR_CODE_REASON_OK;
+            return block;
         } catch (IOException e) {
-            //throw new RuntimeException(e);
-            System.out.println("RuntimeException: " + e.getMessage());
+            Log.e(TAG, "IOException: " + e.getMessage());
+            invalidateAuthenticationSession();
+            errorCode = ERROR_IOEXCEPTION;
+            errorCodeReason = "IOEXCEPTION: " + e.getMessage();
             return null;
         }
-        return block;
     }
 
+    /**
+     * reads any number of blocks with the fewest commands: the blocks are read in ascending order, so the
+     * blocks of one sector are read with one authentication. For each sector the key of the current
+     * authentication session, the key found before (see getAuthenticationKeyMatrix), the key cache and then
+     * the keys of the key dictionary are tried. The blocks are read with the key found, the sector trailer is read
+     * only if a read is denied: its access conditions decide which key type reads which block (see ReadPlanner) and
+     * the key of the other type is searched if a requested block needs it. The access conditions are kept for the
+     * next reads of the sector, so a sector trailer is read at most once.
+     * If a read is denied the remaining blocks are read and the error code is ERROR_ACCESS_DENIED,
+     * the read is stopped when the tag is lost (ERROR_IOEXCEPTION).
+     * @param blockNumbers the blocks in any order, a block that is given more than once is read once
+     * @return the data of each block in the order of blockNumbers, an entry is NULL if the block could not
+     * get read (see getErrorCode for the last error). Returns NULL if a block number is out of range
+     */
+    public synchronized byte[][] readBlocks(int[] blockNumbers) {
+        int blockCount = transport.getBlockCount();
+        if (blockNumbers == null) {
+            errorCode = ERROR_WRONG_PARAMETER;
+            errorCodeReason = "Wrong parameter (blockNumbers is NULL), aborted";
+            return null;
+        }
+        // the block number in the upper and the position in blockNumbers in the lower 32 bits, sorted by the block number
+        long[] order = new long[blockNumbers.length];
+        for (int position = 0; position < blockNumbers.length; position++) {
+            int blockNumber = blockNumbers[position];
+            if ((blockNumber < 0) || (blockNumber >= blockCount)) {
+                errorCode = ERROR_WRONG_PARAMETER;
+                errorCodeReason = "Wrong parameter (blockNumber " + blockNumber + " not in range 0.." + (blockCount - 1) + "), aborted";
+                return null;
+            }
+            order[position] = ((long) blockNumber << 32) | position;
+        }
+        Arrays.sort(order);
+        byte[][] blocks = new byte[blockNumbers.length][];
+        int lastErrorCode = ERROR_OK;
+        String lastErrorCodeReason = ERROR_CODE_REASON_OK;
+        int failedSectorNumber = -1; // no key was found for this sector
+        int plannedSectorNumber = -1; // the readPlan is valid for this sector
+        int requestedBlocks = 0; // the requested blocks of the planned sector as bit mask
+        boolean trailerPlanned = false; // the readPlan follows the access conditions or the sector trailer can't be read
+        for (int i = 0; i < order.length; i++) {
+            int blockNumber = (int) (order[i] >>> 32);
+            int position = (int) order[i];
+            if ((i > 0) && (blockNumber == (int) (order[i - 1] >>> 32))) {
+                // the block was read before
+                byte[] block = blocks[(int) order[i - 1]];
+                blocks[position] = (block == null) ? null : block.clone();
+                continue;
+            }
+            int sectorNumber = transport.blockToSector(blockNumber);
+            if (sectorNumber == failedSectorNumber) continue;
+            try {
+                if (sectorNumber != plannedSectorNumber) {
+                    requestedBlocks = getRequestedBlocksInSector(order, i, sectorNumber);
+                    if (!planSectorForBlockRead(sectorNumber, requestedBlocks)) {
+                        if (isSearchStopped()) {
+                            lastErrorCode = errorCode;
+                            lastErrorCodeReason = errorCodeReason;
+                            break;
+                        }
+                        failedSectorNumber = sectorNumber;
+                        lastErrorCode = ERROR_MISSING_AUTHENTICATION;
+                        lastErrorCodeReason = ERROR_CODE_REASON_MISSING_AUTHENTICATION + " for sector " + sectorNumber;
+                        continue;
+                    }
+                    plannedSectorNumber = sectorNumber;
+                    trailerPlanned = (sectorAccessConditions[sectorNumber] != AccessConditionCodec.INVALID);
+                }
+                int blockInSector = blockNumber - transport.sectorToBlock(sectorNumber);
+                int keyType = readPlan[blockInSector];
+                if ((keyType != ReadPlanner.SKIP) && authenticateWithSectorKey(sectorNumber, keyType)) {
+                    blocks[position] = readPermittedBlock(blockNumber);
+                }
+                if ((blocks[position] == null) && (!trailerPlanned) && (!isAbortRequested())) {
+                    // the read was denied, the access conditions of the sector trailer show the key type for the block
+                    byte[] trailer = planSectorWithTrailer(sectorNumber, requestedBlocks);
+                    trailerPlanned = true;
+                    if (blockInSector == transport.getBlockCountInSector(sectorNumber) - 1) {
+                        blocks[position] = trailer;
+                    } else if ((readPlan[blockInSector] != keyType) && (readPlan[blockInSector] != ReadPlanner.SKIP)
+                            && authenticateWithSectorKey(sectorNumber, readPlan[blockInSector])) {
+                        blocks[position] = readPermittedBlock(blockNumber);
+                    }
+                } else if ((blocks[position] != null) && (blockInSector == transport.getBlockCountInSector(sectorNumber) - 1)) {
+                    // the access conditions of a sector trailer that was read are kept for the next reads
+                    sectorAccessConditions[sectorNumber] = AccessConditionCodec.decode(blocks[position], 6);
+                }
+                if (isAbortRequested()) {
+                    lastErrorCode = errorCode;
+                    lastErrorCodeReason = errorCodeReason;
+                    break;
+                }
+                if (blocks[position] == null) {
+                    // the tag is still present, the access conditions do not allow the read with the known keys
+                    lastErrorCode = ERROR_ACCESS_DENIED;
+                    lastErrorCodeReason = ERROR_CODE_REASON_ACCESS_DENIED + " for block " + blockNumber;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "IOException on block " + blockNumber + ": " + e.getMessage());
+                // the tag was lost
+                invalidateAuthenticationSession();
+                lastErrorCode = ERROR_IOEXCEPTION;
+                lastErrorCodeReason = "IOEXCEPTION: " + e.getMessage();
+                break;
+            }
+        }
+        errorCode = lastErrorCode;
+        errorCodeReason = lastErrorCodeReason;
+        return blocks;
+    }
+
+    // the requested blocks of the sector as bit mask, order is sorted and the block at first is in the sector
+    private int getRequestedBlocksInSector(long[] order, int first, int sectorNumber) {
+        int firstBlock = transport.sectorToBlock(sectorNumber);
+        int lastBlock = firstBlock + transport.getBlockCountInSector(sectorNumber) - 1;
+        int requestedBlocks = 0;
+        for (int i = first; i < order.length; i++) {
+            int blockNumber = (int) (order[i] >>> 32);
+            if (blockNumber > lastBlock) break;
+            requestedBlocks |= 1 << (blockNumber - firstBlock);
+        }
+        return requestedBlocks;
+    }
+
+    // finds a key for the sector and plans the key type of each block with the access conditions known for the sector,
+    // if they are unknown all blocks are planned with the key found. Returns false if no key was found,
+    // throws the IOException if the tag was lost
+    private boolean planSectorForBlockRead(int sectorNumber, int requestedBlocks) throws IOException {
+        if (getSectorKeyTypes(sectorNumber) == 0) {
+            if (!authenticateSectorForBlockRead(sectorNumber)) {
+                if (errorCode == ERROR_IOEXCEPTION) throw new IOException(errorCodeReason);
+                return false;
+            }
+            rememberSectorKey(sectorNumber, sessionKey, sessionKeyType);
+        }
+        int blocksInSector = transport.getBlockCountInSector(sectorNumber);
+        int packed = sectorAccessConditions[sectorNumber];
+        if (packed == AccessConditionCodec.INVALID) {
+            Arrays.fill(readPlan, 0, blocksInSector, getPreferredKey(sectorNumber, getSectorKeyTypes(sectorNumber)));
+        } else {
+            planSectorRead(sectorNumber, blocksInSector, requestedBlocks, packed);
+        }
+        return true;
+    }
+
+    // reads the sector trailer and plans the requested blocks with its access conditions, they are kept for the next reads.
+    // Returns the sector trailer or NULL if it can't be read (the readPlan is unchanged), throws the IOException if the tag was lost
+    private byte[] planSectorWithTrailer(int sectorNumber, int requestedBlocks) throws IOException {
+        int availableKeys = getSectorKeyTypes(sectorNumber);
+        int blocksInSector = transport.getBlockCountInSector(sectorNumber);
+        int trailerBlock = transport.sectorToBlock(sectorNumber) + blocksInSector - 1;
+        int trailerKey = ((availableKeys & AccessConditionCodec.PERMISSION_KEY_A) != 0) ? AccessConditionCodec.PERMISSION_KEY_A : AccessConditionCodec.PERMISSION_KEY_B;
+        byte[] trailer = authenticateWithSectorKey(sectorNumber, trailerKey) ? readPermittedBlock(trailerBlock) : null;
+        if ((trailer == null) && (trailerKey == AccessConditionCodec.PERMISSION_KEY_B) && (!isAbortRequested())) {
+            // key B can't read the trailer if it is readable itself, key A can always read the access bits
+            trailer = authenticateWithSectorKey(sectorNumber, AccessConditionCodec.PERMISSION_KEY_A) ? readPermittedBlock(trailerBlock) : null;
+        }
+        int packed = (trailer == null) ? AccessConditionCodec.INVALID : AccessConditionCodec.decode(trailer, 6);
+        if (packed != AccessConditionCodec.INVALID) {
+            sectorAccessConditions[sectorNumber] = packed;
+            planSectorRead(sectorNumber, blocksInSector, requestedBlocks, packed);
+        }
+        return trailer;
+    }
+
+    // authenticates with the key found before for this sector or searches the key
+    private boolean authenticateSectorForBlockRead(int sectorNumber) {
+        String keyType = authenticationKeyTypeMatrix[sectorNumber];
+        byte[] key = authenticationKeyMatrix[sectorNumber];
+        if ((key != null) && (KEY_TYPE_A.equals(keyType) || KEY_TYPE_B.equals(keyType))) {
+            if (authenticateSectorWithKey(sectorNumber, key, keyType)) return true;
+            if (errorCode == ERROR_IOEXCEPTION) return false;
+        }
+        return searchSectorKey(sectorNumber);
+    }
+
+    /**
+     * section for the operations with a ClassicResult, the result contains the status of the operation and is
+     * independent of later operations of other threads
+     */
+
+    /**
+     * authenticates the sector with the key, no authentication is sent if the tag is still authenticated with this key
+     * @param keyType KEY_TYPE_A or KEY_TYPE_B
+     */
+    public synchronized ClassicResult authenticateSectorResult(int sectorNumber, byte[] key, String keyType) {
+        long startNanos = System.nanoTime();
+        boolean success = authenticateSectorForRead(sectorNumber, key, keyType);
+        if (success) {
+            errorCode = ERROR_OK;
+            errorCodeReason = ERROR_CODE_REASON_OK;
+        }
+        return createResult(startNanos, sectorNumber, null, success ? keyType : null, success ? key : null);
+    }
+
+    /**
+     * reads all blocks of the sector (see readSector)
+     * @return the result with the data of the sector on success
+     */
+    public synchronized ClassicResult readSectorResult(int sectorNumber, byte[] key, String keyType) {
+        long startNanos = System.nanoTime();
+        byte[] data = readSector(sectorNumber, key, keyType);
+        if (data != null) {
+            errorCode = ERROR_OK;
+            errorCodeReason = ERROR_CODE_REASON_OK;
+        }
+        return createResult(startNanos, sectorNumber, data, (data == null) ? null : keyType, (data == null) ? null : key);
+    }
+
+    /**
+     * reads one block with the key, key A is tried first and then key B (see readOneBlock)
+     * @return the result with the data of the block and the key type that was used on success
+     */
+    public synchronized ClassicResult readBlockResult(int blockNumber, byte[] key) {
+        long startNanos = System.nanoTime();
+        byte[] data = readOneBlock(blockNumber, key);
+        int sectorNumber = ((blockNumber >= 0) && (blockNumber < transport.getBlockCount())) ? transport.blockToSector(blockNumber) : -1;
+        // the session is still valid after a successful read
+        String keyType = (data == null) ? null : sessionKeyType;
+        return createResult(startNanos, sectorNumber, data, keyType, (data == null) ? null : key);
+    }
+
+    // takes the status of the last command, needs to be called within the same synchronized method
+    private ClassicResult createResult(long startNanos, int sectorNumber, byte[] data, String keyType, byte[] key) {
+        return new ClassicResult(errorCode, errorCodeReason, data, System.nanoTime() - startNanos, sectorNumber, keyType, key);
+    }
+
+    /**
+     * section for the read path
+     */
+
+    /**
+     * if enabled the blocks are read with a raw READ command (0x30 and the block number) by transceive
+     * instead of readBlock of the transport (the MifareClassic API), the default is disabled
+     */
+    public synchronized void setRawRead(boolean rawRead) {
+        this.rawRead = rawRead;
+    }
+
+    public synchronized boolean isRawRead() {
+        return rawRead;
+    }
+
+    /**
+     * sets the timeout of all following commands to the tag
+     * @param timeoutMillis in milliseconds
+     */
+    public synchronized void setTimeout(int timeoutMillis) {
+        transport.setTimeout(timeoutMillis);
+    }
+
+    public synchronized int getTimeout() {
+        return transport.getTimeout();
+    }
+
+    private byte[] readBlockFromTag(int blockIndex) throws IOException {
+        if ((metrics == null) && (tracer == null)) {
+            return readBlockFromTransport(blockIndex);
+        }
+        long startNanos = System.nanoTime();
+        boolean success = false;
+        try {
+            byte[] block = readBlockFromTransport(blockIndex);
+            success = true;
+            return block;
+        } finally {
+            traceSince(SessionTracer.CATEGORY_RF, success ? "readBlock" : "readBlockFailed", blockIndex, startNanos);
+            ClassicMetrics currentMetrics = metrics;
+            if (currentMetrics != null) {
+                currentMetrics.recordSince(success ? ClassicMetrics.OP_READ_BLOCK : ClassicMetrics.OP_READ_BLOCK_FAILED,
+                        transport.blockToSector(blockIndex), startNanos);
+            }
+        }
+    }
+
+    private byte[] readBlockFromTransport(int blockIndex) throws IOException {
+        if (!rawRead) {
+            return transport.readBlock(blockIndex);
+        }
+        readCommand[1] = (byte) blockIndex;
+        byte[] response = transport.transceive(readCommand);
+        if ((response == null) || (response.length != BLOCK_LENGTH)) {
+            // a NAK of the tag is shorter than a block
+            throw new IOException("READ of block " + blockIndex + " failed, response length " + ((response == null) ? 0 : response.length));
+        }
+        return response;
+    }
 
     /**
      * section for getters
      */
 
+    public MifareClassicTransport getTransport() {
+        return transport;
+    }
+
     public MifareClassicTagDetails getTagDetails() {
         return tagDetails;
     }
@@ -263,23 +1121,55 @@ public class Classic {
         return READ_ONE_BLOCK_COMMAND;
     }
 
-    public int getErrorCode() {
+    /**
+     * the errorCode of the last command of any thread, if the instance is shared use the methods with a ClassicResult
+     */
+    public synchronized int getErrorCode() {
         return errorCode;
     }
 
-    public String getErrorCodeReason() {
+    public synchronized String getErrorCodeReason() {
         return errorCodeReason;
     }
 
-    public byte[][] getAuthenticationKeyMatrix() {
-        return authenticationKeyMatrix;
+    /**
+     * returns a copy of the key found for each sector, NULL if no key was found
+     */
+    /**
+     * returns a copy of the key found for each sector, NULL if no key was found
+     */
+    public synchronized byte[][] getAuthenticationKeyMatrix() {
+        byte[][] keyMatrix = new byte[numberOfSectors][];
+        for (int sectorNumber = 0; sectorNumber < numberOfSectors; sectorNumber++) {
+            if (authenticationKeyMatrix[sectorNumber] != null) {
+                keyMatrix[sectorNumber] = authenticationKeyMatrix[sectorNumber].clone();
+            }
+        }
+        return keyMatrix;
     }
 
-    public String[] getAuthenticationKeyTypeMatrix() {
-        return authenticationKeyTypeMatrix;
+    public synchronized String[] getAuthenticationKeyTypeMatrix() {
+        return authenticationKeyTypeMatrix.clone();
     }
 
-    public String[] getAuthenticationKeySourceMatrix() {
+    /**
+     * returns the name of the key dictionary entry for each sector, NULL if the key was not found in the dictionary
+     */
+    public synchronized String[] getAuthenticationKeySourceMatrix() {
+        String[] authenticationKeySourceMatrix = new String[numberOfSectors];
+        for (int sectorNumber = 0; sectorNumber < numberOfSectors; sectorNumber++) {
+            if (authenticationKeyIndexMatrix[sectorNumber] >= 0) {
+                authenticationKeySourceMatrix[sectorNumber] = keyDictionary.getKeyName(authenticationKeyIndexMatrix[sectorNumber]);
+            }
+        }
         return authenticationKeySourceMatrix;
     }
+
+    public synchronized int[] getAuthenticationKeyIndexMatrix() {
+        return authenticationKeyIndexMatrix.clone();
+    }
+
+    public synchronized KeyDictionary getKeyDictionary() {
+        return keyDictionary;
+    }
 }
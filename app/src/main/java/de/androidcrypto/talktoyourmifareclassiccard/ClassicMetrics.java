@@ -0,0 +1,295 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts the operations of Classic (authentications, block reads), the connects and the complete reads
+ * of tags and collects their latency in histograms, for each operation in total and for each sector.
+ * The counters are lock free (AtomicLongArray), so recording is cheap and can be done from any thread. One
+ * instance is usually used for all tags of one family (Classic Mini, 1K, 2K or 4K, see getFamily), so the
+ * percentiles show the latency of this family.
+ * The histograms have fixed buckets on a log2 scale of microseconds: bucket 0 takes the latencies below 1 us,
+ * bucket b the latencies from 2^(b-1) us to below 2^b us, the last bucket all latencies above. A percentile is
+ * the upper bound of its bucket, so it is accurate within a factor of 2.
+ */
+
+public class ClassicMetrics {
+
+    public static final int OP_AUTHENTICATION = 0;
+    public static final int OP_AUTHENTICATION_FAILED = 1;
+    public static final int OP_READ_BLOCK = 2;
+    public static final int OP_READ_BLOCK_FAILED = 3;
+    public static final int OP_CONNECT = 4;
+    public static final int OP_READ_TAG = 5; // the complete read of a tag, the tap latency
+    public static final int NUMBER_OF_OPERATIONS = 6;
+    private static final String[] OPERATION_NAMES = {"authentication", "authenticationFailed", "readBlock",
+            "readBlockFailed", "connect", "readTag"};
+    public static final int NUMBER_OF_BUCKETS = 32;
+    public static final int MAXIMUM_NUMBER_OF_SECTORS = 40; // Mifare Classic 4K
+    public static final int ALL_SECTORS = -1;
+    private static final int SLOT_ALL_SECTORS = MAXIMUM_NUMBER_OF_SECTORS;
+    private static final int NUMBER_OF_SLOTS = MAXIMUM_NUMBER_OF_SECTORS + 1;
+
+    public static final String[] FAMILY_NAMES = {"Classic Mini", "Classic 1K", "Classic 2K", "Classic 4K"};
+
+    private final String name;
+    // index operation * NUMBER_OF_SLOTS + slot, the slot is the sector or SLOT_ALL_SECTORS
+    private final AtomicLongArray counts = new AtomicLongArray(NUMBER_OF_OPERATIONS * NUMBER_OF_SLOTS);
+    private final AtomicLongArray totalNanos = new AtomicLongArray(NUMBER_OF_OPERATIONS * NUMBER_OF_SLOTS);
+    private final AtomicLongArray maximumNanos = new AtomicLongArray(NUMBER_OF_OPERATIONS * NUMBER_OF_SLOTS);
+    // index (operation * NUMBER_OF_SLOTS + slot) * NUMBER_OF_BUCKETS + bucket
+    private final AtomicLongArray histograms = new AtomicLongArray(NUMBER_OF_OPERATIONS * NUMBER_OF_SLOTS * NUMBER_OF_BUCKETS);
+
+    /**
+     * @param name the name of the metrics in the export, e.g. the family of the tags
+     */
+    public ClassicMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the index of the family of a tag with this memory size in FAMILY_NAMES
+     */
+    public static int getFamily(int tagSize) {
+        if (tagSize <= CardImage.SIZE_MINI) return 0;
+        if (tagSize <= CardImage.SIZE_1K) return 1;
+        if (tagSize <= CardImage.SIZE_2K) return 2;
+        return 3;
+    }
+
+    public static String getOperationName(int operation) {
+        return OPERATION_NAMES[operation];
+    }
+
+    /**
+     * section for recording
+     */
+
+    /**
+     * records one operation, it is counted for the sector and in total
+     * @param operation   one of the OP_ constants
+     * @param sectorIndex the sector of the operation or ALL_SECTORS if it is not for a sector (e.g. OP_CONNECT)
+     * @param nanos       the latency of the operation
+     */
+    public void record(int operation, int sectorIndex, long nanos) {
+        if ((operation < 0) || (operation >= NUMBER_OF_OPERATIONS)) {
+            throw new IllegalArgumentException("unknown operation: " + operation);
+        }
+        if (nanos < 0) nanos = 0;
+        int bucket = getBucket(nanos);
+        if ((sectorIndex >= 0) && (sectorIndex < MAXIMUM_NUMBER_OF_SECTORS)) {
+            recordSlot(operation * NUMBER_OF_SLOTS + sectorIndex, bucket, nanos);
+        }
+        recordSlot(operation * NUMBER_OF_SLOTS + SLOT_ALL_SECTORS, bucket, nanos);
+    }
+
+    /**
+     * records one operation that started at startNanos (System.nanoTime) and ends now
+     */
+    public void recordSince(int operation, int sectorIndex, long startNanos) {
+        record(operation, sectorIndex, System.nanoTime() - startNanos);
+    }
+
+    private void recordSlot(int index, int bucket, long nanos) {
+        counts.incrementAndGet(index);
+        totalNanos.addAndGet(index, nanos);
+        histograms.incrementAndGet(index * NUMBER_OF_BUCKETS + bucket);
+        long maximum = maximumNanos.get(index);
+        while ((nanos > maximum) && (!maximumNanos.compareAndSet(index, maximum, nanos))) {
+            maximum = maximumNanos.get(index);
+        }
+    }
+
+    static int getBucket(long nanos) {
+        long micros = nanos / 1000;
+        if (micros == 0) return 0;
+        return Math.min(NUMBER_OF_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @return the upper bound of the bucket in nanoseconds, Long.MAX_VALUE for the last bucket
+     */
+    public static long getBucketUpperBoundNanos(int bucket) {
+        if (bucket >= NUMBER_OF_BUCKETS - 1) return Long.MAX_VALUE;
+        return (1L << bucket) * 1000;
+    }
+
+    /**
+     * resets all counters, operations recorded at the same time by other threads may be counted partially
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+            totalNanos.set(i, 0);
+            maximumNanos.set(i, 0);
+        }
+        for (int i = 0; i < histograms.length(); i++) {
+            histograms.set(i, 0);
+        }
+    }
+
+    /**
+     * section for queries, sectorIndex is ALL_SECTORS for the total of all sectors
+     */
+
+    private static int getIndex(int operation, int sectorIndex) {
+        if ((operation < 0) || (operation >= NUMBER_OF_OPERATIONS)) {
+            throw new IllegalArgumentException("unknown operation: " + operation);
+        }
+        if (sectorIndex == ALL_SECTORS) return operation * NUMBER_OF_SLOTS + SLOT_ALL_SECTORS;
+        if ((sectorIndex < 0) || (sectorIndex >= MAXIMUM_NUMBER_OF_SECTORS)) {
+            throw new IllegalArgumentException("sectorIndex out of range 0.." + (MAXIMUM_NUMBER_OF_SECTORS - 1) + ": " + sectorIndex);
+        }
+        return operation * NUMBER_OF_SLOTS + sectorIndex;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount(int operation) {
+        return getCount(operation, ALL_SECTORS);
+    }
+
+    public long getCount(int operation, int sectorIndex) {
+        return counts.get(getIndex(operation, sectorIndex));
+    }
+
+    public long getTotalNanos(int operation, int sectorIndex) {
+        return totalNanos.get(getIndex(operation, sectorIndex));
+    }
+
+    public long getMaximumNanos(int operation, int sectorIndex) {
+        return maximumNanos.get(getIndex(operation, sectorIndex));
+    }
+
+    public long getMeanNanos(int operation, int sectorIndex) {
+        int index = getIndex(operation, sectorIndex);
+        long count = counts.get(index);
+        return (count == 0) ? 0 : totalNanos.get(index) / count;
+    }
+
+    /**
+     * @return a copy of the histogram, the number of operations in each bucket
+     */
+    public long[] getHistogram(int operation, int sectorIndex) {
+        int offset = getIndex(operation, sectorIndex) * NUMBER_OF_BUCKETS;
+        long[] histogram = new long[NUMBER_OF_BUCKETS];
+        for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+            histogram[bucket] = histograms.get(offset + bucket);
+        }
+        return histogram;
+    }
+
+    /**
+     * @param percentile 0.0 .. 1.0, e.g. 0.5 for the median or 0.99
+     * @return the upper bound of the bucket with the percentile (at most the maximum latency), 0 if nothing was recorded
+     */
+    public long getPercentileNanos(int operation, int sectorIndex, double percentile) {
+        long[] histogram = getHistogram(operation, sectorIndex);
+        long count = 0;
+        for (long bucketCount : histogram) count += bucketCount;
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long maximum = getMaximumNanos(operation, sectorIndex);
+        long cumulated = 0;
+        for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+            cumulated += histogram[bucket];
+            if (cumulated >= rank) return Math.min(getBucketUpperBoundNanos(bucket), maximum);
+        }
+        return maximum;
+    }
+
+    /**
+     * @return one line for each recorded operation with the count, p50, p99 and maximum latency in milliseconds
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name);
+        for (int operation = 0; operation < NUMBER_OF_OPERATIONS; operation++) {
+            long count = getCount(operation);
+            if (count == 0) continue;
+            sb.append('\n').append(OPERATION_NAMES[operation]).append(": ").append(count)
+                    .append(" p50 ").append(toMillis(getPercentileNanos(operation, ALL_SECTORS, 0.5)))
+                    .append(" ms p99 ").append(toMillis(getPercentileNanos(operation, ALL_SECTORS, 0.99)))
+                    .append(" ms max ").append(toMillis(getMaximumNanos(operation, ALL_SECTORS))).append(" ms");
+        }
+        return sb.toString();
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.US, "%.2f", nanos / 1e6);
+    }
+
+    /**
+     * section for the export
+     */
+
+    /**
+     * writes the metrics as one JSON object:
+     * {"name":"..","operations":{"readBlock":{"count":..,"totalNanos":..,"maxNanos":..,"p50Nanos":..,"p99Nanos":..,
+     * "histogram":[..],"sectors":{"0":{"count":..,..},..}},..}}
+     * The histogram has NUMBER_OF_BUCKETS entries, operations and sectors without a count are omitted.
+     */
+    public void writeJson(Appendable out) throws IOException {
+        out.append("{\"name\":\"").append(name).append("\",\"bucketUnit\":\"log2 microseconds\",\"operations\":{");
+        boolean firstOperation = true;
+        for (int operation = 0; operation < NUMBER_OF_OPERATIONS; operation++) {
+            if (getCount(operation) == 0) continue;
+            if (!firstOperation) out.append(',');
+            firstOperation = false;
+            out.append('"').append(OPERATION_NAMES[operation]).append("\":");
+            writeSlotJson(out, operation, ALL_SECTORS);
+        }
+        out.append("}}\n");
+    }
+
+    private void writeSlotJson(Appendable out, int operation, int sectorIndex) throws IOException {
+        out.append("{\"count\":").append(Long.toString(getCount(operation, sectorIndex)))
+                .append(",\"totalNanos\":").append(Long.toString(getTotalNanos(operation, sectorIndex)))
+                .append(",\"maxNanos\":").append(Long.toString(getMaximumNanos(operation, sectorIndex)))
+                .append(",\"p50Nanos\":").append(Long.toString(getPercentileNanos(operation, sectorIndex, 0.5)))
+                .append(",\"p99Nanos\":").append(Long.toString(getPercentileNanos(operation, sectorIndex, 0.99)))
+                .append(",\"histogram\":[");
+        long[] histogram = getHistogram(operation, sectorIndex);
+        for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+            if (bucket > 0) out.append(',');
+            out.append(Long.toString(histogram[bucket]));
+        }
+        out.append(']');
+        if (sectorIndex == ALL_SECTORS) {
+            out.append(",\"sectors\":{");
+            boolean firstSector = true;
+            for (int sector = 0; sector < MAXIMUM_NUMBER_OF_SECTORS; sector++) {
+                if (getCount(operation, sector) == 0) continue;
+                if (!firstSector) out.append(',');
+                firstSector = false;
+                out.append('"').append(Integer.toString(sector)).append("\":");
+                writeSlotJson(out, operation, sector);
+            }
+            out.append('}');
+        }
+        out.append('}');
+    }
+
+    public void save(OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        writeJson(writer);
+        writer.flush();
+    }
+
+    public void save(File file) throws IOException {
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            save(outputStream);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+/**
+ * This class takes the result of one operation of Classic (see Classic.authenticateSectorResult, readSectorResult
+ * and readBlockResult): the status, the data read, the time of the operation and the key that was used.
+ * A result is immutable, so it can be passed to other threads. The data and key are copied on each get.
+ */
+
+public class ClassicResult {
+
+    private final int status; // one of the Classic.ERROR_ codes
+    private final String statusReason;
+    private final byte[] data; // NULL if no data was read
+    private final long latencyNanos;
+    private final int sectorNumber;
+    private final String keyType; // Classic.KEY_TYPE_A, Classic.KEY_TYPE_B or NULL if no key was used
+    private final byte[] key;
+
+    public ClassicResult(int status, String statusReason, byte[] data, long latencyNanos, int sectorNumber, String keyType, byte[] key) {
+        this.status = status;
+        this.statusReason = statusReason;
+        this.data = (data == null) ? null : data.clone();
+        this.latencyNanos = latencyNanos;
+        this.sectorNumber = sectorNumber;
+        this.keyType = keyType;
+        this.key = (key == null) ? null : key.clone();
+    }
+
+    public boolean isSuccess() {
+        return status == Classic.ERROR_OK;
+    }
+
+    /**
+     * section for getters
+     */
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getStatusReason() {
+        return statusReason;
+    }
+
+    public byte[] getData() {
+        return (data == null) ? null : data.clone();
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public int getSectorNumber() {
+        return sectorNumber;
+    }
+
+    public String getKeyType() {
+        return keyType;
+    }
+
+    public byte[] getKey() {
+        return (key == null) ? null : key.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "ClassicResult{status=" + status + " (" + statusReason + "), sector=" + sectorNumber
+                + ", keyType=" + keyType + ", data=" + ((data == null) ? 0 : data.length) + " bytes, latency="
+                + (latencyNanos / 1000) + " us}";
+    }
+}
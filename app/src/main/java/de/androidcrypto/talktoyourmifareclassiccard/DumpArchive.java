@@ -0,0 +1,634 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * This class stores every read of a tag as a record in append-only segment files in one directory. A record has
+ * a header of HEADER_LENGTH bytes with the UID, the capture timestamp (seconds, see Utils.getActualInstant) and the
+ * read sectors, followed by a body with the keys, the unreadable blocks and the memory of the tag as block ids of
+ * a BlockStore (blocks.dat in the directory). Each different block is stored once, so the many equal blocks of the
+ * tags (empty blocks, default sector trailers, MAD sectors) take the space of a block id only. Numbers in the body
+ * are written with a variable length (7 bits per byte, the lowest bits first), the frequent blocks are stored first
+ * and get the short block ids. A new segment is started when the current one reaches the maximum segment size.
+ * The index from the UID (packed by Utils.uidToLong) to the records is kept in memory in primitive arrays. On
+ * opening it is rebuilt by scanning the headers of the memory mapped segments, the bodies of the records are not
+ * read. A record that was not written completely (e.g. the app was killed) at the end of the last segment is removed.
+ * The position of a record is the segment number in the upper and the offset in the segment in the lower 32 bits.
+ * All methods are synchronized, the archive can be used from any thread. A Reader (see newReader) reads records
+ * without the lock, e.g. for the parallel search of DumpSearch.
+ *
+ * record layout (numbers in the header are big endian):
+ * 0 magic (4 bytes) | 4 tag size (4) | 8 packed UID (8) | 16 capture timestamp (8) | 24 read sectors bit mask (8) |
+ * 32 CRC32 of the record (4) | 36 length of the body (4) | 40 body:
+ * number of keys (1) | keys (6 each) | for each sector 0 = no key or key number + 1, 0x80 added for key B (1 each) |
+ * number of unreadable blocks (variable) | block numbers (variable each) | block id of each block (variable each)
+ */
+
+public class DumpArchive implements Closeable {
+    private static final String TAG = DumpArchive.class.getName();
+
+    public static final long DEFAULT_MAXIMUM_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_EXTENSION = ".cda";
+    private static final String BLOCK_STORE_FILE = "blocks.dat";
+    private static final int RECORD_MAGIC = 0x43444132; // "CDA2"
+    private static final int MAXIMUM_NUMBER_OF_SECTORS = 40;
+    private static final int MAXIMUM_NUMBER_OF_BLOCKS = 256;
+    private static final int BLOCK_LENGTH = BlockStore.BLOCK_LENGTH;
+    private static final int KEY_LENGTH = 6;
+    private static final int KEY_B_FLAG = 0x80;
+    private static final int OFFSET_TAG_SIZE = 4;
+    private static final int OFFSET_UID = 8;
+    private static final int OFFSET_TIMESTAMP = 16;
+    private static final int OFFSET_READ_SECTORS = 24;
+    private static final int OFFSET_CRC = 32;
+    private static final int OFFSET_BODY_LENGTH = 36;
+    public static final int HEADER_LENGTH = 40;
+    private static final int MAXIMUM_BODY_LENGTH = 1 + MAXIMUM_NUMBER_OF_SECTORS * (KEY_LENGTH + 1)
+            + 2 + MAXIMUM_NUMBER_OF_BLOCKS * 2 + MAXIMUM_NUMBER_OF_BLOCKS * 5;
+    private static final int NO_RECORD = -1;
+
+    private final File directory;
+    private final long maximumSegmentSize;
+    private final List<FileChannel> segments = new ArrayList<>();
+    private BlockStore blockStore;
+    private long lastSegmentSize = 0;
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(HEADER_LENGTH + MAXIMUM_BODY_LENGTH);
+    private final byte[][] keyTable = new byte[MAXIMUM_NUMBER_OF_SECTORS][];
+    private final CRC32 crc32 = new CRC32();
+    // the index: the UID to the newest record, each record to the previous record of the same UID
+    private final LongLongHashMap newestRecordOfUid = new LongLongHashMap(1024);
+    private long[] recordPositions = new long[1024];
+    private long[] recordTimestamps = new long[1024];
+    private int[] previousRecords = new int[1024];
+    private int numberOfRecords = 0;
+    private long totalTagSize = 0; // the memory of all records without the deduplication
+    private boolean closed = false;
+
+    /**
+     * holds a record read from the archive
+     */
+    public static class Record {
+        private final long position;
+        private final long packedUid;
+        private final long captureTimestamp;
+        private final CardImage cardImage;
+
+        Record(long position, long packedUid, long captureTimestamp, CardImage cardImage) {
+            this.position = position;
+            this.packedUid = packedUid;
+            this.captureTimestamp = captureTimestamp;
+            this.cardImage = cardImage;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public long getPackedUid() {
+            return packedUid;
+        }
+
+        public byte[] getUid() {
+            return Utils.longToUid(packedUid);
+        }
+
+        public long getCaptureTimestamp() {
+            return captureTimestamp;
+        }
+
+        public CardImage getCardImage() {
+            return cardImage;
+        }
+    }
+
+    public DumpArchive(File directory) throws IOException {
+        this(directory, DEFAULT_MAXIMUM_SEGMENT_SIZE);
+    }
+
+    /**
+     * opens the archive in the directory and rebuilds the index, the directory is created if necessary
+     * @param maximumSegmentSize a segment takes at least one record, even if the record is larger
+     * @throws IOException if a segment is missing or corrupted
+     */
+    public DumpArchive(File directory, long maximumSegmentSize) throws IOException {
+        this.directory = directory;
+        this.maximumSegmentSize = Math.min(maximumSegmentSize, Integer.MAX_VALUE);
+        if ((!directory.isDirectory()) && (!directory.mkdirs())) {
+            throw new IOException("could not create the directory " + directory);
+        }
+        int numberOfSegments = 0;
+        String[] names = directory.list();
+        for (String name : (names == null) ? new String[0] : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_EXTENSION)) numberOfSegments++;
+        }
+        try {
+            blockStore = new BlockStore(new File(directory, BLOCK_STORE_FILE));
+            for (int segment = 0; segment < numberOfSegments; segment++) {
+                File file = getSegmentFile(segment);
+                if (!file.exists()) {
+                    throw new IOException("missing segment " + file);
+                }
+                segments.add(new RandomAccessFile(file, "rw").getChannel());
+                scanSegment(segment, segment == numberOfSegments - 1);
+            }
+            if (segments.isEmpty()) {
+                startSegment();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        Log.d(TAG, "opened the archive " + directory + " with " + numberOfRecords + " records of " + newestRecordOfUid.size() + " tags");
+    }
+
+    /**
+     * section for writing
+     */
+
+    /**
+     * appends a read of a tag with the actual time as capture timestamp
+     * @return the position of the record
+     */
+    public long append(CardImage cardImage, byte[] uid) throws IOException {
+        return append(cardImage, Utils.uidToLong(uid), Utils.getActualInstant());
+    }
+
+    /**
+     * appends a read of a tag, the record is written with one write to the segment
+     * @param packedUid        the UID packed by Utils.uidToLong
+     * @param captureTimestamp seconds since the epoch
+     * @return the position of the record
+     */
+    public synchronized long append(CardImage cardImage, long packedUid, long captureTimestamp) throws IOException {
+        checkOpen();
+        ByteBuffer buffer = recordBuffer;
+        buffer.clear();
+        buffer.putInt(RECORD_MAGIC);
+        buffer.putInt(cardImage.getSize());
+        buffer.putLong(packedUid);
+        buffer.putLong(captureTimestamp);
+        long readSectors = 0;
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            if (cardImage.isSectorRead(sectorIndex)) readSectors |= 1L << sectorIndex;
+        }
+        buffer.putLong(readSectors);
+        buffer.putLong(0); // CRC32 and the length of the body
+        // the keys, most tags use one or two different keys
+        int numberOfKeys = 0;
+        byte[] keyReferences = new byte[cardImage.getSectorCount()];
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            byte[] key = cardImage.getSectorKey(sectorIndex);
+            if (key == null) continue;
+            int keyNumber = 0;
+            while ((keyNumber < numberOfKeys) && (!Arrays.equals(keyTable[keyNumber], key))) keyNumber++;
+            if (keyNumber == numberOfKeys) keyTable[numberOfKeys++] = key;
+            keyReferences[sectorIndex] = (byte) ((keyNumber + 1)
+                    | (Classic.KEY_TYPE_B.equals(cardImage.getSectorKeyType(sectorIndex)) ? KEY_B_FLAG : 0));
+        }
+        buffer.put((byte) numberOfKeys);
+        for (int keyNumber = 0; keyNumber < numberOfKeys; keyNumber++) buffer.put(keyTable[keyNumber]);
+        buffer.put(keyReferences);
+        // the unreadable blocks of the read sectors
+        int numberOfUnreadableBlocks = 0;
+        int[] unreadableBlocks = new int[cardImage.getBlockCount()];
+        for (int blockIndex = 0; blockIndex < cardImage.getBlockCount(); blockIndex++) {
+            if (((readSectors & (1L << cardImage.blockToSector(blockIndex))) != 0) && (!cardImage.isBlockRead(blockIndex))) {
+                unreadableBlocks[numberOfUnreadableBlocks++] = blockIndex;
+            }
+        }
+        putNumber(buffer, numberOfUnreadableBlocks);
+        for (int i = 0; i < numberOfUnreadableBlocks; i++) putNumber(buffer, unreadableBlocks[i]);
+        byte[] data = cardImage.getData();
+        for (int blockOffset = 0; blockOffset < cardImage.getSize(); blockOffset += BLOCK_LENGTH) {
+            putNumber(buffer, blockStore.put(data, blockOffset));
+        }
+        int recordLength = buffer.position();
+        buffer.putInt(OFFSET_BODY_LENGTH, recordLength - HEADER_LENGTH);
+        crc32.reset();
+        crc32.update(buffer.array(), 0, recordLength);
+        buffer.putInt(OFFSET_CRC, (int) crc32.getValue());
+        buffer.flip();
+        // the new blocks are written before the record that references them
+        blockStore.flush();
+        if ((lastSegmentSize > 0) && (lastSegmentSize + recordLength > maximumSegmentSize)) {
+            startSegment();
+        }
+        int segment = segments.size() - 1;
+        FileChannel channel = segments.get(segment);
+        long offset = lastSegmentSize;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        lastSegmentSize += recordLength;
+        long position = ((long) segment << 32) | offset;
+        addToIndex(packedUid, position, captureTimestamp, cardImage.getSize());
+        return position;
+    }
+
+    /**
+     * forces the written records to the storage device
+     */
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        blockStore.sync();
+        segments.get(segments.size() - 1).force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        IOException exception = null;
+        if (blockStore != null) {
+            try {
+                blockStore.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        for (FileChannel channel : segments) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) throw exception;
+    }
+
+    /**
+     * section for reading
+     */
+
+    /**
+     * reads the record at the position
+     * @throws IOException if there is no valid record at the position
+     */
+    public synchronized Record read(long position) throws IOException {
+        checkOpen();
+        int segment = (int) (position >>> 32);
+        if ((segment < 0) || (segment >= segments.size())) {
+            throw new IOException("invalid position " + position);
+        }
+        return readRecord(segments.get(segment), position, recordBuffer, crc32);
+    }
+
+    /**
+     * @return a reader for the records that are in the archive now, see Reader
+     */
+    public synchronized Reader newReader() throws IOException {
+        checkOpen();
+        return new Reader(segments.toArray(new FileChannel[0]));
+    }
+
+    /**
+     * reads records without locking the archive, so several threads can read in parallel with one reader each.
+     * A reader has its own buffer and uses positional reads of the segments, it can't be used by several threads.
+     * The records appended to a segment that was started after the creation of the reader can't be read.
+     */
+    public class Reader {
+        private final FileChannel[] segmentChannels;
+        private final ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + MAXIMUM_BODY_LENGTH);
+        private final CRC32 readerCrc32 = new CRC32();
+
+        private Reader(FileChannel[] segmentChannels) {
+            this.segmentChannels = segmentChannels;
+        }
+
+        /**
+         * reads the record at the position
+         * @throws IOException if there is no valid record at the position or the archive is closed
+         */
+        public Record read(long position) throws IOException {
+            int segment = (int) (position >>> 32);
+            if ((segment < 0) || (segment >= segmentChannels.length)) {
+                throw new IOException("invalid position " + position);
+            }
+            return readRecord(segmentChannels[segment], position, buffer, readerCrc32);
+        }
+    }
+
+    // the buffer and the CRC32 are used by one thread, the channel and the block store are read with positional reads
+    private Record readRecord(FileChannel channel, long position, ByteBuffer buffer, CRC32 crc32) throws IOException {
+        long offset = position & 0xFFFFFFFFL;
+        buffer.clear();
+        buffer.limit(HEADER_LENGTH);
+        readFully(channel, buffer, offset);
+        int recordLength = getRecordLength(buffer, 0);
+        if (recordLength < 0) {
+            throw new IOException("no record at position " + position);
+        }
+        buffer.limit(recordLength);
+        readFully(channel, buffer, offset);
+        if (!isValidCrc(buffer.array(), 0, recordLength, crc32)) {
+            throw new IOException("corrupted record at position " + position);
+        }
+        CardImage cardImage = new CardImage(buffer.getInt(OFFSET_TAG_SIZE));
+        long readSectors = buffer.getLong(OFFSET_READ_SECTORS);
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            if ((readSectors & (1L << sectorIndex)) != 0) cardImage.setSectorRead(sectorIndex, true);
+        }
+        try {
+            buffer.position(HEADER_LENGTH);
+            readBody(buffer, cardImage);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("incomplete body of the record at position " + position);
+        }
+        return new Record(position, buffer.getLong(OFFSET_UID), buffer.getLong(OFFSET_TIMESTAMP), cardImage);
+    }
+
+    // the buffer is positioned at the body
+    private void readBody(ByteBuffer buffer, CardImage cardImage) throws IOException {
+        int numberOfKeys = buffer.get() & 0xFF;
+        int keysOffset = buffer.position();
+        buffer.position(keysOffset + numberOfKeys * KEY_LENGTH);
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            int keyReference = buffer.get() & 0xFF;
+            int keyNumber = (keyReference & ~KEY_B_FLAG) - 1;
+            if (keyNumber < 0) continue;
+            if (keyNumber >= numberOfKeys) throw new IOException("unknown key number " + keyNumber);
+            int keyOffset = keysOffset + keyNumber * KEY_LENGTH;
+            cardImage.setSectorKey(sectorIndex, ((keyReference & KEY_B_FLAG) != 0) ? Classic.KEY_TYPE_B : Classic.KEY_TYPE_A,
+                    Arrays.copyOfRange(buffer.array(), keyOffset, keyOffset + KEY_LENGTH));
+        }
+        int numberOfUnreadableBlocks = getNumber(buffer);
+        for (int i = 0; i < numberOfUnreadableBlocks; i++) {
+            int blockIndex = getNumber(buffer);
+            if (blockIndex >= cardImage.getBlockCount()) throw new IOException("invalid block number " + blockIndex);
+            cardImage.setBlockUnreadable(blockIndex, true);
+        }
+        byte[] memory = cardImage.getData();
+        for (int blockOffset = 0; blockOffset < cardImage.getSize(); blockOffset += BLOCK_LENGTH) {
+            blockStore.get(getNumber(buffer), memory, blockOffset);
+        }
+    }
+
+    /**
+     * @return the newest record of the tag or NULL if the tag is not in the archive
+     */
+    public synchronized Record readNewest(byte[] uid) throws IOException {
+        long position = getNewestPosition(Utils.uidToLong(uid));
+        return (position < 0) ? null : read(position);
+    }
+
+    /**
+     * section for the index
+     */
+
+    /**
+     * @return the position of the newest record of the tag or -1 if the tag is not in the archive
+     */
+    public synchronized long getNewestPosition(long packedUid) {
+        int record = (int) newestRecordOfUid.get(packedUid, NO_RECORD);
+        return (record == NO_RECORD) ? -1 : recordPositions[record];
+    }
+
+    /**
+     * @param newestOnly only the newest record of each tag
+     * @return the positions of the records of all tags in the order they were appended
+     */
+    public synchronized long[] getAllPositions(boolean newestOnly) {
+        if (!newestOnly) return Arrays.copyOf(recordPositions, numberOfRecords);
+        boolean[] isReplaced = new boolean[numberOfRecords];
+        for (int record = 0; record < numberOfRecords; record++) {
+            if (previousRecords[record] != NO_RECORD) isReplaced[previousRecords[record]] = true;
+        }
+        long[] positions = new long[newestRecordOfUid.size()];
+        int count = 0;
+        for (int record = 0; record < numberOfRecords; record++) {
+            if (!isReplaced[record]) positions[count++] = recordPositions[record];
+        }
+        return positions;
+    }
+
+    /**
+     * @return the positions of all records of the tag, the oldest first
+     */
+    public synchronized long[] getPositions(long packedUid) {
+        int count = 0;
+        for (int record = (int) newestRecordOfUid.get(packedUid, NO_RECORD); record != NO_RECORD; record = previousRecords[record]) {
+            count++;
+        }
+        long[] positions = new long[count];
+        for (int record = (int) newestRecordOfUid.get(packedUid, NO_RECORD); record != NO_RECORD; record = previousRecords[record]) {
+            positions[--count] = recordPositions[record];
+        }
+        return positions;
+    }
+
+    /**
+     * @return the capture timestamps of all records of the tag, in the order of getPositions
+     */
+    public synchronized long[] getCaptureTimestamps(long packedUid) {
+        long[] positions = getPositions(packedUid);
+        long[] timestamps = new long[positions.length];
+        int index = positions.length;
+        for (int record = (int) newestRecordOfUid.get(packedUid, NO_RECORD); record != NO_RECORD; record = previousRecords[record]) {
+            timestamps[--index] = recordTimestamps[record];
+        }
+        return timestamps;
+    }
+
+    public synchronized int getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    /**
+     * @return the number of different tags in the archive
+     */
+    public synchronized int getNumberOfTags() {
+        return newestRecordOfUid.size();
+    }
+
+    /**
+     * @return the size of the memory of all records, this is the size of the archive without deduplication
+     */
+    public synchronized long getTotalTagSize() {
+        return totalTagSize;
+    }
+
+    /**
+     * @return the size of the files of the archive (segments and blocks)
+     */
+    public synchronized long getStoredSize() throws IOException {
+        checkOpen();
+        long storedSize = blockStore.getSize();
+        for (FileChannel channel : segments) storedSize += channel.size();
+        return storedSize;
+    }
+
+    public synchronized int getNumberOfBlocks() {
+        return blockStore.getNumberOfBlocks();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private void addToIndex(long packedUid, long position, long captureTimestamp, int tagSize) {
+        if (numberOfRecords == recordPositions.length) {
+            int newLength = recordPositions.length * 2;
+            recordPositions = Arrays.copyOf(recordPositions, newLength);
+            recordTimestamps = Arrays.copyOf(recordTimestamps, newLength);
+            previousRecords = Arrays.copyOf(previousRecords, newLength);
+        }
+        int record = numberOfRecords++;
+        recordPositions[record] = position;
+        recordTimestamps[record] = captureTimestamp;
+        previousRecords[record] = (int) newestRecordOfUid.get(packedUid, NO_RECORD);
+        newestRecordOfUid.put(packedUid, record);
+        totalTagSize += tagSize;
+    }
+
+    /**
+     * section for the segments
+     */
+
+    // adds the records of the segment to the index, only the headers are read
+    private void scanSegment(int segment, boolean isLastSegment) throws IOException {
+        FileChannel channel = segments.get(segment);
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("segment " + segment + " is too large");
+        }
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        int offset = 0;
+        int lastOffset = -1;
+        while (offset + HEADER_LENGTH <= size) {
+            int recordLength = getRecordLength(map, offset);
+            if ((recordLength < 0) || (offset + recordLength > size)) {
+                break;
+            }
+            addToIndex(map.getLong(offset + OFFSET_UID), ((long) segment << 32) | offset,
+                    map.getLong(offset + OFFSET_TIMESTAMP), map.getInt(offset + OFFSET_TAG_SIZE));
+            lastOffset = offset;
+            offset += recordLength;
+        }
+        if (!isLastSegment) {
+            if (offset != size) throw new IOException("corrupted segment " + segment + " at offset " + offset);
+            return;
+        }
+        // the last record may be incomplete if the app was killed while writing it
+        if ((lastOffset >= 0) && (!isValidRecord(map, lastOffset))) {
+            removeNewestRecord();
+            offset = lastOffset;
+        }
+        if (offset != size) {
+            Log.e(TAG, "removing an incomplete record at the end of segment " + segment + ", offset " + offset);
+            channel.truncate(offset);
+        }
+        lastSegmentSize = offset;
+    }
+
+    private boolean isValidRecord(ByteBuffer map, int offset) {
+        byte[] record = new byte[getRecordLength(map, offset)];
+        ByteBuffer source = map.duplicate();
+        source.position(offset);
+        source.get(record);
+        return isValidCrc(record, 0, record.length, crc32);
+    }
+
+    // checks the CRC32 of the record in data[offset..offset + length], the CRC in the data is set to 0
+    private static boolean isValidCrc(byte[] data, int offset, int length, CRC32 crc32) {
+        ByteBuffer record = ByteBuffer.wrap(data, offset, length);
+        int crcOffset = offset + OFFSET_CRC;
+        int crc = record.getInt(crcOffset);
+        record.putInt(crcOffset, 0);
+        crc32.reset();
+        crc32.update(data, offset, length);
+        return (int) crc32.getValue() == crc;
+    }
+
+    private void removeNewestRecord() {
+        int record = --numberOfRecords;
+        long position = recordPositions[record];
+        // the UID of the record is the one with this record as newest record
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        try {
+            readFully(segments.get((int) (position >>> 32)), header, position & 0xFFFFFFFFL);
+            if (previousRecords[record] == NO_RECORD) {
+                newestRecordOfUid.remove(header.getLong(OFFSET_UID));
+            } else {
+                newestRecordOfUid.put(header.getLong(OFFSET_UID), previousRecords[record]);
+            }
+            totalTagSize -= header.getInt(OFFSET_TAG_SIZE);
+        } catch (IOException e) {
+            Log.e(TAG, "could not remove the record from the index: " + e.getMessage());
+        }
+    }
+
+    private void startSegment() throws IOException {
+        File file = getSegmentFile(segments.size());
+        segments.add(new RandomAccessFile(file, "rw").getChannel());
+        lastSegmentSize = 0;
+        Log.d(TAG, "started the segment " + file);
+    }
+
+    private File getSegmentFile(int segment) {
+        return new File(directory, SEGMENT_PREFIX + String.format("%05d", segment) + SEGMENT_EXTENSION);
+    }
+
+    // the position in the buffer is the position in the record that starts at offset
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("unexpected end of segment");
+            }
+        }
+    }
+
+    /**
+     * @param header needs HEADER_LENGTH bytes at offset
+     * @return the length of the record or -1 if the header is not valid
+     */
+    private static int getRecordLength(ByteBuffer header, int offset) {
+        int tagSize = header.getInt(offset + OFFSET_TAG_SIZE);
+        if (!isValidTagSize(tagSize)) return -1;
+        if (header.getInt(offset) != RECORD_MAGIC) return -1;
+        int bodyLength = header.getInt(offset + OFFSET_BODY_LENGTH);
+        if ((bodyLength < tagSize / BLOCK_LENGTH) || (bodyLength > MAXIMUM_BODY_LENGTH)) return -1;
+        return HEADER_LENGTH + bodyLength;
+    }
+
+    // writes a positive number with 7 bits per byte, the lowest bits first
+    private static void putNumber(ByteBuffer buffer, int number) {
+        while ((number & ~0x7F) != 0) {
+            buffer.put((byte) ((number & 0x7F) | 0x80));
+            number >>>= 7;
+        }
+        buffer.put((byte) number);
+    }
+
+    private static int getNumber(ByteBuffer buffer) throws IOException {
+        int number = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte value = buffer.get();
+            number |= (value & 0x7F) << shift;
+            if (value >= 0) return number;
+        }
+        throw new IOException("invalid number in the record");
+    }
+
+    private static boolean isValidTagSize(int tagSize) {
+        return (tagSize == CardImage.SIZE_MINI) || (tagSize == CardImage.SIZE_1K)
+                || (tagSize == CardImage.SIZE_2K) || (tagSize == CardImage.SIZE_4K);
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) throw new IOException("the archive is closed");
+    }
+}
@@ -0,0 +1,332 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class searches byte patterns (e.g. a customer id or a key) in the memory of card images and in all records
+ * of a DumpArchive. All patterns are searched in one pass over the memory with an Aho-Corasick automaton, the
+ * records of the archive are searched in parallel on a ForkJoinPool, each task reads its records with its own
+ * DumpArchive.Reader.
+ * In the block aligned mode a match has to start at the first byte of a block, otherwise a match can start at any
+ * byte and can span several blocks. Matches in blocks that were not read (see CardImage.isBlockRead) are ignored.
+ * A tag returns zeros for key A and for a key B that is not readable, so the key used for the read of a sector
+ * (see CardImage.getSectorKey) is searched at its place in the sector trailer.
+ * The automaton is not changed after the construction, so a DumpSearch can be used by several threads.
+ */
+
+public class DumpSearch {
+    private static final String TAG = DumpSearch.class.getName();
+
+    private static final int BLOCK_LENGTH = 16;
+    private static final int KEY_B_OFFSET = 10; // in the sector trailer
+    private static final int ALPHABET_SIZE = 256;
+    private static final int RECORDS_PER_TASK = 64; // a fork/join task with less records is not split
+    private final byte[][] patterns;
+    private final boolean blockAligned;
+    private final int[] transitions; // state * ALPHABET_SIZE + byte value to the next state
+    private final int[][] matchingPatterns; // the patterns that end in the state, NULL if none
+
+    /**
+     * a pattern found in a card image
+     */
+    public static class Match {
+        private final int patternIndex;
+        private final long packedUid;
+        private final long position;
+        private final long captureTimestamp;
+        private final int sectorNumber;
+        private final int blockNumber;
+        private final int offsetInBlock;
+
+        Match(int patternIndex, long packedUid, long position, long captureTimestamp, int sectorNumber, int blockNumber, int offsetInBlock) {
+            this.patternIndex = patternIndex;
+            this.packedUid = packedUid;
+            this.position = position;
+            this.captureTimestamp = captureTimestamp;
+            this.sectorNumber = sectorNumber;
+            this.blockNumber = blockNumber;
+            this.offsetInBlock = offsetInBlock;
+        }
+
+        /**
+         * @return the index of the pattern in the patterns of the search
+         */
+        public int getPatternIndex() {
+            return patternIndex;
+        }
+
+        public long getPackedUid() {
+            return packedUid;
+        }
+
+        public byte[] getUid() {
+            return Utils.longToUid(packedUid);
+        }
+
+        /**
+         * @return the position of the record in the archive or -1 for a card image that is not in an archive
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        public long getCaptureTimestamp() {
+            return captureTimestamp;
+        }
+
+        public int getSectorNumber() {
+            return sectorNumber;
+        }
+
+        /**
+         * @return the block where the match starts
+         */
+        public int getBlockNumber() {
+            return blockNumber;
+        }
+
+        public int getOffsetInBlock() {
+            return offsetInBlock;
+        }
+
+        @Override
+        public String toString() {
+            return "pattern " + patternIndex + " in UID " + Utils.bytesToHexNpe(getUid()) + " sector " + sectorNumber
+                    + " block " + blockNumber + " offset " + offsetInBlock;
+        }
+    }
+
+    /**
+     * the result of a search in an archive
+     */
+    public static class SearchResult {
+        private final List<Match> matches;
+        private final int numberOfFailedRecords;
+
+        SearchResult(List<Match> matches, int numberOfFailedRecords) {
+            this.matches = matches;
+            this.numberOfFailedRecords = numberOfFailedRecords;
+        }
+
+        /**
+         * @return the matches in the order of the records in the archive
+         */
+        public List<Match> getMatches() {
+            return matches;
+        }
+
+        /**
+         * @return the number of records that could not be read
+         */
+        public int getNumberOfFailedRecords() {
+            return numberOfFailedRecords;
+        }
+    }
+
+    /**
+     * @param patterns     the byte sequences to search, none of them empty
+     * @param blockAligned a match has to start at the first byte of a block
+     */
+    public DumpSearch(List<byte[]> patterns, boolean blockAligned) {
+        if ((patterns == null) || (patterns.isEmpty())) {
+            throw new IllegalArgumentException("patterns are NULL or empty");
+        }
+        this.patterns = new byte[patterns.size()][];
+        int maximumNumberOfStates = 1;
+        for (int patternIndex = 0; patternIndex < patterns.size(); patternIndex++) {
+            byte[] pattern = patterns.get(patternIndex);
+            if ((pattern == null) || (pattern.length == 0)) {
+                throw new IllegalArgumentException("pattern " + patternIndex + " is NULL or empty");
+            }
+            this.patterns[patternIndex] = pattern.clone();
+            maximumNumberOfStates += pattern.length;
+        }
+        this.blockAligned = blockAligned;
+        // the trie of the patterns, 0 is the root and marks a missing transition while building
+        int[] trie = new int[maximumNumberOfStates * ALPHABET_SIZE];
+        int[][] patternsOfState = new int[maximumNumberOfStates][];
+        int numberOfStates = 1;
+        for (int patternIndex = 0; patternIndex < this.patterns.length; patternIndex++) {
+            int state = 0;
+            for (byte value : this.patterns[patternIndex]) {
+                int transition = state * ALPHABET_SIZE + (value & 0xFF);
+                if (trie[transition] == 0) trie[transition] = numberOfStates++;
+                state = trie[transition];
+            }
+            patternsOfState[state] = append(patternsOfState[state], patternIndex);
+        }
+        // breadth first: the missing transitions are the transitions of the longest proper suffix (failure link)
+        int[] failure = new int[numberOfStates];
+        int[] queue = new int[numberOfStates];
+        int head = 0;
+        int tail = 0;
+        for (int value = 0; value < ALPHABET_SIZE; value++) {
+            if (trie[value] != 0) queue[tail++] = trie[value];
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            int[] suffixPatterns = patternsOfState[failure[state]];
+            if (suffixPatterns != null) {
+                for (int patternIndex : suffixPatterns) {
+                    patternsOfState[state] = append(patternsOfState[state], patternIndex);
+                }
+            }
+            for (int value = 0; value < ALPHABET_SIZE; value++) {
+                int transition = state * ALPHABET_SIZE + value;
+                int next = trie[transition];
+                int failureTransition = trie[failure[state] * ALPHABET_SIZE + value];
+                if (next == 0) {
+                    trie[transition] = failureTransition;
+                } else {
+                    failure[next] = failureTransition;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        this.transitions = Arrays.copyOf(trie, numberOfStates * ALPHABET_SIZE);
+        this.matchingPatterns = Arrays.copyOf(patternsOfState, numberOfStates);
+    }
+
+    public int getNumberOfPatterns() {
+        return patterns.length;
+    }
+
+    public byte[] getPattern(int patternIndex) {
+        return patterns[patternIndex].clone();
+    }
+
+    public boolean isBlockAligned() {
+        return blockAligned;
+    }
+
+    /**
+     * section for searching
+     */
+
+    /**
+     * searches all patterns in the memory of the card image
+     * @param position         the position of the record in the archive or -1, is written to the matches
+     * @param captureTimestamp is written to the matches
+     * @param matches          gets the matches in the order of their end in the memory
+     * @return the number of matches found
+     */
+    public int search(CardImage cardImage, long packedUid, long position, long captureTimestamp, List<Match> matches) {
+        byte[] memory = getMemoryWithSectorKeys(cardImage);
+        int[] transitions = this.transitions;
+        int state = 0;
+        int numberOfMatches = 0;
+        for (int offset = 0; offset < cardImage.getSize(); offset++) {
+            state = transitions[state * ALPHABET_SIZE + (memory[offset] & 0xFF)];
+            int[] patternIndices = matchingPatterns[state];
+            if (patternIndices == null) continue;
+            for (int patternIndex : patternIndices) {
+                int start = offset - patterns[patternIndex].length + 1;
+                if (blockAligned && ((start % BLOCK_LENGTH) != 0)) continue;
+                if (!isRead(cardImage, start, offset)) continue;
+                int blockNumber = start / BLOCK_LENGTH;
+                matches.add(new Match(patternIndex, packedUid, position, captureTimestamp,
+                        cardImage.blockToSector(blockNumber), blockNumber, start % BLOCK_LENGTH));
+                numberOfMatches++;
+            }
+        }
+        return numberOfMatches;
+    }
+
+    /**
+     * searches all patterns in the records of the archive, the records are searched in parallel on the pool.
+     * Records that can't be read are skipped and counted in the result.
+     * @param newestOnly only the newest record of each tag is searched
+     */
+    public SearchResult searchArchive(DumpArchive archive, boolean newestOnly, ForkJoinPool pool) {
+        long[] positions = archive.getAllPositions(newestOnly);
+        SearchResult result = pool.invoke(new SearchTask(archive, positions, 0, positions.length));
+        Log.d(TAG, "searched " + positions.length + " records, " + result.getMatches().size() + " matches, "
+                + result.getNumberOfFailedRecords() + " records failed");
+        return result;
+    }
+
+    // the memory of the card image with the keys of the sectors in the sector trailers, a copy if any key is known
+    private static byte[] getMemoryWithSectorKeys(CardImage cardImage) {
+        byte[] memory = cardImage.getData();
+        byte[] memoryWithKeys = null;
+        for (int sectorNumber = 0; sectorNumber < cardImage.getSectorCount(); sectorNumber++) {
+            byte[] key = cardImage.getSectorKey(sectorNumber);
+            if (key == null) continue;
+            if (memoryWithKeys == null) memoryWithKeys = memory.clone();
+            int keyOffset = Classic.KEY_TYPE_B.equals(cardImage.getSectorKeyType(sectorNumber)) ? KEY_B_OFFSET : 0;
+            System.arraycopy(key, 0, memoryWithKeys, cardImage.getTrailerOffset(sectorNumber) + keyOffset, key.length);
+        }
+        return (memoryWithKeys == null) ? memory : memoryWithKeys;
+    }
+
+    // the blocks of memory[from..to] are read
+    private static boolean isRead(CardImage cardImage, int from, int to) {
+        for (int blockNumber = from / BLOCK_LENGTH; blockNumber <= to / BLOCK_LENGTH; blockNumber++) {
+            if (!cardImage.isBlockRead(blockNumber)) return false;
+        }
+        return true;
+    }
+
+    private static int[] append(int[] values, int value) {
+        if (values == null) return new int[]{value};
+        int[] newValues = Arrays.copyOf(values, values.length + 1);
+        newValues[values.length] = value;
+        return newValues;
+    }
+
+    // searches the records positions[from..to - 1], larger ranges are split in halves
+    private class SearchTask extends RecursiveTask<SearchResult> {
+        private static final long serialVersionUID = 1L;
+        private final DumpArchive archive;
+        private final long[] positions;
+        private final int from;
+        private final int to;
+
+        SearchTask(DumpArchive archive, long[] positions, int from, int to) {
+            this.archive = archive;
+            this.positions = positions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected SearchResult compute() {
+            if (to - from > RECORDS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                SearchTask second = new SearchTask(archive, positions, middle, to);
+                second.fork();
+                SearchResult first = new SearchTask(archive, positions, from, middle).compute();
+                SearchResult secondResult = second.join();
+                first.matches.addAll(secondResult.matches);
+                return new SearchResult(first.matches, first.numberOfFailedRecords + secondResult.numberOfFailedRecords);
+            }
+            List<Match> matches = new ArrayList<>();
+            DumpArchive.Reader reader;
+            try {
+                // the positions were taken before, so their segments are known to the reader
+                reader = archive.newReader();
+            } catch (IOException e) {
+                Log.e(TAG, "could not read the archive: " + e.getMessage());
+                return new SearchResult(matches, to - from);
+            }
+            int numberOfFailedRecords = 0;
+            for (int index = from; index < to; index++) {
+                try {
+                    DumpArchive.Record record = reader.read(positions[index]);
+                    search(record.getCardImage(), record.getPackedUid(), record.getPosition(), record.getCaptureTimestamp(), matches);
+                } catch (IOException e) {
+                    Log.e(TAG, "could not read the record at position " + positions[index] + ": " + e.getMessage());
+                    numberOfFailedRecords++;
+                }
+            }
+            return new SearchResult(matches, numberOfFailedRecords);
+        }
+    }
+}
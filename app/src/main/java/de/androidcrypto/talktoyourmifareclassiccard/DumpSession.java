@@ -0,0 +1,143 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the state of an incomplete read of a tag, identified by its UID: the CardImage with the sectors
+ * read so far and the keys found for the sectors (stored in the CardImage, also for sectors not read yet).
+ * When the tag leaves the reader's field during the read, the next tap continues with the first missing sector
+ * (see CardReadTask.setDumpSession) instead of starting over.
+ * The sessions are managed by a DumpSession.Store, the least recently used sessions and sessions older than the
+ * maximum age are removed.
+ */
+
+public class DumpSession {
+
+    private final long uid; // packed by Utils.uidToLong
+    private final CardImage cardImage;
+    private final long createdMillis;
+    private volatile long lastUpdateMillis;
+    private volatile int numberOfAttempts = 0;
+    private volatile boolean complete = false;
+
+    public DumpSession(long uid, int tagSize) {
+        this.uid = uid;
+        this.cardImage = new CardImage(tagSize);
+        this.createdMillis = System.currentTimeMillis();
+        this.lastUpdateMillis = createdMillis;
+    }
+
+    /**
+     * called by CardReadTask at the beginning of each read attempt
+     */
+    public void startAttempt() {
+        numberOfAttempts++;
+        lastUpdateMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * called by CardReadTask when all sectors were tried, a complete session is not continued by the Store
+     */
+    public void setComplete() {
+        complete = true;
+        lastUpdateMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the first sector that is not read yet or the sector count if all sectors are read
+     */
+    public int getFirstMissingSector() {
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            if (!cardImage.isSectorRead(sectorIndex)) return sectorIndex;
+        }
+        return cardImage.getSectorCount();
+    }
+
+    /**
+     * section for getters
+     */
+
+    public long getUid() {
+        return uid;
+    }
+
+    public CardImage getCardImage() {
+        return cardImage;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    public long getLastUpdateMillis() {
+        return lastUpdateMillis;
+    }
+
+    public int getNumberOfAttempts() {
+        return numberOfAttempts;
+    }
+
+    public int getNumberOfReadSectors() {
+        return cardImage.getNumberOfReadSectors();
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * The open sessions, keyed by the UID of the tag. All methods can be called from any thread.
+     */
+    public static class Store {
+
+        private final int maximumNumberOfSessions;
+        private final long maximumAgeMillis;
+        private final LinkedHashMap<Long, DumpSession> sessions;
+
+        /**
+         * @param maximumNumberOfSessions the least recently used sessions are removed above this number
+         * @param maximumAgeMillis        a session without an update in this time is not continued
+         */
+        public Store(int maximumNumberOfSessions, long maximumAgeMillis) {
+            this.maximumNumberOfSessions = maximumNumberOfSessions;
+            this.maximumAgeMillis = maximumAgeMillis;
+            // access ordered, the first entry is the least recently used one
+            this.sessions = new LinkedHashMap<Long, DumpSession>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, DumpSession> eldest) {
+                    return size() > Store.this.maximumNumberOfSessions;
+                }
+            };
+        }
+
+        /**
+         * returns the open session of the tag or a new session if there is none, the previous session is
+         * complete, too old or of another tag size
+         * @param uid     the UID of the tag
+         * @param tagSize the memory size of the tag
+         */
+        public synchronized DumpSession getSession(byte[] uid, int tagSize) {
+            long packedUid = Utils.uidToLong(uid);
+            DumpSession session = sessions.get(packedUid);
+            if ((session == null) || session.isComplete() || (session.getCardImage().getSize() != tagSize)
+                    || (System.currentTimeMillis() - session.getLastUpdateMillis() > maximumAgeMillis)) {
+                session = new DumpSession(packedUid, tagSize);
+                sessions.put(packedUid, session);
+            }
+            return session;
+        }
+
+        public synchronized void remove(byte[] uid) {
+            sessions.remove(Utils.uidToLong(uid));
+        }
+
+        public synchronized int size() {
+            return sessions.size();
+        }
+
+        public synchronized void clear() {
+            sessions.clear();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import java.io.IOException;
+
+/**
+ * This class converts between byte arrays and hex encoded strings with lookup tables.
+ * The encode methods write into a target given by the caller (char[], StringBuilder or Appendable), the
+ * decode methods into a byte array given by the caller, so no temporary Strings or arrays are created per byte.
+ * The toHexString and decode(String) methods are for the usual case where a new String or byte array is needed.
+ */
+
+public class HexCodec {
+
+    private static final char[] HEX_LOWER_CASE = "0123456789abcdef".toCharArray();
+    private static final char[] HEX_UPPER_CASE = "0123456789ABCDEF".toCharArray();
+    private static final byte INVALID = -1;
+    // the value of a hex character, INVALID for all other characters below 128
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < HEX_VALUES.length; i++) {
+            HEX_VALUES[i] = INVALID;
+        }
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES[HEX_LOWER_CASE[i]] = (byte) i;
+            HEX_VALUES[HEX_UPPER_CASE[i]] = (byte) i;
+        }
+    }
+
+    private HexCodec() {
+    }
+
+    /**
+     * section for encoding
+     */
+
+    /**
+     * @return the hex character of the upper nibble of the byte
+     */
+    public static char upperNibbleToChar(int input, boolean upperCase) {
+        return (upperCase ? HEX_UPPER_CASE : HEX_LOWER_CASE)[(input >>> 4) & 0x0F];
+    }
+
+    /**
+     * @return the hex character of the lower nibble of the byte
+     */
+    public static char lowerNibbleToChar(int input, boolean upperCase) {
+        return (upperCase ? HEX_UPPER_CASE : HEX_LOWER_CASE)[input & 0x0F];
+    }
+
+    /**
+     * encodes the bytes to hex characters in the destination array
+     * @param separator a character written after each byte, 0 for no separator
+     * @return the index in destination behind the last written character
+     */
+    public static int encode(byte[] bytes, int offset, int length, char[] destination, int destinationOffset,
+                             boolean upperCase, char separator) {
+        char[] hex = upperCase ? HEX_UPPER_CASE : HEX_LOWER_CASE;
+        int position = destinationOffset;
+        for (int i = offset; i < offset + length; i++) {
+            int v = bytes[i] & 0xFF;
+            destination[position++] = hex[v >>> 4];
+            destination[position++] = hex[v & 0x0F];
+            if (separator != 0) destination[position++] = separator;
+        }
+        return position;
+    }
+
+    public static int encode(byte[] bytes, int offset, int length, char[] destination, int destinationOffset, boolean upperCase) {
+        return encode(bytes, offset, length, destination, destinationOffset, upperCase, (char) 0);
+    }
+
+    /**
+     * appends the hex encoded bytes to the StringBuilder, nothing is appended if bytes is NULL
+     */
+    public static StringBuilder encode(byte[] bytes, int offset, int length, StringBuilder sb, boolean upperCase) {
+        if (bytes == null) return sb;
+        char[] hex = upperCase ? HEX_UPPER_CASE : HEX_LOWER_CASE;
+        sb.ensureCapacity(sb.length() + (length * 2));
+        for (int i = offset; i < offset + length; i++) {
+            int v = bytes[i] & 0xFF;
+            sb.append(hex[v >>> 4]).append(hex[v & 0x0F]);
+        }
+        return sb;
+    }
+
+    public static StringBuilder encode(byte[] bytes, StringBuilder sb) {
+        if (bytes == null) return sb;
+        return encode(bytes, 0, bytes.length, sb, false);
+    }
+
+    /**
+     * appends the hex encoded bytes to the Appendable (e.g. a Writer), nothing is appended if bytes is NULL
+     */
+    public static Appendable encode(byte[] bytes, int offset, int length, Appendable appendable, boolean upperCase) throws IOException {
+        if (bytes == null) return appendable;
+        if (appendable instanceof StringBuilder) {
+            return encode(bytes, offset, length, (StringBuilder) appendable, upperCase);
+        }
+        char[] hex = upperCase ? HEX_UPPER_CASE : HEX_LOWER_CASE;
+        for (int i = offset; i < offset + length; i++) {
+            int v = bytes[i] & 0xFF;
+            appendable.append(hex[v >>> 4]).append(hex[v & 0x0F]);
+        }
+        return appendable;
+    }
+
+    /**
+     * converts a byte array to a hex encoded string
+     * This method is Null Pointer Exception (NPE) safe
+     *
+     * @param bytes
+     * @param upperCase
+     * @param separator a character added after each byte, 0 for no separator
+     * @return hex encoded string, an empty string if bytes is NULL
+     */
+    public static String toHexString(byte[] bytes, int offset, int length, boolean upperCase, char separator) {
+        if ((bytes == null) || (length == 0)) return "";
+        char[] chars = new char[length * ((separator != 0) ? 3 : 2)];
+        encode(bytes, offset, length, chars, 0, upperCase, separator);
+        return new String(chars);
+    }
+
+    public static String toHexString(byte[] bytes, boolean upperCase) {
+        if (bytes == null) return "";
+        return toHexString(bytes, 0, bytes.length, upperCase, (char) 0);
+    }
+
+    /**
+     * section for decoding
+     */
+
+    /**
+     * @return the value (0..15) of the hex character or -1 if it is not a hex character
+     */
+    public static int charToNibble(char c) {
+        return (c < HEX_VALUES.length) ? HEX_VALUES[c] : INVALID;
+    }
+
+    /**
+     * decodes the hex string to the destination array
+     * @param length the number of characters to decode, needs to be even
+     * @return the number of bytes written to destination or -1 if the characters are not hex encoded
+     */
+    public static int decode(CharSequence hexString, int offset, int length, byte[] destination, int destinationOffset) {
+        if ((length & 1) != 0) return -1;
+        int position = destinationOffset;
+        for (int i = offset; i < offset + length; i += 2) {
+            int upperNibble = charToNibble(hexString.charAt(i));
+            int lowerNibble = charToNibble(hexString.charAt(i + 1));
+            if ((upperNibble | lowerNibble) < 0) return -1;
+            destination[position++] = (byte) ((upperNibble << 4) | lowerNibble);
+        }
+        return position - destinationOffset;
+    }
+
+    /**
+     * converts a hex encoded string to a byte array
+     * @return the byte array or NULL if the string is NULL, of odd length or contains non hex characters
+     */
+    public static byte[] decode(CharSequence hexString) {
+        if ((hexString == null) || ((hexString.length() & 1) != 0)) return null;
+        byte[] data = new byte[hexString.length() / 2];
+        if (decode(hexString, 0, hexString.length(), data, 0) < 0) return null;
+        return data;
+    }
+}
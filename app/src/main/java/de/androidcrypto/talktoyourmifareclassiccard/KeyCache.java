@@ -0,0 +1,187 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class remembers the working key and key type for each sector of a tag, identified by its UID.
+ * When the same tag is tapped again Classic tries the cached key first, so the search in the key
+ * dictionary is not necessary. The cache can be saved to and loaded from a file, the least recently
+ * used tags are removed if the maximum number of tags is reached.
+ */
+
+public class KeyCache {
+
+    private static final int FILE_MAGIC = 0x4B434131; // "KCA1"
+    public static final int MAXIMUM_NUMBER_OF_SECTORS = 40; // Mifare Classic 4K
+    private static final byte KEY_TYPE_NONE = 0;
+    private static final byte KEY_TYPE_A = 'A';
+    private static final byte KEY_TYPE_B = 'B';
+
+    private final int maximumNumberOfTags;
+    private final LinkedHashMap<Long, Entry> entries;
+
+    // the keys of one tag
+    private static class Entry {
+        final long[] keys = new long[MAXIMUM_NUMBER_OF_SECTORS];
+        final byte[] keyTypes = new byte[MAXIMUM_NUMBER_OF_SECTORS]; // KEY_TYPE_NONE, KEY_TYPE_A or KEY_TYPE_B
+    }
+
+    public KeyCache(int maximumNumberOfTags) {
+        this.maximumNumberOfTags = maximumNumberOfTags;
+        // access ordered, the first entry is the least recently used one
+        this.entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > KeyCache.this.maximumNumberOfTags;
+            }
+        };
+    }
+
+    /**
+     * stores the key for a sector of a tag
+     * @param uid         the UID of the tag packed by Utils.uidToLong
+     * @param sectorIndex
+     * @param key         48 bit key
+     * @param keyType     Classic.KEY_TYPE_A or Classic.KEY_TYPE_B
+     */
+    public synchronized void put(long uid, int sectorIndex, long key, String keyType) {
+        if ((sectorIndex < 0) || (sectorIndex >= MAXIMUM_NUMBER_OF_SECTORS)) return;
+        Entry entry = entries.get(uid);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(uid, entry);
+        }
+        entry.keys[sectorIndex] = key & KeyDictionary.KEY_MASK;
+        entry.keyTypes[sectorIndex] = Classic.KEY_TYPE_A.equals(keyType) ? KEY_TYPE_A : KEY_TYPE_B;
+    }
+
+    /**
+     * @return the key for the sector of the tag or -1 if there is no key in the cache
+     */
+    public synchronized long getKey(long uid, int sectorIndex) {
+        Entry entry = entries.get(uid);
+        if ((entry == null) || (sectorIndex < 0) || (sectorIndex >= MAXIMUM_NUMBER_OF_SECTORS)
+                || (entry.keyTypes[sectorIndex] == KEY_TYPE_NONE)) {
+            return -1;
+        }
+        return entry.keys[sectorIndex];
+    }
+
+    /**
+     * @return Classic.KEY_TYPE_A, Classic.KEY_TYPE_B or an empty string if there is no key in the cache
+     */
+    public synchronized String getKeyType(long uid, int sectorIndex) {
+        Entry entry = entries.get(uid);
+        if ((entry == null) || (sectorIndex < 0) || (sectorIndex >= MAXIMUM_NUMBER_OF_SECTORS)) {
+            return "";
+        }
+        switch (entry.keyTypes[sectorIndex]) {
+            case KEY_TYPE_A:
+                return Classic.KEY_TYPE_A;
+            case KEY_TYPE_B:
+                return Classic.KEY_TYPE_B;
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * removes the key of a sector, e.g. when the key was changed on the tag
+     */
+    public synchronized void remove(long uid, int sectorIndex) {
+        Entry entry = entries.get(uid);
+        if ((entry != null) && (sectorIndex >= 0) && (sectorIndex < MAXIMUM_NUMBER_OF_SECTORS)) {
+            entry.keyTypes[sectorIndex] = KEY_TYPE_NONE;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * section for persistence
+     */
+
+    public synchronized void save(OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(entries.size());
+        for (Map.Entry<Long, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            int numberOfKeys = 0;
+            for (byte keyType : entry.keyTypes) {
+                if (keyType != KEY_TYPE_NONE) numberOfKeys++;
+            }
+            out.writeLong(mapEntry.getKey());
+            out.writeByte(numberOfKeys);
+            for (int sectorIndex = 0; sectorIndex < MAXIMUM_NUMBER_OF_SECTORS; sectorIndex++) {
+                if (entry.keyTypes[sectorIndex] == KEY_TYPE_NONE) continue;
+                out.writeByte(sectorIndex);
+                out.writeByte(entry.keyTypes[sectorIndex]);
+                out.writeLong(entry.keys[sectorIndex]);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * loads the cache from a stream, the entries are added to the existing entries
+     * @param inputStream
+     * @throws IOException if the stream is not a key cache
+     */
+    public synchronized void load(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        if (in.readInt() != FILE_MAGIC) {
+            throw new IOException("not a key cache file");
+        }
+        int numberOfTags = in.readInt();
+        for (int i = 0; i < numberOfTags; i++) {
+            long uid = in.readLong();
+            int numberOfKeys = in.readUnsignedByte();
+            Entry entry = new Entry();
+            for (int j = 0; j < numberOfKeys; j++) {
+                int sectorIndex = in.readUnsignedByte();
+                byte keyType = in.readByte();
+                long key = in.readLong();
+                if ((sectorIndex >= MAXIMUM_NUMBER_OF_SECTORS) || ((keyType != KEY_TYPE_A) && (keyType != KEY_TYPE_B))) {
+                    throw new IOException("corrupted key cache file");
+                }
+                entry.keyTypes[sectorIndex] = keyType;
+                entry.keys[sectorIndex] = key;
+            }
+            entries.put(uid, entry);
+        }
+    }
+
+    public void save(File file) throws IOException {
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            save(outputStream);
+        }
+    }
+
+    /**
+     * loads the cache from a file, a missing file is not an error
+     */
+    public void load(File file) throws IOException {
+        if (!file.exists()) return;
+        try (InputStream inputStream = new FileInputStream(file)) {
+            load(inputStream);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class takes a list of Mifare Classic keys that are tried during the authentication search.
+ * The keys are stored as 48 bit values in a long array (in the order they were added) and are
+ * deduplicated by an open addressing hash table, so even large key files need little memory.
+ * The keys can be loaded from key files in the format of the MIFARE Classic Tool (MCT):
+ * one key per line as 12 hex characters, lines starting with '#' are comments.
+ */
+
+public class KeyDictionary {
+
+    public static final int KEY_LENGTH = 6;
+    public static final long KEY_MASK = 0xFFFFFFFFFFFFL;
+    private static final int EMPTY = -1;
+
+    private long[] keys; // the keys in the order they were added
+    private int size;
+    private int[] table; // hash table with the indices to keys, EMPTY if the slot is unused
+
+    public KeyDictionary() {
+        keys = new long[16];
+        table = new int[32];
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * creates a dictionary with the default keys MIFARE_DEFAULT_KEY,
+     * MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY and MIFARE_DEFAULT_KEY_NFC_FORUM
+     */
+    public static KeyDictionary createDefault() {
+        KeyDictionary keyDictionary = new KeyDictionary();
+        keyDictionary.add(Classic.MIFARE_DEFAULT_KEY);
+        keyDictionary.add(Classic.MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY);
+        keyDictionary.add(Classic.MIFARE_DEFAULT_KEY_NFC_FORUM);
+        return keyDictionary;
+    }
+
+    /**
+     * adds a key to the dictionary
+     * @param key 48 bit key
+     * @return true if the key was added, false if the key is already in the dictionary
+     */
+    public synchronized boolean add(long key) {
+        key &= KEY_MASK;
+        int slot = findSlot(key);
+        if (table[slot] != EMPTY) {
+            return false;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        keys[size] = key;
+        table[slot] = size;
+        size++;
+        // keep the load factor below 0.5
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    public boolean add(byte[] key) {
+        if ((key == null) || (key.length != KEY_LENGTH)) {
+            return false;
+        }
+        return add(bytesToKey(key));
+    }
+
+    /**
+     * loads the keys of a key file in MCT format. Each line takes one key (12 hex characters),
+     * empty lines, comments ('#') and invalid lines are skipped. Everything after the key is ignored.
+     * @param reader
+     * @return the number of new keys
+     * @throws IOException
+     */
+    public int load(Reader reader) throws IOException {
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        int numberOfNewKeys = 0;
+        String line;
+        while ((line = bufferedReader.readLine()) != null) {
+            long key = parseKeyLine(line);
+            if ((key >= 0) && add(key)) {
+                numberOfNewKeys++;
+            }
+        }
+        return numberOfNewKeys;
+    }
+
+    public int load(InputStream inputStream) throws IOException {
+        return load(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+    // returns the key or -1 if the line does not start with a key
+    private static long parseKeyLine(String line) {
+        int start = 0;
+        int length = line.length();
+        while ((start < length) && Character.isWhitespace(line.charAt(start))) start++;
+        if ((length - start) < (KEY_LENGTH * 2)) {
+            return -1;
+        }
+        int end = start + KEY_LENGTH * 2;
+        if ((end < length) && !Character.isWhitespace(line.charAt(end)) && (line.charAt(end) != '#')) {
+            return -1;
+        }
+        long key = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(line.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            key = (key << 4) | digit;
+        }
+        return key;
+    }
+
+    public synchronized boolean contains(long key) {
+        return table[findSlot(key & KEY_MASK)] != EMPTY;
+    }
+
+    /**
+     * @return the index of the key in the dictionary or -1 if the key is not in the dictionary
+     */
+    public synchronized int indexOf(long key) {
+        return table[findSlot(key & KEY_MASK)];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getKey(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("index out of bounds: " + index);
+        }
+        return keys[index];
+    }
+
+    /**
+     * copies the key to the destination array without creating a new array
+     * @param index
+     * @param destination at least 6 bytes long
+     */
+    public void getKey(int index, byte[] destination) {
+        keyToBytes(getKey(index), destination);
+    }
+
+    /**
+     * returns the name of the key, this is the name of a default key or the index in the dictionary
+     */
+    public String getKeyName(int index) {
+        long key = getKey(index);
+        if (key == bytesToKey(Classic.MIFARE_DEFAULT_KEY)) {
+            return "MIFARE_DEFAULT_KEY";
+        } else if (key == bytesToKey(Classic.MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY)) {
+            return "MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY";
+        } else if (key == bytesToKey(Classic.MIFARE_DEFAULT_KEY_NFC_FORUM)) {
+            return "MIFARE_DEFAULT_KEY_NFC_FORUM";
+        }
+        return "KEY_DICTIONARY_" + index;
+    }
+
+    /**
+     * section for key conversion
+     */
+
+    public static long bytesToKey(byte[] key) {
+        long result = 0;
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            result = (result << 8) | (key[i] & 0xFF);
+        }
+        return result;
+    }
+
+    public static byte[] keyToBytes(long key) {
+        byte[] result = new byte[KEY_LENGTH];
+        keyToBytes(key, result);
+        return result;
+    }
+
+    public static void keyToBytes(long key, byte[] destination) {
+        for (int i = KEY_LENGTH - 1; i >= 0; i--) {
+            destination[i] = (byte) key;
+            key >>>= 8;
+        }
+    }
+
+    /**
+     * section for the hash table
+     */
+
+    private int findSlot(long key) {
+        int mask = table.length - 1;
+        int slot = hash(key) & mask;
+        while ((table[slot] != EMPTY) && (keys[table[slot]] != key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int newLength) {
+        table = new int[newLength];
+        Arrays.fill(table, EMPTY);
+        for (int index = 0; index < size; index++) {
+            table[findSlot(keys[index])] = index;
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
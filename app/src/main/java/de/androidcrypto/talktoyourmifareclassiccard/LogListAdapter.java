@@ -0,0 +1,109 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This adapter shows the messages of a LogRingBuffer in a ListView, the newest message on top.
+ * Only the visible rows get a (recycled) view, so the costs of a new message do not grow with the
+ * number of messages in the log.
+ * Messages can be appended from any thread (e.g. the NFC thread). The ListView is refreshed at most
+ * once per frame, all messages appended in between are shown together.
+ */
+
+public class LogListAdapter extends BaseAdapter {
+
+    private final LayoutInflater inflater;
+    private final ListView listView;
+    private final LogRingBuffer logRingBuffer;
+    // the messages shown by the ListView, only changed on the UI thread
+    private final String[] snapshot;
+    private int snapshotSize = 0;
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean(false);
+    private volatile SessionTracer tracer; // optional
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            SessionTracer currentTracer = tracer;
+            long startNanos = System.nanoTime();
+            refreshScheduled.set(false);
+            snapshotSize = logRingBuffer.copyNewestFirst(snapshot);
+            notifyDataSetChanged();
+            if (currentTracer != null) currentTracer.end(SessionTracer.CATEGORY_UI, "refreshLog", snapshotSize, startNanos);
+        }
+    };
+
+    public LogListAdapter(Context context, ListView listView, LogRingBuffer logRingBuffer) {
+        this.inflater = LayoutInflater.from(context);
+        this.listView = listView;
+        this.logRingBuffer = logRingBuffer;
+        this.snapshot = new String[logRingBuffer.getCapacity()];
+        listView.setAdapter(this);
+    }
+
+    /**
+     * adds a message to the log, can be called from any thread
+     */
+    public void append(String message) {
+        logRingBuffer.add(message);
+        scheduleRefresh();
+    }
+
+    /**
+     * removes all messages from the log, can be called from any thread
+     */
+    public void clear() {
+        logRingBuffer.clear();
+        scheduleRefresh();
+    }
+
+    /**
+     * sets the tracer that records a span for each refresh of the ListView, NULL disables the tracing
+     */
+    public void setTracer(SessionTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    public LogRingBuffer getLogRingBuffer() {
+        return logRingBuffer;
+    }
+
+    // the refresh runs with the next animation frame, further calls before that are ignored
+    private void scheduleRefresh() {
+        if (refreshScheduled.compareAndSet(false, true)) {
+            listView.postOnAnimation(refreshRunnable);
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return snapshotSize;
+    }
+
+    @Override
+    public String getItem(int position) {
+        return snapshot[position];
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView textView = (TextView) convertView;
+        if (textView == null) {
+            textView = (TextView) inflater.inflate(R.layout.list_item_log, parent, false);
+        }
+        textView.setText(snapshot[position]);
+        return textView;
+    }
+}
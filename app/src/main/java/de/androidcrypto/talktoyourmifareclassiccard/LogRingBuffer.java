@@ -0,0 +1,91 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+/**
+ * This class stores the last messages of the output log in a ring buffer of fixed size. When the buffer is
+ * full the oldest message gets overwritten, so adding a message never copies the older messages.
+ * Messages can be added from any thread, the positions used by get and copyNewestFirst start with
+ * the newest message (position 0).
+ */
+
+public class LogRingBuffer {
+
+    private final String[] messages;
+    private int head = 0; // the index of the next message to write
+    private int size = 0;
+    private long version = 0; // incremented on each change
+
+    public LogRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.messages = new String[capacity];
+    }
+
+    public synchronized void add(String message) {
+        messages[head] = (message == null) ? "" : message;
+        head = (head + 1) % messages.length;
+        if (size < messages.length) size++;
+        version++;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = null;
+        }
+        head = 0;
+        size = 0;
+        version++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return messages.length;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param position 0 is the newest message
+     */
+    public synchronized String get(int position) {
+        if ((position < 0) || (position >= size)) {
+            throw new IndexOutOfBoundsException("position out of bounds: " + position);
+        }
+        return messages[index(position)];
+    }
+
+    /**
+     * copies the messages to the destination array, the newest message first
+     * @param destination should have the length of the capacity
+     * @return the number of copied messages
+     */
+    public synchronized int copyNewestFirst(String[] destination) {
+        int count = Math.min(size, destination.length);
+        for (int position = 0; position < count; position++) {
+            destination[position] = messages[index(position)];
+        }
+        return count;
+    }
+
+    /**
+     * @return all messages, the newest message first, separated by a new line
+     */
+    public synchronized String getText() {
+        StringBuilder sb = new StringBuilder();
+        for (int position = 0; position < size; position++) {
+            if (position > 0) sb.append('\n');
+            sb.append(messages[index(position)]);
+        }
+        return sb.toString();
+    }
+
+    private int index(int position) {
+        int index = head - 1 - position;
+        return (index < 0) ? index + messages.length : index;
+    }
+}
@@ -0,0 +1,135 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import java.util.Arrays;
+
+/**
+ * This class maps long keys to long values in a hash table with open addressing (linear probing) on primitive
+ * arrays, so no Long objects are created for the keys and values. It is used for the indices of the archives,
+ * e.g. from a packed UID (see Utils.uidToLong) to the position of a record.
+ * The class is not thread safe.
+ */
+
+public class LongLongHashMap {
+
+    private static final long FREE_KEY = 0; // marks an unused slot, the key 0 is stored outside of the table
+    private long[] keys;
+    private long[] values;
+    private int size = 0; // without the key 0
+    private boolean hasFreeKey = false;
+    private long freeKeyValue;
+
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize the number of entries that can be stored without a rehash
+     */
+    public LongLongHashMap(int expectedSize) {
+        int length = 16;
+        while (length * 3 / 4 < expectedSize) length <<= 1;
+        keys = new long[length];
+        values = new long[length];
+    }
+
+    /**
+     * @return the value of the key or defaultValue if the key is not in the map
+     */
+    public long get(long key, long defaultValue) {
+        if (key == FREE_KEY) return hasFreeKey ? freeKeyValue : defaultValue;
+        int slot = findSlot(key);
+        return (keys[slot] == key) ? values[slot] : defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY) return hasFreeKey;
+        return keys[findSlot(key)] == key;
+    }
+
+    /**
+     * stores the value for the key, an existing value is replaced
+     */
+    public void put(long key, long value) {
+        if (key == FREE_KEY) {
+            hasFreeKey = true;
+            freeKeyValue = value;
+            return;
+        }
+        int slot = findSlot(key);
+        if (keys[slot] != key) {
+            if ((size + 1) > keys.length * 3 / 4) {
+                rehash(keys.length * 2);
+                slot = findSlot(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * removes the key, the entries behind it in the probe sequence are moved back so no tombstones are needed
+     */
+    public void remove(long key) {
+        if (key == FREE_KEY) {
+            hasFreeKey = false;
+            return;
+        }
+        int mask = keys.length - 1;
+        int freeSlot = findSlot(key);
+        if (keys[freeSlot] != key) return;
+        for (int slot = (freeSlot + 1) & mask; keys[slot] != FREE_KEY; slot = (slot + 1) & mask) {
+            int homeSlot = hash(keys[slot]) & mask;
+            // the entry can be moved if the free slot is between its home slot and its slot
+            if (((slot - homeSlot) & mask) >= ((slot - freeSlot) & mask)) {
+                keys[freeSlot] = keys[slot];
+                values[freeSlot] = values[slot];
+                freeSlot = slot;
+            }
+        }
+        keys[freeSlot] = FREE_KEY;
+        size--;
+    }
+
+    public int size() {
+        return hasFreeKey ? size + 1 : size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        size = 0;
+        hasFreeKey = false;
+    }
+
+    /**
+     * section for the hash table
+     */
+
+    // returns the slot of the key or the free slot where the key is to be stored
+    private int findSlot(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while ((keys[slot] != FREE_KEY) && (keys[slot] != key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int newLength) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[newLength];
+        values = new long[newLength];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == FREE_KEY) continue;
+            int slot = findSlot(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -9,8 +9,8 @@ import android.app.Dialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.res.ColorStateList;
 import android.graphics.Color;
+import android.graphics.drawable.GradientDrawable;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
 import android.nfc.tech.IsoDep;
@@ -30,15 +30,25 @@ import android.view.WindowManager;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ImageButton;
+import android.widget.LinearLayout;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.google.android.material.textfield.TextInputLayout;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 public class MainActivity extends AppCompatActivity implements NfcAdapter.ReaderCallback  {
 
@@ -49,8 +59,10 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
      * UI elements
      */
 
-    private com.google.android.material.textfield.TextInputEditText output;
-    private TextInputLayout outputLayout;
+    private ListView output;
+    private LinearLayout outputLayout;
+    private LogListAdapter outputAdapter;
+    private static final int OUTPUT_MAXIMUM_NUMBER_OF_MESSAGES = 1000;
     private Button moreInformation;
 
     private Button readCompleteTag;
@@ -79,11 +91,38 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
      */
 
     private NfcAdapter mNfcAdapter;
+    private KeyDictionary keyDictionary;
+    private static final String KEY_DICTIONARY_FILE = "default.keys"; // in assets folder
+    private KeyCache keyCache;
+    private static final String KEY_CACHE_FILE = "key_cache.bin"; // in files folder
+    private static final int KEY_CACHE_MAXIMUM_NUMBER_OF_TAGS = 1000;
+    // the latency of the tag operations for each family of tags (see ClassicMetrics.getFamily)
+    private final ClassicMetrics[] classicMetrics = new ClassicMetrics[ClassicMetrics.FAMILY_NAMES.length];
+    private static final String CLASSIC_METRICS_FILE = "classic_metrics.json"; // in files folder
+    private static final String DUMP_DIRECTORY = "dumps"; // in the app specific external storage, .mfd and .mct files
+    // records the spans of a tap when enabled in the options menu, NULL if the tracing is off
+    private volatile SessionTracer sessionTracer;
+    private static final int SESSION_TRACE_CAPACITY = 16384; // number of spans
+    private static final String SESSION_TRACE_FILE = "session_trace.json"; // in files folder, Chrome trace event format
+    // the reads stopped by a tag loss, continued on the next tap of the tag
+    private final DumpSession.Store dumpSessionStore = new DumpSession.Store(DUMP_SESSION_MAXIMUM_NUMBER_OF_TAGS, DUMP_SESSION_MAXIMUM_AGE_MILLIS);
+    private static final int DUMP_SESSION_MAXIMUM_NUMBER_OF_TAGS = 10;
+    private static final long DUMP_SESSION_MAXIMUM_AGE_MILLIS = 10 * 60 * 1000; // 10 minutes
+    // every complete read of a tag, NULL until the archive is opened on the card I/O thread
+    private volatile DumpArchive dumpArchive;
+    private static final String DUMP_ARCHIVE_DIRECTORY = "archive"; // in files folder
     //private NfcA nfcA;
     private MifareClassic mfc;
     private MifareClassicTagDetails mfcTagDetails;
     private Classic classic;
     private SectorMcModel[] sectorMcs;
+    private volatile CardImage cardImage; // the data of the last complete tag read, NULL after the tap of a new tag
+    private volatile byte[] cardImageUid; // the UID of the tag of cardImage
+    // all commands of a complete tag read are running on this thread
+    private final ExecutorService cardIoExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService parseExecutor = Executors.newSingleThreadExecutor(); // parses the sectors while the next sector is read
+    private volatile CardReadTask cardReadTask;
+    private static final int READ_BATCH_SIZE = 4; // number of sectors for one UI update
     private byte[][] authKeyMatrix;
     private String[] authKeyTypeMatrix;
     private IsoDep isoDep;
@@ -98,8 +137,11 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         Toolbar myToolbar = (Toolbar) findViewById(R.id.main_toolbar);
         setSupportActionBar(myToolbar);
 
-        output = findViewById(R.id.etMainOutput);
-        outputLayout = findViewById(R.id.etMainOutputLayout);
+        output = findViewById(R.id.lvMainOutput);
+        outputLayout = findViewById(R.id.llMainOutputLayout);
+        outputAdapter = new LogListAdapter(this, output, new LogRingBuffer(OUTPUT_MAXIMUM_NUMBER_OF_MESSAGES));
+        setOutputBorderColor(getResources().getColor(R.color.colorPrimary));
+        writeToUiAppend("no NFC tag detected");
         moreInformation = findViewById(R.id.btnMainMoreInformation);
 
         readCompleteTag = findViewById(R.id.btnMainReadCompleteTag);
@@ -123,6 +165,25 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
 
         AccessConditions.context = getApplicationContext();
 
+        // load the keys for the authentication search, the default keys are always part of the dictionary
+        keyDictionary = KeyDictionary.createDefault();
+        try (InputStream inputStream = getAssets().open(KEY_DICTIONARY_FILE)) {
+            int numberOfKeys = keyDictionary.load(inputStream);
+            Log.d(TAG, "loaded " + numberOfKeys + " keys from " + KEY_DICTIONARY_FILE);
+        } catch (IOException e) {
+            Log.e(TAG, "could not load the key dictionary: " + e.getMessage());
+        }
+
+        for (int family = 0; family < classicMetrics.length; family++) {
+            classicMetrics[family] = new ClassicMetrics(ClassicMetrics.FAMILY_NAMES[family]);
+        }
+
+        // load the keys of tags that were read before, the files are read and written on the card I/O thread
+        keyCache = new KeyCache(KEY_CACHE_MAXIMUM_NUMBER_OF_TAGS);
+        cardIoExecutor.execute(this::loadKeyCache);
+        // the index of the archive is rebuilt when opening, this is done before the first read of a tag
+        cardIoExecutor.execute(this::openDumpArchive);
+
         moreInformation.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
@@ -137,49 +198,29 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
                 // this will read the complete tag using default keys
                 writeToUiAppendBorderColor("", Color.GRAY);
                 sectorsReadable.setText("");
-                output.setText("");
+                outputAdapter.clear();
                 writeToUiAppend("read the complete tag with default keys");
 
                 if (mfcTagDetails == null) {
                     writeToUiAppendBorderColor("tap a Mifare Classic tag before reading, aborted", COLOR_RED);
                     return;
                 }
+                if (isCardReadRunning()) {
+                    writeToUiAppendBorderColor("the tag is read at the moment, please wait", COLOR_RED);
+                    return;
+                }
                 int sectorCount = mfcTagDetails.getSectorCount();
                 writeToUiAppend("this tag has " + sectorCount + " sectors to read");
                 sectorMcs = new SectorMcModel[sectorCount];
-
-                // brute force method to check for known default authentication keys
-                int numberOfSuccessAuths = classic.checkDefaultAuthentication();
-                writeToUiAppend("number of successful authentications: " + numberOfSuccessAuths);
-                authKeyMatrix = classic.getAuthenticationKeyMatrix();
-                authKeyTypeMatrix = classic.getAuthenticationKeyTypeMatrix();
-                for (int i = 0; i < sectorCount; i++) {
-                    writeToUiAppend("sector: " + String.format("%02d", i) + ":" + Utils.bytesToHexNpe(authKeyMatrix[i]));
-                }
-                writeToUiAppend("Note: NULL means no default key found");
-                String sectorsReadableString = "";
-                for (int sectorIndex = 0; sectorIndex < sectorCount; sectorIndex++) {
-                    writeToUiAppend("");
-                    writeToUiAppend(OUTPUT_SEPARATOR_DOUBLE);
-                    writeToUiAppend("reading sector " + sectorIndex);
-                    writeToUiAppend("authKeyTypeMatrix " + authKeyTypeMatrix[sectorIndex]);
-                    if ((authKeyTypeMatrix[sectorIndex] != null) && (!authKeyTypeMatrix[sectorIndex].equals(""))) {
-                        byte[] sectorRead = classic.readSector(sectorIndex, authKeyMatrix[sectorIndex], authKeyTypeMatrix[sectorIndex]);
-                        writeToUiAppend("keyType: " + authKeyTypeMatrix[sectorIndex]);
-                        writeToUiAppend("sector: " + Utils.printData("data", sectorRead));
-                        writeToUiAppend("errorCode: " + classic.getErrorCode() + " " + classic.getErrorCodeReason());
-                        // public SectorMcModel(int sectorNumber, byte[] sectorRead, String keyType, byte[] key) {
-                        SectorMcModel sectorMc = new SectorMcModel(sectorIndex, sectorRead, authKeyTypeMatrix[0], authKeyMatrix[0]);
-                        if (sectorMc.isDataIsValid()) {
-                            writeToUiAppend(sectorMc.dump());
-                            sectorsReadableString += String.format("%02d ", sectorIndex);
-                            sectorMcs[sectorIndex] = sectorMc;
-                        }
-                    }
+                DumpSession dumpSession = dumpSessionStore.getSession(mfcTagDetails.getUid(), mfcTagDetails.getTagSize());
+                if (dumpSession.getNumberOfReadSectors() > 0) {
+                    writeToUiAppend("continuing the previous read of this tag at sector " + dumpSession.getFirstMissingSector()
+                            + " (" + dumpSession.getNumberOfReadSectors() + " sectors read before)");
                 }
-                sectorsReadable.setText(sectorsReadableString.trim());
-                writeToUiAppendBorderColor("read complete tag success", COLOR_GREEN);
-                vibrateShort();
+                // the tag is read on the card I/O thread and parsed on the parse thread, the UI gets updated in batches
+                cardReadTask = new CardReadTask(classic, READ_BATCH_SIZE, cardReadListener, parseExecutor);
+                cardReadTask.setDumpSession(dumpSession);
+                cardIoExecutor.execute(cardReadTask);
             }
         });
 
@@ -195,12 +236,16 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
             public void onClick(View view) {
                 // this will read the selected sector from tag using provided key
                 writeToUiAppendBorderColor("", Color.GRAY);
-                output.setText("");
+                outputAdapter.clear();
                 writeToUiAppend("read the selected sector from tag using the provided key");
                 if (mfcTagDetails == null) {
                     writeToUiAppendBorderColor("tap a Mifare Classic tag before reading, aborted", COLOR_RED);
                     return;
                 }
+                if (isCardReadRunning()) {
+                    writeToUiAppendBorderColor("the tag is read at the moment, please wait", COLOR_RED);
+                    return;
+                }
                 int sectorIndex = npSectorIndex.getValue();
                 String accessKeyString = manualAccessKey.getText().toString();
                 if (!Utils.isHex(accessKeyString)) {
@@ -208,30 +253,35 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
                     return;
                 }
                 byte[] authKey = Utils.hexStringToByteArray(accessKeyString);
-                String authKeyType = classic.authenticateSectorWithKey(sectorIndex, authKey);
-                if (authKeyType.equals("")) {
-                    // no success
-                    writeToUiAppendBorderColor("Can not read the sector with the entered access key, aborted", COLOR_RED);
-                    return;
-                }
-                // authentication is correct, try to read the sector
-                byte[] sectorRead = classic.readSector(sectorIndex, authKey, authKeyType);
-                writeToUiAppend("keyType: " + authKeyType);
-                writeToUiAppend("sector: " + Utils.printData("data", sectorRead));
-                writeToUiAppend("errorCode: " + classic.getErrorCode() + " " + classic.getErrorCodeReason());
-                // appending the authKey and sectorData to the cached data
-                SectorMcModel sectorMc = new SectorMcModel(sectorIndex, sectorRead, authKeyType, authKey);
-                String sectorsReadableString = sectorsReadable.getText().toString();
-                if (sectorMc.isDataIsValid()) {
-                    writeToUiAppend(sectorMc.dump());
-                    sectorsReadableString += String.format(" %02d ", sectorIndex);
-                    sectorMcs[sectorIndex] = sectorMc;
-                    authKeyMatrix[sectorIndex] = authKey;
-                    authKeyTypeMatrix[sectorIndex] = authKeyType;
-                }
-                sectorsReadable.setText(sectorsReadableString.trim());
-                writeToUiAppendBorderColor("read sector from tag success", COLOR_GREEN);
-                vibrateShort();
+                Classic sectorClassic = classic;
+                // the authentication and the read are running on the card I/O thread, the cached data is updated on the UI thread
+                cardIoExecutor.execute(() -> {
+                    String authKeyType = sectorClassic.authenticateSectorWithKey(sectorIndex, authKey);
+                    if (authKeyType.equals("")) {
+                        // no success
+                        writeToUiAppendBorderColor("Can not read the sector with the entered access key, aborted", COLOR_RED);
+                        return;
+                    }
+                    // authentication is correct, try to read the sector
+                    byte[] sectorRead = sectorClassic.readSector(sectorIndex, authKey, authKeyType);
+                    writeToUiAppend("keyType: " + authKeyType);
+                    writeToUiAppend("sector: " + Utils.printData("data", sectorRead));
+                    writeToUiAppend("errorCode: " + sectorClassic.getErrorCode() + " " + sectorClassic.getErrorCodeReason());
+                    SectorMcModel sectorMc = new SectorMcModel(sectorIndex, sectorRead, authKeyType, authKey);
+                    if (sectorMc.isDataIsValid()) {
+                        writeToUiAppend(sectorMc.dump());
+                        // appending the authKey and sectorData to the cached data
+                        runOnUiThread(() -> {
+                            sectorsReadable.setText((sectorsReadable.getText().toString() + String.format(" %02d ", sectorIndex)).trim());
+                            sectorMcs[sectorIndex] = sectorMc;
+                            authKeyMatrix[sectorIndex] = authKey;
+                            authKeyTypeMatrix[sectorIndex] = authKeyType;
+                        });
+                    }
+                    writeKeyCache();
+                    writeToUiAppendBorderColor("read sector from tag success", COLOR_GREEN);
+                    vibrateShort();
+                });
             }
         });
 
@@ -240,7 +290,7 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
             public void onClick(View view) {
                 // this will read the selected sector from tag using provided key
                 writeToUiAppendBorderColor("", Color.GRAY);
-                output.setText("");
+                outputAdapter.clear();
                 writeToUiAppend("show the access conditions of the selected sector");
                 if (mfcTagDetails == null) {
                     writeToUiAppendBorderColor("tap a Mifare Classic tag before reading, aborted", COLOR_RED);
@@ -294,7 +344,7 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
             public void onClick(View view) {
                 // this will read the selected sector from tag using provided key
                 writeToUiAppendBorderColor("", Color.GRAY);
-                output.setText("");
+                outputAdapter.clear();
                 writeToUiAppend("show the key mapping of all sectors");
                 if (mfcTagDetails == null) {
                     writeToUiAppendBorderColor("tap a Mifare Classic tag before reading, aborted", COLOR_RED);
@@ -338,47 +388,144 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
             @Override
             public void onClick(View view) {
                 // read only if access key was found
-                int selectedSector = npSectorIndex.getValue();
-                int selectedBlock = npBlockIndex.getValue();
-                int numberOfSuccessAuths = classic.checkDefaultAuthentication();
-                if (numberOfSuccessAuths == 0) {
-                    writeToUiAppend("no default key found, aborted");
+                if (isCardReadRunning()) {
+                    writeToUiAppend("the tag is read at the moment, please wait");
                     return;
                 }
-                byte[] sectorAccessKey = classic.getAuthenticationKeyMatrix()[selectedSector];
-                if (sectorAccessKey == null) {
-                    writeToUiAppend("no access key found for selected sector, aborted");
+                int selectedSector = npSectorIndex.getValue();
+                int selectedBlock = npBlockIndex.getValue();
+                if ((selectedSector == 0) && (selectedBlock == 0)) {
+                    writeToUiAppend("On sector 0 there are data blocks 1 + 2 only, aborted");
                     return;
                 }
-                if (selectedSector == 0) {
-                    if (selectedBlock == 0) {
-                        writeToUiAppend("On sector 0 there are data blocks 1 + 2 only, aborted");
+                // correct the selectedBlock of sector 0 by -1 as there are 2 data blocks only
+                int dataBlockIndex = (selectedSector == 0) ? selectedBlock - 1 : selectedBlock;
+                Classic blockClassic = classic;
+                // the key search and the read are running on the card I/O thread, the block is shown on the UI thread
+                cardIoExecutor.execute(() -> {
+                    if (blockClassic.getAuthenticationKeyMatrix()[selectedSector] == null) {
+                        // search for the default keys only if there is no known key for this sector
+                        int numberOfSuccessAuths = blockClassic.checkDefaultAuthentication();
+                        if (numberOfSuccessAuths == 0) {
+                            writeToUiAppend("no default key found, aborted");
+                            return;
+                        }
+                    }
+                    byte[] sectorAccessKey = blockClassic.getAuthenticationKeyMatrix()[selectedSector];
+                    if (sectorAccessKey == null) {
+                        writeToUiAppend("no access key found for selected sector, aborted");
                         return;
                     }
-                    // correct the selectedBlock by -1 as there are 2 data blocks only
-                    selectedBlock = selectedBlock - 1;
-                }
-                String sectorAccessKeyType = classic.getAuthenticationKeyTypeMatrix()[selectedSector];
-                // authenticate with the sectorAccessKey and type
-                boolean success = classic.authenticateSectorWithKey(selectedSector, sectorAccessKey, sectorAccessKeyType);
-                if (!success) {
-                    writeToUiAppend("could not authenticate with access key, aborted");
-                    return;
-                }
-                byte[] sectorRead = classic.readSector(selectedSector, sectorAccessKey, sectorAccessKeyType);
-                if (sectorRead == null) {
-                    writeToUiAppend("could not read the sector, aborted");
-                    return;
+                    String sectorAccessKeyType = blockClassic.getAuthenticationKeyTypeMatrix()[selectedSector];
+                    // readSector authenticates with the sectorAccessKey and type (if the tag is not authenticated so far)
+                    byte[] sectorRead = blockClassic.readSector(selectedSector, sectorAccessKey, sectorAccessKeyType);
+                    if (sectorRead == null) {
+                        writeToUiAppend("could not authenticate or read the sector, aborted");
+                        return;
+                    }
+                    SectorMcModel sectorMc = new SectorMcModel(selectedSector, sectorRead, sectorAccessKeyType, sectorAccessKey);
+                    if (sectorMc.isDataIsValid()) {
+                        writeToUiAppend(sectorMc.dump());
+                        List<byte[]> dataBlockList = sectorMc.getDataBlockList();
+                        byte[] dataBlock = dataBlockList.get(dataBlockIndex);
+                        runOnUiThread(() -> readBlockData.setText(Utils.bytesToHexNpe(dataBlock)));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * section for reading the complete tag in background
+     */
+
+    private final CardReadTask.Listener cardReadListener = new CardReadTask.Listener() {
+        @Override
+        public void onAuthenticationFinished(int numberOfSuccessAuthentications, byte[][] authKeyMatrix, String[] authKeyTypeMatrix) {
+            MainActivity.this.authKeyMatrix = authKeyMatrix;
+            MainActivity.this.authKeyTypeMatrix = authKeyTypeMatrix;
+            StringBuilder sb = new StringBuilder();
+            sb.append("number of successful authentications: ").append(numberOfSuccessAuthentications);
+            for (int i = 0; i < authKeyMatrix.length; i++) {
+                HexCodec.encode(authKeyMatrix[i], sb.append("\n").append("sector: ").append(String.format("%02d", i)).append(":"));
+            }
+            sb.append("\n").append("Note: NULL means no default key found");
+            writeToUiAppend(sb.toString());
+        }
+
+        @Override
+        public void onProgress(int numberOfSectorsDone, int numberOfSectors) {
+            runOnUiThread(() -> {
+                readCompleteTag.setText("reading sector " + numberOfSectorsDone + " of " + numberOfSectors);
+            });
+        }
+
+        @Override
+        public void onSectorsRead(List<SectorMcModel> sectorMcBatch) {
+            // one UI update for the complete batch, the sectors are dumped directly into the StringBuilder
+            StringBuilder sb = new StringBuilder();
+            SectorDumpWriter dumpWriter = new SectorDumpWriter(sb, SectorDumpWriter.FORMAT_TEXT);
+            for (SectorMcModel sectorMc : sectorMcBatch) {
+                int sectorIndex = sectorMc.getSectorNumber();
+                sectorMcs[sectorIndex] = sectorMc;
+                if (sb.length() > 0) sb.append("\n");
+                sb.append(OUTPUT_SEPARATOR_DOUBLE).append("\n");
+                sb.append("reading sector ").append(sectorIndex).append("\n");
+                sb.append("keyType: ").append(sectorMc.getKeyType()).append("\n");
+                sb.append("sector: ").append(Utils.printData("data", sectorMc.getSectorRead())).append("\n");
+                try {
+                    dumpWriter.writeSector(sectorMc);
+                } catch (IOException e) {
+                    // a StringBuilder does not throw an IOException
+                    Log.e(TAG, "IOException on dump: " + e.getMessage());
                 }
-                SectorMcModel sectorMc = new SectorMcModel(selectedSector, sectorRead, sectorAccessKeyType, sectorAccessKey);
-                if (sectorMc.isDataIsValid()) {
-                    writeToUiAppend(sectorMc.dump());
-                    List<byte[]> dataBlockList = sectorMc.getDataBlockList();
-                    byte[] dataBlock = dataBlockList.get(selectedBlock);
-                    readBlockData.setText(Utils.bytesToHexNpe(dataBlock));
+            }
+            writeToUiAppend(sb.toString());
+        }
+
+        @Override
+        public void onFinished(byte[] uid, CardImage readCardImage, SectorMcModel[] readSectorMcs) {
+            cardImageUid = uid;
+            cardImage = readCardImage;
+            archiveCardImage(uid, readCardImage);
+            StringBuilder sectorsReadableString = new StringBuilder();
+            for (int sectorIndex = 0; sectorIndex < readSectorMcs.length; sectorIndex++) {
+                if (readSectorMcs[sectorIndex] != null) {
+                    sectorsReadableString.append(String.format("%02d ", sectorIndex));
                 }
             }
-        });
+            runOnUiThread(() -> {
+                readCompleteTag.setText(R.string.read_complete_tag);
+                sectorsReadable.setText(sectorsReadableString.toString().trim());
+            });
+            saveKeyCache();
+            ClassicMetrics metrics = classic.getMetrics();
+            if (metrics != null) {
+                writeToUiAppend("latency of the " + metrics.getSummary());
+            }
+            writeToUiAppendBorderColor("read complete tag success", COLOR_GREEN);
+            vibrateShort();
+        }
+
+        @Override
+        public void onCancelled(int sectorIndex, String reason) {
+            runOnUiThread(() -> readCompleteTag.setText(R.string.read_complete_tag));
+            saveKeyCache();
+            writeToUiAppendBorderColor("read complete tag stopped at sector " + sectorIndex + ": " + reason
+                    + "\ntap the tag again and press the read button to continue the read", COLOR_RED);
+        }
+    };
+
+    private boolean isCardReadRunning() {
+        CardReadTask task = cardReadTask;
+        return (task != null) && (task.isRunning());
+    }
+
+    private void cancelCardRead() {
+        CardReadTask task = cardReadTask;
+        if (task != null) {
+            task.cancel();
+        }
     }
 
     /**
@@ -390,20 +537,26 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
     // Use `runOnUiThread` method to change the UI from this method
     @Override
     public void onTagDiscovered(Tag tag) {
+        SessionTracer tracer = sessionTracer;
+        long tapStartNanos = System.nanoTime();
+        // a read of the previous tag is useless now
+        cancelCardRead();
         clearOutputFields();
         writeToUiAppend("NFC tag discovered");
         mfc = null;
+        cardImage = null;
         try {
             mfc = MifareClassic.get(tag);
             if (mfc != null) {
                 // Make a Vibration
                 vibrateShort();
 
-                runOnUiThread(() -> {
-                    output.setText("");
-                    output.setBackgroundColor(getResources().getColor(R.color.white));
-                });
+                outputAdapter.clear();
+                ClassicMetrics metrics = classicMetrics[ClassicMetrics.getFamily(mfc.getSize())];
+                long connectStartNanos = System.nanoTime();
                 mfc.connect();
+                metrics.recordSince(ClassicMetrics.OP_CONNECT, ClassicMetrics.ALL_SECTORS, connectStartNanos);
+                if (tracer != null) tracer.end(SessionTracer.CATEGORY_NFC, "connect", connectStartNanos);
                 if (!mfc.isConnected()) {
                     writeToUiAppendBorderColor("could not connect to the tag, aborted", COLOR_RED);
                     mfc.close();
@@ -411,9 +564,14 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
                 }
                 writeToUiAppendBorderColor("The app and Mifare Classic tag are ready to use", COLOR_GREEN);
                 // get tag details
-                mfcTagDetails = new MifareClassicTagDetails(mfc);
+                MifareClassicTransport transport = new AndroidMifareClassicTransport(mfc);
+                mfcTagDetails = new MifareClassicTagDetails(transport);
                 writeToUiAppend("Details: \n" + mfcTagDetails.getDump());
-                classic = new Classic(mfc);
+                classic = new Classic(transport);
+                classic.setKeyDictionary(keyDictionary);
+                classic.setKeyCache(keyCache);
+                classic.setMetrics(metrics);
+                classic.setTracer(tracer);
 /*
                 // brute force method to check for known default authentication keys
                 int numberOfSuccessAuths = classic.checkDefaultAuthentication();
@@ -447,6 +605,8 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         } catch (Exception e) {
             writeToUiAppendBorderColor("Exception: " + e.getMessage(), COLOR_RED);
             e.printStackTrace();
+        } finally {
+            if (tracer != null) tracer.end(SessionTracer.CATEGORY_NFC, "onTagDiscovered", tapStartNanos);
         }
     }
 
@@ -478,30 +638,170 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
     @Override
     protected void onPause() {
         super.onPause();
+        cancelCardRead();
         if (mNfcAdapter != null)
             mNfcAdapter.disableReaderMode(this);
+        saveClassicMetrics();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        cardIoExecutor.shutdownNow();
+        parseExecutor.shutdownNow();
+        DumpArchive archive = dumpArchive;
+        dumpArchive = null;
+        if (archive != null) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                Log.e(TAG, "could not close the dump archive: " + e.getMessage());
+            }
+        }
+    }
 
-    /**
-     * section for UI elements
-     */
+    private void openDumpArchive() {
+        try {
+            dumpArchive = new DumpArchive(new File(getFilesDir(), DUMP_ARCHIVE_DIRECTORY));
+        } catch (IOException e) {
+            Log.e(TAG, "could not open the dump archive: " + e.getMessage());
+        }
+    }
 
-    private void writeToUiAppend(String message) {
-        writeToUiAppend(output, message);
+    // appends the card image to the archive and shows the changes since the last read of the tag,
+    // this is called on the parse thread. The uid is taken from the read task as a new tag can be tapped meanwhile
+    private void archiveCardImage(byte[] uid, CardImage image) {
+        DumpArchive archive = dumpArchive;
+        if ((archive == null) || (uid == null)) return;
+        try {
+            DumpArchive.Record lastRecord = archive.readNewest(uid);
+            if ((lastRecord != null) && (lastRecord.getCardImage().getSize() == image.getSize())) {
+                CardDiff cardDiff = CardDiff.compare(lastRecord.getCardImage(), image);
+                writeToUiAppend("changes since the last read of this tag: " + cardDiff);
+            }
+            archive.append(image, uid);
+        } catch (IOException e) {
+            Log.e(TAG, "could not archive the dump: " + e.getMessage());
+        }
     }
 
-    private void writeToUiAppend(TextView textView, String message) {
-        runOnUiThread(() -> {
-            String oldString = textView.getText().toString();
-            if (TextUtils.isEmpty(oldString)) {
-                textView.setText(message);
+
+    private void loadKeyCache() {
+        try {
+            keyCache.load(new File(getFilesDir(), KEY_CACHE_FILE));
+        } catch (IOException e) {
+            Log.e(TAG, "could not load the key cache: " + e.getMessage());
+        }
+    }
+
+    // the file is written on the card I/O thread after the running read of a tag, can be called from any thread
+    private void saveKeyCache() {
+        try {
+            cardIoExecutor.execute(this::writeKeyCache);
+        } catch (RejectedExecutionException e) {
+            // the activity is destroyed
+            Log.e(TAG, "could not save the key cache: " + e.getMessage());
+        }
+    }
+
+    private void writeKeyCache() {
+        try {
+            keyCache.save(new File(getFilesDir(), KEY_CACHE_FILE));
+        } catch (IOException e) {
+            Log.e(TAG, "could not save the key cache: " + e.getMessage());
+        }
+    }
+
+    // writes the image of the last complete tag read to the dumps folder in the app specific external storage
+    private void exportCardImage(String extension) {
+        CardImage image = cardImage;
+        byte[] uid = cardImageUid;
+        if ((image == null) || (uid == null)) {
+            writeToUiAppendBorderColor("read the complete tag before exporting, aborted", COLOR_RED);
+            return;
+        }
+        File directory = getExternalFilesDir(DUMP_DIRECTORY);
+        if (directory == null) {
+            writeToUiAppendBorderColor("the external storage is not available, aborted", COLOR_RED);
+            return;
+        }
+        File file = new File(directory, Utils.bytesToHexNpe(uid).toUpperCase() + extension);
+        try {
+            if (extension.equals(CardImageFiles.EXTENSION_MCT)) {
+                CardImageFiles.writeMct(image, file);
             } else {
-                String newString = message + "\n" + oldString;
-                textView.setText(newString);
-                System.out.println(message);
+                CardImageFiles.writeMfd(image, file);
             }
-        });
+            writeToUiAppendBorderColor("dump exported to " + file.getAbsolutePath(), COLOR_GREEN);
+        } catch (IOException e) {
+            Log.e(TAG, "could not export the dump: " + e.getMessage());
+            writeToUiAppendBorderColor("could not export the dump: " + e.getMessage(), COLOR_RED);
+        }
+    }
+
+    // starts the tracing of the following taps or stops it and saves the trace
+    private void toggleSessionTrace() {
+        SessionTracer tracer = sessionTracer;
+        if (tracer == null) {
+            tracer = new SessionTracer(SESSION_TRACE_CAPACITY);
+            sessionTracer = tracer;
+            outputAdapter.setTracer(tracer);
+            writeToUiAppend("session trace started, it is applied from the next tap of a tag");
+            return;
+        }
+        sessionTracer = null;
+        outputAdapter.setTracer(null);
+        tracer.setEnabled(false);
+        if (classic != null) classic.setTracer(null);
+        SessionTracer stoppedTracer = tracer;
+        try {
+            // the file is written on the card I/O thread after the running read of a tag
+            cardIoExecutor.execute(() -> writeSessionTrace(stoppedTracer));
+        } catch (RejectedExecutionException e) {
+            // the activity is destroyed
+            Log.e(TAG, "could not save the session trace: " + e.getMessage());
+        }
+    }
+
+    private void writeSessionTrace(SessionTracer tracer) {
+        File file = new File(getFilesDir(), SESSION_TRACE_FILE);
+        try {
+            tracer.save(file);
+            writeToUiAppend("session trace with " + tracer.size() + " spans saved to " + file.getAbsolutePath());
+        } catch (IOException e) {
+            Log.e(TAG, "could not save the session trace: " + e.getMessage());
+            writeToUiAppendBorderColor("could not save the session trace: " + e.getMessage(), COLOR_RED);
+        }
+    }
+
+    // the file is written on the card I/O thread after the running read of a tag, can be called from any thread
+    private void saveClassicMetrics() {
+        try {
+            cardIoExecutor.execute(this::writeClassicMetrics);
+        } catch (RejectedExecutionException e) {
+            // the activity is destroyed
+            Log.e(TAG, "could not save the metrics: " + e.getMessage());
+        }
+    }
+
+    // writes the metrics of all families with recorded operations, one JSON object per line
+    private void writeClassicMetrics() {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(getFilesDir(), CLASSIC_METRICS_FILE)), StandardCharsets.UTF_8))) {
+            for (ClassicMetrics metrics : classicMetrics) {
+                if (metrics.getCount(ClassicMetrics.OP_CONNECT) > 0) metrics.writeJson(writer);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "could not save the metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * section for UI elements
+     */
+
+    private void writeToUiAppend(String message) {
+        outputAdapter.append(message);
     }
 
     private void writeToUi(TextView textView, String message) {
@@ -510,44 +810,24 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
         });
     }
 
+    /**
+     * sets the border color of the output and appends the message, an empty message changes the border color only
+     */
     private void writeToUiAppendBorderColor(String message, int color) {
-        writeToUiAppendBorderColor(output, outputLayout, message, color);
-    }
-
-    private void writeToUiAppendBorderColor(TextView textView, TextInputLayout textInputLayout, String message, int color) {
         runOnUiThread(() -> {
-
-            // set the color to green
-            //Color from rgb
-            // int color = Color.rgb(255,0,0); // red
-            //int color = Color.rgb(0,255,0); // green
-            //Color from hex string
-            //int color2 = Color.parseColor("#FF11AA"); light blue
-            int[][] states = new int[][]{
-                    new int[]{android.R.attr.state_focused}, // focused
-                    new int[]{android.R.attr.state_hovered}, // hovered
-                    new int[]{android.R.attr.state_enabled}, // enabled
-                    new int[]{}  //
-            };
-            int[] colors = new int[]{
-                    color,
-                    color,
-                    color,
-                    //color2
-                    color
-            };
-            ColorStateList myColorList = new ColorStateList(states, colors);
-            textInputLayout.setBoxStrokeColorStateList(myColorList);
-
-            String oldString = textView.getText().toString();
-            if (TextUtils.isEmpty(oldString)) {
-                textView.setText(message);
-            } else {
-                String newString = message + "\n" + oldString;
-                textView.setText(newString);
-                System.out.println(message);
-            }
+            setOutputBorderColor(color);
         });
+        if (!TextUtils.isEmpty(message)) {
+            outputAdapter.append(message);
+        }
+    }
+
+    // needs to run on the UI thread
+    private void setOutputBorderColor(int color) {
+        GradientDrawable border = new GradientDrawable();
+        border.setCornerRadius(5 * getResources().getDisplayMetrics().density);
+        border.setStroke(Math.round(getResources().getDisplayMetrics().density), color);
+        outputLayout.setBackground(border);
     }
 
     public void showDialog(Activity activity, String msg) {
@@ -577,25 +857,11 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
     }
 
     private void clearOutputFields() {
+        outputAdapter.clear();
+        // reset the border color to primary for errorCode
         runOnUiThread(() -> {
-            output.setText("");
+            setOutputBorderColor(getResources().getColor(R.color.colorPrimary));
         });
-        // reset the border color to primary for errorCode
-        int color = R.color.colorPrimary;
-        int[][] states = new int[][]{
-                new int[]{android.R.attr.state_focused}, // focused
-                new int[]{android.R.attr.state_hovered}, // hovered
-                new int[]{android.R.attr.state_enabled}, // enabled
-                new int[]{}  //
-        };
-        int[] colors = new int[]{
-                color,
-                color,
-                color,
-                color
-        };
-        ColorStateList myColorList = new ColorStateList(states, colors);
-        outputLayout.setBoxStrokeColorStateList(myColorList);
     }
 
     private void vibrateShort() {
@@ -639,6 +905,33 @@ public class MainActivity extends AppCompatActivity implements NfcAdapter.Reader
             }
         });
 
+        MenuItem mExportTextFile = menu.findItem(R.id.action_export_text_file);
+        mExportTextFile.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                exportCardImage(CardImageFiles.EXTENSION_MCT);
+                return false;
+            }
+        });
+
+        MenuItem mExportBinaryFile = menu.findItem(R.id.action_export_binary_file);
+        mExportBinaryFile.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                exportCardImage(CardImageFiles.EXTENSION_MFD);
+                return false;
+            }
+        });
+
+        MenuItem mSessionTrace = menu.findItem(R.id.action_session_trace);
+        mSessionTrace.setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                toggleSessionTrace();
+                return false;
+            }
+        });
+
         return super.onCreateOptionsMenu(menu);
     }
 }
\ No newline at end of file
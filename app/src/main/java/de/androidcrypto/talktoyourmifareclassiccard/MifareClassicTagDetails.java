@@ -10,7 +10,8 @@ import java.util.Arrays;
 public class MifareClassicTagDetails {
     private static final String TAG = MifareClassicTagDetails.class.getName();
 
-    private final MifareClassic mfc;
+    private final MifareClassic mfc; // is NULL if the tag is not a real tag
+    private final MifareClassicTransport transport;
     private int tagType;
     private int tagSize; // size could be 320 / SIZE_MINI, 1024 / SIZE_1K, 2048 / SIZE_2K or 4096 / SIZE_4K
     // for details on size see: https://android.googlesource.com/platform/frameworks/base/+/48a5ed5/core/java/android/nfc/tech/MifareClassic.java
@@ -21,9 +22,18 @@ public class MifareClassicTagDetails {
     private String dump;
 
     public MifareClassicTagDetails(MifareClassic mfc) {
-        this.mfc = mfc;
-        if (mfc == null) {
-            Log.e(TAG, "mfc is NULL, aborted");
+        this((mfc == null) ? null : new AndroidMifareClassicTransport(mfc));
+    }
+
+    public MifareClassicTagDetails(MifareClassicTransport transport) {
+        this.transport = transport;
+        if (transport instanceof AndroidMifareClassicTransport) {
+            this.mfc = ((AndroidMifareClassicTransport) transport).getMfc();
+        } else {
+            this.mfc = null;
+        }
+        if (transport == null) {
+            Log.e(TAG, "transport is NULL, aborted");
             return;
         }
         analyze();
@@ -31,12 +41,12 @@ public class MifareClassicTagDetails {
 
     private void analyze() {
         // get card details
-        tagType = mfc.getType();
-        tagSize = mfc.getSize();
-        sectorCount = mfc.getSectorCount();
-        blockCount = mfc.getBlockCount();
-        uid = mfc.getTag().getId();
-        techlist = mfc.getTag().getTechList();
+        tagType = transport.getType();
+        tagSize = transport.getSize();
+        sectorCount = transport.getSectorCount();
+        blockCount = transport.getBlockCount();
+        uid = transport.getUid();
+        techlist = transport.getTechList();
 
         StringBuilder sb = new StringBuilder();
         sb.append("MifareClassic type: ").append(tagType).append("\n");
@@ -44,7 +54,7 @@ public class MifareClassicTagDetails {
 
         sb.append("MifareClassic sector count: ").append(sectorCount).append("\n");
         sb.append("MifareClassic block count: ").append(blockCount).append("\n");
-        sb.append("Tag UID: ").append(bytesToHexNpe(uid)).append("\n");
+        HexCodec.encode(uid, sb.append("Tag UID: ")).append("\n");
         sb.append("Tag Techlist: ").append(Arrays.toString(techlist));
         dump = sb.toString();
     }
@@ -53,22 +63,8 @@ public class MifareClassicTagDetails {
         return mfc;
     }
 
-    /**
-     * converts a byte array to a hex encoded string
-     * This method is Null Pointer Exception (NPE) safe
-     *
-     * @param bytes
-     * @return hex encoded string
-     */
-    private static String bytesToHexNpe(byte[] bytes) {
-        if (bytes != null) {
-            StringBuffer result = new StringBuffer();
-            for (byte b : bytes)
-                result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
-            return result.toString();
-        } else {
-            return "";
-        }
+    public MifareClassicTransport getTransport() {
+        return transport;
     }
 
     /**
@@ -0,0 +1,63 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import java.io.IOException;
+
+/**
+ * This interface takes all low level commands that are sent to a Mifare Classic tag.
+ * The methods are modelled after android.nfc.tech.MifareClassic so a real tag
+ * (see AndroidMifareClassicTransport) and a simulated tag (see SimulatedMifareClassicCard)
+ * can be used by Classic and MifareClassicTagDetails without any changes.
+ */
+
+public interface MifareClassicTransport {
+
+    /**
+     * section for tag details
+     */
+
+    int getType();
+
+    int getSize(); // size could be 320 / SIZE_MINI, 1024 / SIZE_1K, 2048 / SIZE_2K or 4096 / SIZE_4K
+
+    int getSectorCount();
+
+    int getBlockCount();
+
+    int getBlockCountInSector(int sectorIndex);
+
+    int sectorToBlock(int sectorIndex);
+
+    int blockToSector(int blockIndex);
+
+    byte[] getUid();
+
+    String[] getTechList();
+
+    boolean isConnected();
+
+    /**
+     * sets the timeout for all following commands
+     * @param timeoutMillis in milliseconds
+     */
+    void setTimeout(int timeoutMillis);
+
+    int getTimeout();
+
+    /**
+     * section for commands
+     */
+
+    boolean authenticateSectorWithKeyA(int sectorIndex, byte[] key) throws IOException;
+
+    boolean authenticateSectorWithKeyB(int sectorIndex, byte[] key) throws IOException;
+
+    byte[] readBlock(int blockIndex) throws IOException;
+
+    void writeBlock(int blockIndex, byte[] data) throws IOException;
+
+    /**
+     * sends a raw command to the tag (e.g. READ 0x30 and the block number) and returns the response,
+     * the tag has to be authenticated for the sector as with readBlock
+     */
+    byte[] transceive(byte[] data) throws IOException;
+}
@@ -0,0 +1,76 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+/**
+ * This class plans the read of a sector with the access conditions of its sector trailer: for each block the
+ * key type that is allowed to read the block is chosen, blocks that can't be read with the known keys are
+ * skipped. So no authentication or read is sent to the tag that the access conditions show will fail.
+ * The key types are the permission bits of AccessConditionCodec (PERMISSION_KEY_A and PERMISSION_KEY_B),
+ * a set of key types is a bit mask of them.
+ * Note: if key B is readable it can't be used for any access (see AccessConditionCodec.getEffectiveReadPermission).
+ */
+
+public class ReadPlanner {
+
+    public static final int SKIP = AccessConditionCodec.PERMISSION_NEVER;
+
+    private ReadPlanner() {
+    }
+
+    /**
+     * @param packed         the packed access conditions of the sector, not AccessConditionCodec.INVALID
+     * @param blocksInSector 4 or 16 (large sectors of a Classic 4K)
+     * @param preferredKey   the key type of the current authentication, it is used for all blocks it can read
+     * @param availableKeys  the key types with a known key
+     * @param plan           gets the key type for each block in the sector or SKIP, needs a length of blocksInSector
+     * @return the number of blocks to read
+     */
+    public static int planSector(int packed, int blocksInSector, int preferredKey, int availableKeys, int[] plan) {
+        int numberOfBlocksToRead = 0;
+        for (int blockInSector = 0; blockInSector < blocksInSector; blockInSector++) {
+            int group = AccessConditionCodec.getAccessGroup(blockInSector, blocksInSector);
+            int keys = AccessConditionCodec.getEffectiveReadPermission(packed, group) & availableKeys;
+            if (keys == 0) {
+                plan[blockInSector] = SKIP;
+            } else if ((keys & preferredKey) != 0) {
+                plan[blockInSector] = preferredKey;
+                numberOfBlocksToRead++;
+            } else {
+                // only one key type is left
+                plan[blockInSector] = keys;
+                numberOfBlocksToRead++;
+            }
+        }
+        return numberOfBlocksToRead;
+    }
+
+    /**
+     * @param blocksToRead the blocks of the sector that are read as bit mask, bit 0 is the first block of the sector
+     * @return the key type that is needed in addition to the available keys to read all readable blocks
+     * of blocksToRead or 0 if the available keys are sufficient. It is never a key B that is readable.
+     */
+    public static int getMissingKey(int packed, int blocksInSector, int blocksToRead, int availableKeys) {
+        int missingKeys = 0;
+        for (int blockInSector = 0; blockInSector < blocksInSector; blockInSector++) {
+            if ((blocksToRead & (1 << blockInSector)) == 0) continue;
+            int group = AccessConditionCodec.getAccessGroup(blockInSector, blocksInSector);
+            int keys = AccessConditionCodec.getEffectiveReadPermission(packed, group);
+            if ((keys & availableKeys) == 0) {
+                missingKeys |= keys;
+            }
+        }
+        if ((missingKeys & AccessConditionCodec.PERMISSION_KEY_A) != 0) {
+            return AccessConditionCodec.PERMISSION_KEY_A;
+        }
+        return missingKeys & AccessConditionCodec.PERMISSION_KEY_B;
+    }
+
+    public static int keyTypeToPermission(String keyType) {
+        if (Classic.KEY_TYPE_A.equals(keyType)) return AccessConditionCodec.PERMISSION_KEY_A;
+        if (Classic.KEY_TYPE_B.equals(keyType)) return AccessConditionCodec.PERMISSION_KEY_B;
+        return AccessConditionCodec.PERMISSION_NEVER;
+    }
+
+    public static String permissionToKeyType(int permission) {
+        return (permission == AccessConditionCodec.PERMISSION_KEY_A) ? Classic.KEY_TYPE_A : Classic.KEY_TYPE_B;
+    }
+}
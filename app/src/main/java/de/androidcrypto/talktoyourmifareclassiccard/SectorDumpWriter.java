@@ -0,0 +1,246 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class writes the dump of sectors to an Appendable (e.g. a StringBuilder or Writer) or an OutputStream
+ * sector by sector, so a complete tag (or many tags) can get exported without building a String for each sector.
+ * The hex data is written directly from the buffer of the SectorMcModel view.
+ * There are two formats:
+ * FORMAT_TEXT is the human readable format of SectorMcModel.dump()
+ * FORMAT_JSON writes one JSON object per tag in one line:
+ * {"uid":"..","size":1024,"sectors":[{"sector":0,"read":true,"keyType":"A","key":"..","accessBits":"..",
+ * "accessConditions":[0,0,0,1],"blocks":["..",".."]},{"sector":1,"read":false},..]}
+ * accessConditions are the conditions C1C2C3 (0..7) of the 3 data block groups and the sector trailer,
+ * null if the access bits are invalid. A block is null if it could not get read (see CardImage.isBlockRead).
+ * Usage: beginCard, writeSector for each sector, endCard. beginCard and endCard can be omitted for the text format.
+ */
+
+public class SectorDumpWriter implements Closeable, Flushable {
+
+    public static final int FORMAT_TEXT = 0;
+    public static final int FORMAT_JSON = 1;
+    private static final int BLOCK_LENGTH = 16;
+    private static final int KEY_LENGTH = 6;
+    private static final int ACCESS_BITS_OFFSET = 6; // in the access block
+    private static final String SEPARATOR_DOUBLE = "=======================";
+    private static final String SEPARATOR_SINGLE = "-----------------------";
+
+    private final Appendable out;
+    private final int format;
+    private boolean decodeUtf8 = true; // adds the block data as UTF-8 string to the text format
+    private boolean cardStarted = false;
+    private int sectorsInCard = 0;
+
+    /**
+     * @param out    the target, e.g. a StringBuilder or Writer
+     * @param format FORMAT_TEXT or FORMAT_JSON
+     */
+    public SectorDumpWriter(Appendable out, int format) {
+        if (out == null) {
+            throw new IllegalArgumentException("out is NULL");
+        }
+        if ((format != FORMAT_TEXT) && (format != FORMAT_JSON)) {
+            throw new IllegalArgumentException("unknown format: " + format);
+        }
+        this.out = out;
+        this.format = format;
+    }
+
+    /**
+     * writes the dump UTF-8 encoded to the stream, the stream gets closed by close()
+     */
+    public SectorDumpWriter(OutputStream outputStream, int format) {
+        this(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)), format);
+    }
+
+    /**
+     * the text format contains the block data as UTF-8 string, this is the most expensive part of the dump
+     */
+    public void setDecodeUtf8(boolean decodeUtf8) {
+        this.decodeUtf8 = decodeUtf8;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * starts the dump of a tag
+     * @param uid     the UID of the tag, can be NULL
+     * @param tagSize the memory size of the tag
+     */
+    public void beginCard(byte[] uid, int tagSize) throws IOException {
+        if (cardStarted) endCard();
+        cardStarted = true;
+        sectorsInCard = 0;
+        if (format == FORMAT_JSON) {
+            out.append("{\"uid\":\"");
+            HexCodec.encode(uid, 0, (uid == null) ? 0 : uid.length, out, false);
+            out.append("\",\"size\":").append(Integer.toString(tagSize)).append(",\"sectors\":[");
+        } else {
+            HexCodec.encode(uid, 0, (uid == null) ? 0 : uid.length, out.append("Tag UID: "), false);
+            out.append('\n');
+            out.append("Tag size: ").append(Integer.toString(tagSize)).append('\n');
+        }
+    }
+
+    /**
+     * ends the dump of a tag, in FORMAT_JSON the object of the tag is closed and a new line is added
+     */
+    public void endCard() throws IOException {
+        if (!cardStarted) return;
+        cardStarted = false;
+        if (format == FORMAT_JSON) {
+            out.append("]}\n");
+        }
+    }
+
+    /**
+     * writes all sectors of the card image, unread sectors are written as not readable
+     */
+    public void writeCard(CardImage cardImage, byte[] uid) throws IOException {
+        beginCard(uid, cardImage.getSize());
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            writeSector(new SectorMcModel(cardImage, sectorIndex));
+        }
+        endCard();
+    }
+
+    public void writeSector(SectorMcModel sectorMc) throws IOException {
+        if (format == FORMAT_JSON) {
+            writeSectorJson(sectorMc);
+        } else {
+            writeSectorText(sectorMc);
+        }
+        sectorsInCard++;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out instanceof Flushable) ((Flushable) out).flush();
+    }
+
+    /**
+     * ends an open card and closes the target if it is Closeable
+     */
+    @Override
+    public void close() throws IOException {
+        endCard();
+        if (out instanceof Closeable) {
+            ((Closeable) out).close();
+        } else {
+            flush();
+        }
+    }
+
+    /**
+     * section for the text format
+     */
+
+    private void writeSectorText(SectorMcModel sectorMc) throws IOException {
+        boolean dataIsValid = sectorMc.isDataIsValid();
+        byte[] buffer = sectorMc.getBuffer();
+        int sectorNumber = sectorMc.getSectorNumber();
+        out.append("MifareClassic sector: ");
+        if ((sectorNumber >= 0) && (sectorNumber < 10)) out.append('0');
+        out.append(Integer.toString(sectorNumber)).append('\n');
+        out.append("isSector0: ").append(String.valueOf(sectorMc.isSector0())).append('\n');
+        out.append("isReadableSector: ").append(String.valueOf(sectorMc.isReadableSector())).append('\n');
+        int accessBlockOffset = dataIsValid ? sectorMc.getAccessBlockOffset() : 0;
+        int blockDataOffset = (dataIsValid && sectorMc.isSector0()) ? sectorMc.getOffset() + BLOCK_LENGTH : sectorMc.getOffset();
+        appendTextLine("sectorRead length: ", "sectorRead", dataIsValid, buffer, sectorMc.getOffset(), sectorMc.getLength());
+        appendTextLine("uidData length: ", "uidData", dataIsValid && sectorMc.isSector0(), buffer, sectorMc.getOffset(), BLOCK_LENGTH);
+        appendTextLine("blockData length: ", "blockData", dataIsValid, buffer, blockDataOffset, accessBlockOffset - blockDataOffset);
+        if (dataIsValid && decodeUtf8) {
+            out.append("blockData UTF-8: ").append(new String(buffer, blockDataOffset, accessBlockOffset - blockDataOffset, StandardCharsets.UTF_8)).append('\n');
+        }
+        appendTextLine("accessBlock length: ", "accessBlock", dataIsValid, buffer, accessBlockOffset, BLOCK_LENGTH);
+        byte[] keyA = sectorMc.getKeyA();
+        appendTextLine("keyA length: ", "keyA", true, keyA, 0, KEY_LENGTH);
+        appendTextLine("accessBits: ", "accessBits", dataIsValid, buffer, accessBlockOffset + ACCESS_BITS_OFFSET, 4);
+        appendTextLine("unusedByte: ", "unusedByte", dataIsValid, buffer, accessBlockOffset + ACCESS_BITS_OFFSET + 3, 1);
+        byte[] keyB = sectorMc.getKeyB();
+        appendTextLine("keyB length: ", "keyB", true, keyB, 0, KEY_LENGTH);
+        // add access conditions string
+        out.append(SEPARATOR_DOUBLE).append('\n');
+        out.append("== Access Conditions ==").append('\n');
+        out.append("accessBytes: ");
+        if (dataIsValid) HexCodec.encode(buffer, accessBlockOffset + ACCESS_BITS_OFFSET, 3, out, false);
+        out.append('\n');
+        out.append(SEPARATOR_SINGLE).append('\n');
+        String[] accessConditionsString = sectorMc.getAccessConditionsString();
+        for (int blockIndex = 0; (accessConditionsString != null) && (blockIndex < 4); blockIndex++) {
+            out.append("block ").append(Integer.toString(blockIndex)).append(": ").append('\n').append(accessConditionsString[blockIndex]).append('\n');
+            if (blockIndex < 3) out.append(SEPARATOR_SINGLE).append('\n');
+        }
+        out.append(SEPARATOR_DOUBLE).append('\n');
+    }
+
+    private void appendTextLine(String label, String name, boolean available, byte[] data, int offset, int length) throws IOException {
+        if (!available) {
+            out.append(name).append(" is NULL").append('\n');
+            return;
+        }
+        out.append(label).append(Integer.toString(length)).append(" data: ");
+        HexCodec.encode(data, offset, length, out, false);
+        out.append('\n');
+    }
+
+    /**
+     * section for the JSON format
+     */
+
+    private void writeSectorJson(SectorMcModel sectorMc) throws IOException {
+        if (sectorsInCard > 0) out.append(',');
+        out.append("{\"sector\":").append(Integer.toString(sectorMc.getSectorNumber()));
+        if (!sectorMc.isDataIsValid()) {
+            out.append(",\"read\":false}");
+            return;
+        }
+        byte[] buffer = sectorMc.getBuffer();
+        int accessBlockOffset = sectorMc.getAccessBlockOffset();
+        out.append(",\"read\":true");
+        String keyType = sectorMc.getKeyType();
+        if (Classic.KEY_TYPE_A.equals(keyType) || Classic.KEY_TYPE_B.equals(keyType)) {
+            byte[] key = Classic.KEY_TYPE_A.equals(keyType) ? sectorMc.getKeyA() : sectorMc.getKeyB();
+            out.append(",\"keyType\":\"").append(keyType).append("\",\"key\":\"");
+            HexCodec.encode(key, 0, KEY_LENGTH, out, false);
+            out.append('"');
+        }
+        out.append(",\"accessBits\":\"");
+        HexCodec.encode(buffer, accessBlockOffset + ACCESS_BITS_OFFSET, 4, out, false);
+        out.append("\",\"accessConditions\":");
+        int packed = sectorMc.getAccessConditions();
+        if (packed == AccessConditionCodec.INVALID) {
+            out.append("null");
+        } else {
+            out.append('[');
+            for (int block = 0; block < 4; block++) {
+                if (block > 0) out.append(',');
+                out.append((char) ('0' + AccessConditionCodec.getCondition(packed, block)));
+            }
+            out.append(']');
+        }
+        out.append(",\"blocks\":[");
+        CardImage cardImage = sectorMc.getCardImage();
+        int firstBlock = (cardImage == null) ? 0 : cardImage.sectorToBlock(sectorMc.getSectorNumber());
+        for (int blockInSector = 0; blockInSector < sectorMc.getNumberOfBlocks(); blockInSector++) {
+            if (blockInSector > 0) out.append(',');
+            if ((cardImage != null) && (!cardImage.isBlockRead(firstBlock + blockInSector))) {
+                out.append("null");
+                continue;
+            }
+            out.append('"');
+            HexCodec.encode(buffer, sectorMc.getBlockOffset(blockInSector), BLOCK_LENGTH, out, false);
+            out.append('"');
+        }
+        out.append("]}");
+    }
+}
@@ -2,59 +2,43 @@ package de.androidcrypto.talktoyourmifareclassiccard;
 
 import android.util.Log;
 
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 public class SectorMcModel {
+    private static final String TAG = SectorMcModel.class.getName();
 
     /**
      * this class is for usage with Mifare Classic tags only
      */
 
-    private int sectorNumber;
-    private boolean isSector0;
+    private final int sectorNumber;
+    private final boolean isSector0;
     private boolean isReadableSector;
-    private byte[] sectorRead; // complete data, sector 0 first 16 bytes are UID & manufacture info, last 16 bytes is access block, between is blockData
-    private byte[] uidData; // contains the UID & manufacture info, only if isSector0 = true
-    private byte[] blockData; // contains 2 (if sector 0) or 3 blocks of 16 bytes of data or 15 blocks of 16 bytes data
-    private byte[] accessBlock = new byte[16]; // complete block, sections see below. key A and B are nulled as they can't read out
-    private byte[] keyA = new byte[6]; // access key A
-    private byte[] accessBits = new byte[4]; // 4 access bytes for access to the data elements including unusedByte data
-    private byte[] accessByte = new byte[3]; // 3 access bytes for access to the data elements WITHOUT unusedByte data
-    private byte[] unusedByte = new byte[1]; // unused byte, can be used for data
-    private byte[] keyB = new byte[6]; // access key B
+    // the sector is a view on this buffer, starting at offset. The buffer is a CardImage (complete tag) or the data of one sector.
+    // sector 0 first 16 bytes are UID & manufacture info, last 16 bytes is access block, between is blockData
+    private byte[] buffer;
+    private int offset;
+    private int length;
+    private CardImage cardImage; // NULL if the model was created from the data of one sector
     private String keyType;
+    private byte[] key; // the key used for reading the sector
     private boolean dataIsValid = false;
     private byte[] ACCESS_CONDITION_DEFAULT = Utils.hexStringToByteArray("FF0780");
-    private String[] accessConditionsString; // takes the access conditions string for each block
+    private String[] accessConditionsString; // takes the access conditions string for each block, created on first usage
     private boolean isClassicMini = false;
     private boolean isClassic1K = false;
     private boolean isClassic4K = false;
     private boolean isRegularSectorSize = false; // 64 bytes length
     private boolean isExtendedSectorSize = false; // 256 bytes length
-    private List<byte[]> dataBlockList; // takes the data of blockData, split in 16 bytes each
     private int numberOfBlocks = 4; // default value for Mifare Classic mini and 1K, on 4K depending on sector number 4 or 16
     private final int BLOCK_LENGTH = 16;
+    private final int KEY_LENGTH = 6;
+    private final int ACCESS_BITS_OFFSET = 6; // in the access block
+    private final int UNUSED_BYTE_OFFSET = 9; // in the access block
 
-    public SectorMcModel(int sectorNumber, boolean isReadableSector, byte[] sectorRead, byte[] uidData, byte[] blockData, byte[] accessBlock, byte[] keyA, byte[] accessBits, byte[] unused, byte[] keyB) {
-        dataIsValid = false;
-        this.sectorNumber = sectorNumber;
-        if (sectorNumber == 0) {
-            this.isSector0 = true;
-        } else {
-            this.isSector0 = false;
-        }
-        this.isReadableSector = isReadableSector;
-        this.sectorRead = sectorRead;
-        this.uidData = uidData;
-        this.blockData = blockData;
-        this.accessBlock = accessBlock;
-        this.keyA = keyA;
-        this.accessBits = accessBits;
-        this.unusedByte = unused;
-        this.keyB = keyB;
-    }
 /*
 memory organisation
 Classic mini: 5 sectors with each 4 blocks and 16 bytes block length = 5 * 4 * 16 = 320 bytes user memory,
@@ -66,188 +50,130 @@ usable (1 * 2 * 16) + (15 * 3 * 16) = 752 bytes free memory
 Classic 4K:  (32 sectors with each 4 blocks + 8 sectors with each 16 blocks) and 16 bytes block length = 4096 bytes user memory,
 usable (1 * 2 * 16) + (31 * 3 * 16) + (8 * 15 * 16) = 3440 bytes free memory
  */
+
+    /**
+     * creates the model for the data of one sector, the sectorRead array is not copied
+     */
     public SectorMcModel(int sectorNumber, byte[] sectorRead, String keyType, byte[] key) {
-        dataIsValid = false;
-        // sanity checks
         this.sectorNumber = sectorNumber;
-        if (sectorNumber == 0) {
-            this.isSector0 = true;
-        } else {
-            this.isSector0 = false;
-        }
+        this.isSector0 = (sectorNumber == 0);
         if (sectorNumber > 39) {
             return;
         }
-        if (sectorRead != null) {
-            this.isReadableSector = true;
-            this.sectorRead = sectorRead;
-        } else {
+        if (sectorRead == null) {
             this.isReadableSector = false;
-            this.sectorRead = null;
             return;
         }
+        this.isReadableSector = true;
         this.keyType = keyType;
-        if (keyType.equals(Classic.KEY_TYPE_A)) {
-            this.keyA = key.clone();
-        } else {
-            this.keyB = key.clone();
+        this.key = key.clone();
+        setView(sectorRead, 0, sectorRead.length);
+    }
+
+    /**
+     * creates the model as a view on a sector of the card image, no data is copied
+     */
+    public SectorMcModel(CardImage cardImage, int sectorNumber) {
+        this.sectorNumber = sectorNumber;
+        this.isSector0 = (sectorNumber == 0);
+        if ((cardImage == null) || (sectorNumber < 0) || (sectorNumber >= cardImage.getSectorCount())) {
+            return;
         }
-        // sectorRead length can be (mini 320 bytes) 5 * 4 * 16 bytes, (1k 1024 bytes) 16 * 4 * 16 bytes or (4k 4096 bytes) (16 * 4 * 16) + (8 * 16 * 16 bytes)
-        int sectorReadLength = sectorRead.length;
-        /*
-        if (sectorReadLength == 320) {
-            isClassicMini = true;
-        } else if (sectorReadLength == 1024) {
-            isClassic1K = true;
-        } else if (sectorReadLength == 4096) {
-            isClassic4K = true;
-        } else {
-            // undefined or unknown tag type, aborting
+        this.cardImage = cardImage;
+        this.isReadableSector = cardImage.isSectorRead(sectorNumber);
+        if (!isReadableSector) {
             return;
         }
+        this.keyType = cardImage.getSectorKeyType(sectorNumber);
+        this.key = cardImage.getSectorKey(sectorNumber);
+        setView(cardImage.getData(), cardImage.getSectorOffset(sectorNumber), cardImage.getSectorLength(sectorNumber));
+    }
 
-         */
+    private void setView(byte[] buffer, int offset, int length) {
         // a sector can be 4 * 16 bytes = 64 byte (mini or 1K)  or 16 * 16 bytes = 256 bytes (4K)
-        if (sectorReadLength == 64) {
+        if (length == 64) {
             isRegularSectorSize = true;
             numberOfBlocks = 4;
-        } else if (sectorReadLength == 256) {
+        } else if (length == 256) {
             isExtendedSectorSize = true;
             numberOfBlocks = 16;
         } else {
             // undefined sector length, aborting
             return;
         }
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        dataIsValid = true;
+    }
 
-        // get the uid + manufacture data
-        if (isSector0) {
-            uidData = Arrays.copyOf(sectorRead, 16);
-            blockData = Arrays.copyOfRange(sectorRead, 16, (sectorReadLength - 16));
-            accessBlock = Arrays.copyOfRange(sectorRead, (sectorReadLength - 16), sectorReadLength);
-        } else {
-            if (sectorNumber < 32) {
-                // 1k
-                blockData = Arrays.copyOfRange(sectorRead, 0, (sectorReadLength - 16));
-                accessBlock = Arrays.copyOfRange(sectorRead, (sectorReadLength - 16), sectorReadLength);
-            } else {
-                // 4k
-                blockData = Arrays.copyOfRange(sectorRead, 0, (sectorReadLength - 16));
-                accessBlock = Arrays.copyOfRange(sectorRead, (sectorReadLength - 16), sectorReadLength);
-            }
-        }
-        // analyze the accessBlock
-        accessBits = Arrays.copyOfRange(accessBlock, 6, 10); // the accessBits include the unused data byte
-        unusedByte = Arrays.copyOfRange(accessBlock, 9, 10);
-        accessByte = Arrays.copyOf(accessBits, 3); // just the access condition data
-        accessConditionsString = new String[numberOfBlocks];
-        // get the access conditions for each block in the sector (4 or 16)
-        //System.out.println("=== get the access conditions for each block in the sector ===");
-        byte[][] GetAccessBitsArray = AccessConditions.GetAccessBitsArray(accessBits);
-        for (int blockIndex = 0; blockIndex < 4; blockIndex++) {
-            /*
-            System.out.println("blockIndex: " + blockIndex);
-            for (int j = 0; j < 2; j++) {
-                System.out.println("j: " + j + Utils.printData(" C", GetAccessBitsArray[j]));
-            }
-            System.out.println("blockIndex end");
-*/
-            String acString;
-            if (blockIndex == 3) {
-                acString = AccessConditions.GetAccessConditionsDescription(GetAccessBitsArray, blockIndex, true);
-                accessConditionsString[blockIndex] = acString;
-            } else {
-                acString = AccessConditions.GetAccessConditionsDescription(GetAccessBitsArray, blockIndex, false);
-                accessConditionsString[blockIndex] = acString;
-            }
-            //System.out.println("blockIndex: " + blockIndex + " ac: " + acString);
-            /*
-            if (isSector0) {
-                String acString = AccessConditions.GetAccessConditionsDescription(GetAccessBitsArray)
-            }
+    /**
+     * section for offsets in the buffer
+     */
 
-             */
-        }
-        // split the blockData
-        dataBlockList = Utils.divideArrayToList(blockData, BLOCK_LENGTH);
-        dataIsValid = true;
+    /**
+     * returns the buffer the sector is a view on, the sector starts at getOffset()
+     */
+    public byte[] getBuffer() {
+        return buffer;
     }
 
-    public String dump() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("MifareClassic sector: ").append(String.format("%02d", sectorNumber)).append("\n");
-        sb.append("isSector0: ").append(isSector0).append("\n");
-        sb.append("isReadableSector: ").append(isReadableSector).append("\n");
-        if (sectorRead != null) {
-            sb.append("sectorRead length: ").append(sectorRead.length).append(" data: ").append(bytesToHexNpe(sectorRead)).append("\n");
-        } else {
-            sb.append("sectorRead is NULL").append("\n");
-        }
-        if (uidData != null) {
-            sb.append("uidData length: ").append(uidData.length).append(" data: ").append(bytesToHexNpe(uidData)).append("\n");
-        } else {
-            sb.append("uidData is NULL").append("\n");
-        }
-        if (blockData != null) {
-            sb.append("blockData length: ").append(blockData.length).append(" data: ").append(bytesToHexNpe(blockData)).append("\n");
-            sb.append("blockData UTF-8: " + new String(blockData, StandardCharsets.UTF_8)).append("\n");
-        } else {
-            sb.append("blockData is NULL").append("\n");
-        }
-        if (accessBlock != null) {
-            sb.append("accessBlock length: ").append(accessBlock.length).append(" data: ").append(bytesToHexNpe(accessBlock)).append("\n");
-        } else {
-            sb.append("accessBlock is NULL").append("\n");
-        }
-        if (keyA != null) {
-            sb.append("keyA length: ").append(keyA.length).append(" data: ").append(bytesToHexNpe(keyA)).append("\n");
-        } else {
-            sb.append("keyA is NULL").append("\n");
-        }
-        if (accessBits != null) {
-            sb.append("accessBits: ").append(accessBits.length).append(" data: ").append(bytesToHexNpe(accessBits)).append("\n");
-        } else {
-            sb.append("accessBits is NULL").append("\n");
-        }
-        if (unusedByte != null) {
-            sb.append("unusedByte: ").append(unusedByte.length).append(" data: ").append(bytesToHexNpe(unusedByte)).append("\n");
-        } else {
-            sb.append("unusedByte is NULL").append("\n");
-        }
-        if (keyB != null) {
-            sb.append("keyB length: ").append(keyB.length).append(" data: ").append(bytesToHexNpe(keyB)).append("\n");
-        } else {
-            sb.append("keyB is NULL").append("\n");
-        }
-        // add access conditions string
-        sb.append("=======================").append("\n");
-        sb.append("== Access Conditions ==").append("\n");
-        sb.append("accessBytes: ").append(bytesToHexNpe(accessByte)).append("\n");
-        sb.append("-----------------------").append("\n");
-        for (int blockIndex = 0; blockIndex < 4; blockIndex++) {
-            sb.append("block ").append(blockIndex).append(": ").append("\n").append(accessConditionsString[blockIndex]).append("\n");
-            if (blockIndex < 3) sb.append("-----------------------").append("\n");
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public CardImage getCardImage() {
+        return cardImage;
+    }
+
+    public int getNumberOfBlocks() {
+        return numberOfBlocks;
+    }
+
+    /**
+     * @param blockInSector 0..3 or 0..15 for the large sectors of a 4K tag
+     * @return the offset of the block in the buffer
+     */
+    public int getBlockOffset(int blockInSector) {
+        if ((blockInSector < 0) || (blockInSector >= numberOfBlocks)) {
+            throw new IndexOutOfBoundsException("blockInSector out of range 0.." + (numberOfBlocks - 1) + ": " + blockInSector);
         }
-        sb.append("=======================").append("\n");
-        return sb.toString();
+        return offset + (blockInSector * BLOCK_LENGTH);
+    }
+
+    /**
+     * @return the offset of the access block (sector trailer) in the buffer
+     */
+    public int getAccessBlockOffset() {
+        return offset + length - BLOCK_LENGTH;
     }
 
+    // offset of the first data block, on sector 0 the manufacturer block is skipped
+    private int getBlockDataOffset() {
+        return isSector0 ? offset + BLOCK_LENGTH : offset;
+    }
+
+    private byte[] copy(int from, int count) {
+        if (!dataIsValid) return null;
+        return Arrays.copyOfRange(buffer, from, from + count);
+    }
 
     /**
-     * converts a byte array to a hex encoded string
-     * This method is Null Pointer Exception (NPE) safe
-     *
-     * @param bytes
-     * @return hex encoded string
+     * @return the dump of the sector in the text format of SectorDumpWriter
      */
-    private static String bytesToHexNpe(byte[] bytes) {
-        if (bytes != null) {
-            StringBuffer result = new StringBuffer();
-            for (byte b : bytes)
-                result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
-            return result.toString();
-        } else {
-            return "";
+    public String dump() {
+        StringBuilder sb = new StringBuilder(2048);
+        try {
+            new SectorDumpWriter(sb, SectorDumpWriter.FORMAT_TEXT).writeSector(this);
+        } catch (IOException e) {
+            // a StringBuilder does not throw an IOException
+            Log.e(TAG, "IOException on dump: " + e.getMessage());
         }
+        return sb.toString();
     }
 
     /**
@@ -267,39 +193,45 @@ usable (1 * 2 * 16) + (31 * 3 * 16) + (8 * 15 * 16) = 3440 bytes free memory
     }
 
     public byte[] getSectorRead() {
-        return sectorRead;
+        return copy(offset, length);
     }
 
     public byte[] getUidData() {
-        return uidData;
+        if (!isSector0) return null;
+        return copy(offset, BLOCK_LENGTH);
     }
 
     public byte[] getBlockData() {
-        return blockData;
+        int blockDataOffset = getBlockDataOffset();
+        return copy(blockDataOffset, getAccessBlockOffset() - blockDataOffset);
     }
 
     public byte[] getAccessBlock() {
-        return accessBlock;
+        return copy(getAccessBlockOffset(), BLOCK_LENGTH);
     }
 
     public byte[] getKeyA() {
-        return keyA;
+        if (Classic.KEY_TYPE_A.equals(keyType) && (key != null)) return key.clone();
+        return new byte[KEY_LENGTH];
     }
 
     public byte[] getAccessBits() {
-        return accessBits;
+        // the accessBits include the unused data byte
+        return copy(getAccessBlockOffset() + ACCESS_BITS_OFFSET, 4);
     }
 
     public byte[] getAccessByte() {
-        return accessByte;
+        // just the access condition data
+        return copy(getAccessBlockOffset() + ACCESS_BITS_OFFSET, 3);
     }
 
     public byte[] getUnusedByte() {
-        return unusedByte;
+        return copy(getAccessBlockOffset() + UNUSED_BYTE_OFFSET, 1);
     }
 
     public byte[] getKeyB() {
-        return keyB;
+        if (Classic.KEY_TYPE_B.equals(keyType) && (key != null)) return key.clone();
+        return new byte[KEY_LENGTH];
     }
 
     public String getKeyType() {
@@ -315,9 +247,26 @@ usable (1 * 2 * 16) + (31 * 3 * 16) + (8 * 15 * 16) = 3440 bytes free memory
     }
 
     public String[] getAccessConditionsString() {
+        if ((accessConditionsString == null) && dataIsValid) {
+            // get the access conditions for each block in the sector (4 or 16)
+            int packed = getAccessConditions();
+            String[] acStrings = new String[4];
+            for (int blockIndex = 0; blockIndex < 4; blockIndex++) {
+                acStrings[blockIndex] = AccessConditions.GetAccessConditionsDescription(packed, blockIndex);
+            }
+            accessConditionsString = acStrings;
+        }
         return accessConditionsString;
     }
 
+    /**
+     * @return the access conditions of the sector decoded by AccessConditionCodec or AccessConditionCodec.INVALID
+     */
+    public int getAccessConditions() {
+        if (!dataIsValid) return AccessConditionCodec.INVALID;
+        return AccessConditionCodec.decode(buffer, getAccessBlockOffset() + ACCESS_BITS_OFFSET);
+    }
+
     public boolean isClassicMini() {
         return isClassicMini;
     }
@@ -338,7 +287,16 @@ usable (1 * 2 * 16) + (31 * 3 * 16) + (8 * 15 * 16) = 3440 bytes free memory
         return isExtendedSectorSize;
     }
 
+    /**
+     * returns the data blocks of the sector, each block is a copy of 16 bytes
+     */
     public List<byte[]> getDataBlockList() {
+        if (!dataIsValid) return null;
+        List<byte[]> dataBlockList = new ArrayList<>();
+        int blockDataOffset = getBlockDataOffset();
+        for (int blockOffset = blockDataOffset; blockOffset < getAccessBlockOffset(); blockOffset += BLOCK_LENGTH) {
+            dataBlockList.add(Arrays.copyOfRange(buffer, blockOffset, blockOffset + BLOCK_LENGTH));
+        }
         return dataBlockList;
     }
 }
@@ -0,0 +1,221 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class records timestamped spans (e.g. an authentication, the parsing of a sector or a UI update) into a
+ * ring buffer that is allocated on creation, so recording a span does not allocate. When the buffer is full the
+ * oldest spans are overwritten. The spans can be exported in the Chrome trace event format (JSON) and opened in
+ * chrome://tracing or https://ui.perfetto.dev to see where the time of a tap went.
+ * Usage: long start = tracer.begin(); ... tracer.end(SessionTracer.CATEGORY_RF, "readBlock", blockIndex, start);
+ * The names and categories should be constants, they are stored as references.
+ * Spans can be recorded from any thread. A span that is recorded while the buffer wraps around at the same slot
+ * may be exported incomplete, this is accepted to keep the recording lock free.
+ */
+
+public class SessionTracer {
+
+    public static final String CATEGORY_NFC = "nfc"; // tag discovery and connect
+    public static final String CATEGORY_RF = "rf"; // commands sent to the tag
+    public static final String CATEGORY_KEY_SEARCH = "keySearch";
+    public static final String CATEGORY_PARSE = "parse";
+    public static final String CATEGORY_UI = "ui";
+    public static final int NO_ARGUMENT = -1;
+
+    private final int capacity; // a power of 2
+    private final int mask;
+    private final long originNanos; // the timestamps are exported relative to the creation of the tracer
+    private final long[] startNanos;
+    private final long[] durationNanos;
+    private final long[] threadIds;
+    private final int[] arguments;
+    private final String[] categories;
+    private final String[] names;
+    private final AtomicLong nextSpan = new AtomicLong();
+    private final ConcurrentHashMap<Long, String> threadNames = new ConcurrentHashMap<>();
+    // the id of the current thread, the thread name is stored on the first span of a thread
+    private final ThreadLocal<Long> currentThreadId = new ThreadLocal<Long>() {
+        @Override
+        protected Long initialValue() {
+            Thread thread = Thread.currentThread();
+            threadNames.put(thread.getId(), thread.getName());
+            return thread.getId();
+        }
+    };
+    private volatile boolean enabled = true;
+
+    /**
+     * @param capacity the maximum number of spans, rounded up to a power of 2
+     */
+    public SessionTracer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity needs to be at least 1");
+        }
+        this.capacity = (Integer.bitCount(capacity) == 1) ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.mask = this.capacity - 1;
+        this.originNanos = System.nanoTime();
+        startNanos = new long[this.capacity];
+        durationNanos = new long[this.capacity];
+        threadIds = new long[this.capacity];
+        arguments = new int[this.capacity];
+        categories = new String[this.capacity];
+        names = new String[this.capacity];
+    }
+
+    /**
+     * a disabled tracer does not record any span
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of spans in the buffer
+     */
+    public int size() {
+        return (int) Math.min(nextSpan.get(), capacity);
+    }
+
+    /**
+     * removes all spans, should not be called while spans are recorded
+     */
+    public void clear() {
+        nextSpan.set(0);
+    }
+
+    /**
+     * section for recording
+     */
+
+    /**
+     * @return the start time of a span for end()
+     */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    /**
+     * records a span from start until now on the current thread
+     * @param category one of the CATEGORY_ constants
+     * @param name     the name of the operation
+     * @param argument e.g. the sector or block number, NO_ARGUMENT if there is none
+     * @param start    the value of begin()
+     */
+    public void end(String category, String name, int argument, long start) {
+        if (!enabled) return;
+        long end = System.nanoTime();
+        long threadId = currentThreadId.get();
+        int slot = (int) (nextSpan.getAndIncrement() & mask);
+        startNanos[slot] = start;
+        durationNanos[slot] = end - start;
+        threadIds[slot] = threadId;
+        arguments[slot] = argument;
+        categories[slot] = category;
+        names[slot] = name;
+    }
+
+    public void end(String category, String name, long start) {
+        end(category, name, NO_ARGUMENT, start);
+    }
+
+    /**
+     * section for the export
+     */
+
+    /**
+     * writes the spans in the Chrome trace event format, oldest first:
+     * {"traceEvents":[{"name":"..","cat":"..","ph":"X","ts":..,"dur":..,"pid":1,"tid":..,"args":{"arg":..}},..],
+     * "displayTimeUnit":"ms"}
+     * The timestamps are in microseconds since the creation of the tracer, the threads are named by metadata events.
+     */
+    public void writeChromeTrace(Appendable out) throws IOException {
+        long last = nextSpan.get();
+        long first = Math.max(0, last - capacity);
+        out.append("{\"traceEvents\":[");
+        boolean firstEvent = true;
+        for (Long threadId : threadNames.keySet()) {
+            if (!firstEvent) out.append(',');
+            firstEvent = false;
+            out.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(Long.toString(threadId))
+                    .append(",\"args\":{\"name\":\"");
+            appendEscaped(out, threadNames.get(threadId));
+            out.append("\"}}");
+        }
+        for (long span = first; span < last; span++) {
+            int slot = (int) (span & mask);
+            if (names[slot] == null) continue;
+            if (!firstEvent) out.append(',');
+            firstEvent = false;
+            out.append("{\"name\":\"");
+            appendEscaped(out, names[slot]);
+            out.append("\",\"cat\":\"");
+            appendEscaped(out, categories[slot]);
+            out.append("\",\"ph\":\"X\",\"ts\":");
+            appendMicros(out, startNanos[slot] - originNanos);
+            out.append(",\"dur\":");
+            appendMicros(out, durationNanos[slot]);
+            out.append(",\"pid\":1,\"tid\":").append(Long.toString(threadIds[slot]));
+            if (arguments[slot] != NO_ARGUMENT) {
+                out.append(",\"args\":{\"arg\":").append(Integer.toString(arguments[slot])).append('}');
+            }
+            out.append('}');
+        }
+        out.append("],\"displayTimeUnit\":\"ms\"}\n");
+    }
+
+    public void save(OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        writeChromeTrace(writer);
+        writer.flush();
+    }
+
+    public void save(File file) throws IOException {
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            save(outputStream);
+        }
+    }
+
+    // microseconds with 3 decimals
+    private static void appendMicros(Appendable out, long nanos) throws IOException {
+        if (nanos < 0) {
+            out.append('-');
+            nanos = -nanos;
+        }
+        out.append(Long.toString(nanos / 1000)).append('.');
+        long fraction = nanos % 1000;
+        if (fraction < 100) out.append('0');
+        if (fraction < 10) out.append('0');
+        out.append(Long.toString(fraction));
+    }
+
+    private static void appendEscaped(Appendable out, String value) throws IOException {
+        if (value == null) return;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(' ');
+            } else {
+                out.append(c);
+            }
+        }
+    }
+}
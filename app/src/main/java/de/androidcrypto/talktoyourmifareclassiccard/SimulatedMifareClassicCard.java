@@ -0,0 +1,458 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import android.nfc.tech.MifareClassic;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class simulates a Mifare Classic Mini, 1K, 2K or 4K tag in memory. It is working without
+ * any Android dependencies, so the complete read and authentication engine (Classic) can run on a
+ * host JVM, e.g. for benchmarks of complete tag dumps.
+ * The simulation is following the datasheets:
+ * - each sector has a real sector trailer with key A, the access bytes, the unused (GPB) byte and key B
+ * - authentication is checked against the keys in the sector trailer
+ * - read and write commands are checked against the access conditions of the sector
+ * - a failed authentication or a denied command resets the authentication state (like a real tag)
+ */
+
+public class SimulatedMifareClassicCard implements MifareClassicTransport {
+
+    public static final byte[] DEFAULT_SECTOR_TRAILER = Utils.hexStringToByteArray("FFFFFFFFFFFFFF078069FFFFFFFFFFFF");
+    public static final String[] TECH_LIST = new String[]{"android.nfc.tech.NfcA", "android.nfc.tech.MifareClassic", "android.nfc.tech.NdefFormatable"};
+    private static final int BLOCK_LENGTH = 16;
+    private static final byte READ_COMMAND = (byte) 0x30;
+    private static final int DEFAULT_TIMEOUT_MILLIS = 618; // the default of android.nfc.tech.MifareClassic
+
+    // the permissions of AccessConditionCodec are a bit mask of the keys
+    private static final int KEY_A = AccessConditionCodec.PERMISSION_KEY_A;
+    private static final int KEY_B = AccessConditionCodec.PERMISSION_KEY_B;
+
+    private final int size;
+    private final int sectorCount;
+    private final int blockCount;
+    private final byte[] uid;
+    private final byte[] memory; // the complete tag memory, 16 bytes for each block
+    private boolean connected = true;
+    private int authenticatedSector = -1;
+    private int authenticatedKey = 0; // KEY_A or KEY_B
+    private long authenticationLatencyNanos = 0;
+    private long readLatencyNanos = 0;
+    private int timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    /**
+     * creates a new simulated tag with default content: all data blocks are zeroed and all sector
+     * trailers are in transport configuration (key A and key B FFFFFFFFFFFF, access bytes FF0780)
+     * @param size  could be 320 / SIZE_MINI, 1024 / SIZE_1K, 2048 / SIZE_2K or 4096 / SIZE_4K
+     * @param uid   the UID of the tag, 4 or 7 bytes long
+     */
+    public SimulatedMifareClassicCard(int size, byte[] uid) {
+        if ((uid == null) || ((uid.length != 4) && (uid.length != 7))) {
+            throw new IllegalArgumentException("uid is NULL or not of length 4 or 7");
+        }
+        switch (size) {
+            case MifareClassic.SIZE_MINI:
+                sectorCount = 5;
+                break;
+            case MifareClassic.SIZE_1K:
+                sectorCount = 16;
+                break;
+            case MifareClassic.SIZE_2K:
+                sectorCount = 32;
+                break;
+            case MifareClassic.SIZE_4K:
+                sectorCount = 40;
+                break;
+            default:
+                throw new IllegalArgumentException("size is not 320, 1024, 2048 or 4096");
+        }
+        this.size = size;
+        this.uid = uid.clone();
+        this.blockCount = size / BLOCK_LENGTH;
+        this.memory = new byte[size];
+        for (int sectorIndex = 0; sectorIndex < sectorCount; sectorIndex++) {
+            int trailerBlock = sectorToBlock(sectorIndex) + getBlockCountInSector(sectorIndex) - 1;
+            System.arraycopy(DEFAULT_SECTOR_TRAILER, 0, memory, trailerBlock * BLOCK_LENGTH, BLOCK_LENGTH);
+        }
+        writeManufacturerBlock();
+    }
+
+    public static SimulatedMifareClassicCard createMini(byte[] uid) {
+        return new SimulatedMifareClassicCard(MifareClassic.SIZE_MINI, uid);
+    }
+
+    public static SimulatedMifareClassicCard create1K(byte[] uid) {
+        return new SimulatedMifareClassicCard(MifareClassic.SIZE_1K, uid);
+    }
+
+    public static SimulatedMifareClassicCard create2K(byte[] uid) {
+        return new SimulatedMifareClassicCard(MifareClassic.SIZE_2K, uid);
+    }
+
+    public static SimulatedMifareClassicCard create4K(byte[] uid) {
+        return new SimulatedMifareClassicCard(MifareClassic.SIZE_4K, uid);
+    }
+
+    // block 0 of sector 0 takes the UID and the manufacturer data
+    private void writeManufacturerBlock() {
+        byte[] block0 = new byte[BLOCK_LENGTH];
+        System.arraycopy(uid, 0, block0, 0, uid.length);
+        int position = uid.length;
+        if (uid.length == 4) {
+            // the BCC is the XOR of all UID bytes
+            block0[position++] = (byte) (uid[0] ^ uid[1] ^ uid[2] ^ uid[3]);
+        }
+        byte sak;
+        if (size == MifareClassic.SIZE_MINI) {
+            sak = (byte) 0x09;
+        } else if (size == MifareClassic.SIZE_4K) {
+            sak = (byte) 0x18;
+        } else {
+            sak = (byte) 0x08;
+        }
+        block0[position++] = sak;
+        block0[position++] = (byte) 0x04; // ATQA
+        block0[position] = (byte) 0x00;
+        // the remaining bytes are the manufacturer data, we are using a fixed pattern
+        for (int i = position + 1; i < BLOCK_LENGTH; i++) {
+            block0[i] = (byte) (0x60 + i);
+        }
+        System.arraycopy(block0, 0, memory, 0, BLOCK_LENGTH);
+    }
+
+    /**
+     * section for setup of the simulated tag, these methods do not check any access conditions
+     */
+
+    /**
+     * writes a new sector trailer to the tag
+     * @param sectorIndex
+     * @param keyA        6 bytes long
+     * @param accessBits  4 bytes long (3 access bytes and the unused byte)
+     * @param keyB        6 bytes long
+     */
+    public void setSectorTrailer(int sectorIndex, byte[] keyA, byte[] accessBits, byte[] keyB) {
+        if ((keyA == null) || (keyA.length != 6) || (accessBits == null) || (accessBits.length != 4) || (keyB == null) || (keyB.length != 6)) {
+            throw new IllegalArgumentException("keyA, accessBits or keyB are NULL or of wrong length");
+        }
+        int offset = getTrailerBlock(sectorIndex) * BLOCK_LENGTH;
+        System.arraycopy(keyA, 0, memory, offset, 6);
+        System.arraycopy(accessBits, 0, memory, offset + 6, 4);
+        System.arraycopy(keyB, 0, memory, offset + 10, 6);
+    }
+
+    public void setBlock(int blockIndex, byte[] data) {
+        if ((blockIndex < 0) || (blockIndex >= blockCount) || (data == null) || (data.length != BLOCK_LENGTH)) {
+            throw new IllegalArgumentException("blockIndex out of range or data is NULL or not of length 16");
+        }
+        System.arraycopy(data, 0, memory, blockIndex * BLOCK_LENGTH, BLOCK_LENGTH);
+    }
+
+    public byte[] getBlock(int blockIndex) {
+        return Arrays.copyOfRange(memory, blockIndex * BLOCK_LENGTH, (blockIndex + 1) * BLOCK_LENGTH);
+    }
+
+    /**
+     * returns a copy of the complete tag memory including the keys
+     */
+    public byte[] getMemory() {
+        return memory.clone();
+    }
+
+    /**
+     * simulates the time a real tag needs for a command, the default is 0 (no delay)
+     */
+    public void setLatencyNanos(long authenticationLatencyNanos, long readLatencyNanos) {
+        this.authenticationLatencyNanos = authenticationLatencyNanos;
+        this.readLatencyNanos = readLatencyNanos;
+    }
+
+    /**
+     * a command with a latency above the timeout fails with an IOException after waiting the timeout
+     */
+    @Override
+    public void setTimeout(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public int getTimeout() {
+        return timeoutMillis;
+    }
+
+    /**
+     * simulates a tag that is in or out of the reader's field, all commands to a tag out of the
+     * field throw an IOException
+     */
+    public void setConnected(boolean connected) {
+        this.connected = connected;
+        resetAuthentication();
+    }
+
+    public int getTrailerBlock(int sectorIndex) {
+        return sectorToBlock(sectorIndex) + getBlockCountInSector(sectorIndex) - 1;
+    }
+
+    /**
+     * section for tag details
+     */
+
+    @Override
+    public int getType() {
+        return MifareClassic.TYPE_CLASSIC;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getSectorCount() {
+        return sectorCount;
+    }
+
+    @Override
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    @Override
+    public int getBlockCountInSector(int sectorIndex) {
+        checkSector(sectorIndex);
+        if (sectorIndex < 32) {
+            return 4;
+        } else {
+            return 16;
+        }
+    }
+
+    @Override
+    public int sectorToBlock(int sectorIndex) {
+        checkSector(sectorIndex);
+        if (sectorIndex < 32) {
+            return sectorIndex * 4;
+        } else {
+            return 32 * 4 + (sectorIndex - 32) * 16;
+        }
+    }
+
+    @Override
+    public int blockToSector(int blockIndex) {
+        if ((blockIndex < 0) || (blockIndex >= blockCount)) {
+            throw new IndexOutOfBoundsException("block out of bounds: " + blockIndex);
+        }
+        if (blockIndex < 32 * 4) {
+            return blockIndex / 4;
+        } else {
+            return 32 + (blockIndex - 32 * 4) / 16;
+        }
+    }
+
+    @Override
+    public byte[] getUid() {
+        return uid.clone();
+    }
+
+    @Override
+    public String[] getTechList() {
+        return TECH_LIST.clone();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * section for commands
+     */
+
+    @Override
+    public boolean authenticateSectorWithKeyA(int sectorIndex, byte[] key) throws IOException {
+        return authenticate(sectorIndex, key, KEY_A);
+    }
+
+    @Override
+    public boolean authenticateSectorWithKeyB(int sectorIndex, byte[] key) throws IOException {
+        return authenticate(sectorIndex, key, KEY_B);
+    }
+
+    private boolean authenticate(int sectorIndex, byte[] key, int keyType) throws IOException {
+        checkSector(sectorIndex);
+        checkConnected();
+        waitForResponse(authenticationLatencyNanos);
+        resetAuthentication();
+        if ((key == null) || (key.length != 6)) {
+            return false;
+        }
+        int offset = getTrailerBlock(sectorIndex) * BLOCK_LENGTH;
+        if (keyType == KEY_B) offset += 10;
+        for (int i = 0; i < 6; i++) {
+            if (memory[offset + i] != key[i]) return false;
+        }
+        authenticatedSector = sectorIndex;
+        authenticatedKey = keyType;
+        return true;
+    }
+
+    @Override
+    public byte[] readBlock(int blockIndex) throws IOException {
+        int sectorIndex = blockToSector(blockIndex);
+        checkConnected();
+        waitForResponse(readLatencyNanos);
+        checkAuthenticated(sectorIndex);
+        int trailerBlock = getTrailerBlock(sectorIndex);
+        int trailerAccessCondition = getAccessCondition(sectorIndex, 3);
+        int offset = blockIndex * BLOCK_LENGTH;
+        if (blockIndex != trailerBlock) {
+            int blockAccessCondition = getAccessCondition(sectorIndex, getAccessGroup(sectorIndex, blockIndex));
+            if ((blockAccessCondition < 0) || !isAllowed(AccessConditionCodec.getDataReadPermission(blockAccessCondition), trailerAccessCondition)) {
+                denied();
+            }
+            return Arrays.copyOfRange(memory, offset, offset + BLOCK_LENGTH);
+        }
+        // the sector trailer, key A is never readable
+        byte[] block = new byte[BLOCK_LENGTH];
+        if (trailerAccessCondition < 0) {
+            denied();
+        }
+        if (isAllowed(AccessConditionCodec.getAccessBitsReadPermission(trailerAccessCondition), trailerAccessCondition)) {
+            System.arraycopy(memory, offset + 6, block, 6, 4);
+        }
+        if (isAllowed(AccessConditionCodec.getKeyBReadPermission(trailerAccessCondition), trailerAccessCondition)) {
+            System.arraycopy(memory, offset + 10, block, 10, 6);
+        }
+        return block;
+    }
+
+    /**
+     * only the READ command (0x30, block number) is simulated, all other commands fail like a NAK of the tag
+     */
+    @Override
+    public byte[] transceive(byte[] data) throws IOException {
+        checkConnected();
+        if ((data == null) || (data.length != 2) || (data[0] != READ_COMMAND) || ((data[1] & 0xFF) >= blockCount)) {
+            denied();
+        }
+        return readBlock(data[1] & 0xFF);
+    }
+
+    @Override
+    public void writeBlock(int blockIndex, byte[] data) throws IOException {
+        int sectorIndex = blockToSector(blockIndex);
+        if ((data == null) || (data.length != BLOCK_LENGTH)) {
+            throw new IllegalArgumentException("data is NULL or not of length 16");
+        }
+        checkConnected();
+        waitForResponse(readLatencyNanos);
+        checkAuthenticated(sectorIndex);
+        if (blockIndex == 0) {
+            // the manufacturer block is read only
+            denied();
+        }
+        int trailerBlock = getTrailerBlock(sectorIndex);
+        int trailerAccessCondition = getAccessCondition(sectorIndex, 3);
+        if (trailerAccessCondition < 0) {
+            denied();
+        }
+        int offset = blockIndex * BLOCK_LENGTH;
+        if (blockIndex != trailerBlock) {
+            int blockAccessCondition = getAccessCondition(sectorIndex, getAccessGroup(sectorIndex, blockIndex));
+            if ((blockAccessCondition < 0) || !isAllowed(AccessConditionCodec.getDataWritePermission(blockAccessCondition), trailerAccessCondition)) {
+                denied();
+            }
+            System.arraycopy(data, 0, memory, offset, BLOCK_LENGTH);
+            return;
+        }
+        // the sector trailer, each part is checked on its own
+        boolean keysWritable = isAllowed(AccessConditionCodec.getKeyAWritePermission(trailerAccessCondition), trailerAccessCondition);
+        boolean accessBitsWritable = isAllowed(AccessConditionCodec.getAccessBitsWritePermission(trailerAccessCondition), trailerAccessCondition);
+        if (!keysWritable && !accessBitsWritable) {
+            denied();
+        }
+        if (keysWritable) {
+            System.arraycopy(data, 0, memory, offset, 6);
+            System.arraycopy(data, 10, memory, offset + 10, 6);
+        }
+        if (accessBitsWritable) {
+            System.arraycopy(data, 6, memory, offset + 6, 4);
+        }
+    }
+
+    /**
+     * section for internal helper
+     */
+
+    // a 4K tag has 4 access groups in the large sectors as well: blocks 0-4, 5-9, 10-14 and the trailer
+    private int getAccessGroup(int sectorIndex, int blockIndex) {
+        return AccessConditionCodec.getAccessGroup(blockIndex - sectorToBlock(sectorIndex), getBlockCountInSector(sectorIndex));
+    }
+
+    /**
+     * returns the access condition C1 C2 C3 of an access group (C1 is the highest bit)
+     * or -1 if the access bytes of the sector are invalid
+     */
+    private int getAccessCondition(int sectorIndex, int accessGroup) {
+        int packed = AccessConditionCodec.decode(memory, getTrailerBlock(sectorIndex) * BLOCK_LENGTH + 6);
+        if (packed == AccessConditionCodec.INVALID) {
+            return -1;
+        }
+        return AccessConditionCodec.getCondition(packed, accessGroup);
+    }
+
+    // if key B is readable it can't be used for any access to the sector
+    private boolean isAllowed(int permission, int trailerAccessCondition) {
+        if ((authenticatedKey == KEY_B) && AccessConditionCodec.isKeyBReadable(trailerAccessCondition)) {
+            return false;
+        }
+        return (permission & authenticatedKey) != 0;
+    }
+
+    private void checkSector(int sectorIndex) {
+        if ((sectorIndex < 0) || (sectorIndex >= sectorCount)) {
+            throw new IndexOutOfBoundsException("sector out of bounds: " + sectorIndex);
+        }
+    }
+
+    private void checkConnected() throws IOException {
+        if (!connected) {
+            throw new IOException("Tag was lost.");
+        }
+    }
+
+    private void checkAuthenticated(int sectorIndex) throws IOException {
+        if (authenticatedSector != sectorIndex) {
+            denied();
+        }
+    }
+
+    // a real tag answers with a NAK and falls back to the idle state
+    private void denied() throws IOException {
+        resetAuthentication();
+        throw new IOException("Transceive failed");
+    }
+
+    private void resetAuthentication() {
+        authenticatedSector = -1;
+        authenticatedKey = 0;
+    }
+
+    private void waitForResponse(long latencyNanos) throws IOException {
+        if ((timeoutMillis > 0) && (latencyNanos > timeoutMillis * 1000000L)) {
+            delay(timeoutMillis * 1000000L);
+            resetAuthentication();
+            throw new IOException("Transceive failed: timeout");
+        }
+        delay(latencyNanos);
+    }
+
+    // busy waiting is more precise than sleeping for delays in the range of microseconds
+    private static void delay(long nanos) {
+        if (nanos <= 0) return;
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // wait
+        }
+    }
+}
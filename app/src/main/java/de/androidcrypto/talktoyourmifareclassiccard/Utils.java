@@ -118,65 +118,41 @@ public class Utils {
     }
 
     public static String bytesToHex(byte[] bytes) {
-        if (bytes == null) return "";
-        StringBuffer result = new StringBuffer();
-        for (byte b : bytes)
-            result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
-        return result.toString();
+        return HexCodec.toHexString(bytes, false);
     }
 
     public static String bytesToHexNpe(byte[] bytes) {
-        if (bytes == null) return "";
-        StringBuffer result = new StringBuffer();
-        for (byte b : bytes)
-            result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
-        return result.toString();
+        return HexCodec.toHexString(bytes, false);
     }
 
     public static String bytesToHexNpeUpperCase(byte[] bytes) {
-        if (bytes == null) return "";
-        StringBuffer result = new StringBuffer();
-        for (byte b : bytes)
-            result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
-        return result.toString().toUpperCase();
+        return HexCodec.toHexString(bytes, true);
     }
 
     public static String bytesToHexNpeUpperCaseBlank(byte[] bytes) {
         if (bytes == null) return "";
-        StringBuffer result = new StringBuffer();
-        for (byte b : bytes)
-            result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1)).append(" ");
-        return result.toString().toUpperCase();
+        return HexCodec.toHexString(bytes, 0, bytes.length, true, ' ');
     }
 
     public static String byteToHex(Byte input) {
-        return String.format("%02X", input);
+        return new String(new char[]{HexCodec.upperNibbleToChar(input, true), HexCodec.lowerNibbleToChar(input, true)});
         //return String.format("0x%02X", input);
     }
 
     public static char intToUpperNibble(int input) {
-        final char[] hexArray = {'0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'};
-        //int v = input & 0xFF; // Cast byte to int, treating as unsigned value
-        int v = input;
-        return hexArray[v >>> 4]; // Select hex character from upper nibble
+        return HexCodec.upperNibbleToChar(input, true);
     }
 
     public static char byteToUpperNibble(Byte input) {
-        final char[] hexArray = {'0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'};
-        int v = input & 0xFF; // Cast byte to int, treating as unsigned value
-        return hexArray[v >>> 4]; // Select hex character from upper nibble
+        return HexCodec.upperNibbleToChar(input, true);
     }
 
     public static char byteToLowerNibble(Byte input) {
-        final char[] hexArray = {'0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'};
-        int v = input & 0xFF; // Cast byte to int, treating as unsigned value
-        return hexArray[v & 0x0F]; // Select hex character from lower nibble
+        return HexCodec.lowerNibbleToChar(input, true);
     }
 
     public static byte nibblesToByte(char upperNibble, char lowerNibble) {
-        String data = String.valueOf(upperNibble) + String.valueOf(lowerNibble);
-        byte[] byteArray = hexStringToByteArray(data);
-        return byteArray[0];
+        return (byte) ((HexCodec.charToNibble(upperNibble) << 4) | HexCodec.charToNibble(lowerNibble));
     }
 
     public static int byteToUpperNibbleInt(Byte input) {
@@ -187,18 +163,12 @@ public class Utils {
         return input & 0x0F;
     }
 
+    /**
+     * converts a hex encoded string to a byte array
+     * @return the byte array or NULL if the string is not hex encoded
+     */
     public static byte[] hexStringToByteArray(String s) {
-        try {
-            int len = s.length();
-            byte[] data = new byte[len / 2];
-            for (int i = 0; i < len; i += 2) {
-                data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
-                        + Character.digit(s.charAt(i + 1), 16));
-            }
-            return data;
-        } catch (Exception e) {
-            return null;
-        }
+        return HexCodec.decode(s);
     }
 
 
@@ -410,6 +380,31 @@ System.out.println(i2); // 234
         return result;
     }
 
+    /**
+     * packs a 4 or 7 bytes long UID into a long, the highest byte takes the length of the UID,
+     * so a 4 byte UID and a 7 byte UID with the same value are different
+     * @param uid
+     * @return the packed UID or -1 if the UID is NULL or longer than 7 bytes
+     */
+    public static long uidToLong(byte[] uid) {
+        if ((uid == null) || (uid.length > 7)) return -1;
+        long result = 0;
+        for (byte b : uid) {
+            result = (result << 8) | (b & 0xFF);
+        }
+        return ((long) uid.length << 56) | result;
+    }
+
+    public static byte[] longToUid(long packedUid) {
+        int length = (int) (packedUid >>> 56);
+        byte[] uid = new byte[length];
+        for (int i = length - 1; i >= 0; i--) {
+            uid[i] = (byte) packedUid;
+            packedUid >>>= 8;
+        }
+        return uid;
+    }
+
     /**
      * splits a byte array in chunks
      *
@@ -0,0 +1,143 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the AccessConditionCodec, the tables are compared with the bitwise decoder and encoder of the
+ * MIFARE Classic Tool that were used before (copied to decodeBitwise and encodeBitwise).
+ */
+public class AccessConditionCodecTest {
+
+    @Test
+    public void decodeMatchesTheBitwiseDecoder() {
+        byte[] acBytes = new byte[3];
+        int numberOfValid = 0;
+        for (int bytes = 0; bytes < (1 << 24); bytes++) {
+            acBytes[0] = (byte) (bytes >>> 16);
+            acBytes[1] = (byte) (bytes >>> 8);
+            acBytes[2] = (byte) bytes;
+            byte[][] expected = decodeBitwise(acBytes);
+            int packed = AccessConditionCodec.decode(acBytes);
+            if (expected == null) {
+                assertEquals(AccessConditionCodec.INVALID, packed);
+                continue;
+            }
+            numberOfValid++;
+            assertArrayEquals(expected, AccessConditionCodec.toMatrix(packed));
+        }
+        // each combination of the 12 access bits has one valid encoding
+        assertEquals(4096, numberOfValid);
+    }
+
+    @Test
+    public void encodeMatchesTheBitwiseEncoder() {
+        for (int packed = 0; packed < 4096; packed++) {
+            byte[][] acMatrix = AccessConditionCodec.toMatrix(packed);
+            byte[] acBytes = AccessConditionCodec.encode(packed);
+            assertArrayEquals(encodeBitwise(acMatrix), acBytes);
+            assertEquals(packed, AccessConditionCodec.fromMatrix(acMatrix));
+            assertEquals(packed, AccessConditionCodec.decode(acBytes));
+        }
+    }
+
+    @Test
+    public void decodeAtAnOffset() {
+        byte[] trailer = Utils.hexStringToByteArray("FFFFFFFFFFFF7F078869FFFFFFFFFFFF");
+        int packed = AccessConditionCodec.decode(trailer, 6);
+        assertEquals(AccessConditionCodec.pack(0, 0, 0, 3), packed);
+        byte[] encoded = new byte[16];
+        AccessConditionCodec.encode(packed, encoded, 6);
+        assertArrayEquals(Utils.hexStringToByteArray("7F0788"), Arrays.copyOfRange(encoded, 6, 9));
+    }
+
+    @Test
+    public void transportConfiguration() {
+        int packed = AccessConditionCodec.decode(Utils.hexStringToByteArray("FF078069"));
+        assertEquals(AccessConditionCodec.pack(0, 0, 0, 1), packed);
+        assertTrue(AccessConditionCodec.isKeyBReadable(AccessConditionCodec.getCondition(packed, AccessConditionCodec.TRAILER_BLOCK_INDEX)));
+        // key B is readable, so it can't be used to read
+        assertEquals(AccessConditionCodec.PERMISSION_KEY_A, AccessConditionCodec.getEffectiveReadPermission(packed, 0));
+        assertEquals(AccessConditionCodec.PERMISSION_KEY_A, AccessConditionCodec.getEffectiveReadPermission(packed, AccessConditionCodec.TRAILER_BLOCK_INDEX));
+        packed = AccessConditionCodec.pack(0, 3, 7, 3);
+        assertFalse(AccessConditionCodec.isKeyBReadable(3));
+        assertEquals(AccessConditionCodec.PERMISSION_KEY_A_OR_B, AccessConditionCodec.getEffectiveReadPermission(packed, 0));
+        assertEquals(AccessConditionCodec.PERMISSION_KEY_B, AccessConditionCodec.getEffectiveReadPermission(packed, 1));
+        assertEquals(AccessConditionCodec.PERMISSION_NEVER, AccessConditionCodec.getEffectiveReadPermission(packed, 2));
+    }
+
+    @Test
+    public void invalidAccessBytes() {
+        assertEquals(AccessConditionCodec.INVALID, AccessConditionCodec.decode(Utils.hexStringToByteArray("FF0781")));
+        assertEquals(AccessConditionCodec.INVALID, AccessConditionCodec.decode(new byte[2]));
+        assertEquals(AccessConditionCodec.INVALID, AccessConditionCodec.decode(null));
+        assertFalse(AccessConditionCodec.isValid(Utils.hexStringToByteArray("000000")));
+        assertNull(AccessConditionCodec.toMatrix(AccessConditionCodec.INVALID));
+        assertEquals(AccessConditionCodec.INVALID, AccessConditionCodec.fromMatrix(new byte[3][3]));
+        assertEquals(AccessConditionCodec.INVALID, AccessConditionCodec.getDescriptionIndex(AccessConditionCodec.INVALID, 0));
+    }
+
+    @Test
+    public void accessGroupsOfLargeSectors() {
+        int[] expected = {0, 0, 0, 0, 0, 1, 1, 1, 1, 1, 2, 2, 2, 2, 2, 3};
+        for (int blockInSector = 0; blockInSector < 16; blockInSector++) {
+            assertEquals(expected[blockInSector], AccessConditionCodec.getAccessGroup(blockInSector, 16));
+        }
+        for (int blockInSector = 0; blockInSector < 4; blockInSector++) {
+            assertEquals(blockInSector, AccessConditionCodec.getAccessGroup(blockInSector, 4));
+        }
+    }
+
+    @Test
+    public void descriptionIndices() {
+        // key B readable: the descriptions without key B for the data blocks
+        int packed = AccessConditionCodec.pack(0, 0, 0, 1);
+        int descriptionIndex = AccessConditionCodec.getDescriptionIndex(packed, 0);
+        assertTrue(descriptionIndex >= AccessConditionCodec.DESCRIPTION_DATA_BLOCK_NO_KEY_B);
+        assertTrue(descriptionIndex < AccessConditionCodec.DESCRIPTION_SECTOR_TRAILER);
+        // the rows of the MIFARE Classic Tool are 000, 010, 100, 110, 001, 011, 101, 111 (C1 C2 C3)
+        assertEquals("ac_sector_trailer_4", AccessConditionCodec.getDescriptionName(
+                AccessConditionCodec.getDescriptionIndex(packed, AccessConditionCodec.TRAILER_BLOCK_INDEX)));
+        packed = AccessConditionCodec.pack(0, 0, 0, 3);
+        descriptionIndex = AccessConditionCodec.getDescriptionIndex(packed, 0);
+        assertEquals(AccessConditionCodec.DESCRIPTION_DATA_BLOCK + AccessConditionCodec.getRowNumber(0), descriptionIndex);
+        for (int index = 0; index < AccessConditionCodec.NUMBER_OF_DESCRIPTIONS; index++) {
+            assertFalse(AccessConditionCodec.getDescriptionName(index).isEmpty());
+        }
+    }
+
+    // the decoder of the MIFARE Classic Tool
+    private static byte[][] decodeBitwise(byte[] acBytes) {
+        byte[][] acMatrix = new byte[3][4];
+        if (acBytes.length > 2 &&
+                (byte) ((acBytes[1] >>> 4) & 0x0F) == (byte) ((acBytes[0] ^ 0xFF) & 0x0F) &&
+                (byte) (acBytes[2] & 0x0F) == (byte) (((acBytes[0] ^ 0xFF) >>> 4) & 0x0F) &&
+                (byte) ((acBytes[2] >>> 4) & 0x0F) == (byte) ((acBytes[1] ^ 0xFF) & 0x0F)) {
+            for (int i = 0; i < 4; i++) {
+                acMatrix[0][i] = (byte) ((acBytes[1] >>> 4 + i) & 0x01);
+                acMatrix[1][i] = (byte) ((acBytes[2] >>> i) & 0x01);
+                acMatrix[2][i] = (byte) ((acBytes[2] >>> 4 + i) & 0x01);
+            }
+            return acMatrix;
+        }
+        return null;
+    }
+
+    // the encoder of the MIFARE Classic Tool
+    private static byte[] encodeBitwise(byte[][] acMatrix) {
+        byte[] acBytes = new byte[3];
+        for (int i = 0; i < 4; i++) {
+            // byte 6: ~C1 and ~C2, byte 7: ~C3 and C1, byte 8: C2 and C3
+            acBytes[0] |= (byte) (((acMatrix[0][i] ^ 0xFF) << i) & (0x01 << i));
+            acBytes[0] |= (byte) (((acMatrix[1][i] ^ 0xFF) << (4 + i)) & (0x10 << i));
+            acBytes[1] |= (byte) (((acMatrix[2][i] ^ 0xFF) << i) & (0x01 << i));
+            acBytes[1] |= (byte) ((acMatrix[0][i] << (4 + i)) & (0x10 << i));
+            acBytes[2] |= (byte) ((acMatrix[1][i] << i) & (0x01 << i));
+            acBytes[2] |= (byte) ((acMatrix[2][i] << (4 + i)) & (0x10 << i));
+        }
+        return acBytes;
+    }
+}
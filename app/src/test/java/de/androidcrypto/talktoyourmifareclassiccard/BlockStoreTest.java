@@ -0,0 +1,164 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the BlockStore: equal blocks get the same block id, the blocks and the index survive a reopening
+ * and a missing, corrupted or outdated index is rebuilt from the block file.
+ */
+public class BlockStoreTest {
+
+    private static final int BLOCK_LENGTH = BlockStore.BLOCK_LENGTH;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void equalBlocksAreStoredOnce() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "blocks.dat");
+        try (BlockStore blockStore = new BlockStore(file)) {
+            int first = blockStore.put(createBlock(1), 0);
+            int second = blockStore.put(createBlock(2), 0);
+            assertNotEquals(first, second);
+            // pending and written blocks are found
+            assertEquals(first, blockStore.put(createBlock(1), 0));
+            blockStore.flush();
+            assertEquals(second, blockStore.put(createBlock(2), 0));
+            assertEquals(2, blockStore.getNumberOfBlocks());
+            assertEquals(2 * BLOCK_LENGTH, blockStore.getSize());
+            assertBlock(blockStore, first, 1);
+            assertBlock(blockStore, second, 2);
+        }
+        assertEquals(2 * BLOCK_LENGTH, file.length());
+    }
+
+    @Test
+    public void blockAtAnOffset() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "blocks.dat");
+        byte[] data = new byte[3 * BLOCK_LENGTH];
+        System.arraycopy(createBlock(7), 0, data, BLOCK_LENGTH, BLOCK_LENGTH);
+        try (BlockStore blockStore = new BlockStore(file)) {
+            int blockId = blockStore.put(data, BLOCK_LENGTH);
+            blockStore.flush();
+            byte[] target = new byte[3 * BLOCK_LENGTH];
+            blockStore.get(blockId, target, 2 * BLOCK_LENGTH);
+            byte[] expected = new byte[3 * BLOCK_LENGTH];
+            System.arraycopy(createBlock(7), 0, expected, 2 * BLOCK_LENGTH, BLOCK_LENGTH);
+            assertArrayEquals(expected, target);
+        }
+    }
+
+    @Test
+    public void blocksAndIndexSurviveReopening() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "blocks.dat");
+        // more blocks than the initial slots of the index, so the index grows
+        int numberOfBlocks = 5000;
+        int[] blockIds = new int[numberOfBlocks];
+        try (BlockStore blockStore = new BlockStore(file)) {
+            for (int i = 0; i < numberOfBlocks; i++) blockIds[i] = blockStore.put(createBlock(i), 0);
+        }
+        assertFalse(new File(file.getPath() + BlockStore.INDEX_EXTENSION + ".tmp").exists());
+        try (BlockStore blockStore = new BlockStore(file)) {
+            assertEquals(numberOfBlocks, blockStore.getNumberOfBlocks());
+            for (int i = 0; i < numberOfBlocks; i++) {
+                assertEquals(blockIds[i], blockStore.put(createBlock(i), 0));
+                assertBlock(blockStore, blockIds[i], i);
+            }
+            assertEquals(numberOfBlocks, blockStore.getNumberOfBlocks());
+        }
+    }
+
+    @Test
+    public void missingIndexIsRebuilt() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "blocks.dat");
+        int[] blockIds = putBlocks(file, 100);
+        assertTrue(new File(file.getPath() + BlockStore.INDEX_EXTENSION).delete());
+        assertBlocksAreFound(file, blockIds);
+    }
+
+    @Test
+    public void corruptedIndexIsRebuilt() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "blocks.dat");
+        int[] blockIds = putBlocks(file, 100);
+        try (RandomAccessFile index = new RandomAccessFile(file.getPath() + BlockStore.INDEX_EXTENSION, "rw")) {
+            index.writeInt(0x12345678);
+        }
+        assertBlocksAreFound(file, blockIds);
+    }
+
+    @Test
+    public void blocksWrittenAfterTheIndexAreAdded() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "blocks.dat");
+        int[] blockIds = putBlocks(file, 100);
+        // the index of the first 50 blocks, e.g. the app was killed after writing the blocks
+        try (RandomAccessFile index = new RandomAccessFile(file.getPath() + BlockStore.INDEX_EXTENSION, "rw")) {
+            index.seek(8);
+            index.writeLong(50);
+        }
+        assertBlocksAreFound(file, blockIds);
+    }
+
+    @Test
+    public void incompleteBlockIsRemoved() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "blocks.dat");
+        putBlocks(file, 3);
+        try (RandomAccessFile blocks = new RandomAccessFile(file, "rw")) {
+            blocks.setLength(3 * BLOCK_LENGTH - 5);
+        }
+        try (BlockStore blockStore = new BlockStore(file)) {
+            assertEquals(2, blockStore.getNumberOfBlocks());
+            assertEquals(2, blockStore.put(createBlock(2), 0));
+            assertEquals(0, blockStore.put(createBlock(0), 0));
+        }
+        assertEquals(3 * BLOCK_LENGTH, file.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownBlockId() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "blocks.dat");
+        try (BlockStore blockStore = new BlockStore(file)) {
+            blockStore.put(createBlock(1), 0);
+            blockStore.get(1, new byte[BLOCK_LENGTH], 0);
+        }
+    }
+
+    private static int[] putBlocks(File file, int numberOfBlocks) throws IOException {
+        int[] blockIds = new int[numberOfBlocks];
+        try (BlockStore blockStore = new BlockStore(file)) {
+            for (int i = 0; i < numberOfBlocks; i++) blockIds[i] = blockStore.put(createBlock(i), 0);
+        }
+        return blockIds;
+    }
+
+    private static void assertBlocksAreFound(File file, int[] blockIds) throws IOException {
+        try (BlockStore blockStore = new BlockStore(file)) {
+            for (int i = 0; i < blockIds.length; i++) {
+                assertEquals(blockIds[i], blockStore.put(createBlock(i), 0));
+            }
+            assertEquals(blockIds.length, blockStore.getNumberOfBlocks());
+        }
+    }
+
+    private static void assertBlock(BlockStore blockStore, int blockId, int seed) throws IOException {
+        byte[] block = new byte[BLOCK_LENGTH];
+        blockStore.get(blockId, block, 0);
+        assertArrayEquals(createBlock(seed), block);
+    }
+
+    private static byte[] createBlock(int seed) {
+        byte[] block = new byte[BLOCK_LENGTH];
+        for (int i = 0; i < BLOCK_LENGTH; i++) block[i] = (byte) (seed * 31 + i);
+        // different blocks for all seeds
+        block[0] = (byte) (seed >>> 8);
+        block[1] = (byte) seed;
+        return block;
+    }
+}
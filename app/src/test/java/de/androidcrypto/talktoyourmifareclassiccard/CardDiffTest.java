@@ -0,0 +1,126 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CardDiff, the card images are created by DumpArchiveTest.createCardImage.
+ */
+public class CardDiffTest {
+
+    private static final byte[] OTHER_KEY = Utils.hexStringToByteArray("B0B1B2B3B4B5");
+
+    @Test
+    public void equalImages() {
+        CardDiff cardDiff = CardDiff.compare(DumpArchiveTest.createCardImage(1), DumpArchiveTest.createCardImage(1));
+        assertTrue(cardDiff.isEqual());
+        assertEquals(0, cardDiff.getNumberOfChangedByteRanges());
+        assertFalse(cardDiff.isAnyTrailerChanged());
+        assertEquals("no changed blocks", cardDiff.toString());
+    }
+
+    @Test
+    public void changedBytesOfDataBlocks() {
+        CardImage before = DumpArchiveTest.createCardImage(1);
+        CardImage after = DumpArchiveTest.createCardImage(1);
+        byte[] data = after.getData();
+        data[5 * 16 + 3] ^= 1;
+        data[5 * 16 + 4] ^= 1;
+        // a range across the blocks 5 and 6
+        data[5 * 16 + 15] ^= 1;
+        data[6 * 16] ^= 1;
+        CardDiff cardDiff = CardDiff.compare(before, after);
+        assertFalse(cardDiff.isEqual());
+        assertEquals(2, cardDiff.getNumberOfChangedBlocks());
+        assertTrue(cardDiff.isBlockChanged(5));
+        assertTrue(cardDiff.isBlockChanged(6));
+        assertFalse(cardDiff.isBlockChanged(4));
+        assertArrayEquals(new long[]{(1L << 5) | (1L << 6)}, cardDiff.getChangedBlocks());
+        assertArrayEquals(new int[]{5 * 16 + 3, 2, 5 * 16 + 15, 2}, cardDiff.getChangedByteRanges());
+        assertFalse(cardDiff.isAnyTrailerChanged());
+    }
+
+    @Test
+    public void keyBytesOfTheTrailerAreNotCompared() {
+        CardImage before = DumpArchiveTest.createCardImage(1);
+        CardImage after = DumpArchiveTest.createCardImage(1);
+        // a tag returns zeros for key A and for a key B that is not readable
+        before.setBlock(7, Utils.hexStringToByteArray("FFFFFFFFFFFF7F078869FFFFFFFFFFFF"));
+        after.setBlock(7, Utils.hexStringToByteArray("0000000000007F078869000000000000"));
+        assertTrue(CardDiff.compare(before, after).isEqual());
+    }
+
+    @Test
+    public void changedReadableKeyB() {
+        CardImage before = DumpArchiveTest.createCardImage(1);
+        CardImage after = DumpArchiveTest.createCardImage(1);
+        // the transport configuration, key B is readable
+        after.setBlock(7, Utils.hexStringToByteArray("000000000000FF078069C0C1C2C3C4C5"));
+        CardDiff cardDiff = CardDiff.compare(before, after);
+        assertEquals(1, cardDiff.getNumberOfChangedBlocks());
+        assertEquals(CardDiff.TRAILER_KEY_B, cardDiff.getTrailerChanges(1));
+        assertArrayEquals(new int[]{7 * 16 + 10, 6}, cardDiff.getChangedByteRanges());
+        // key B of the after image is not readable
+        after.setBlock(7, Utils.hexStringToByteArray("0000000000007F078869000000000000"));
+        cardDiff = CardDiff.compare(before, after);
+        assertEquals(CardDiff.TRAILER_ACCESS_BITS, cardDiff.getTrailerChanges(1));
+        assertArrayEquals(new int[]{7 * 16 + 6, 1, 7 * 16 + 8, 1}, cardDiff.getChangedByteRanges());
+    }
+
+    @Test
+    public void changedAccessBitsAndUnusedByte() {
+        CardImage before = DumpArchiveTest.createCardImage(1);
+        CardImage after = DumpArchiveTest.createCardImage(1);
+        byte[] data = after.getData();
+        data[7 * 16 + 7] ^= 1;
+        data[11 * 16 + 9] ^= 1;
+        CardDiff cardDiff = CardDiff.compare(before, after);
+        assertEquals(2, cardDiff.getNumberOfChangedBlocks());
+        assertEquals(CardDiff.TRAILER_ACCESS_BITS, cardDiff.getTrailerChanges(1));
+        assertEquals(CardDiff.TRAILER_UNUSED_BYTE, cardDiff.getTrailerChanges(2));
+        assertArrayEquals(new int[]{7 * 16 + 7, 1, 11 * 16 + 9, 1}, cardDiff.getChangedByteRanges());
+    }
+
+    @Test
+    public void changedKeys() {
+        CardImage before = DumpArchiveTest.createCardImage(1);
+        CardImage after = DumpArchiveTest.createCardImage(1);
+        after.setSectorKey(1, Classic.KEY_TYPE_A, OTHER_KEY);
+        after.setSectorKey(2, Classic.KEY_TYPE_B, OTHER_KEY);
+        // read with the other key type, the keys can't be compared
+        after.setSectorKey(3, Classic.KEY_TYPE_B, OTHER_KEY);
+        CardDiff cardDiff = CardDiff.compare(before, after);
+        assertEquals(CardDiff.TRAILER_KEY_A, cardDiff.getTrailerChanges(1));
+        assertEquals(CardDiff.TRAILER_KEY_B, cardDiff.getTrailerChanges(2));
+        assertEquals(0, cardDiff.getTrailerChanges(3));
+        assertEquals(2, cardDiff.getNumberOfChangedBlocks());
+        assertTrue(cardDiff.isBlockChanged(7));
+        assertTrue(cardDiff.isBlockChanged(11));
+        // the keys are not in the memory
+        assertEquals(0, cardDiff.getNumberOfChangedByteRanges());
+        assertTrue(cardDiff.toString().contains("sector 2 trailer: keyB"));
+    }
+
+    @Test
+    public void blocksReadInOneImageAreUncomparable() {
+        CardImage before = DumpArchiveTest.createCardImage(1);
+        CardImage after = DumpArchiveTest.createCardImage(2);
+        after.setBlockUnreadable(5, true);
+        // the block 9 is unreadable in both images
+        after.getData()[9 * 16] ^= 1;
+        CardDiff cardDiff = CardDiff.compare(before, after);
+        assertTrue(cardDiff.isBlockUncomparable(5));
+        assertFalse(cardDiff.isBlockChanged(5));
+        assertFalse(cardDiff.isBlockUncomparable(9));
+        assertFalse(cardDiff.isBlockChanged(9));
+        assertEquals(2, cardDiff.getNumberOfChangedBlocks());
+        assertTrue(cardDiff.isBlockChanged(4));
+        assertTrue(cardDiff.isBlockChanged(6));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void differentSizes() {
+        CardDiff.compare(DumpArchiveTest.createCardImage(1), new CardImage(CardImage.SIZE_4K));
+    }
+}
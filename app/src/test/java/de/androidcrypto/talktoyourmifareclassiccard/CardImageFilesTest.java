@@ -0,0 +1,163 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the .mfd and .mct files of CardImageFiles. The image is read from a SimulatedMifareClassicCard
+ * with the transport configuration in all sectors but sector 1: it has a different key B that is not readable,
+ * block 5 is readable with key B only and block 6 is never readable.
+ */
+public class CardImageFilesTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04A1B2C3D4E5F6");
+    private static final byte[] KEY_A = Utils.hexStringToByteArray("FFFFFFFFFFFF");
+    private static final byte[] KEY_B = Utils.hexStringToByteArray("A0A1A2A3A4A5");
+    private static final byte[] DATA_4 = Utils.hexStringToByteArray("04040404040404040404040404040404");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SimulatedMifareClassicCard card;
+    private CardImage cardImage;
+
+    @Before
+    public void setUp() {
+        card = SimulatedMifareClassicCard.create1K(UID);
+        byte[] accessBits = new byte[4];
+        AccessConditionCodec.encode(AccessConditionCodec.pack(0, 3, 7, 3), accessBits, 0);
+        accessBits[3] = 0x69;
+        card.setSectorTrailer(1, KEY_A, accessBits, KEY_B);
+        card.setBlock(4, DATA_4);
+        KeyDictionary keyDictionary = new KeyDictionary();
+        keyDictionary.add(KEY_A);
+        Classic classic = new Classic(card);
+        classic.setKeyDictionary(keyDictionary);
+        cardImage = new CardImage(CardImage.SIZE_1K);
+        for (int sectorIndex = 0; sectorIndex < card.getSectorCount(); sectorIndex++) {
+            assertTrue(classic.readSector(sectorIndex, KEY_A, Classic.KEY_TYPE_A, cardImage));
+        }
+    }
+
+    @Test
+    public void mfdRoundTrip() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        CardImageFiles.writeMfd(cardImage, outputStream);
+        byte[] mfd = outputStream.toByteArray();
+        assertEquals(CardImage.SIZE_1K, mfd.length);
+        // key A is written into the trailer
+        assertArrayEquals(card.getBlock(3), Arrays.copyOfRange(mfd, 48, 64));
+
+        CardImage readImage = CardImageFiles.readMfd(new ByteArrayInputStream(mfd));
+        assertArrayEquals(mfd, readImage.getData());
+        assertTrue(readImage.isSectorRead(15));
+        assertArrayEquals(KEY_A, readImage.getSectorKey(1));
+        assertEquals(Classic.KEY_TYPE_A, readImage.getSectorKeyType(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void mfdOfInvalidSizeFails() throws IOException {
+        CardImageFiles.readMfd(new ByteArrayInputStream(new byte[1000]));
+    }
+
+    @Test
+    public void mctHasReadableKeyB() throws IOException {
+        String[] lines = writeMct(cardImage).split("\n");
+        assertEquals("+Sector: 0", lines[0]);
+        // the transport configuration FF0780 allows to read key B
+        assertEquals("FFFFFFFFFFFFFF078069FFFFFFFFFFFF", lines[4]);
+        assertEquals("+Sector: 1", lines[5]);
+        assertEquals("04040404040404040404040404040404", lines[6]);
+        assertEquals("--------------------------------", lines[7]);
+        assertEquals("--------------------------------", lines[8]);
+        // key B is not readable
+        assertEquals("FFFFFFFFFFFF" + Utils.bytesToHexNpeUpperCase(Arrays.copyOfRange(card.getBlock(7), 6, 10)) + "------------", lines[9]);
+    }
+
+    @Test
+    public void mctRoundTrip() throws IOException {
+        String mct = writeMct(cardImage);
+        CardImage readImage = CardImageFiles.readMct(mct);
+        assertEquals(CardImage.SIZE_1K, readImage.getSize());
+        for (int blockIndex = 0; blockIndex < readImage.getBlockCount(); blockIndex++) {
+            assertEquals(cardImage.isBlockRead(blockIndex), readImage.isBlockRead(blockIndex));
+            if (readImage.isBlockRead(blockIndex) && (blockIndex != 7)) {
+                assertArrayEquals(card.getBlock(blockIndex), readImage.copyBlock(blockIndex));
+            }
+        }
+        assertArrayEquals(KEY_A, readImage.getSectorKey(1));
+        assertEquals(mct, writeMct(readImage));
+    }
+
+    @Test
+    public void mctOfUnreadSector() throws IOException {
+        CardImage readImage = CardImageFiles.readMct("+Sector: 0\n"
+                + "--------------------------------\n--------------------------------\n"
+                + "--------------------------------\n--------------------------------\n"
+                + "+Sector: 1\n"
+                + "04040404040404040404040404040404\n--------------------------------\n"
+                + "--------------------------------\nFFFFFFFFFFFF--------FFFFFFFFFFFF\n");
+        assertEquals(CardImage.SIZE_MINI, readImage.getSize());
+        assertFalse(readImage.isSectorRead(0));
+        assertTrue(readImage.isSectorRead(1));
+        assertArrayEquals(DATA_4, readImage.copyBlock(4));
+        assertFalse(readImage.isBlockRead(5));
+        assertFalse(readImage.isBlockRead(7));
+        assertArrayEquals(KEY_A, readImage.getSectorKey(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void mctWithIncompleteSectorFails() throws IOException {
+        CardImageFiles.readMct("+Sector: 0\n04040404040404040404040404040404\n");
+    }
+
+    @Test
+    public void importDirectory() throws IOException {
+        File directory = temporaryFolder.newFolder("dumps");
+        CardImageFiles.writeMfd(cardImage, new File(directory, "a.mfd"));
+        CardImageFiles.writeMct(cardImage, new File(directory, "b.mct"));
+        try (FileOutputStream outputStream = new FileOutputStream(new File(directory, "c.mfd"))) {
+            outputStream.write(new byte[100]);
+        }
+        try (FileOutputStream outputStream = new FileOutputStream(new File(directory, "d.txt"))) {
+            outputStream.write(new byte[100]);
+        }
+        final List<String> imported = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+        int numberOfImages = CardImageFiles.importDirectory(directory, new CardImageFiles.Listener() {
+            @Override
+            public boolean onCardImage(File file, CardImage image) {
+                assertArrayEquals(DATA_4, image.copyBlock(4));
+                imported.add(file.getName());
+                return true;
+            }
+
+            @Override
+            public void onError(File file, String reason) {
+                failed.add(file.getName());
+            }
+        });
+        assertEquals(2, numberOfImages);
+        assertEquals(Arrays.asList("a.mfd", "b.mct"), imported);
+        assertEquals(Arrays.asList("c.mfd"), failed);
+    }
+
+    private static String writeMct(CardImage cardImage) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        CardImageFiles.writeMct(cardImage, sb);
+        return sb.toString();
+    }
+}
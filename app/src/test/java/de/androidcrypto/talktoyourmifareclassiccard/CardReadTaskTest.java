@@ -0,0 +1,90 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CardReadTask and the abort of the key search, the tag is simulated by SimulatedMifareClassicCard.
+ * The tasks are run without a parse executor, so all listener methods are called on the test thread.
+ */
+public class CardReadTaskTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04A1B2C3D4E5F6");
+
+    private static class RecordingListener implements CardReadTask.Listener {
+        boolean authenticationFinished = false;
+        byte[] uid;
+        CardImage cardImage;
+        SectorMcModel[] sectorMcs;
+        String cancelReason;
+
+        @Override
+        public void onAuthenticationFinished(int numberOfSuccessAuthentications, byte[][] authKeyMatrix, String[] authKeyTypeMatrix) {
+            authenticationFinished = true;
+        }
+
+        @Override
+        public void onProgress(int numberOfSectorsDone, int numberOfSectors) {
+        }
+
+        @Override
+        public void onSectorsRead(List<SectorMcModel> sectorMcs) {
+        }
+
+        @Override
+        public void onFinished(byte[] uid, CardImage cardImage, SectorMcModel[] sectorMcs) {
+            this.uid = uid;
+            this.cardImage = cardImage;
+            this.sectorMcs = sectorMcs;
+        }
+
+        @Override
+        public void onCancelled(int sectorIndex, String reason) {
+            cancelReason = reason;
+        }
+    }
+
+    @Test
+    public void readAllSectors() {
+        SimulatedMifareClassicCard card = SimulatedMifareClassicCard.create1K(UID);
+        RecordingListener listener = new RecordingListener();
+        new CardReadTask(new Classic(card), 4, listener).run();
+        assertTrue(listener.authenticationFinished);
+        assertNull(listener.cancelReason);
+        assertArrayEquals(UID, listener.uid);
+        assertNotNull(listener.cardImage);
+        for (int sectorIndex = 0; sectorIndex < card.getSectorCount(); sectorIndex++) {
+            assertTrue(listener.cardImage.isSectorRead(sectorIndex));
+            assertNotNull(listener.sectorMcs[sectorIndex]);
+        }
+    }
+
+    @Test
+    public void abortBeforeTheSearchIsKept() {
+        SimulatedMifareClassicCard card = SimulatedMifareClassicCard.create1K(UID);
+        Classic classic = new Classic(card);
+        // the task is cancelled after its check but before the search is started
+        classic.setAbortSignal(new AtomicBoolean(true));
+        assertEquals(0, classic.checkDefaultAuthentication());
+        assertNull(classic.readBlocks(new int[]{1, 2})[0]);
+    }
+
+    @Test
+    public void cancelledTaskDoesNotStopOtherSearches() {
+        SimulatedMifareClassicCard card = SimulatedMifareClassicCard.create1K(UID);
+        Classic classic = new Classic(card);
+        RecordingListener listener = new RecordingListener();
+        CardReadTask cardReadTask = new CardReadTask(classic, 4, listener);
+        cardReadTask.cancel();
+        cardReadTask.run();
+        assertEquals("cancelled", listener.cancelReason);
+        assertFalse(listener.authenticationFinished);
+        // the cancel of a finished task is not seen by the next search
+        cardReadTask.cancel();
+        assertEquals(card.getSectorCount(), classic.checkDefaultAuthentication());
+    }
+}
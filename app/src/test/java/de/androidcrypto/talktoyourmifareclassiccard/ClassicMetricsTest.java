@@ -0,0 +1,92 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the ClassicMetrics: the edges of the log2 buckets, the percentiles and the counts per sector.
+ */
+public class ClassicMetricsTest {
+
+    @Test
+    public void bucketEdges() {
+        assertEquals(0, ClassicMetrics.getBucket(0));
+        assertEquals(0, ClassicMetrics.getBucket(999));
+        assertEquals(1, ClassicMetrics.getBucket(1000));
+        assertEquals(1, ClassicMetrics.getBucket(1999));
+        assertEquals(2, ClassicMetrics.getBucket(2000));
+        assertEquals(2, ClassicMetrics.getBucket(3999));
+        assertEquals(3, ClassicMetrics.getBucket(4000));
+        assertEquals(ClassicMetrics.NUMBER_OF_BUCKETS - 1, ClassicMetrics.getBucket(Long.MAX_VALUE));
+        // the upper bound of a bucket is the lower bound of the next bucket
+        for (int bucket = 0; bucket < ClassicMetrics.NUMBER_OF_BUCKETS - 1; bucket++) {
+            long upperBound = ClassicMetrics.getBucketUpperBoundNanos(bucket);
+            assertEquals(bucket, ClassicMetrics.getBucket(upperBound - 1));
+            assertEquals(bucket + 1, ClassicMetrics.getBucket(upperBound));
+        }
+        assertEquals(Long.MAX_VALUE, ClassicMetrics.getBucketUpperBoundNanos(ClassicMetrics.NUMBER_OF_BUCKETS - 1));
+    }
+
+    @Test
+    public void percentiles() {
+        ClassicMetrics metrics = new ClassicMetrics("test");
+        assertEquals(0, metrics.getPercentileNanos(ClassicMetrics.OP_READ_BLOCK, ClassicMetrics.ALL_SECTORS, 0.5));
+        // 90 operations in the bucket up to 2 us and 10 in the bucket up to 16 us
+        for (int i = 0; i < 90; i++) metrics.record(ClassicMetrics.OP_READ_BLOCK, 1, 1500);
+        for (int i = 0; i < 10; i++) metrics.record(ClassicMetrics.OP_READ_BLOCK, 1, 10000);
+        assertEquals(2000, metrics.getPercentileNanos(ClassicMetrics.OP_READ_BLOCK, ClassicMetrics.ALL_SECTORS, 0.0));
+        assertEquals(2000, metrics.getPercentileNanos(ClassicMetrics.OP_READ_BLOCK, ClassicMetrics.ALL_SECTORS, 0.5));
+        assertEquals(2000, metrics.getPercentileNanos(ClassicMetrics.OP_READ_BLOCK, ClassicMetrics.ALL_SECTORS, 0.9));
+        // the upper bound of the bucket is 16 us, the percentile is clamped to the maximum
+        assertEquals(10000, metrics.getPercentileNanos(ClassicMetrics.OP_READ_BLOCK, ClassicMetrics.ALL_SECTORS, 0.91));
+        assertEquals(10000, metrics.getPercentileNanos(ClassicMetrics.OP_READ_BLOCK, 1, 1.0));
+        assertEquals(10000, metrics.getMaximumNanos(ClassicMetrics.OP_READ_BLOCK, ClassicMetrics.ALL_SECTORS));
+        assertEquals((90 * 1500 + 10 * 10000) / 100, metrics.getMeanNanos(ClassicMetrics.OP_READ_BLOCK, 1));
+    }
+
+    @Test
+    public void countsPerSector() {
+        ClassicMetrics metrics = new ClassicMetrics("test");
+        metrics.record(ClassicMetrics.OP_AUTHENTICATION, 3, 5000);
+        metrics.record(ClassicMetrics.OP_AUTHENTICATION, 39, 5000);
+        metrics.record(ClassicMetrics.OP_CONNECT, ClassicMetrics.ALL_SECTORS, 5000);
+        // a negative latency counts as 0
+        metrics.record(ClassicMetrics.OP_AUTHENTICATION, 3, -1);
+        assertEquals(3, metrics.getCount(ClassicMetrics.OP_AUTHENTICATION));
+        assertEquals(2, metrics.getCount(ClassicMetrics.OP_AUTHENTICATION, 3));
+        assertEquals(1, metrics.getCount(ClassicMetrics.OP_AUTHENTICATION, 39));
+        assertEquals(1, metrics.getHistogram(ClassicMetrics.OP_AUTHENTICATION, 3)[0]);
+        assertEquals(1, metrics.getCount(ClassicMetrics.OP_CONNECT));
+        assertEquals(0, metrics.getCount(ClassicMetrics.OP_CONNECT, 0));
+        metrics.reset();
+        assertEquals(0, metrics.getCount(ClassicMetrics.OP_AUTHENTICATION));
+        assertEquals(0, metrics.getMaximumNanos(ClassicMetrics.OP_AUTHENTICATION, 3));
+    }
+
+    @Test
+    public void jsonHasTheRecordedOperationsOnly() throws IOException {
+        ClassicMetrics metrics = new ClassicMetrics("Classic 1K");
+        metrics.record(ClassicMetrics.OP_READ_BLOCK, 2, 1500);
+        StringBuilder sb = new StringBuilder();
+        metrics.writeJson(sb);
+        String json = sb.toString();
+        assertTrue(json.startsWith("{\"name\":\"Classic 1K\","));
+        assertTrue(json.contains("\"readBlock\":{\"count\":1,\"totalNanos\":1500,\"maxNanos\":1500,\"p50Nanos\":1500,"));
+        assertTrue(json.contains("\"sectors\":{\"2\":{\"count\":1,"));
+        assertFalse(json.contains("authentication"));
+        assertTrue(json.endsWith("}}\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownOperation() {
+        new ClassicMetrics("test").record(ClassicMetrics.NUMBER_OF_OPERATIONS, 0, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sectorOutOfRange() {
+        new ClassicMetrics("test").getCount(ClassicMetrics.OP_READ_BLOCK, ClassicMetrics.MAXIMUM_NUMBER_OF_SECTORS);
+    }
+}
@@ -0,0 +1,98 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the raw READ path of Classic, the tag is simulated by SimulatedMifareClassicCard. Sector 1 has the
+ * keys KEY_A and KEY_B, the blocks 4 and 5 are readable by both keys, the block 6 is never readable.
+ */
+public class ClassicRawReadTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04A1B2C3D4E5F6");
+    private static final byte[] KEY_A = Utils.hexStringToByteArray("B0B1B2B3B4B5");
+    private static final byte[] KEY_B = Utils.hexStringToByteArray("A0A1A2A3A4A5");
+    private static final byte[] BLOCK_5 = Utils.hexStringToByteArray("000102030405060708090A0B0C0D0E0F");
+
+    // counts the commands sent by transceive
+    private static class CountingCard extends SimulatedMifareClassicCard {
+        int numberOfTransceives = 0;
+
+        CountingCard() {
+            super(CardImage.SIZE_1K, UID);
+        }
+
+        @Override
+        public byte[] transceive(byte[] data) throws IOException {
+            numberOfTransceives++;
+            return super.transceive(data);
+        }
+    }
+
+    private CountingCard card;
+    private Classic classic;
+
+    @Before
+    public void setUp() {
+        card = new CountingCard();
+        byte[] accessBits = new byte[4];
+        AccessConditionCodec.encode(AccessConditionCodec.pack(0, 0, 7, 3), accessBits, 0);
+        accessBits[3] = 0x69;
+        card.setSectorTrailer(1, KEY_A, accessBits, KEY_B);
+        card.setBlock(5, BLOCK_5);
+        classic = new Classic(card);
+    }
+
+    @Test
+    public void rawReadIsDisabledByDefault() {
+        assertFalse(classic.isRawRead());
+        assertArrayEquals(BLOCK_5, classic.readOneBlock(5, KEY_B));
+        assertEquals(0, card.numberOfTransceives);
+    }
+
+    @Test
+    public void rawReadReturnsTheSameData() {
+        byte[] block = classic.readOneBlock(5, KEY_B);
+        byte[] sector = classic.readSector(0, Classic.MIFARE_DEFAULT_KEY, Classic.KEY_TYPE_A);
+        CardImage cardImage = new CardImage(CardImage.SIZE_1K);
+        assertTrue(classic.readSector(2, Classic.MIFARE_DEFAULT_KEY, Classic.KEY_TYPE_A, cardImage));
+        classic.setRawRead(true);
+        assertTrue(classic.isRawRead());
+        assertArrayEquals(block, classic.readOneBlock(5, KEY_B));
+        assertEquals(1, card.numberOfTransceives);
+        assertArrayEquals(sector, classic.readSector(0, Classic.MIFARE_DEFAULT_KEY, Classic.KEY_TYPE_A));
+        assertEquals(1 + 4, card.numberOfTransceives);
+        CardImage rawCardImage = new CardImage(CardImage.SIZE_1K);
+        assertTrue(classic.readSector(2, Classic.MIFARE_DEFAULT_KEY, Classic.KEY_TYPE_A, rawCardImage));
+        assertArrayEquals(cardImage.copySector(2), rawCardImage.copySector(2));
+        assertEquals(1 + 4 + 4, card.numberOfTransceives);
+    }
+
+    @Test
+    public void nakFailsTheRead() {
+        classic.setRawRead(true);
+        assertNull(classic.readOneBlock(6, KEY_B));
+        // the tag is idle after the NAK, the next read authenticates again
+        assertArrayEquals(BLOCK_5, classic.readOneBlock(5, KEY_B));
+    }
+
+    @Test
+    public void timeoutIsPassedToTheTransport() {
+        classic.setTimeout(100);
+        assertEquals(100, classic.getTimeout());
+        assertEquals(100, card.getTimeout());
+        // a read that takes longer than the timeout fails
+        classic.setTimeout(1);
+        card.setLatencyNanos(0, 5000000L);
+        classic.setRawRead(true);
+        assertNull(classic.readOneBlock(5, KEY_B));
+        classic.setRawRead(false);
+        assertNull(classic.readOneBlock(5, KEY_B));
+        card.setLatencyNanos(0, 0);
+        assertArrayEquals(BLOCK_5, classic.readOneBlock(5, KEY_B));
+    }
+}
@@ -0,0 +1,188 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for Classic.readBlocks, the tag is simulated by SimulatedMifareClassicCard.
+ * Sector 1 has a different key B and access conditions that need both keys: block 4 is readable with key A or B,
+ * block 5 with key B only and block 6 is never readable.
+ */
+public class ClassicReadBlocksTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04A1B2C3D4E5F6");
+    private static final byte[] KEY_A = Utils.hexStringToByteArray("FFFFFFFFFFFF");
+    private static final byte[] KEY_B = Utils.hexStringToByteArray("A0A1A2A3A4A5");
+    private static final byte[] DATA_4 = Utils.hexStringToByteArray("04040404040404040404040404040404");
+    private static final byte[] DATA_5 = Utils.hexStringToByteArray("05050505050505050505050505050505");
+
+    // counts the commands sent to the tag
+    private static class CountingCard extends SimulatedMifareClassicCard {
+        int numberOfReads;
+        int numberOfFailedAuthentications;
+
+        CountingCard() {
+            super(CardImage.SIZE_1K, UID);
+        }
+
+        @Override
+        public byte[] readBlock(int blockIndex) throws IOException {
+            numberOfReads++;
+            return super.readBlock(blockIndex);
+        }
+
+        @Override
+        public boolean authenticateSectorWithKeyA(int sectorIndex, byte[] key) throws IOException {
+            return countAuthentication(super.authenticateSectorWithKeyA(sectorIndex, key));
+        }
+
+        @Override
+        public boolean authenticateSectorWithKeyB(int sectorIndex, byte[] key) throws IOException {
+            return countAuthentication(super.authenticateSectorWithKeyB(sectorIndex, key));
+        }
+
+        private boolean countAuthentication(boolean success) {
+            if (!success) numberOfFailedAuthentications++;
+            return success;
+        }
+    }
+
+    private CountingCard card;
+    private Classic classic;
+
+    @Before
+    public void setUp() {
+        card = new CountingCard();
+        byte[] accessBits = new byte[4];
+        AccessConditionCodec.encode(AccessConditionCodec.pack(0, 3, 7, 3), accessBits, 0);
+        accessBits[3] = 0x69;
+        card.setSectorTrailer(1, KEY_A, accessBits, KEY_B);
+        card.setBlock(4, DATA_4);
+        card.setBlock(5, DATA_5);
+        KeyDictionary keyDictionary = new KeyDictionary();
+        keyDictionary.add(KEY_A);
+        keyDictionary.add(KEY_B);
+        classic = new Classic(card);
+        classic.setKeyDictionary(keyDictionary);
+    }
+
+    @Test
+    public void blocksAreReadWithThePlannedKey() {
+        byte[][] blocks = classic.readBlocks(new int[]{5, 4, 0});
+        assertArrayEquals(DATA_5, blocks[0]);
+        assertArrayEquals(DATA_4, blocks[1]);
+        assertNotNull(blocks[2]);
+        assertEquals(Classic.ERROR_OK, classic.getErrorCode());
+    }
+
+    @Test
+    public void knownKeyBIsUsed() {
+        // key A was found by the authentication, key B is searched for block 5 only
+        assertEquals(card.getSectorCount(), classic.checkDefaultAuthentication());
+        byte[][] blocks = classic.readBlocks(new int[]{4, 5});
+        assertArrayEquals(DATA_4, blocks[0]);
+        assertArrayEquals(DATA_5, blocks[1]);
+    }
+
+    @Test
+    public void keyOfOtherSectorIsTriedBeforeTheDictionary() {
+        // key B is not in the dictionary but is known from the cached key of sector 2
+        card.setSectorTrailer(2, KEY_A, Utils.hexStringToByteArray("FF078069"), KEY_B);
+        KeyDictionary keyDictionary = new KeyDictionary();
+        keyDictionary.add(KEY_A);
+        KeyCache keyCache = new KeyCache(10);
+        keyCache.put(Utils.uidToLong(UID), 2, KeyDictionary.bytesToKey(KEY_B), Classic.KEY_TYPE_B);
+        classic.setKeyDictionary(keyDictionary);
+        classic.setKeyCache(keyCache);
+        assertEquals(card.getSectorCount(), classic.checkDefaultAuthentication());
+        byte[][] blocks = classic.readBlocks(new int[]{5});
+        assertArrayEquals(DATA_5, blocks[0]);
+    }
+
+    @Test
+    public void cachedKeysOfTheTagAreTried() {
+        // the sector is read with key A, the missing key B is not in the dictionary but cached for an other sector
+        KeyDictionary keyDictionary = new KeyDictionary();
+        keyDictionary.add(KEY_A);
+        KeyCache keyCache = new KeyCache(10);
+        keyCache.put(Utils.uidToLong(UID), 9, KeyDictionary.bytesToKey(KEY_B), Classic.KEY_TYPE_A);
+        classic.setKeyDictionary(keyDictionary);
+        classic.setKeyCache(keyCache);
+        CardImage cardImage = new CardImage(CardImage.SIZE_1K);
+        assertTrue(classic.readSector(1, KEY_A, Classic.KEY_TYPE_A, cardImage));
+        assertTrue(cardImage.isBlockRead(5));
+        assertArrayEquals(DATA_5, cardImage.copyBlock(5));
+    }
+
+    @Test
+    public void sectorTrailersAreNotReadIfTheKeyCanReadTheBlocks() {
+        byte[][] blocks = classic.readBlocks(new int[]{4, 8, 9, 12, 13});
+        for (byte[] block : blocks) assertNotNull(block);
+        assertEquals(5, card.numberOfReads);
+        card.numberOfReads = 0;
+        classic.readBlocks(new int[]{4, 8, 9, 12, 13});
+        assertEquals(5, card.numberOfReads);
+    }
+
+    @Test
+    public void accessConditionsAreReadOnce() {
+        // the read of block 5 with key A is denied, then the sector trailer is read and block 5 is read with key B
+        assertArrayEquals(DATA_5, classic.readBlocks(new int[]{5})[0]);
+        assertEquals(3, card.numberOfReads);
+        card.numberOfReads = 0;
+        assertArrayEquals(DATA_5, classic.readBlocks(new int[]{5})[0]);
+        assertEquals(1, card.numberOfReads);
+    }
+
+    @Test
+    public void onlyTheKeyOfTheRequestedBlocksIsSearched() {
+        // block 6 needs key B, the key B of the sector is not in the dictionary
+        byte[] accessBits = new byte[4];
+        AccessConditionCodec.encode(AccessConditionCodec.pack(0, 0, 3, 3), accessBits, 0);
+        accessBits[3] = 0x69;
+        card.setSectorTrailer(1, KEY_A, accessBits, Utils.hexStringToByteArray("B0B1B2B3B4B5"));
+        // the access conditions are kept from the read of the sector trailer
+        assertNotNull(classic.readBlocks(new int[]{7})[0]);
+        card.numberOfFailedAuthentications = 0;
+        byte[][] blocks = classic.readBlocks(new int[]{4, 5});
+        assertArrayEquals(DATA_4, blocks[0]);
+        assertArrayEquals(DATA_5, blocks[1]);
+        assertEquals(0, card.numberOfFailedAuthentications);
+        assertEquals(Classic.ERROR_OK, classic.getErrorCode());
+    }
+
+    @Test
+    public void deniedReadIsReported() {
+        byte[][] blocks = classic.readBlocks(new int[]{6, 8});
+        assertNull(blocks[0]);
+        assertNotNull(blocks[1]);
+        assertEquals(Classic.ERROR_ACCESS_DENIED, classic.getErrorCode());
+    }
+
+    @Test
+    public void duplicateBlocksAreCopied() {
+        byte[][] blocks = classic.readBlocks(new int[]{4, 4});
+        assertArrayEquals(DATA_4, blocks[0]);
+        assertArrayEquals(DATA_4, blocks[1]);
+        assertNotSame(blocks[0], blocks[1]);
+    }
+
+    @Test
+    public void lostTagStopsTheRead() {
+        card.setConnected(false);
+        byte[][] blocks = classic.readBlocks(new int[]{4, 8});
+        assertNull(blocks[0]);
+        assertNull(blocks[1]);
+        assertEquals(Classic.ERROR_IOEXCEPTION, classic.getErrorCode());
+    }
+
+    @Test
+    public void wrongBlockNumberFails() {
+        assertNull(classic.readBlocks(new int[]{4, 64}));
+        assertEquals(Classic.ERROR_WRONG_PARAMETER, classic.getErrorCode());
+    }
+}
@@ -0,0 +1,123 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the operations of Classic with a ClassicResult, the tag is simulated by SimulatedMifareClassicCard.
+ * Sector 1 has the keys KEY_A and KEY_B, the blocks 4 and 5 are readable by both keys, the block 6 is never readable.
+ */
+public class ClassicResultTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04A1B2C3D4E5F6");
+    private static final byte[] KEY_A = Utils.hexStringToByteArray("B0B1B2B3B4B5");
+    private static final byte[] KEY_B = Utils.hexStringToByteArray("A0A1A2A3A4A5");
+    private static final byte[] WRONG_KEY = Utils.hexStringToByteArray("010203040506");
+    private static final byte[] BLOCK_5 = Utils.hexStringToByteArray("000102030405060708090A0B0C0D0E0F");
+    private static final byte[] OTHER_BLOCK_5 = Utils.hexStringToByteArray("0102030405060102030405060708090A");
+
+    @Test
+    public void resultIsImmutable() {
+        byte[] data = BLOCK_5.clone();
+        byte[] key = KEY_A.clone();
+        ClassicResult result = new ClassicResult(Classic.ERROR_OK, "ok", data, 1000, 1, Classic.KEY_TYPE_A, key);
+        data[0] = 0x55;
+        key[0] = 0x55;
+        result.getData()[1] = 0x55;
+        assertArrayEquals(BLOCK_5, result.getData());
+        assertArrayEquals(KEY_A, result.getKey());
+        assertTrue(result.isSuccess());
+        assertNull(new ClassicResult(Classic.ERROR_ACCESS_DENIED, "denied", null, 0, 1, null, null).getData());
+    }
+
+    @Test
+    public void authenticateSectorResult() {
+        Classic classic = new Classic(createCard());
+        ClassicResult result = classic.authenticateSectorResult(1, KEY_A, Classic.KEY_TYPE_A);
+        assertTrue(result.isSuccess());
+        assertEquals(1, result.getSectorNumber());
+        assertEquals(Classic.KEY_TYPE_A, result.getKeyType());
+        assertArrayEquals(KEY_A, result.getKey());
+        assertNull(result.getData());
+        result = classic.authenticateSectorResult(1, WRONG_KEY, Classic.KEY_TYPE_B);
+        assertFalse(result.isSuccess());
+        assertNull(result.getKeyType());
+        assertNull(result.getKey());
+        // the result keeps its status after later operations
+        ClassicResult later = classic.authenticateSectorResult(1, KEY_B, Classic.KEY_TYPE_B);
+        assertTrue(later.isSuccess());
+        assertFalse(result.isSuccess());
+    }
+
+    @Test
+    public void readBlockResultTriesKeyB() {
+        Classic classic = new Classic(createCard());
+        ClassicResult result = classic.readBlockResult(5, KEY_B);
+        assertTrue(result.isSuccess());
+        assertEquals(1, result.getSectorNumber());
+        assertEquals(Classic.KEY_TYPE_B, result.getKeyType());
+        assertArrayEquals(BLOCK_5, result.getData());
+        result = classic.readBlockResult(6, KEY_B);
+        assertFalse(result.isSuccess());
+        assertNull(result.getData());
+        result = classic.readBlockResult(1000, KEY_B);
+        assertFalse(result.isSuccess());
+        assertEquals(-1, result.getSectorNumber());
+    }
+
+    @Test
+    public void keyMatrixIsACopy() {
+        Classic classic = new Classic(createCard());
+        assertEquals(16, classic.checkDefaultAuthentication());
+        byte[][] keyMatrix = classic.getAuthenticationKeyMatrix();
+        keyMatrix[0][0] = 0x55;
+        assertArrayEquals(Classic.MIFARE_DEFAULT_KEY, classic.getAuthenticationKeyMatrix()[0]);
+    }
+
+    @Test
+    public void instancesOnTwoTagsInParallel() throws InterruptedException {
+        // sector 1 has the key KEY_B on the first tag and the NFC Forum key on the second tag
+        SimulatedMifareClassicCard otherCard = SimulatedMifareClassicCard.create1K(Utils.hexStringToByteArray("11223344"));
+        otherCard.setSectorTrailer(1, Classic.MIFARE_DEFAULT_KEY_NFC_FORUM, Utils.hexStringToByteArray("FF078069"), Classic.MIFARE_DEFAULT_KEY_NFC_FORUM);
+        otherCard.setBlock(5, OTHER_BLOCK_5);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread first = startReads(new Classic(createCard()), KEY_B, Classic.KEY_TYPE_B, BLOCK_5, failure);
+        Thread second = startReads(new Classic(otherCard), Classic.MIFARE_DEFAULT_KEY_NFC_FORUM, Classic.KEY_TYPE_A, OTHER_BLOCK_5, failure);
+        first.join();
+        second.join();
+        assertNull(failure.get());
+    }
+
+    // reads sector 1 again and again, the key found for sector 1 and the read block 5 have to be the ones of the tag
+    private static Thread startReads(Classic classic, byte[] key, String keyType, byte[] block5, AtomicReference<Throwable> failure) {
+        Thread thread = new Thread(() -> {
+            try {
+                for (int i = 0; i < 200; i++) {
+                    assertEquals(16, classic.checkDefaultAuthentication());
+                    assertArrayEquals(key, classic.getAuthenticationKeyMatrix()[1]);
+                    assertEquals(keyType, classic.getAuthenticationKeyTypeMatrix()[1]);
+                    ClassicResult result = classic.readBlockResult(5, key);
+                    assertTrue(result.isSuccess());
+                    assertArrayEquals(block5, result.getData());
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static SimulatedMifareClassicCard createCard() {
+        SimulatedMifareClassicCard card = SimulatedMifareClassicCard.create1K(UID);
+        byte[] accessBits = new byte[4];
+        AccessConditionCodec.encode(AccessConditionCodec.pack(0, 0, 7, 3), accessBits, 0);
+        accessBits[3] = 0x69;
+        card.setSectorTrailer(1, KEY_A, accessBits, KEY_B);
+        card.setBlock(5, BLOCK_5);
+        return card;
+    }
+}
@@ -0,0 +1,177 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the DumpArchive: the records are read back as written, the index is rebuilt on opening and an
+ * incomplete or corrupted record at the end of the last segment is removed.
+ */
+public class DumpArchiveTest {
+
+    private static final long UID_1 = Utils.uidToLong(Utils.hexStringToByteArray("04A1B2C3D4E5F6"));
+    private static final long UID_2 = Utils.uidToLong(Utils.hexStringToByteArray("11223344"));
+    private static final byte[] KEY_A = Utils.hexStringToByteArray("FFFFFFFFFFFF");
+    private static final byte[] KEY_B = Utils.hexStringToByteArray("A0A1A2A3A4A5");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void appendAndRead() throws IOException {
+        File directory = temporaryFolder.newFolder("archive");
+        CardImage cardImage = createCardImage(1);
+        try (DumpArchive archive = new DumpArchive(directory)) {
+            long position = archive.append(cardImage, UID_1, 1000);
+            DumpArchive.Record record = archive.read(position);
+            assertEquals(position, record.getPosition());
+            assertEquals(UID_1, record.getPackedUid());
+            assertEquals(1000, record.getCaptureTimestamp());
+            assertEqualImages(cardImage, record.getCardImage());
+        }
+    }
+
+    @Test
+    public void indexIsRebuiltOnOpening() throws IOException {
+        File directory = temporaryFolder.newFolder("archive");
+        long[] positions = new long[3];
+        try (DumpArchive archive = new DumpArchive(directory, 4096)) {
+            positions[0] = archive.append(createCardImage(1), UID_1, 1000);
+            positions[1] = archive.append(createCardImage(2), UID_2, 2000);
+            positions[2] = archive.append(createCardImage(3), UID_1, 3000);
+        }
+        try (DumpArchive archive = new DumpArchive(directory, 4096)) {
+            assertEquals(3, archive.getNumberOfRecords());
+            assertEquals(2, archive.getNumberOfTags());
+            assertArrayEquals(new long[]{positions[0], positions[2]}, archive.getPositions(UID_1));
+            assertArrayEquals(new long[]{1000, 3000}, archive.getCaptureTimestamps(UID_1));
+            assertEquals(positions[2], archive.getNewestPosition(UID_1));
+            assertArrayEquals(new long[]{positions[1], positions[2]}, archive.getAllPositions(true));
+            assertEqualImages(createCardImage(3), archive.readNewest(Utils.longToUid(UID_1)).getCardImage());
+            assertEqualImages(createCardImage(2), archive.read(positions[1]).getCardImage());
+            assertNull(archive.readNewest(Utils.hexStringToByteArray("99887766")));
+        }
+    }
+
+    @Test
+    public void equalBlocksAreStoredOnce() throws IOException {
+        File directory = temporaryFolder.newFolder("archive");
+        try (DumpArchive archive = new DumpArchive(directory)) {
+            archive.append(createCardImage(1), UID_1, 1000);
+            int numberOfBlocks = archive.getNumberOfBlocks();
+            archive.append(createCardImage(1), UID_2, 2000);
+            assertEquals(numberOfBlocks, archive.getNumberOfBlocks());
+            assertEquals(2 * CardImage.SIZE_1K, archive.getTotalTagSize());
+            assertTrue(archive.getStoredSize() < archive.getTotalTagSize());
+        }
+    }
+
+    @Test
+    public void incompleteRecordIsRemoved() throws IOException {
+        File directory = temporaryFolder.newFolder("archive");
+        try (DumpArchive archive = new DumpArchive(directory)) {
+            archive.append(createCardImage(1), UID_1, 1000);
+            archive.append(createCardImage(2), UID_1, 2000);
+        }
+        File segment = getSegmentFile(directory);
+        long size = segment.length();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // the app was killed while writing the second record
+            file.setLength(size - 10);
+        }
+        try (DumpArchive archive = new DumpArchive(directory)) {
+            assertEquals(1, archive.getNumberOfRecords());
+            assertEquals(1000, archive.readNewest(Utils.longToUid(UID_1)).getCaptureTimestamp());
+            // the next record is appended after the complete record
+            archive.append(createCardImage(3), UID_1, 3000);
+        }
+        try (DumpArchive archive = new DumpArchive(directory)) {
+            assertEquals(2, archive.getNumberOfRecords());
+            assertEqualImages(createCardImage(3), archive.readNewest(Utils.longToUid(UID_1)).getCardImage());
+        }
+    }
+
+    @Test
+    public void corruptedLastRecordIsRemoved() throws IOException {
+        File directory = temporaryFolder.newFolder("archive");
+        long position;
+        try (DumpArchive archive = new DumpArchive(directory)) {
+            archive.append(createCardImage(1), UID_1, 1000);
+            position = archive.append(createCardImage(2), UID_2, 2000);
+        }
+        flipByte(getSegmentFile(directory), position + DumpArchive.HEADER_LENGTH + 2);
+        try (DumpArchive archive = new DumpArchive(directory)) {
+            assertEquals(1, archive.getNumberOfRecords());
+            assertEquals(1, archive.getNumberOfTags());
+            assertEquals(-1, archive.getNewestPosition(UID_2));
+            assertEquals(position, getSegmentFile(directory).length());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptedRecordIsRejected() throws IOException {
+        File directory = temporaryFolder.newFolder("archive");
+        long position;
+        try (DumpArchive archive = new DumpArchive(directory)) {
+            position = archive.append(createCardImage(1), UID_1, 1000);
+            archive.append(createCardImage(2), UID_2, 2000);
+        }
+        flipByte(getSegmentFile(directory), position + DumpArchive.HEADER_LENGTH + 2);
+        try (DumpArchive archive = new DumpArchive(directory)) {
+            // only the last record is checked on opening
+            assertEquals(2, archive.getNumberOfRecords());
+            archive.read(position);
+        }
+    }
+
+    // a 1K image with all sectors read, the data blocks of sector 1 depend on the seed
+    static CardImage createCardImage(int seed) {
+        CardImage cardImage = new CardImage(CardImage.SIZE_1K);
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            cardImage.setBlock(cardImage.sectorToBlock(sectorIndex) + 3, SimulatedMifareClassicCard.DEFAULT_SECTOR_TRAILER);
+            cardImage.setSectorRead(sectorIndex, true);
+            cardImage.setSectorKey(sectorIndex, Classic.KEY_TYPE_A, KEY_A);
+        }
+        byte[] block = new byte[CardImage.BLOCK_LENGTH];
+        for (int blockIndex = 4; blockIndex < 7; blockIndex++) {
+            for (int i = 0; i < block.length; i++) block[i] = (byte) (seed * 31 + blockIndex * 7 + i);
+            cardImage.setBlock(blockIndex, block);
+        }
+        cardImage.setSectorKey(2, Classic.KEY_TYPE_B, KEY_B);
+        cardImage.setBlockUnreadable(9, true);
+        return cardImage;
+    }
+
+    static void assertEqualImages(CardImage expected, CardImage actual) {
+        assertEquals(expected.getSize(), actual.getSize());
+        assertArrayEquals(expected.getData(), actual.getData());
+        for (int sectorIndex = 0; sectorIndex < expected.getSectorCount(); sectorIndex++) {
+            assertEquals(expected.isSectorRead(sectorIndex), actual.isSectorRead(sectorIndex));
+            assertArrayEquals(expected.getSectorKey(sectorIndex), actual.getSectorKey(sectorIndex));
+            assertEquals(expected.getSectorKeyType(sectorIndex), actual.getSectorKeyType(sectorIndex));
+        }
+        for (int blockIndex = 0; blockIndex < expected.getBlockCount(); blockIndex++) {
+            assertEquals(expected.isBlockRead(blockIndex), actual.isBlockRead(blockIndex));
+        }
+    }
+
+    private static File getSegmentFile(File directory) {
+        return new File(directory, "segment-00000.cda");
+    }
+
+    private static void flipByte(File file, long offset) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(offset);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(offset);
+            randomAccessFile.write(value ^ 0xFF);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the DumpSearch: matches across block boundaries, the block aligned mode, blocks that were not read,
+ * the keys of the sector trailers and the parallel search in a DumpArchive.
+ */
+public class DumpSearchTest {
+
+    private static final long UID_1 = Utils.uidToLong(Utils.hexStringToByteArray("04A1B2C3D4E5F6"));
+    private static final long UID_2 = Utils.uidToLong(Utils.hexStringToByteArray("11223344"));
+    private static final byte[] BLOCK_4 = Utils.hexStringToByteArray("000102030405060708090A0B0C0D0E0F");
+    private static final byte[] BLOCK_5 = Utils.hexStringToByteArray("101112131415161718191A1B1C1D1E1F");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void matchAcrossBlockBoundary() {
+        DumpSearch dumpSearch = new DumpSearch(patterns("0E0F1011"), false);
+        List<DumpSearch.Match> matches = new ArrayList<>();
+        assertEquals(1, dumpSearch.search(createCardImage(), UID_1, -1, 1000, matches));
+        DumpSearch.Match match = matches.get(0);
+        assertEquals(0, match.getPatternIndex());
+        assertEquals(UID_1, match.getPackedUid());
+        assertEquals(-1, match.getPosition());
+        assertEquals(1000, match.getCaptureTimestamp());
+        assertEquals(1, match.getSectorNumber());
+        assertEquals(4, match.getBlockNumber());
+        assertEquals(14, match.getOffsetInBlock());
+    }
+
+    @Test
+    public void blockAlignedMatches() {
+        DumpSearch dumpSearch = new DumpSearch(patterns("0E0F1011", "10111213", "1112"), true);
+        List<DumpSearch.Match> matches = new ArrayList<>();
+        assertEquals(1, dumpSearch.search(createCardImage(), UID_1, -1, 1000, matches));
+        assertEquals(1, matches.get(0).getPatternIndex());
+        assertEquals(5, matches.get(0).getBlockNumber());
+        assertEquals(0, matches.get(0).getOffsetInBlock());
+    }
+
+    @Test
+    public void overlappingPatterns() {
+        DumpSearch dumpSearch = new DumpSearch(patterns("02030405", "0304", "0F10"), false);
+        List<DumpSearch.Match> matches = new ArrayList<>();
+        assertEquals(3, dumpSearch.search(createCardImage(), UID_1, -1, 1000, matches));
+        // in the order of their end
+        assertEquals(1, matches.get(0).getPatternIndex());
+        assertEquals(3, matches.get(0).getOffsetInBlock());
+        assertEquals(0, matches.get(1).getPatternIndex());
+        assertEquals(2, matches.get(1).getOffsetInBlock());
+        assertEquals(2, matches.get(2).getPatternIndex());
+        assertEquals(15, matches.get(2).getOffsetInBlock());
+    }
+
+    @Test
+    public void blocksThatWereNotReadAreIgnored() {
+        CardImage cardImage = createCardImage();
+        // an unreadable block, a match that ends in it and a sector that was not read
+        cardImage.setBlock(8, BLOCK_5);
+        cardImage.setBlockUnreadable(8, true);
+        cardImage.setBlock(9, BLOCK_4);
+        cardImage.setBlock(10, BLOCK_5);
+        cardImage.setBlockUnreadable(10, true);
+        cardImage.setBlock(12, BLOCK_5);
+        cardImage.setSectorRead(3, false);
+        DumpSearch dumpSearch = new DumpSearch(patterns("10111213", "0E0F1011"), false);
+        List<DumpSearch.Match> matches = new ArrayList<>();
+        assertEquals(2, dumpSearch.search(cardImage, UID_1, -1, 1000, matches));
+        assertEquals(4, matches.get(0).getBlockNumber());
+        assertEquals(5, matches.get(1).getBlockNumber());
+    }
+
+    @Test
+    public void searchArchive() throws IOException {
+        File directory = temporaryFolder.newFolder("archive");
+        // enough records to split the search in several tasks
+        int numberOfRecords = 300;
+        long[] positions = new long[numberOfRecords];
+        try (DumpArchive archive = new DumpArchive(directory)) {
+            for (int i = 0; i < numberOfRecords; i++) {
+                positions[i] = archive.append(createCardImage(i), ((i & 1) == 0) ? UID_1 : UID_2, i);
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (DumpArchive archive = new DumpArchive(directory)) {
+            DumpSearch.SearchResult result = new DumpSearch(patterns("CAFE"), false).searchArchive(archive, false, pool);
+            assertEquals(0, result.getNumberOfFailedRecords());
+            assertEquals(numberOfRecords, result.getMatches().size());
+            for (int i = 0; i < numberOfRecords; i++) {
+                DumpSearch.Match match = result.getMatches().get(i);
+                assertEquals(positions[i], match.getPosition());
+                assertEquals(i, match.getCaptureTimestamp());
+                assertEquals(((i & 1) == 0) ? UID_1 : UID_2, match.getPackedUid());
+                assertEquals(6, match.getBlockNumber());
+            }
+            result = new DumpSearch(patterns("CAFE0123"), false).searchArchive(archive, false, pool);
+            assertEquals(1, result.getMatches().size());
+            assertEquals(positions[0x123], result.getMatches().get(0).getPosition());
+            result = new DumpSearch(patterns("CAFE"), false).searchArchive(archive, true, pool);
+            assertEquals(2, result.getMatches().size());
+            assertEquals(positions[numberOfRecords - 2], result.getMatches().get(0).getPosition());
+            assertEquals(positions[numberOfRecords - 1], result.getMatches().get(1).getPosition());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void failedRecordsAreCounted() throws IOException {
+        File directory = temporaryFolder.newFolder("archive");
+        long position;
+        try (DumpArchive archive = new DumpArchive(directory)) {
+            position = archive.append(createCardImage(0), UID_1, 0);
+            archive.append(createCardImage(1), UID_1, 1);
+            archive.append(createCardImage(2), UID_2, 2);
+        }
+        try (RandomAccessFile segment = new RandomAccessFile(new File(directory, "segment-00000.cda"), "rw")) {
+            segment.seek(position + DumpArchive.HEADER_LENGTH + 2);
+            segment.write(0x55);
+        }
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try (DumpArchive archive = new DumpArchive(directory)) {
+            DumpSearch.SearchResult result = new DumpSearch(patterns("CAFE"), false).searchArchive(archive, false, pool);
+            assertEquals(1, result.getNumberOfFailedRecords());
+            assertEquals(2, result.getMatches().size());
+            // the count belongs to the search, not to the DumpSearch
+            result = new DumpSearch(patterns("CAFE"), false).searchArchive(archive, true, pool);
+            assertEquals(0, result.getNumberOfFailedRecords());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void keyOfTheReadIsSearched() {
+        // key B of sector 2 is not readable, the tag returns zeros for it
+        byte[] keyB = Utils.hexStringToByteArray("B0B1B2B3B4B5");
+        SimulatedMifareClassicCard card = SimulatedMifareClassicCard.create1K(Utils.longToUid(UID_1));
+        card.setSectorTrailer(2, Classic.MIFARE_DEFAULT_KEY, Utils.hexStringToByteArray("7F078869"), keyB);
+        CardImage cardImage = new CardImage(CardImage.SIZE_1K);
+        assertTrue(new Classic(card).readSector(2, keyB, Classic.KEY_TYPE_B, cardImage));
+        DumpSearch dumpSearch = new DumpSearch(patterns("B0B1B2B3B4B5"), false);
+        List<DumpSearch.Match> matches = new ArrayList<>();
+        assertEquals(1, dumpSearch.search(cardImage, UID_1, -1, 1000, matches));
+        assertEquals(11, matches.get(0).getBlockNumber());
+        assertEquals(10, matches.get(0).getOffsetInBlock());
+        // the card image is not changed
+        assertEquals(0, cardImage.getData()[11 * 16 + 10]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyPattern() {
+        new DumpSearch(Arrays.asList(new byte[0]), false);
+    }
+
+    private static List<byte[]> patterns(String... hexPatterns) {
+        List<byte[]> patterns = new ArrayList<>();
+        for (String hexPattern : hexPatterns) patterns.add(Utils.hexStringToByteArray(hexPattern));
+        return patterns;
+    }
+
+    // a 1K image with all sectors read, the blocks 4 and 5 of sector 1 are BLOCK_4 and BLOCK_5
+    private static CardImage createCardImage() {
+        CardImage cardImage = new CardImage(CardImage.SIZE_1K);
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            cardImage.setBlock(cardImage.sectorToBlock(sectorIndex) + 3, SimulatedMifareClassicCard.DEFAULT_SECTOR_TRAILER);
+            cardImage.setSectorRead(sectorIndex, true);
+        }
+        cardImage.setBlock(4, BLOCK_4);
+        cardImage.setBlock(5, BLOCK_5);
+        return cardImage;
+    }
+
+    // block 6 starts with CAFE and the number
+    private static CardImage createCardImage(int number) {
+        CardImage cardImage = createCardImage();
+        byte[] block = new byte[CardImage.BLOCK_LENGTH];
+        block[0] = (byte) 0xCA;
+        block[1] = (byte) 0xFE;
+        block[2] = (byte) (number >>> 8);
+        block[3] = (byte) number;
+        cardImage.setBlock(6, block);
+        return cardImage;
+    }
+}
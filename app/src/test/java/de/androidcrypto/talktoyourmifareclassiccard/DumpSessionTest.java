@@ -0,0 +1,144 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the DumpSession: a read that loses the tag is continued by the next tap with the sectors and keys
+ * of the session, and the Store hands out, replaces and removes the sessions.
+ */
+public class DumpSessionTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04A1B2C3D4E5F6");
+    private static final byte[] OTHER_UID = Utils.hexStringToByteArray("11223344");
+    private static final byte[] MAD_KEY = Utils.hexStringToByteArray("A0A1A2A3A4A5");
+
+    // a tag that leaves the field after a number of reads and records the read blocks
+    private static class LeavingCard extends SimulatedMifareClassicCard {
+        int readsUntilLeaving = Integer.MAX_VALUE;
+        final List<Integer> readBlocks = new ArrayList<>();
+
+        LeavingCard() {
+            super(CardImage.SIZE_1K, UID);
+        }
+
+        @Override
+        public byte[] readBlock(int blockIndex) throws IOException {
+            if (readsUntilLeaving-- <= 0) setConnected(false);
+            byte[] block = super.readBlock(blockIndex);
+            readBlocks.add(blockIndex);
+            return block;
+        }
+    }
+
+    private static class RecordingListener implements CardReadTask.Listener {
+        CardImage cardImage;
+        String cancelReason;
+
+        @Override
+        public void onAuthenticationFinished(int numberOfSuccessAuthentications, byte[][] authKeyMatrix, String[] authKeyTypeMatrix) {
+        }
+
+        @Override
+        public void onProgress(int numberOfSectorsDone, int numberOfSectors) {
+        }
+
+        @Override
+        public void onSectorsRead(List<SectorMcModel> sectorMcs) {
+        }
+
+        @Override
+        public void onFinished(byte[] uid, CardImage cardImage, SectorMcModel[] sectorMcs) {
+            this.cardImage = cardImage;
+        }
+
+        @Override
+        public void onCancelled(int sectorIndex, String reason) {
+            cancelReason = reason;
+        }
+    }
+
+    @Test
+    public void readIsContinuedAfterTheTagWasLost() {
+        LeavingCard card = new LeavingCard();
+        card.setSectorTrailer(9, MAD_KEY, Utils.hexStringToByteArray("FF078069"), MAD_KEY);
+        card.setBlock(37, Utils.hexStringToByteArray("000102030405060708090A0B0C0D0E0F"));
+        DumpSession.Store store = new DumpSession.Store(4, 60000);
+        DumpSession session = store.getSession(UID, CardImage.SIZE_1K);
+        // the first tap: the tag leaves the field in sector 5
+        card.readsUntilLeaving = 5 * 4 + 2;
+        RecordingListener listener = new RecordingListener();
+        CardReadTask cardReadTask = new CardReadTask(new Classic(card), 4, listener);
+        cardReadTask.setDumpSession(session);
+        cardReadTask.run();
+        assertNotNull(listener.cancelReason);
+        assertNull(listener.cardImage);
+        assertFalse(session.isComplete());
+        assertEquals(1, session.getNumberOfAttempts());
+        assertEquals(5, session.getFirstMissingSector());
+        assertEquals(5, session.getNumberOfReadSectors());
+        // the keys of all sectors were found before the read
+        assertArrayEquals(MAD_KEY, session.getCardImage().getSectorKey(9));
+        // the next tap continues with the same session
+        card.setConnected(true);
+        card.readsUntilLeaving = Integer.MAX_VALUE;
+        card.readBlocks.clear();
+        assertSame(session, store.getSession(UID, CardImage.SIZE_1K));
+        listener = new RecordingListener();
+        cardReadTask = new CardReadTask(new Classic(card), 4, listener);
+        cardReadTask.setDumpSession(session);
+        cardReadTask.run();
+        assertNull(listener.cancelReason);
+        assertSame(session.getCardImage(), listener.cardImage);
+        assertTrue(session.isComplete());
+        assertEquals(2, session.getNumberOfAttempts());
+        assertEquals(card.getSectorCount(), session.getFirstMissingSector());
+        // the sectors of the first tap are not read again
+        for (int blockIndex : card.readBlocks) assertTrue(blockIndex >= 5 * 4);
+        assertArrayEquals(card.getBlock(37), listener.cardImage.copyBlock(37));
+        // a complete session is not continued
+        assertNotSame(session, store.getSession(UID, CardImage.SIZE_1K));
+    }
+
+    @Test
+    public void storeReplacesSessions() {
+        DumpSession.Store store = new DumpSession.Store(2, 60000);
+        DumpSession session = store.getSession(UID, CardImage.SIZE_1K);
+        assertSame(session, store.getSession(UID, CardImage.SIZE_1K));
+        assertEquals(Utils.uidToLong(UID), session.getUid());
+        // another tag size
+        DumpSession session4K = store.getSession(UID, CardImage.SIZE_4K);
+        assertNotSame(session, session4K);
+        assertEquals(1, store.size());
+        store.remove(UID);
+        assertEquals(0, store.size());
+        assertNotSame(session4K, store.getSession(UID, CardImage.SIZE_4K));
+        store.clear();
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedSessionIsRemoved() {
+        DumpSession.Store store = new DumpSession.Store(2, 60000);
+        DumpSession first = store.getSession(UID, CardImage.SIZE_1K);
+        DumpSession second = store.getSession(OTHER_UID, CardImage.SIZE_1K);
+        // the first session is used again, so the second one is the least recently used one
+        assertSame(first, store.getSession(UID, CardImage.SIZE_1K));
+        store.getSession(Utils.hexStringToByteArray("55667788"), CardImage.SIZE_1K);
+        assertEquals(2, store.size());
+        assertSame(first, store.getSession(UID, CardImage.SIZE_1K));
+        assertNotSame(second, store.getSession(OTHER_UID, CardImage.SIZE_1K));
+    }
+
+    @Test
+    public void oldSessionIsNotContinued() {
+        DumpSession.Store store = new DumpSession.Store(2, -1);
+        DumpSession session = store.getSession(UID, CardImage.SIZE_1K);
+        assertNotSame(session, store.getSession(UID, CardImage.SIZE_1K));
+    }
+}
@@ -0,0 +1,91 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the HexCodec and the hex methods of Utils that use it.
+ */
+public class HexCodecTest {
+
+    private static final byte[] ALL_BYTES = new byte[256];
+
+    static {
+        for (int i = 0; i < ALL_BYTES.length; i++) ALL_BYTES[i] = (byte) i;
+    }
+
+    @Test
+    public void roundTrip() {
+        String lowerCase = HexCodec.toHexString(ALL_BYTES, false);
+        String upperCase = HexCodec.toHexString(ALL_BYTES, true);
+        assertEquals(512, lowerCase.length());
+        assertTrue(lowerCase.startsWith("000102"));
+        assertTrue(lowerCase.endsWith("fdfeff"));
+        assertEquals(lowerCase.toUpperCase(), upperCase);
+        assertArrayEquals(ALL_BYTES, HexCodec.decode(lowerCase));
+        assertArrayEquals(ALL_BYTES, HexCodec.decode(upperCase));
+        assertArrayEquals(new byte[0], HexCodec.decode(""));
+    }
+
+    @Test
+    public void encodeWithOffsetAndSeparator() {
+        byte[] bytes = Utils.hexStringToByteArray("00A1B2FF");
+        assertEquals("A1 B2 ", HexCodec.toHexString(bytes, 1, 2, true, ' '));
+        assertEquals("", HexCodec.toHexString(bytes, 1, 0, true, ' '));
+        char[] destination = new char[8];
+        assertEquals(7, HexCodec.encode(bytes, 2, 2, destination, 3, false));
+        assertEquals("b2ff", new String(destination, 3, 4));
+        assertEquals("A1 B2 FF", Utils.bytesToHexNpeUpperCaseBlank(new byte[]{(byte) 0xA1, (byte) 0xB2, (byte) 0xFF}).trim());
+        assertEquals("0A", Utils.byteToHex((byte) 0x0A));
+    }
+
+    @Test
+    public void encodeToStringBuilderAndAppendable() throws IOException {
+        byte[] bytes = Utils.hexStringToByteArray("00A1B2FF");
+        StringBuilder sb = new StringBuilder("key:");
+        assertSame(sb, HexCodec.encode(bytes, sb));
+        assertEquals("key:00a1b2ff", sb.toString());
+        assertEquals("A1B2", HexCodec.encode(bytes, 1, 2, new StringBuilder(), true).toString());
+        // the Appendable that is not a StringBuilder and the one that is
+        StringWriter writer = new StringWriter();
+        assertSame(writer, HexCodec.encode(bytes, 1, 3, writer, true));
+        assertEquals("A1B2FF", writer.toString());
+        Appendable appendable = new StringBuilder();
+        HexCodec.encode(bytes, 0, 2, appendable, false);
+        assertEquals("00a1", appendable.toString());
+        // nothing is appended for NULL
+        assertEquals("key:00a1b2ff", HexCodec.encode(null, sb).toString());
+        assertEquals("", HexCodec.encode(null, 0, 0, new StringWriter(), true).toString());
+        assertEquals("", HexCodec.toHexString(null, true));
+    }
+
+    @Test
+    public void decodeWithOffset() {
+        byte[] destination = new byte[4];
+        assertEquals(2, HexCodec.decode("xxA0a1yy", 2, 4, destination, 1));
+        assertArrayEquals(new byte[]{0, (byte) 0xA0, (byte) 0xA1, 0}, destination);
+        assertEquals(-1, HexCodec.decode("A0A", 0, 3, destination, 0));
+        assertEquals(-1, HexCodec.decode("A0xA", 0, 4, destination, 0));
+    }
+
+    @Test
+    public void invalidInputIsNull() {
+        assertNull(HexCodec.decode(null));
+        assertNull(HexCodec.decode("A0A"));
+        assertNull(HexCodec.decode("A0G1"));
+        assertNull(HexCodec.decode("A0 1"));
+        // characters above 127, e.g. the Arabic-Indic digit one
+        assertNull(HexCodec.decode("A0\u06611"));
+        assertEquals(-1, HexCodec.charToNibble('g'));
+        assertEquals(-1, HexCodec.charToNibble('\u00E9'));
+        assertEquals(15, HexCodec.charToNibble('f'));
+        assertNull(Utils.hexStringToByteArray("FFFFFFFFFFF"));
+        assertNull(Utils.hexStringToByteArray("FFFFFFFFFFFX"));
+        assertNull(Utils.hexStringToByteArray(null));
+        assertArrayEquals(new byte[]{(byte) 0xFF, 0x00}, Utils.hexStringToByteArray("ff00"));
+    }
+}
@@ -0,0 +1,123 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the KeyCache and its usage by Classic, the tags are simulated by SimulatedMifareClassicCard.
+ */
+public class KeyCacheTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04A1B2C3D4E5F6");
+    private static final long PACKED_UID = Utils.uidToLong(UID);
+    private static final long WRONG_KEY = 0x112233445566L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void putAndGet() {
+        KeyCache keyCache = new KeyCache(10);
+        keyCache.put(PACKED_UID, 3, 0xA0A1A2A3A4A5L, Classic.KEY_TYPE_B);
+        assertEquals(0xA0A1A2A3A4A5L, keyCache.getKey(PACKED_UID, 3));
+        assertEquals(Classic.KEY_TYPE_B, keyCache.getKeyType(PACKED_UID, 3));
+        assertEquals(-1, keyCache.getKey(PACKED_UID, 4));
+        assertEquals("", keyCache.getKeyType(PACKED_UID, 4));
+        keyCache.remove(PACKED_UID, 3);
+        assertEquals(-1, keyCache.getKey(PACKED_UID, 3));
+    }
+
+    @Test
+    public void leastRecentlyUsedTagIsRemoved() {
+        KeyCache keyCache = new KeyCache(2);
+        keyCache.put(1, 0, 1, Classic.KEY_TYPE_A);
+        keyCache.put(2, 0, 2, Classic.KEY_TYPE_A);
+        keyCache.getKey(1, 0);
+        keyCache.put(3, 0, 3, Classic.KEY_TYPE_A);
+        assertEquals(2, keyCache.size());
+        assertEquals(1, keyCache.getKey(1, 0));
+        assertEquals(-1, keyCache.getKey(2, 0));
+        assertEquals(3, keyCache.getKey(3, 0));
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        KeyCache keyCache = new KeyCache(10);
+        keyCache.put(PACKED_UID, 0, 0xFFFFFFFFFFFFL, Classic.KEY_TYPE_A);
+        keyCache.put(PACKED_UID, 39, 0xD3F7D3F7D3F7L, Classic.KEY_TYPE_B);
+        keyCache.put(7, 1, 0, Classic.KEY_TYPE_A);
+        File file = new File(temporaryFolder.getRoot(), "key_cache.bin");
+        keyCache.save(file);
+
+        KeyCache loaded = new KeyCache(10);
+        loaded.load(file);
+        assertEquals(2, loaded.size());
+        assertEquals(0xFFFFFFFFFFFFL, loaded.getKey(PACKED_UID, 0));
+        assertEquals(Classic.KEY_TYPE_A, loaded.getKeyType(PACKED_UID, 0));
+        assertEquals(0xD3F7D3F7D3F7L, loaded.getKey(PACKED_UID, 39));
+        assertEquals(Classic.KEY_TYPE_B, loaded.getKeyType(PACKED_UID, 39));
+        assertEquals(0, loaded.getKey(7, 1));
+        assertEquals(-1, loaded.getKey(PACKED_UID, 1));
+    }
+
+    @Test
+    public void loadOfMissingFileKeepsTheCacheEmpty() throws IOException {
+        KeyCache keyCache = new KeyCache(10);
+        keyCache.load(new File(temporaryFolder.getRoot(), "missing.bin"));
+        assertEquals(0, keyCache.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void loadOfOtherFileFails() throws IOException {
+        File file = temporaryFolder.newFile("other.bin");
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        }
+        new KeyCache(10).load(file);
+    }
+
+    @Test
+    public void foundKeysAreCached() {
+        SimulatedMifareClassicCard card = SimulatedMifareClassicCard.create1K(UID);
+        KeyCache keyCache = new KeyCache(10);
+        Classic classic = new Classic(card);
+        classic.setKeyCache(keyCache);
+        assertEquals(card.getSectorCount(), classic.checkDefaultAuthentication());
+        for (int sectorIndex = 0; sectorIndex < card.getSectorCount(); sectorIndex++) {
+            assertEquals(0xFFFFFFFFFFFFL, keyCache.getKey(PACKED_UID, sectorIndex));
+        }
+    }
+
+    @Test
+    public void rejectedKeyIsRemoved() {
+        SimulatedMifareClassicCard card = SimulatedMifareClassicCard.create1K(UID);
+        KeyCache keyCache = new KeyCache(10);
+        keyCache.put(PACKED_UID, 0, WRONG_KEY, Classic.KEY_TYPE_A);
+        Classic classic = new Classic(card);
+        classic.setKeyDictionary(new KeyDictionary());
+        classic.setKeyCache(keyCache);
+        classic.checkDefaultAuthentication();
+        assertEquals(-1, keyCache.getKey(PACKED_UID, 0));
+    }
+
+    @Test
+    public void keyIsKeptWhenTheTagIsLost() {
+        SimulatedMifareClassicCard card = SimulatedMifareClassicCard.create1K(UID);
+        KeyCache keyCache = new KeyCache(10);
+        keyCache.put(PACKED_UID, 0, 0xFFFFFFFFFFFFL, Classic.KEY_TYPE_A);
+        Classic classic = new Classic(card);
+        classic.setKeyCache(keyCache);
+        card.setConnected(false);
+        assertEquals(0, classic.checkDefaultAuthentication());
+        assertEquals(Classic.ERROR_IOEXCEPTION, classic.getErrorCode());
+        assertEquals(0xFFFFFFFFFFFFL, keyCache.getKey(PACKED_UID, 0));
+        assertEquals(Classic.KEY_TYPE_A, keyCache.getKeyType(PACKED_UID, 0));
+    }
+}
@@ -0,0 +1,92 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the KeyDictionary: loading key files in MCT format, the deduplication and the order of the keys.
+ */
+public class KeyDictionaryTest {
+
+    @Test
+    public void loadKeyFile() throws IOException {
+        String keyFile = "# default keys\n"
+                + "FFFFFFFFFFFF\n"
+                + "\n"
+                + "  a0a1a2a3a4a5  # MAD key, lower case and indented\n"
+                + "D3F7D3F7D3F7\tNFC Forum\n"
+                + "FFFFFFFFFFFF\n" // a duplicate
+                + "FFFFFFFFFF\n" // too short
+                + "FFFFFFFFFFFFFF\n" // too long
+                + "FFFFFFFFFFGG\n" // no hex
+                + "#A0B0C0D0E0F0\n"
+                + "A0B0C0D0E0F0#comment";
+        KeyDictionary keyDictionary = new KeyDictionary();
+        assertEquals(4, keyDictionary.load(new StringReader(keyFile)));
+        assertEquals(4, keyDictionary.size());
+        assertEquals(0xFFFFFFFFFFFFL, keyDictionary.getKey(0));
+        assertEquals(0xA0A1A2A3A4A5L, keyDictionary.getKey(1));
+        assertEquals(0xD3F7D3F7D3F7L, keyDictionary.getKey(2));
+        assertEquals(0xA0B0C0D0E0F0L, keyDictionary.getKey(3));
+        // the keys that are known already are not counted
+        assertEquals(1, keyDictionary.load(new ByteArrayInputStream(
+                "A0A1A2A3A4A5\n000000000000\n".getBytes(StandardCharsets.UTF_8))));
+        assertEquals(4, keyDictionary.indexOf(0));
+    }
+
+    @Test
+    public void defaultKeys() {
+        KeyDictionary keyDictionary = KeyDictionary.createDefault();
+        assertEquals(3, keyDictionary.size());
+        assertEquals("MIFARE_DEFAULT_KEY", keyDictionary.getKeyName(0));
+        assertEquals("MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY", keyDictionary.getKeyName(1));
+        assertEquals("MIFARE_DEFAULT_KEY_NFC_FORUM", keyDictionary.getKeyName(2));
+        assertFalse(keyDictionary.add(Classic.MIFARE_DEFAULT_KEY));
+        assertTrue(keyDictionary.add(Utils.hexStringToByteArray("B0B1B2B3B4B5")));
+        assertEquals("KEY_DICTIONARY_3", keyDictionary.getKeyName(3));
+        assertFalse(keyDictionary.add(new byte[5]));
+        assertFalse(keyDictionary.add((byte[]) null));
+    }
+
+    @Test
+    public void manyKeysKeepTheirOrder() {
+        KeyDictionary keyDictionary = new KeyDictionary();
+        int numberOfKeys = 10000;
+        for (int i = 0; i < numberOfKeys; i++) {
+            assertTrue(keyDictionary.add(i * 0x10000000001L));
+        }
+        for (int i = 0; i < numberOfKeys; i++) {
+            assertFalse(keyDictionary.add(i * 0x10000000001L));
+            assertEquals(i, keyDictionary.indexOf(i * 0x10000000001L));
+            assertEquals((i * 0x10000000001L) & KeyDictionary.KEY_MASK, keyDictionary.getKey(i));
+        }
+        assertEquals(numberOfKeys, keyDictionary.size());
+        assertEquals(-1, keyDictionary.indexOf(0xFFFFFFFFFFFEL));
+        assertFalse(keyDictionary.contains(0xFFFFFFFFFFFEL));
+    }
+
+    @Test
+    public void keyConversion() {
+        byte[] key = Utils.hexStringToByteArray("A0A1A2A3A4A5");
+        assertEquals(0xA0A1A2A3A4A5L, KeyDictionary.bytesToKey(key));
+        assertArrayEquals(key, KeyDictionary.keyToBytes(0xA0A1A2A3A4A5L));
+        KeyDictionary keyDictionary = new KeyDictionary();
+        // only the lower 48 bits are a key
+        keyDictionary.add(0x7FFFA0A1A2A3A4A5L);
+        byte[] destination = new byte[KeyDictionary.KEY_LENGTH];
+        keyDictionary.getKey(0, destination);
+        assertArrayEquals(key, destination);
+        assertTrue(keyDictionary.contains(0xA0A1A2A3A4A5L));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void indexOutOfBounds() {
+        KeyDictionary.createDefault().getKey(3);
+    }
+}
@@ -0,0 +1,61 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the LongLongHashMap, the map is compared with a HashMap.
+ */
+public class LongLongHashMapTest {
+
+    @Test
+    public void putGetAndRemove() {
+        LongLongHashMap map = new LongLongHashMap();
+        map.put(0, 10);
+        map.put(1, 11);
+        map.put(-1, 12);
+        assertEquals(3, map.size());
+        assertEquals(10, map.get(0, -5));
+        assertEquals(12, map.get(-1, -5));
+        assertEquals(-5, map.get(2, -5));
+        map.remove(0);
+        map.remove(1);
+        map.remove(2);
+        assertEquals(1, map.size());
+        assertFalse(map.containsKey(0));
+        assertFalse(map.containsKey(1));
+        assertEquals(12, map.get(-1, -5));
+    }
+
+    @Test
+    public void randomOperations() {
+        Random random = new Random(42);
+        LongLongHashMap map = new LongLongHashMap(4);
+        Map<Long, Long> expected = new HashMap<>();
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) keys.add(random.nextLong() % 5000);
+        for (int operation = 0; operation < 50000; operation++) {
+            long key = keys.get(random.nextInt(keys.size()));
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, operation);
+                expected.put(key, (long) operation);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key : keys) {
+            Long value = expected.get(key);
+            assertEquals(value != null, map.containsKey(key));
+            assertEquals((value == null) ? -1 : value, map.get(key, -1));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the SectorDumpWriter, the text format is compared with the dump() of SectorMcModel that was used
+ * before (copied to dumpBefore). The access condition descriptions are empty as there are no Android resources.
+ */
+public class SectorDumpWriterTest {
+
+    private static final byte[] UID = Utils.hexStringToByteArray("04A1B2C3D4E5F6");
+    private static final byte[] KEY_A = Utils.hexStringToByteArray("FFFFFFFFFFFF");
+    private static final String BLOCK_4 = "54616c6b20746f20796f757220746167"; // "Talk to your tag"
+    private static final String BLOCK_5 = "4d494641524520436c61737369632031"; // "MIFARE Classic 1"
+    private static final String BLOCK_6 = "4b20736563746f7220312064756d702e"; // "K sector 1 dump."
+    private static final String TRAILER = "000000000000ff078069ffffffffffff";
+
+    @Test
+    public void textDump() {
+        String expected = "MifareClassic sector: 01\n"
+                + "isSector0: false\n"
+                + "isReadableSector: true\n"
+                + "sectorRead length: 64 data: " + BLOCK_4 + BLOCK_5 + BLOCK_6 + TRAILER + "\n"
+                + "uidData is NULL\n"
+                + "blockData length: 48 data: " + BLOCK_4 + BLOCK_5 + BLOCK_6 + "\n"
+                + "blockData UTF-8: Talk to your tagMIFARE Classic 1K sector 1 dump.\n"
+                + "accessBlock length: 16 data: " + TRAILER + "\n"
+                + "keyA length: 6 data: ffffffffffff\n"
+                + "accessBits: 4 data: ff078069\n"
+                + "unusedByte: 1 data: 69\n"
+                + "keyB length: 6 data: 000000000000\n"
+                + "=======================\n"
+                + "== Access Conditions ==\n"
+                + "accessBytes: ff0780\n"
+                + "-----------------------\n"
+                + "block 0: \n\n"
+                + "-----------------------\n"
+                + "block 1: \n\n"
+                + "-----------------------\n"
+                + "block 2: \n\n"
+                + "-----------------------\n"
+                + "block 3: \n\n"
+                + "=======================\n";
+        SectorMcModel sectorMc = new SectorMcModel(createCardImage(), 1);
+        assertEquals(expected, sectorMc.dump());
+        assertEquals(expected, dumpBefore(sectorMc));
+    }
+
+    @Test
+    public void textDumpMatchesTheDumpBefore() throws IOException {
+        CardImage cardImage = new CardImage(CardImage.SIZE_4K);
+        new Random(1).nextBytes(cardImage.getData());
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            // every third sector is not read, the others are read with key A or key B
+            if ((sectorIndex % 3) == 2) continue;
+            cardImage.setSectorRead(sectorIndex, true);
+            cardImage.setSectorKey(sectorIndex, ((sectorIndex % 3) == 0) ? Classic.KEY_TYPE_A : Classic.KEY_TYPE_B, KEY_A);
+        }
+        StringBuilder sb = new StringBuilder();
+        SectorDumpWriter dumpWriter = new SectorDumpWriter(sb, SectorDumpWriter.FORMAT_TEXT);
+        StringBuilder expected = new StringBuilder();
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            SectorMcModel sectorMc = new SectorMcModel(cardImage, sectorIndex);
+            assertEquals(dumpBefore(sectorMc), sectorMc.dump());
+            dumpWriter.writeSector(sectorMc);
+            expected.append(dumpBefore(sectorMc));
+        }
+        assertEquals(expected.toString(), sb.toString());
+        // a model of the data of one sector
+        byte[] sectorRead = cardImage.copySector(0);
+        SectorMcModel sectorMc = new SectorMcModel(0, sectorRead, Classic.KEY_TYPE_A, KEY_A);
+        assertEquals(dumpBefore(sectorMc), sectorMc.dump());
+    }
+
+    @Test
+    public void textDumpWithoutUtf8() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        SectorDumpWriter dumpWriter = new SectorDumpWriter(sb, SectorDumpWriter.FORMAT_TEXT);
+        dumpWriter.setDecodeUtf8(false);
+        dumpWriter.writeSector(new SectorMcModel(createCardImage(), 1));
+        assertFalse(sb.toString().contains("blockData UTF-8"));
+        assertTrue(sb.toString().contains("blockData length: 48 data: " + BLOCK_4 + BLOCK_5 + BLOCK_6 + "\n"));
+    }
+
+    @Test
+    public void jsonDump() throws IOException {
+        String expected = "{\"uid\":\"04a1b2c3d4e5f6\",\"size\":320,\"sectors\":["
+                + "{\"sector\":0,\"read\":false},"
+                + "{\"sector\":1,\"read\":true,\"keyType\":\"A\",\"key\":\"ffffffffffff\",\"accessBits\":\"ff078069\","
+                + "\"accessConditions\":[0,0,0,1],"
+                + "\"blocks\":[\"" + BLOCK_4 + "\",\"" + BLOCK_5 + "\",\"" + BLOCK_6 + "\",\"" + TRAILER + "\"]},"
+                + "{\"sector\":2,\"read\":true,\"accessBits\":\"00000000\",\"accessConditions\":null,"
+                + "\"blocks\":[\"" + zeros(16) + "\",\"" + zeros(16) + "\",\"" + zeros(16) + "\",\"" + zeros(16) + "\"]},"
+                + "{\"sector\":3,\"read\":false},"
+                + "{\"sector\":4,\"read\":false}]}\n";
+        CardImage cardImage = createCardImage();
+        // read without a key and with invalid access bits
+        cardImage.setSectorRead(2, true);
+        StringBuilder sb = new StringBuilder();
+        new SectorDumpWriter(sb, SectorDumpWriter.FORMAT_JSON).writeCard(cardImage, UID);
+        assertEquals(expected, sb.toString());
+        // the same dump UTF-8 encoded to a stream
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (SectorDumpWriter dumpWriter = new SectorDumpWriter(outputStream, SectorDumpWriter.FORMAT_JSON)) {
+            dumpWriter.beginCard(UID, cardImage.getSize());
+            for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+                dumpWriter.writeSector(new SectorMcModel(cardImage, sectorIndex));
+            }
+            // the card is ended by close
+        }
+        assertEquals(expected, new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void jsonDumpWithUnreadableBlocks() throws IOException {
+        CardImage cardImage = createCardImage();
+        cardImage.setBlockUnreadable(5, true);
+        cardImage.setBlockUnreadable(6, true);
+        StringBuilder sb = new StringBuilder();
+        new SectorDumpWriter(sb, SectorDumpWriter.FORMAT_JSON).writeSector(new SectorMcModel(cardImage, 1));
+        assertEquals("{\"sector\":1,\"read\":true,\"keyType\":\"A\",\"key\":\"ffffffffffff\",\"accessBits\":\"ff078069\","
+                + "\"accessConditions\":[0,0,0,1],\"blocks\":[\"" + BLOCK_4 + "\",null,null,\"" + TRAILER + "\"]}", sb.toString());
+        // a model of the data of one sector has no unreadable blocks
+        sb.setLength(0);
+        new SectorDumpWriter(sb, SectorDumpWriter.FORMAT_JSON).writeSector(new SectorMcModel(1, cardImage.copySector(1), Classic.KEY_TYPE_A, KEY_A));
+        assertTrue(sb.toString().contains("\"blocks\":[\"" + BLOCK_4 + "\",\"" + BLOCK_5 + "\",\"" + BLOCK_6 + "\",\"" + TRAILER + "\"]"));
+        // the text format dumps the data of the unreadable blocks
+        assertTrue(new SectorMcModel(cardImage, 1).dump().contains("blockData length: 48 data: " + BLOCK_4 + BLOCK_5 + BLOCK_6 + "\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFormat() {
+        new SectorDumpWriter(new StringBuilder(), 2);
+    }
+
+    // a Classic mini image, sector 1 is read with key A and has the transport access conditions
+    private static CardImage createCardImage() {
+        CardImage cardImage = new CardImage(CardImage.SIZE_MINI);
+        cardImage.setSector(1, Utils.hexStringToByteArray(BLOCK_4 + BLOCK_5 + BLOCK_6 + TRAILER));
+        cardImage.setSectorRead(1, true);
+        cardImage.setSectorKey(1, Classic.KEY_TYPE_A, KEY_A);
+        return cardImage;
+    }
+
+    private static String zeros(int numberOfBytes) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numberOfBytes; i++) sb.append("00");
+        return sb.toString();
+    }
+
+    // the dump() of SectorMcModel before the SectorDumpWriter
+    private static String dumpBefore(SectorMcModel sectorMc) {
+        byte[] sectorRead = sectorMc.getSectorRead();
+        byte[] uidData = sectorMc.getUidData();
+        byte[] blockData = sectorMc.getBlockData();
+        byte[] accessBlock = sectorMc.getAccessBlock();
+        byte[] keyA = sectorMc.getKeyA();
+        byte[] accessBits = sectorMc.getAccessBits();
+        byte[] unusedByte = sectorMc.getUnusedByte();
+        byte[] keyB = sectorMc.getKeyB();
+        byte[] accessByte = sectorMc.getAccessByte();
+        String[] accessConditionsString = sectorMc.getAccessConditionsString();
+        StringBuilder sb = new StringBuilder();
+        sb.append("MifareClassic sector: ").append(String.format("%02d", sectorMc.getSectorNumber())).append("\n");
+        sb.append("isSector0: ").append(sectorMc.isSector0()).append("\n");
+        sb.append("isReadableSector: ").append(sectorMc.isReadableSector()).append("\n");
+        if (sectorRead != null) {
+            HexCodec.encode(sectorRead, sb.append("sectorRead length: ").append(sectorRead.length).append(" data: ")).append("\n");
+        } else {
+            sb.append("sectorRead is NULL").append("\n");
+        }
+        if (uidData != null) {
+            HexCodec.encode(uidData, sb.append("uidData length: ").append(uidData.length).append(" data: ")).append("\n");
+        } else {
+            sb.append("uidData is NULL").append("\n");
+        }
+        if (blockData != null) {
+            HexCodec.encode(blockData, sb.append("blockData length: ").append(blockData.length).append(" data: ")).append("\n");
+            sb.append("blockData UTF-8: " + new String(blockData, StandardCharsets.UTF_8)).append("\n");
+        } else {
+            sb.append("blockData is NULL").append("\n");
+        }
+        if (accessBlock != null) {
+            HexCodec.encode(accessBlock, sb.append("accessBlock length: ").append(accessBlock.length).append(" data: ")).append("\n");
+        } else {
+            sb.append("accessBlock is NULL").append("\n");
+        }
+        if (keyA != null) {
+            HexCodec.encode(keyA, sb.append("keyA length: ").append(keyA.length).append(" data: ")).append("\n");
+        } else {
+            sb.append("keyA is NULL").append("\n");
+        }
+        if (accessBits != null) {
+            HexCodec.encode(accessBits, sb.append("accessBits: ").append(accessBits.length).append(" data: ")).append("\n");
+        } else {
+            sb.append("accessBits is NULL").append("\n");
+        }
+        if (unusedByte != null) {
+            HexCodec.encode(unusedByte, sb.append("unusedByte: ").append(unusedByte.length).append(" data: ")).append("\n");
+        } else {
+            sb.append("unusedByte is NULL").append("\n");
+        }
+        if (keyB != null) {
+            HexCodec.encode(keyB, sb.append("keyB length: ").append(keyB.length).append(" data: ")).append("\n");
+        } else {
+            sb.append("keyB is NULL").append("\n");
+        }
+        // add access conditions string
+        sb.append("=======================").append("\n");
+        sb.append("== Access Conditions ==").append("\n");
+        HexCodec.encode(accessByte, sb.append("accessBytes: ")).append("\n");
+        sb.append("-----------------------").append("\n");
+        for (int blockIndex = 0; (accessConditionsString != null) && (blockIndex < 4); blockIndex++) {
+            sb.append("block ").append(blockIndex).append(": ").append("\n").append(accessConditionsString[blockIndex]).append("\n");
+            if (blockIndex < 3) sb.append("-----------------------").append("\n");
+        }
+        sb.append("=======================").append("\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package de.androidcrypto.talktoyourmifareclassiccard;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the SessionTracer: the wraparound of the ring buffer and the export in the Chrome trace event format.
+ */
+public class SessionTracerTest {
+
+    private static final String[] NAMES = {"span0", "span1", "span2", "span3", "span4", "span5"};
+
+    @Test
+    public void capacityIsRoundedUp() {
+        assertEquals(8, new SessionTracer(5).getCapacity());
+        assertEquals(8, new SessionTracer(8).getCapacity());
+        assertEquals(1, new SessionTracer(1).getCapacity());
+    }
+
+    @Test
+    public void oldestSpansAreOverwritten() throws IOException {
+        SessionTracer tracer = new SessionTracer(4);
+        for (int i = 0; i < NAMES.length; i++) {
+            tracer.end(SessionTracer.CATEGORY_RF, NAMES[i], i, tracer.begin());
+        }
+        assertEquals(4, tracer.size());
+        String trace = writeChromeTrace(tracer);
+        assertFalse(trace.contains("\"span0\""));
+        assertFalse(trace.contains("\"span1\""));
+        // oldest first
+        int previousIndex = -1;
+        for (int i = 2; i < NAMES.length; i++) {
+            int index = trace.indexOf("{\"name\":\"" + NAMES[i] + "\",\"cat\":\"rf\",\"ph\":\"X\"");
+            assertTrue(index > previousIndex);
+            assertTrue(trace.indexOf("\"args\":{\"arg\":" + i + "}", index) > index);
+            previousIndex = index;
+        }
+        tracer.clear();
+        assertEquals(0, tracer.size());
+        assertFalse(writeChromeTrace(tracer).contains("span"));
+    }
+
+    @Test
+    public void namesAreEscaped() throws Exception {
+        SessionTracer tracer = new SessionTracer(4);
+        Thread thread = new Thread(() -> tracer.end(SessionTracer.CATEGORY_UI, "a\"b\\c\nd", tracer.begin()), "thread \"1\"");
+        thread.start();
+        thread.join();
+        String trace = writeChromeTrace(tracer);
+        assertTrue(trace.contains("\"name\":\"a\\\"b\\\\c d\""));
+        assertTrue(trace.contains("\"args\":{\"name\":\"thread \\\"1\\\"\"}"));
+        // no argument
+        assertFalse(trace.contains("\"arg\":"));
+        assertTrue(trace.startsWith("{\"traceEvents\":["));
+        assertTrue(trace.endsWith("],\"displayTimeUnit\":\"ms\"}\n"));
+    }
+
+    @Test
+    public void disabledTracerDoesNotRecord() {
+        SessionTracer tracer = new SessionTracer(4);
+        tracer.setEnabled(false);
+        tracer.end(SessionTracer.CATEGORY_RF, NAMES[0], tracer.begin());
+        assertEquals(0, tracer.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityNeedsToBePositive() {
+        new SessionTracer(0);
+    }
+
+    private static String writeChromeTrace(SessionTracer tracer) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        tracer.writeChromeTrace(sb);
+        return sb.toString();
+    }
+}
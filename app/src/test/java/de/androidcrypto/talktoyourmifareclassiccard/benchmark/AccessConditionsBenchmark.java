@@ -0,0 +1,84 @@
+package de.androidcrypto.talktoyourmifareclassiccard.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import de.androidcrypto.talktoyourmifareclassiccard.AccessConditionCodec;
+import de.androidcrypto.talktoyourmifareclassiccard.AccessConditionTool;
+import de.androidcrypto.talktoyourmifareclassiccard.Utils;
+
+/**
+ * Benchmarks for decoding and encoding the access conditions of a sector trailer.
+ * Each operation works on a set of typical access bytes (transport configuration, NFC Forum, key B only)
+ * and one invalid set.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessConditionsBenchmark {
+
+    private byte[][] acBytes;
+    private byte[][][] acMatrices;
+    private int[] packedConditions;
+
+    @Setup
+    public void setup() {
+        acBytes = new byte[][]{
+                Utils.hexStringToByteArray("FF0780"), // transport configuration
+                Utils.hexStringToByteArray("7F0788"), // NFC Forum
+                Utils.hexStringToByteArray("0F00FF"), // C2 and C3 set for all blocks
+                Utils.hexStringToByteArray("FF0000") // invalid
+        };
+        acMatrices = new byte[acBytes.length][][];
+        packedConditions = new int[acBytes.length];
+        for (int i = 0; i < acBytes.length; i++) {
+            acMatrices[i] = AccessConditionTool.acBytesToACMatrix(acBytes[i]);
+            packedConditions[i] = AccessConditionCodec.decode(acBytes[i]);
+        }
+    }
+
+    @Benchmark
+    public void acBytesToACMatrix(Blackhole blackhole) {
+        for (byte[] bytes : acBytes) {
+            blackhole.consume(AccessConditionTool.acBytesToACMatrix(bytes));
+        }
+    }
+
+    @Benchmark
+    public void acMatrixToACBytes(Blackhole blackhole) {
+        for (byte[][] acMatrix : acMatrices) {
+            blackhole.consume(AccessConditionTool.acMatrixToACBytes(acMatrix));
+        }
+    }
+
+    @Benchmark
+    public void codecDecode(Blackhole blackhole) {
+        for (byte[] bytes : acBytes) {
+            blackhole.consume(AccessConditionCodec.decode(bytes, 0));
+        }
+    }
+
+    @Benchmark
+    public void codecDescriptionIndex(Blackhole blackhole) {
+        for (int packed : packedConditions) {
+            for (int blockIndex = 0; blockIndex < 4; blockIndex++) {
+                blackhole.consume(AccessConditionCodec.getDescriptionIndex(packed, blockIndex));
+            }
+        }
+    }
+}
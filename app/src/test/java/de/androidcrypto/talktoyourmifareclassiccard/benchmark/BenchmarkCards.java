@@ -0,0 +1,50 @@
+package de.androidcrypto.talktoyourmifareclassiccard.benchmark;
+
+import java.util.Random;
+
+import de.androidcrypto.talktoyourmifareclassiccard.CardImage;
+import de.androidcrypto.talktoyourmifareclassiccard.Classic;
+import de.androidcrypto.talktoyourmifareclassiccard.SimulatedMifareClassicCard;
+import de.androidcrypto.talktoyourmifareclassiccard.Utils;
+
+/**
+ * creates the simulated tags used by the benchmarks, the data blocks are filled with random data
+ */
+
+class BenchmarkCards {
+
+    static final byte[] UID = Utils.hexStringToByteArray("04A1B2C3D4E5F6");
+
+    static SimulatedMifareClassicCard createCard(int size, long seed) {
+        SimulatedMifareClassicCard card = new SimulatedMifareClassicCard(size, UID);
+        Random random = new Random(seed);
+        byte[] block = new byte[16];
+        for (int sectorIndex = 0; sectorIndex < card.getSectorCount(); sectorIndex++) {
+            int firstBlock = card.sectorToBlock(sectorIndex);
+            int blocksInSector = card.getBlockCountInSector(sectorIndex);
+            // skip the manufacturer block and the sector trailer
+            for (int blockIndex = (sectorIndex == 0) ? 1 : 0; blockIndex < blocksInSector - 1; blockIndex++) {
+                random.nextBytes(block);
+                card.setBlock(firstBlock + blockIndex, block);
+            }
+        }
+        return card;
+    }
+
+    /**
+     * reads the complete card with the default keys
+     */
+    static CardImage readCard(SimulatedMifareClassicCard card) {
+        Classic classic = new Classic(card);
+        classic.checkDefaultAuthentication();
+        byte[][] keys = classic.getAuthenticationKeyMatrix();
+        String[] keyTypes = classic.getAuthenticationKeyTypeMatrix();
+        CardImage cardImage = new CardImage(card.getSize());
+        for (int sectorIndex = 0; sectorIndex < card.getSectorCount(); sectorIndex++) {
+            if (!classic.readSector(sectorIndex, keys[sectorIndex], keyTypes[sectorIndex], cardImage)) {
+                throw new IllegalStateException("could not read sector " + sectorIndex + ": " + classic.getErrorCodeReason());
+            }
+        }
+        return cardImage;
+    }
+}
@@ -0,0 +1,93 @@
+package de.androidcrypto.talktoyourmifareclassiccard.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import de.androidcrypto.talktoyourmifareclassiccard.CardImage;
+import de.androidcrypto.talktoyourmifareclassiccard.Classic;
+import de.androidcrypto.talktoyourmifareclassiccard.KeyCache;
+import de.androidcrypto.talktoyourmifareclassiccard.KeyDictionary;
+import de.androidcrypto.talktoyourmifareclassiccard.SimulatedMifareClassicCard;
+import de.androidcrypto.talktoyourmifareclassiccard.Utils;
+
+/**
+ * Benchmarks for a complete read of a simulated 4K tag through Classic: the key search
+ * (checkDefaultAuthentication) and the read of all 40 sectors into a CardImage.
+ * The simulated card has no latency, so the numbers show the costs on the app side only.
+ * The default keys are the last keys in the dictionary, numberOfDictionaryKeys - 3 keys are tried before.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardReadBenchmark {
+
+    @Param({"3", "1000"})
+    public int numberOfDictionaryKeys;
+
+    private SimulatedMifareClassicCard card;
+    private KeyDictionary keyDictionary;
+    private KeyCache keyCache;
+
+    @Setup
+    public void setup() {
+        card = BenchmarkCards.createCard(CardImage.SIZE_4K, 42);
+        keyDictionary = new KeyDictionary();
+        Random random = new Random(42);
+        while (keyDictionary.size() < numberOfDictionaryKeys - 3) {
+            keyDictionary.add(random.nextLong());
+        }
+        keyDictionary.add(Classic.MIFARE_DEFAULT_KEY);
+        keyDictionary.add(Classic.MIFARE_DEFAULT_KEY_APPLICATION_DIRECTORY);
+        keyDictionary.add(Classic.MIFARE_DEFAULT_KEY_NFC_FORUM);
+        // the cache knows all keys of the card
+        keyCache = new KeyCache(10);
+        Classic classic = new Classic(card);
+        classic.setKeyDictionary(keyDictionary);
+        classic.setKeyCache(keyCache);
+        readCard(classic);
+    }
+
+    @Benchmark
+    public CardImage readWithKeySearch() {
+        Classic classic = new Classic(card);
+        classic.setKeyDictionary(keyDictionary);
+        return readCard(classic);
+    }
+
+    @Benchmark
+    public CardImage readWithKeyCache() {
+        Classic classic = new Classic(card);
+        classic.setKeyDictionary(keyDictionary);
+        classic.setKeyCache(keyCache);
+        return readCard(classic);
+    }
+
+    private CardImage readCard(Classic classic) {
+        classic.checkDefaultAuthentication();
+        byte[][] keys = classic.getAuthenticationKeyMatrix();
+        String[] keyTypes = classic.getAuthenticationKeyTypeMatrix();
+        CardImage cardImage = new CardImage(card.getSize());
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            if (!classic.readSector(sectorIndex, keys[sectorIndex], keyTypes[sectorIndex], cardImage)) {
+                throw new IllegalStateException("could not read sector " + sectorIndex + ": " + Utils.bytesToHexNpe(keys[sectorIndex]));
+            }
+        }
+        return cardImage;
+    }
+}
@@ -0,0 +1,68 @@
+package de.androidcrypto.talktoyourmifareclassiccard.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import de.androidcrypto.talktoyourmifareclassiccard.CardImage;
+import de.androidcrypto.talktoyourmifareclassiccard.Classic;
+import de.androidcrypto.talktoyourmifareclassiccard.SimulatedMifareClassicCard;
+
+/**
+ * Benchmarks for reading all sectors of a simulated 4K tag (256 blocks) with the readBlock of the transport
+ * (the MifareClassic API) and with the raw READ command by transceive. The keys are searched in the setup.
+ * The readLatencyNanos simulate the time of the tag for each command, 0 shows the costs on the app side only.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RawReadBenchmark {
+
+    @Param({"false", "true"})
+    public boolean rawRead;
+
+    @Param({"0", "5000"})
+    public long readLatencyNanos;
+
+    private SimulatedMifareClassicCard card;
+    private Classic classic;
+    private byte[][] keys;
+    private String[] keyTypes;
+    private CardImage cardImage;
+
+    @Setup
+    public void setup() {
+        card = BenchmarkCards.createCard(CardImage.SIZE_4K, 42);
+        classic = new Classic(card);
+        classic.checkDefaultAuthentication();
+        keys = classic.getAuthenticationKeyMatrix();
+        keyTypes = classic.getAuthenticationKeyTypeMatrix();
+        classic.setRawRead(rawRead);
+        card.setLatencyNanos(0, readLatencyNanos);
+        cardImage = new CardImage(card.getSize());
+    }
+
+    @Benchmark
+    public CardImage readAllSectors() {
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            if (!classic.readSector(sectorIndex, keys[sectorIndex], keyTypes[sectorIndex], cardImage)) {
+                throw new IllegalStateException("could not read sector " + sectorIndex + ": " + classic.getErrorCodeReason());
+            }
+        }
+        return cardImage;
+    }
+}
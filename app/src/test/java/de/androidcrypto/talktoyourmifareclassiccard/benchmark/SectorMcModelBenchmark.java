@@ -0,0 +1,99 @@
+package de.androidcrypto.talktoyourmifareclassiccard.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import de.androidcrypto.talktoyourmifareclassiccard.CardImage;
+import de.androidcrypto.talktoyourmifareclassiccard.Classic;
+import de.androidcrypto.talktoyourmifareclassiccard.SectorDumpWriter;
+import de.androidcrypto.talktoyourmifareclassiccard.SectorMcModel;
+
+/**
+ * Benchmarks for building the SectorMcModel of all sectors of a 4K tag and for the dump of the sectors,
+ * with dump() and with a SectorDumpWriter on a reused StringBuilder.
+ * Note: AccessConditions.context is not set on the host JVM, so the access condition descriptions are empty.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SectorMcModelBenchmark {
+
+    private CardImage cardImage;
+    private byte[][] sectorReads; // the data of each sector in an own array
+    private byte[] key;
+    private SectorMcModel[] sectorMcs;
+    private StringBuilder sb;
+
+    @Setup
+    public void setup() {
+        cardImage = BenchmarkCards.readCard(BenchmarkCards.createCard(CardImage.SIZE_4K, 42));
+        sectorReads = new byte[cardImage.getSectorCount()][];
+        sectorMcs = new SectorMcModel[cardImage.getSectorCount()];
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            sectorReads[sectorIndex] = cardImage.copySector(sectorIndex);
+            sectorMcs[sectorIndex] = new SectorMcModel(cardImage, sectorIndex);
+        }
+        key = Classic.MIFARE_DEFAULT_KEY.clone();
+        sb = new StringBuilder(64 * 1024);
+    }
+
+    @Benchmark
+    public void constructFromSectorRead(Blackhole blackhole) {
+        for (int sectorIndex = 0; sectorIndex < sectorReads.length; sectorIndex++) {
+            blackhole.consume(new SectorMcModel(sectorIndex, sectorReads[sectorIndex], Classic.KEY_TYPE_A, key));
+        }
+    }
+
+    @Benchmark
+    public void constructFromCardImage(Blackhole blackhole) {
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            blackhole.consume(new SectorMcModel(cardImage, sectorIndex));
+        }
+    }
+
+    @Benchmark
+    public void constructAndGetDataBlocks(Blackhole blackhole) {
+        for (int sectorIndex = 0; sectorIndex < cardImage.getSectorCount(); sectorIndex++) {
+            blackhole.consume(new SectorMcModel(cardImage, sectorIndex).getDataBlockList());
+        }
+    }
+
+    @Benchmark
+    public void dump(Blackhole blackhole) {
+        for (SectorMcModel sectorMc : sectorMcs) {
+            blackhole.consume(sectorMc.dump());
+        }
+    }
+
+    @Benchmark
+    public int dumpWriterText() throws IOException {
+        sb.setLength(0);
+        SectorDumpWriter dumpWriter = new SectorDumpWriter(sb, SectorDumpWriter.FORMAT_TEXT);
+        dumpWriter.setDecodeUtf8(false);
+        dumpWriter.writeCard(cardImage, null);
+        return sb.length();
+    }
+
+    @Benchmark
+    public int dumpWriterJson() throws IOException {
+        sb.setLength(0);
+        new SectorDumpWriter(sb, SectorDumpWriter.FORMAT_JSON).writeCard(cardImage, null);
+        return sb.length();
+    }
+}
@@ -0,0 +1,77 @@
+package de.androidcrypto.talktoyourmifareclassiccard.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import de.androidcrypto.talktoyourmifareclassiccard.HexCodec;
+import de.androidcrypto.talktoyourmifareclassiccard.Utils;
+
+/**
+ * Benchmarks for the hex conversion and the splitting of data in Utils and for the HexCodec with reused targets.
+ * The size is the length of the byte array: a block (16), a 1K tag (1024) and a 4K tag (4096).
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilsBenchmark {
+
+    @Param({"16", "1024", "4096"})
+    public int size;
+
+    private byte[] data;
+    private String hexString;
+    private StringBuilder sb;
+    private byte[] decoded;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        hexString = Utils.bytesToHexNpe(data);
+        sb = new StringBuilder(size * 2);
+        decoded = new byte[size];
+    }
+
+    @Benchmark
+    public String bytesToHexNpe() {
+        return Utils.bytesToHexNpe(data);
+    }
+
+    @Benchmark
+    public byte[] hexStringToByteArray() {
+        return Utils.hexStringToByteArray(hexString);
+    }
+
+    @Benchmark
+    public List<byte[]> divideArrayToList() {
+        return Utils.divideArrayToList(data, 16);
+    }
+
+    @Benchmark
+    public int hexCodecEncodeToStringBuilder() {
+        sb.setLength(0);
+        return HexCodec.encode(data, 0, data.length, sb, false).length();
+    }
+
+    @Benchmark
+    public int hexCodecDecodeToArray() {
+        return HexCodec.decode(hexString, 0, hexString.length(), decoded, 0);
+    }
+}